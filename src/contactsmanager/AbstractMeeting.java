@@ -3,22 +3,24 @@ package contactsmanager;
 import static contactsmanager.util.CalendarUtil.getCalendarString;
 
 import java.util.Calendar;
-import java.util.HashSet;
 import java.util.Set;
 
 /**
  * An abstract implementation of Meeting.  FutureMeetingImpl and PastMeetingImpl
  * derive functionality from this.
+ *
+ * Contacts are stored compactly as an AttendeeSet (sorted by id), which 'getContacts'
+ * hands out without copying until the caller modifies it.
  */
 abstract public class AbstractMeeting implements Meeting {
     private final int id;
     private final Calendar date;
-    private final Set<Contact> contacts;
+    private final AttendeeSet contacts;
 
     public AbstractMeeting(Integer id, Calendar date, Set<Contact> contacts) {
         this.id = id;
         this.date = (Calendar) date.clone();
-        this.contacts = new HashSet<Contact>(contacts);
+        this.contacts = new AttendeeSet(contacts);
     }
 
     @Override
@@ -33,7 +35,7 @@ abstract public class AbstractMeeting implements Meeting {
 
     @Override
     public Set<Contact> getContacts() {
-        return new HashSet<Contact>(contacts);
+        return contacts.copyOnWrite();
     }
 
     @Override
@@ -45,8 +47,8 @@ abstract public class AbstractMeeting implements Meeting {
         AbstractMeeting that = (AbstractMeeting) o;
 
         if (this.getId() != that.getId()) return false;
-        if (!this.getContacts().equals(that.getContacts())) return false;
-        if (!this.getDate().equals(that.getDate())) return false;
+        if (!this.contacts.equals(that.contacts)) return false;
+        if (!this.date.equals(that.date)) return false;
 
         return true;
     }
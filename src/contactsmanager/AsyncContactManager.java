@@ -0,0 +1,477 @@
+package contactsmanager;
+
+import contactsmanager.util.DaemonThreadFactory;
+import contactsmanager.util.ListenableFuture;
+import contactsmanager.util.SettableFuture;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An asynchronous facade over a ContactManager: each of its methods returns at once with a
+ * Future, and the call is made on another thread.  The Futures are ListenableFutures, so work can
+ * be chained on a call's result by adding a listener, rather than by blocking in 'get'.
+ *
+ * Reads run on a pool of threads (which may be given, or else has one thread per processor),
+ * concurrently with each other.  Writes run in the order they were made, one at a time, on a
+ * single writer thread, and each has the manager to itself while it runs.  So every call takes
+ * effect at a single point between being made and its Future completing, and a read made after
+ * a write's Future has completed sees that write.  'flush' is queued with the writes (so it
+ * saves every write made before it), but runs alongside reads.
+ *
+ * As reads run concurrently, the manager must support concurrent reads when there are no
+ * concurrent writes.  ContactManagerImpl does (a read that may have to load meetings takes the
+ * manager's own lock and runs alone); ShardedContactManager shouldn't be used here.
+ *
+ * Collection and date arguments are copied when a call is made, so the caller may change them
+ * afterwards.  Any exception thrown by the manager is reported through the Future (as the
+ * cause of its ExecutionException).
+ */
+public class AsyncContactManager {
+    private final ContactManager manager;
+    private final ExecutorService read_executor;
+    private final ExecutorService write_executor;
+    private final boolean owns_read_executor;
+    private final Lock read_lock;
+    private final Lock write_lock;
+
+    /**
+     * Creates a facade over the given manager, with its own pool of read threads.
+     *
+     * @param manager the manager to make calls to.
+     */
+    public AsyncContactManager(ContactManager manager) {
+        this(manager, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new DaemonThreadFactory("contact-manager-reader")), true);
+    }
+
+    /**
+     * Creates a facade over the given manager, whose reads run on the given executor.  The
+     * executor isn't shut down by 'shutdown'.
+     *
+     * @param manager the manager to make calls to.
+     * @param read_executor the executor to run reads on.
+     */
+    public AsyncContactManager(ContactManager manager, ExecutorService read_executor) {
+        this(manager, read_executor, false);
+    }
+
+    private AsyncContactManager(ContactManager manager, ExecutorService read_executor, boolean owns_read_executor) {
+        if (manager == null)
+            throw new NullPointerException("manager is null");
+
+        if (read_executor == null)
+            throw new NullPointerException("read_executor is null");
+
+        this.manager = manager;
+        this.read_executor = read_executor;
+        this.owns_read_executor = owns_read_executor;
+        write_executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("contact-manager-writer"));
+
+        ReadWriteLock lock = new ReentrantReadWriteLock();
+        read_lock = lock.readLock();
+        write_lock = lock.writeLock();
+    }
+
+    /**
+     * Creates (and so loads) a manager for the given file on the given executor, without blocking
+     * the caller, then wraps it in a facade whose reads run on the same executor.
+     *
+     * The manager is a ContactManagerImpl that loads all of its meetings now, whether or not
+     * DIFactory's configuration asks for lazy loading, so that the facade's reads don't have to.
+     *
+     * @param filename the file the manager stores its data in.
+     * @param executor the executor to load the manager on, and run reads on.
+     * @return the facade, once the manager has loaded.
+     */
+    public static ListenableFuture<AsyncContactManager> open(final String filename, final ExecutorService executor) {
+        return submit(executor, null, new Callable<AsyncContactManager>() {
+            @Override
+            public AsyncContactManager call() {
+                return new AsyncContactManager(new ContactManagerImpl(filename, false), executor);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting calls.  Calls already made still run.  The read pool is shut down too,
+     * unless it was given to the constructor.
+     */
+    public void shutdown() {
+        write_executor.shutdown();
+        if (owns_read_executor)
+            read_executor.shutdown();
+    }
+
+    /**
+     * @return the manager that calls are made to.
+     */
+    public ContactManager getManager() {
+        return manager;
+    }
+
+    /**
+     * Runs the task on the given executor while holding the given lock (if any).  The Future is
+     * completed once the lock has been released, so its listeners may make calls of their own.
+     *
+     * @throws RejectedExecutionException if the executor has been shut down.
+     */
+    private static <T> ListenableFuture<T> submit(ExecutorService executor, final Lock lock, final Callable<T> task) {
+        final SettableFuture<T> future = new SettableFuture<T>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                if (lock != null)
+                    lock.lock();
+                try {
+                    result = task.call();
+                } catch (Throwable err) {
+                    future.setException(err);
+                    return;
+                } finally {
+                    if (lock != null)
+                        lock.unlock();
+                }
+                future.set(result);
+            }
+        });
+        return future;
+    }
+
+    private <T> ListenableFuture<T> read(Callable<T> task) {
+        return submit(read_executor, read_lock, task);
+    }
+
+    private <T> ListenableFuture<T> write(Callable<T> task) {
+        return submit(write_executor, write_lock, task);
+    }
+
+    // Copies of arguments, which leave nulls for the manager to reject
+
+    private static Calendar copyOf(Calendar date) {
+        return date == null ? null : (Calendar) date.clone();
+    }
+
+    private static <T> Set<T> copyOf(Set<T> set) {
+        return set == null ? null : new HashSet<T>(set);
+    }
+
+    private static <T> List<T> copyOf(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
+
+    private static List<Calendar> copyOfDates(List<Calendar> dates) {
+        if (dates == null)
+            return null;
+
+        List<Calendar> copy = new ArrayList<Calendar>(dates.size());
+        for (Calendar date : dates) {
+            copy.add(copyOf(date));
+        }
+        return copy;
+    }
+
+    private static List<Set<Contact>> copyOfContactSets(List<Set<Contact>> contact_sets) {
+        if (contact_sets == null)
+            return null;
+
+        List<Set<Contact>> copy = new ArrayList<Set<Contact>>(contact_sets.size());
+        for (Set<Contact> contacts : contact_sets) {
+            copy.add(copyOf(contacts));
+        }
+        return copy;
+    }
+
+    /** @see ContactManager#addFutureMeeting */
+    public ListenableFuture<Integer> addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        final Calendar date_copy = copyOf(date);
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return manager.addFutureMeeting(contacts_copy, date_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#addFutureMeetings */
+    public ListenableFuture<List<Integer>> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        final List<Set<Contact>> contacts_copy = copyOfContactSets(contacts);
+        final List<Calendar> dates_copy = copyOfDates(dates);
+        return write(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return manager.addFutureMeetings(contacts_copy, dates_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#addRecurringMeeting(Set, Calendar, int, int) */
+    public ListenableFuture<Integer> addRecurringMeeting(Set<Contact> contacts, Calendar first_date, final int interval_days, final int count) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        final Calendar first_date_copy = copyOf(first_date);
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return manager.addRecurringMeeting(contacts_copy, first_date_copy, interval_days, count);
+            }
+        });
+    }
+
+    /** @see ContactManager#addRecurringMeeting(Set, Calendar, int, Calendar) */
+    public ListenableFuture<Integer> addRecurringMeeting(Set<Contact> contacts, Calendar first_date, final int interval_days, Calendar last_date) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        final Calendar first_date_copy = copyOf(first_date);
+        final Calendar last_date_copy = copyOf(last_date);
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return manager.addRecurringMeeting(contacts_copy, first_date_copy, interval_days, last_date_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#getPastMeeting */
+    public ListenableFuture<PastMeeting> getPastMeeting(final int id) {
+        return read(new Callable<PastMeeting>() {
+            @Override
+            public PastMeeting call() {
+                return manager.getPastMeeting(id);
+            }
+        });
+    }
+
+    /** @see ContactManager#getFutureMeeting */
+    public ListenableFuture<FutureMeeting> getFutureMeeting(final int id) {
+        return read(new Callable<FutureMeeting>() {
+            @Override
+            public FutureMeeting call() {
+                return manager.getFutureMeeting(id);
+            }
+        });
+    }
+
+    /** @see ContactManager#getMeeting */
+    public ListenableFuture<Meeting> getMeeting(final int id) {
+        return read(new Callable<Meeting>() {
+            @Override
+            public Meeting call() {
+                return manager.getMeeting(id);
+            }
+        });
+    }
+
+    /** @see ContactManager#getFutureMeetingList(Contact) */
+    public ListenableFuture<List<Meeting>> getFutureMeetingList(final Contact contact) {
+        return read(new Callable<List<Meeting>>() {
+            @Override
+            public List<Meeting> call() {
+                return manager.getFutureMeetingList(contact);
+            }
+        });
+    }
+
+    /** @see ContactManager#getFutureMeetingList(Calendar) */
+    public ListenableFuture<List<Meeting>> getFutureMeetingList(Calendar date) {
+        final Calendar date_copy = copyOf(date);
+        return read(new Callable<List<Meeting>>() {
+            @Override
+            public List<Meeting> call() {
+                return manager.getFutureMeetingList(date_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#getPastMeetingList */
+    public ListenableFuture<List<PastMeeting>> getPastMeetingList(final Contact contact) {
+        return read(new Callable<List<PastMeeting>>() {
+            @Override
+            public List<PastMeeting> call() {
+                return manager.getPastMeetingList(contact);
+            }
+        });
+    }
+
+    /** @see ContactManager#addNewPastMeeting */
+    public ListenableFuture<Void> addNewPastMeeting(Set<Contact> contacts, Calendar date, final String text) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        final Calendar date_copy = copyOf(date);
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                manager.addNewPastMeeting(contacts_copy, date_copy, text);
+                return null;
+            }
+        });
+    }
+
+    /** @see ContactManager#addNewPastMeetings */
+    public ListenableFuture<List<Integer>> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        final List<Set<Contact>> contacts_copy = copyOfContactSets(contacts);
+        final List<Calendar> dates_copy = copyOfDates(dates);
+        final List<String> texts_copy = copyOf(texts);
+        return write(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return manager.addNewPastMeetings(contacts_copy, dates_copy, texts_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#addMeetingNotes(int, String) */
+    public ListenableFuture<Void> addMeetingNotes(final int id, final String text) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                manager.addMeetingNotes(id, text);
+                return null;
+            }
+        });
+    }
+
+    /** @see ContactManager#addMeetingNotes(Map) */
+    public ListenableFuture<Void> addMeetingNotes(Map<Integer, String> notes_by_id) {
+        final Map<Integer, String> notes_copy = notes_by_id == null ? null : new LinkedHashMap<Integer, String>(notes_by_id);
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                manager.addMeetingNotes(notes_copy);
+                return null;
+            }
+        });
+    }
+
+    /** @see ContactManager#addNewContact */
+    public ListenableFuture<Void> addNewContact(final String name, final String notes) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                manager.addNewContact(name, notes);
+                return null;
+            }
+        });
+    }
+
+    /** @see ContactManager#addNewContacts */
+    public ListenableFuture<List<Integer>> addNewContacts(List<String> names, List<String> notes) {
+        final List<String> names_copy = copyOf(names);
+        final List<String> notes_copy = copyOf(notes);
+        return write(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return manager.addNewContacts(names_copy, notes_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#getContacts(int...) */
+    public ListenableFuture<Set<Contact>> getContacts(int... ids) {
+        final int[] ids_copy = ids == null ? null : ids.clone();
+        return read(new Callable<Set<Contact>>() {
+            @Override
+            public Set<Contact> call() {
+                return manager.getContacts(ids_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#getContacts(String) */
+    public ListenableFuture<Set<Contact>> getContacts(final String name) {
+        return read(new Callable<Set<Contact>>() {
+            @Override
+            public Set<Contact> call() {
+                return manager.getContacts(name);
+            }
+        });
+    }
+
+    /** @see ContactManager#searchContactNotes */
+    public ListenableFuture<List<Integer>> searchContactNotes(final String query) {
+        return read(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return manager.searchContactNotes(query);
+            }
+        });
+    }
+
+    /** @see ContactManager#searchMeetingNotes */
+    public ListenableFuture<List<Integer>> searchMeetingNotes(final String query) {
+        return read(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return manager.searchMeetingNotes(query);
+            }
+        });
+    }
+
+    /** @see ContactManager#autocompleteContacts */
+    public ListenableFuture<List<Contact>> autocompleteContacts(final String prefix, final int limit) {
+        return read(new Callable<List<Contact>>() {
+            @Override
+            public List<Contact> call() {
+                return manager.autocompleteContacts(prefix, limit);
+            }
+        });
+    }
+
+    /** @see ContactManager#searchContactNames */
+    public ListenableFuture<List<Contact>> searchContactNames(final String query, final int max_distance) {
+        return read(new Callable<List<Contact>>() {
+            @Override
+            public List<Contact> call() {
+                return manager.searchContactNames(query, max_distance);
+            }
+        });
+    }
+
+    /** @see ContactManager#getMeetingsWithAllOf */
+    public ListenableFuture<List<Meeting>> getMeetingsWithAllOf(Set<Contact> contacts) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        return read(new Callable<List<Meeting>>() {
+            @Override
+            public List<Meeting> call() {
+                return manager.getMeetingsWithAllOf(contacts_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#getMeetingsWithAnyOf */
+    public ListenableFuture<List<Meeting>> getMeetingsWithAnyOf(Set<Contact> contacts) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        return read(new Callable<List<Meeting>>() {
+            @Override
+            public List<Meeting> call() {
+                return manager.getMeetingsWithAnyOf(contacts_copy);
+            }
+        });
+    }
+
+    /** @see ContactManager#getFirstFreeDay */
+    public ListenableFuture<Calendar> getFirstFreeDay(Set<Contact> contacts, Calendar from, final int days) {
+        final Set<Contact> contacts_copy = copyOf(contacts);
+        final Calendar from_copy = copyOf(from);
+        return read(new Callable<Calendar>() {
+            @Override
+            public Calendar call() {
+                return manager.getFirstFreeDay(contacts_copy, from_copy, days);
+            }
+        });
+    }
+
+    /** @see ContactManager#flush */
+    public ListenableFuture<Void> flush() {
+        // Queued behind earlier writes, but only blocks writes (not reads) while it runs
+        return submit(write_executor, read_lock, new Callable<Void>() {
+            @Override
+            public Void call() {
+                manager.flush();
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,253 @@
+package contactsmanager;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, immutable set of the contacts attending a meeting.
+ *
+ * Contacts are kept in an array sorted by id, alongside a primitive array of their ids, so
+ * membership tests are binary searches on the ids and set-equality between two AttendeeSets
+ * is an array comparison: neither boxes ids nor hashes Contact objects.
+ *
+ * Sets are shared rather than copied (eg. by 'AbstractMeeting.getContacts'), so to keep the
+ * Set contract of handing out an independent copy, see 'copyOnWrite'.
+ */
+class AttendeeSet extends AbstractSet<Contact> {
+    private static final Comparator<Contact> ID_COMPARATOR = new Comparator<Contact>() {
+        @Override
+        public int compare(Contact o1, Contact o2) {
+            return Integer.compare(o1.getId(), o2.getId());
+        }
+    };
+
+    private final Contact[] contacts;
+    private final int[] ids;
+
+    /**
+     * Creates a set containing the given contacts.
+     *
+     * @param contacts the contacts in the set.
+     */
+    AttendeeSet(Collection<Contact> contacts) {
+        if (contacts instanceof AttendeeSet) {
+            // Already sorted (and immutable), so the arrays can be shared
+            this.contacts = ((AttendeeSet) contacts).contacts;
+            this.ids = ((AttendeeSet) contacts).ids;
+            return;
+        }
+
+        this.contacts = contacts.toArray(new Contact[contacts.size()]);
+        Arrays.sort(this.contacts, ID_COMPARATOR);
+
+        this.ids = new int[this.contacts.length];
+        for (int i = 0; i < this.contacts.length; i++) {
+            ids[i] = this.contacts[i].getId();
+        }
+    }
+
+    /**
+     * Returns a Set with the same contacts, which behaves as an independent copy: it shares
+     * this set's arrays until it's first modified, at which point it switches to a HashSet.
+     *
+     * @return a modifiable copy of this set.
+     */
+    Set<Contact> copyOnWrite() {
+        return new CopyOnWriteView(this);
+    }
+
+    /**
+     * Returns whether a contact with the given id is in the set.
+     *
+     * @param contact_id the contact's id.
+     * @return true if the set contains a contact with that id.
+     */
+    boolean containsId(int contact_id) {
+        return Arrays.binarySearch(ids, contact_id) >= 0;
+    }
+
+    /**
+     * @return a copy of the ids of the contacts in the set, in ascending order.
+     */
+    int[] getIds() {
+        return ids.clone();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Contact))
+            return false;
+
+        Contact contact = (Contact) o;
+        int index = Arrays.binarySearch(ids, contact.getId());
+        if (index < 0)
+            return false;
+
+        // There may (unusually) be several contacts with the same id, so check all of them
+        while (index > 0 && ids[index - 1] == ids[index]) {
+            index--;
+        }
+        for (; index < ids.length && ids[index] == contact.getId(); index++) {
+            if (contacts[index].equals(contact))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<Contact> iterator() {
+        return new Iterator<Contact>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < contacts.length;
+            }
+
+            @Override
+            public Contact next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return contacts[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("AttendeeSet is immutable");
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return contacts.length;
+    }
+
+    @Override
+    public boolean add(Contact contact) {
+        throw new UnsupportedOperationException("AttendeeSet is immutable");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+
+        if (o instanceof AttendeeSet) {
+            AttendeeSet that = (AttendeeSet) o;
+            return Arrays.equals(this.ids, that.ids) && Arrays.equals(this.contacts, that.contacts);
+        } else if (o instanceof CopyOnWriteView) {
+            return o.equals(this);
+        }
+
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * A modifiable Set that reads from an AttendeeSet until it's modified, then from its own HashSet.
+     */
+    private static class CopyOnWriteView extends AbstractSet<Contact> {
+        private final AttendeeSet original;
+        private Set<Contact> copy = null;
+
+        CopyOnWriteView(AttendeeSet original) {
+            this.original = original;
+        }
+
+        private Set<Contact> getCopy() {
+            if (copy == null)
+                copy = new HashSet<Contact>(original);
+            return copy;
+        }
+
+        private Set<Contact> getCurrent() {
+            return copy == null ? original : copy;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return getCurrent().contains(o);
+        }
+
+        @Override
+        public Iterator<Contact> iterator() {
+            // The iterator may be used to remove contacts, so it has to come from the copy
+            return copy == null ? new AttendeeSetIterator() : copy.iterator();
+        }
+
+        @Override
+        public int size() {
+            return getCurrent().size();
+        }
+
+        @Override
+        public boolean add(Contact contact) {
+            return getCopy().add(contact);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return getCopy().remove(o);
+        }
+
+        @Override
+        public void clear() {
+            getCopy().clear();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+
+            if (copy == null && o instanceof CopyOnWriteView && ((CopyOnWriteView) o).copy == null) {
+                return original.equals(((CopyOnWriteView) o).original);
+            } else if (copy == null && o instanceof AttendeeSet) {
+                return original.equals(o);
+            }
+
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return getCurrent().hashCode();
+        }
+
+        /**
+         * Iterates over the original set, switching to the copy if asked to remove an element.
+         */
+        private class AttendeeSetIterator implements Iterator<Contact> {
+            private final Iterator<Contact> original_iterator = original.iterator();
+            private Contact last = null;
+
+            @Override
+            public boolean hasNext() {
+                return original_iterator.hasNext();
+            }
+
+            @Override
+            public Contact next() {
+                last = original_iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                getCopy().remove(last);
+                last = null;
+            }
+        }
+    }
+}
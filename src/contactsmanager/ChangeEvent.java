@@ -0,0 +1,94 @@
+package contactsmanager;
+
+/**
+ * A change made to a ContactManagerImpl, as delivered to a ChangeListener.
+ *
+ * Events are held in a subscription's preallocated ring buffer and reused once delivered, so an
+ * event is only valid during the 'ChangeListener.onEvents' call it's passed to.  Use 'copy' to
+ * keep one for longer.
+ */
+public class ChangeEvent {
+    /**
+     * The kinds of change.
+     */
+    public enum Type {
+        /** A contact was added ('getContact' is the new contact). */
+        CONTACT_ADDED,
+        /** A past or future meeting was added ('getMeeting' is the new meeting). */
+        MEETING_ADDED,
+        /**
+         * A future meeting was replaced by a past meeting when notes were first added to it
+         * ('getMeeting' is the past meeting).  It's followed by a NOTES_APPENDED event.
+         */
+        MEETING_PROMOTED,
+        /** Notes were added to a meeting ('getMeeting' is the meeting, 'getText' the new notes). */
+        NOTES_APPENDED
+    }
+
+    private Type type;
+    private Contact contact;
+    private Meeting meeting;
+    private String text;
+
+    ChangeEvent() {
+    }
+
+    /**
+     * Sets every field of the event, so nothing is left over from its last use.
+     */
+    void set(Type type, Contact contact, Meeting meeting, String text) {
+        this.type = type;
+        this.contact = contact;
+        this.meeting = meeting;
+        this.text = text;
+    }
+
+    /**
+     * @return the kind of change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the id of the contact (for CONTACT_ADDED) or meeting (otherwise) that changed.
+     */
+    public int getId() {
+        return type == Type.CONTACT_ADDED ? contact.getId() : meeting.getId();
+    }
+
+    /**
+     * @return the contact that was added, or null if the change wasn't to a contact.
+     */
+    public Contact getContact() {
+        return contact;
+    }
+
+    /**
+     * @return the meeting that changed (as it is after the change), or null if the change wasn't to a meeting.
+     */
+    public Meeting getMeeting() {
+        return meeting;
+    }
+
+    /**
+     * @return the notes that were added (for NOTES_APPENDED), otherwise null.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return a copy of the event, which stays valid after delivery.
+     */
+    public ChangeEvent copy() {
+        ChangeEvent copy = new ChangeEvent();
+        copy.set(type, contact, meeting, text);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ChangeEvent type=%s, id=%d", type, getId());
+    }
+}
@@ -0,0 +1,249 @@
+package contactsmanager;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The feed of changes made to a ContactManagerImpl, which delivers them to each subscriber.
+ *
+ * Each subscription has a ring buffer of events, allocated up front, and its own thread.
+ * Publishing an event writes it into each subscription's next free slot; the subscription's
+ * thread delivers every event published since its last delivery as one batch (up to a limit),
+ * then frees their slots.  So publishing allocates nothing and never waits for a listener to
+ * run, and a burst of changes reaches a listener in a few large batches rather than many small ones.
+ *
+ * When a subscription's buffer is full (its listener is falling behind), its OverflowPolicy
+ * decides what happens: DROP discards the new event (counting it), so writers never wait;
+ * BLOCK makes the writer wait until the listener frees a slot, so nothing is lost.
+ *
+ * So under BLOCK, a listener must not call back into the manager, nor into anything wrapping it
+ * that locks around changes (as AsyncContactManager and DurableContactManager do).  The writer
+ * waiting for the listener holds the wrapper's lock, the listener's call waits for that lock, and
+ * neither ever finishes.  A listener that needs the manager should hand its events to another
+ * thread, or subscribe with DROP.
+ *
+ * Events must be published by one thread at a time (as ContactManagerImpl's changes are).
+ * Subscribing and unsubscribing are thread-safe.
+ */
+public class ChangeFeed {
+    /**
+     * What to do with a new event when a subscription's buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Discard the new event, and count it as dropped. */
+        DROP,
+        /**
+         * Wait until the listener has made room.  The listener mustn't call back into the manager
+         * (see the class comment).
+         */
+        BLOCK
+    }
+
+    private static final long IDLE_PARK_NANOS = 10 * 1000 * 1000;
+    private static final long FULL_PARK_NANOS = 50 * 1000;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    /**
+     * A listener's subscription to the feed.  Closing it stops the feed publishing to it.
+     */
+    public class Subscription implements Closeable {
+        private final ChangeListener listener;
+        private final OverflowPolicy policy;
+        private final int max_batch_size;
+        private final ChangeEvent[] slots;
+        private final int mask;
+        private final Batch batch = new Batch();
+        private final Thread thread;
+
+        // The sequence numbers of the last event published and delivered
+        private final AtomicLong published = new AtomicLong(-1);
+        private final AtomicLong delivered = new AtomicLong(-1);
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean sleeping = false;
+        private volatile boolean closed = false;
+
+        private Subscription(ChangeListener listener, int capacity, OverflowPolicy policy) {
+            this.listener = listener;
+            this.policy = policy;
+
+            // Round the capacity up to a power of two, so a sequence's slot is a mask away
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity)
+                size <<= 1;
+            slots = new ChangeEvent[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new ChangeEvent();
+            }
+            mask = size - 1;
+            max_batch_size = size;
+
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            }, "change-feed-subscriber");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * The events being delivered, viewed in place in the ring buffer.
+         */
+        private class Batch extends AbstractList<ChangeEvent> {
+            private long first;
+            private int size;
+
+            @Override
+            public ChangeEvent get(int index) {
+                if (index < 0 || index >= size)
+                    throw new IndexOutOfBoundsException("Index " + index + " of batch of " + size);
+                return slots[(int) (first + index) & mask];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        }
+
+        /**
+         * Writes an event into the next free slot, following the overflow policy if there isn't one.
+         */
+        private void publish(ChangeEvent.Type type, Contact contact, Meeting meeting, String text) {
+            long sequence = published.get() + 1;
+            while (sequence - delivered.get() > slots.length) {
+                if (policy == OverflowPolicy.DROP || closed) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+
+            slots[(int) sequence & mask].set(type, contact, meeting, text);
+            published.set(sequence);
+
+            if (sleeping)
+                LockSupport.unpark(thread);
+        }
+
+        /**
+         * Delivers events to the listener until the subscription is closed (and every event
+         * published before then has been delivered).
+         */
+        private void deliver() {
+            while (true) {
+                long next = delivered.get() + 1;
+                long last = published.get();
+
+                if (last >= next) {
+                    batch.first = next;
+                    batch.size = (int) Math.min(last - next + 1, max_batch_size);
+                    try {
+                        listener.onEvents(batch);
+                    } catch (RuntimeException err) {
+                        // A failing listener only loses this batch
+                        err.printStackTrace();
+                    }
+                    delivered.set(next + batch.size - 1);
+                    continue;
+                }
+
+                if (closed)
+                    return;
+
+                // Park until there's more to deliver.  The publisher checks 'sleeping' after
+                // publishing, so re-check for events after setting it.
+                sleeping = true;
+                if (published.get() < next && !closed)
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                sleeping = false;
+            }
+        }
+
+        /**
+         * @return the number of events discarded because the buffer was full.
+         */
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        /**
+         * @return the number of events delivered to the listener so far.
+         */
+        public long getDeliveredCount() {
+            return delivered.get() + 1;
+        }
+
+        /**
+         * Unsubscribes, then waits for the events already published to be delivered (unless
+         * called by the listener itself).
+         */
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            closed = true;
+            LockSupport.unpark(thread);
+
+            if (Thread.currentThread() != thread) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribes a listener to the feed.
+     *
+     * @param listener the listener to deliver events to.
+     * @param capacity the number of events to buffer for the listener (rounded up to a power of two).
+     * @param policy what to do when the buffer is full.
+     * @return the subscription.
+     * @throws NullPointerException if listener or policy is null.
+     * @throws IllegalArgumentException if capacity isn't positive, or is too large.
+     */
+    public Subscription subscribe(ChangeListener listener, int capacity, OverflowPolicy policy) {
+        if (listener == null)
+            throw new NullPointerException("listener is null");
+
+        if (policy == null)
+            throw new NullPointerException("policy is null");
+
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Capacity " + capacity + " is out of range");
+
+        Subscription subscription = new Subscription(listener, capacity, policy);
+        subscription.thread.start();
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * @return true if anything is subscribed (so events are worth publishing).
+     */
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Publishes an event to every subscription.
+     *
+     * @param type the kind of change.
+     * @param contact the contact that was added, if any.
+     * @param meeting the meeting that changed, if any.
+     * @param text the notes that were added, if any.
+     */
+    void publish(ChangeEvent.Type type, Contact contact, Meeting meeting, String text) {
+        for (Subscription subscription : subscriptions) {
+            subscription.publish(type, contact, meeting, text);
+        }
+    }
+}
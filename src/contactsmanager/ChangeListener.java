@@ -0,0 +1,18 @@
+package contactsmanager;
+
+import java.util.List;
+
+/**
+ * A subscriber to the changes made to a ContactManagerImpl (see 'ContactManagerImpl.subscribe').
+ */
+public interface ChangeListener {
+    /**
+     * Receives the next batch of changes, in the order they were made.  This is called on the
+     * subscription's own thread, never concurrently for the same subscription.
+     *
+     * The list and its events are reused once this returns, so anything kept must be copied.
+     *
+     * @param events the changes (never empty).
+     */
+    void onEvents(List<ChangeEvent> events);
+}
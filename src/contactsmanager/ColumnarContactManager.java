@@ -0,0 +1,605 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.FileUtil;
+import contactsmanager.util.InvertedIndex;
+import contactsmanager.util.PackedStringScanner;
+import contactsmanager.util.WindowedBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A ContactManager for very large numbers of meetings, which keeps them in a ColumnarMeetingStore
+ * rather than as a PastMeetingImpl or FutureMeetingImpl each.  Meetings are handed out as
+ * flyweights over the store's columns, so a meeting costs tens of bytes while it's held, rather
+ * than the several hundred that ContactManagerImpl's meeting objects and sorted sets cost.
+ *
+ * Queries by contact, by day and by id go through the store's indexes, and sort the meetings
+ * they find by date.  Contacts' names, contact and meeting notes, and the days contacts have
+ * meetings on are indexed as in ContactManagerImpl, with the name indexes and free-day search
+ * shared through ContactIndexes.
+ *
+ * Everything is loaded from the file when the manager is created (the store is compact enough
+ * that there's no need to load lazily), and recurring meetings' occurrences are all added
+ * straight away as future meetings, so the file holds every meeting.
+ *
+ * Choose it in "config.ini" with "ContactManager=contactsmanager.ColumnarContactManager".
+ * The ContactManagerImpl options (eg. "PersistIndexes") don't apply to it.
+ *
+ * Queries don't change anything (except to build the name indexes the first time they're used,
+ * which is synchronised), so they may run concurrently with each other, but not with changes.
+ */
+public class ColumnarContactManager implements ContactManager {
+    private static final String DEFAULT_FILENAME = "contacts.txt";
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    private final String filename;
+    private final Map<Integer, Contact> contacts_by_id = new HashMap<Integer, Contact>();
+    private final ColumnarMeetingStore store = new ColumnarMeetingStore(contacts_by_id);
+    private final Map<Integer, WindowedBitmap> meeting_days_by_contact = new HashMap<Integer, WindowedBitmap>();
+    private final PackedStringScanner contact_names = new PackedStringScanner();
+    private final InvertedIndex contact_notes_index = new InvertedIndex();
+    private final InvertedIndex meeting_notes_index = new InvertedIndex();
+    // The name trie and BK-tree, built when first needed, as in ContactManagerImpl
+    private final ContactIndexes contact_indexes = new ContactIndexes(new ContactIndexes.Source() {
+        @Override
+        public Collection<Contact> getContacts() {
+            return contacts_by_id.values();
+        }
+
+        @Override
+        public long getActivityScore(int contact_id) {
+            return ColumnarContactManager.this.getActivityScore(contact_id);
+        }
+    });
+    private int last_contact_id = -1;
+    private int last_meeting_id = -1;
+
+    /**
+     * Creates a new ColumnarContactManager using the default filename ("contacts.txt") for storage.
+     * If the file already exists, this will load from it.
+     */
+    public ColumnarContactManager() {
+        this(DEFAULT_FILENAME);
+    }
+
+    /**
+     * Creates a new ColumnarContactManager using the given filename for storage.
+     * If the file already exists, this will load from it.
+     *
+     * @param filename the file location to store data in.
+     */
+    public ColumnarContactManager(String filename) {
+        if (filename == null)
+            throw new NullPointerException("filename is null");
+
+        this.filename = filename;
+        if (new File(filename).isFile())
+            loadFromFile();
+    }
+
+    /**
+     * Creates a new ColumnarContactManager using the given filename for storage, as DIFactory
+     * does when "LazyLoadMeetings=true" is set.  Everything is loaded here regardless.
+     *
+     * @param filename the file location to store data in.
+     * @param lazy_load_meetings ignored.
+     */
+    public ColumnarContactManager(String filename, Boolean lazy_load_meetings) {
+        this(filename);
+    }
+
+    /**
+     * Loads contacts, past and future meetings from the file at 'filename'.
+     *
+     * Meetings with no contacts, unknown contacts or ids that have already been loaded aren't
+     * loaded (with a warning printed to stdout), but won't prevent loading the rest of the meetings.
+     *
+     * If the file couldn't be accessed or the file couldn't be parsed, the file won't be loaded.
+     */
+    private void loadFromFile() {
+        DataStore data = DIFactory.getInstance().newDataStore();
+        try {
+            data.loadFromFilename(filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        for (Contact contact : data.getContacts()) {
+            addContact(contact);
+        }
+
+        List<Meeting> meetings = new ArrayList<Meeting>(data.getPastMeetings());
+        meetings.addAll(data.getFutureMeetings());
+        for (Meeting meeting : meetings) {
+            // Ensure no meeting ids get reused, even those of meetings that aren't loaded
+            last_meeting_id = Math.max(last_meeting_id, meeting.getId());
+
+            if (!isLoadedMeetingValid(meeting)) {
+                System.out.format("Couldn't load meeting '%d' from file '%s'%n", meeting.getId(), filename);
+                continue;
+            }
+
+            String text = meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null;
+            addMeeting(meeting.getId(), meeting.getDate(), meeting.getContacts(), text);
+        }
+    }
+
+    /**
+     * Returns whether a meeting loaded from file can be added to the manager.
+     *
+     * @param meeting the loaded meeting.
+     * @return true if the meeting has contacts, all of them known, and its id isn't in use.
+     */
+    private boolean isLoadedMeetingValid(Meeting meeting) {
+        if (meeting.getContacts().isEmpty() || store.get(meeting.getId()) != null)
+            return false;
+
+        for (Contact contact : meeting.getContacts()) {
+            if (!contact.equals(contacts_by_id.get(contact.getId())))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the given contact to the manager's internal data structures, and updates last_contact_id.
+     *
+     * @param contact the contact to add.
+     */
+    private void addContact(Contact contact) {
+        contacts_by_id.put(contact.getId(), contact);
+        contact_names.add(contact.getId(), contact.getName());
+        contact_notes_index.add(contact.getId(), contact.getNotes());
+        meeting_days_by_contact.put(contact.getId(), new WindowedBitmap());
+
+        contact_indexes.addContact(contact);
+
+        last_contact_id = Math.max(last_contact_id, contact.getId());
+    }
+
+    /**
+     * Adds a meeting, which must already have been checked, to the store and the indexes, and
+     * updates last_meeting_id.
+     *
+     * @param id the meeting's id.
+     * @param date the meeting's date.
+     * @param contacts the meeting's contacts (which must all be known).
+     * @param text the meeting's notes, or null for a future meeting.
+     */
+    private void addMeeting(int id, Calendar date, Set<Contact> contacts, String text) {
+        store.add(id, date, contacts, text);
+        if (text != null)
+            meeting_notes_index.add(id, text);
+
+        int day = CalendarUtil.getDayNumber(date);
+        for (Contact contact : contacts) {
+            meeting_days_by_contact.get(contact.getId()).add(day);
+        }
+
+        raiseActivityScores(contacts, date, text != null);
+        last_meeting_id = Math.max(last_meeting_id, id);
+    }
+
+    @Override
+    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts, date);
+
+        int id = last_meeting_id + 1;
+        addMeeting(id, date, contacts, null);
+        return id;
+    }
+
+    @Override
+    public List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        ContactManagerImpl.ensureSameSize(contacts, "contacts", dates, "dates");
+
+        // Check every meeting before adding any of them
+        Iterator<Set<Contact>> contacts_iterator = contacts.iterator();
+        for (Calendar date : dates) {
+            ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts_iterator.next(), date);
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = last_meeting_id + 1;
+        List<Integer> ids = new ArrayList<Integer>(dates.size());
+        contacts_iterator = contacts.iterator();
+        for (Calendar date : dates) {
+            addMeeting(id, date, contacts_iterator.next(), null);
+            ids.add(id++);
+        }
+        return ids;
+    }
+
+    /**
+     * The occurrences are added straight away as future meetings, rather than kept as a rule:
+     * each costs little in the store, and the file then holds every meeting.
+     */
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count) {
+        ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts, first_date);
+        RecurringMeeting.ensureValid(interval_days, count);
+
+        int id = last_meeting_id + 1;
+        RecurringMeeting rule = new RecurringMeeting(id, first_date, interval_days, count, contacts);
+        for (int index = 0; index < count; index++) {
+            addMeeting(rule.getId(index), rule.getDate(index), contacts, null);
+        }
+        return id;
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date) {
+        ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts, first_date);
+
+        if (last_date == null)
+            throw new NullPointerException("last_date is null");
+
+        RecurringMeeting.ensureValid(interval_days, 1);
+        return addRecurringMeeting(contacts, first_date, interval_days,
+                RecurringMeeting.countUntil(first_date, interval_days, last_date));
+    }
+
+    @Override
+    public PastMeeting getPastMeeting(int id) {
+        Meeting meeting = store.get(id);
+
+        // Check that id is not that of a future meeting
+        if (meeting instanceof FutureMeeting)
+            throw new IllegalArgumentException("Id " + id + " belongs to a future meeting");
+
+        return (PastMeeting) meeting;
+    }
+
+    @Override
+    public FutureMeeting getFutureMeeting(int id) {
+        Meeting meeting = store.get(id);
+
+        // Check that id is not that of a past meeting
+        if (meeting instanceof PastMeeting)
+            throw new IllegalArgumentException("Id " + id + " belongs to a past meeting");
+
+        return (FutureMeeting) meeting;
+    }
+
+    @Override
+    public Meeting getMeeting(int id) {
+        return store.get(id);
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Contact contact) {
+        ContactManagerImpl.ensureContactIsKnown(contacts_by_id, contact);
+
+        return store.getFutureMeetingsWithAttendee(contact.getId());
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Calendar date) {
+        if (date == null)
+            throw new NullPointerException("date is null");
+
+        return store.getMeetingsOnDay(date);
+    }
+
+    @Override
+    public List<PastMeeting> getPastMeetingList(Contact contact) {
+        ContactManagerImpl.ensureContactIsKnown(contacts_by_id, contact);
+
+        return store.getPastMeetingsWithAttendee(contact.getId());
+    }
+
+    @Override
+    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        ContactManagerImpl.ensureNewPastMeetingIsValid(contacts_by_id, contacts, date, text);
+
+        addMeeting(last_meeting_id + 1, date, contacts, text);
+    }
+
+    @Override
+    public List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        ContactManagerImpl.ensureSameSize(contacts, "contacts", dates, "dates");
+        ContactManagerImpl.ensureSameSize(dates, "dates", texts, "texts");
+
+        // Check every meeting before adding any of them
+        Iterator<Set<Contact>> contacts_iterator = contacts.iterator();
+        Iterator<String> texts_iterator = texts.iterator();
+        for (Calendar date : dates) {
+            ContactManagerImpl.ensureNewPastMeetingIsValid(contacts_by_id, contacts_iterator.next(), date, texts_iterator.next());
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = last_meeting_id + 1;
+        List<Integer> ids = new ArrayList<Integer>(dates.size());
+        contacts_iterator = contacts.iterator();
+        texts_iterator = texts.iterator();
+        for (Calendar date : dates) {
+            addMeeting(id, date, contacts_iterator.next(), texts_iterator.next());
+            ids.add(id++);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the meeting with the given id that notes would be added to, checking that it can take notes.
+     *
+     * @param id the meeting's id.
+     * @return the meeting.
+     * @throws IllegalArgumentException if the meeting does not exist.
+     * @throws IllegalStateException if the meeting is set for a date in the future.
+     */
+    private Meeting getMeetingToAddNotesTo(int id) {
+        Meeting meeting = store.get(id);
+        if (meeting == null)
+            throw new IllegalArgumentException("Meeting Id " + id + " does not exist");
+
+        // Check meeting is in the past (inclusive of today)
+        if (!CalendarUtil.isDateInPast(meeting.getDate()))
+            throw new IllegalStateException("Date " + CalendarUtil.getCalendarString(meeting.getDate()) + " is in the future");
+
+        return meeting;
+    }
+
+    /**
+     * Adds the given text to the notes of the given meeting, which must have come from
+     * 'getMeetingToAddNotesTo', promoting it to a past meeting if it isn't one already.
+     *
+     * @param meeting the meeting to add notes to.
+     * @param text the notes to add.
+     */
+    private void addNotesToMeeting(Meeting meeting, String text) {
+        store.addNotes(meeting.getId(), text);
+        meeting_notes_index.add(meeting.getId(), text);
+
+        if (meeting instanceof FutureMeeting)
+            raiseActivityScores(meeting.getContacts(), meeting.getDate(), true);
+    }
+
+    @Override
+    public void addMeetingNotes(int id, String text) {
+        if (text == null)
+            throw new NullPointerException("text is null");
+
+        // If the meeting is missing or in the future, this will throw the appropriate exception
+        addNotesToMeeting(getMeetingToAddNotesTo(id), text.trim());
+    }
+
+    @Override
+    public void addMeetingNotes(Map<Integer, String> notes_by_id) {
+        if (notes_by_id == null)
+            throw new NullPointerException("notes_by_id is null");
+
+        // Check every meeting and note before changing any of them
+        List<Meeting> meetings = new ArrayList<Meeting>(notes_by_id.size());
+        List<String> texts = new ArrayList<String>(notes_by_id.size());
+        for (Map.Entry<Integer, String> entry : notes_by_id.entrySet()) {
+            if (entry.getKey() == null)
+                throw new NullPointerException("meeting id is null");
+
+            if (entry.getValue() == null)
+                throw new NullPointerException("text for meeting " + entry.getKey() + " is null");
+
+            meetings.add(getMeetingToAddNotesTo(entry.getKey()));
+            texts.add(entry.getValue().trim());
+        }
+
+        for (int i = 0; i < meetings.size(); i++) {
+            addNotesToMeeting(meetings.get(i), texts.get(i));
+        }
+    }
+
+    @Override
+    public void addNewContact(String name, String notes) {
+        if (name == null)
+            throw new NullPointerException("text is null");
+
+        if (notes == null)
+            throw new NullPointerException("notes is null");
+
+        Contact contact = DIFactory.getInstance().newContact(last_contact_id + 1, name);
+
+        // Add notes to contact.  It will automatically remove whitespace.
+        contact.addNotes(notes);
+        addContact(contact);
+    }
+
+    @Override
+    public List<Integer> addNewContacts(List<String> names, List<String> notes) {
+        ContactManagerImpl.ensureSameSize(names, "names", notes, "notes");
+
+        // Check every contact before adding any of them
+        Iterator<String> notes_iterator = notes.iterator();
+        for (String name : names) {
+            if (name == null)
+                throw new NullPointerException("name is null");
+
+            if (notes_iterator.next() == null)
+                throw new NullPointerException("notes is null");
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(names.size());
+        notes_iterator = notes.iterator();
+        for (String name : names) {
+            Contact contact = DIFactory.getInstance().newContact(last_contact_id + 1, name);
+            contact.addNotes(notes_iterator.next());
+            addContact(contact);
+            ids.add(contact.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public Set<Contact> getContacts(int... ids) {
+        Set<Contact> contacts = new HashSet<Contact>();
+
+        for (int id : ids) {
+            Contact contact = contacts_by_id.get(id);
+
+            // Check that contact is known
+            if (contact == null)
+                throw new IllegalArgumentException("Contact with id " + id + " does not exist");
+
+            contacts.add(contact);
+        }
+
+        return contacts;
+    }
+
+    @Override
+    public Set<Contact> getContacts(String name) {
+        if (name == null)
+            throw new NullPointerException("name is null");
+
+        Set<Contact> matching_contacts = new HashSet<Contact>();
+        for (int contact_id : contact_names.findContaining(name)) {
+            matching_contacts.add(contacts_by_id.get(contact_id));
+        }
+        return matching_contacts;
+    }
+
+    @Override
+    public List<Integer> searchContactNotes(String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        return contact_notes_index.search(query);
+    }
+
+    @Override
+    public List<Integer> searchMeetingNotes(String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        return meeting_notes_index.search(query);
+    }
+
+    @Override
+    public List<Contact> autocompleteContacts(String prefix, int limit) {
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int contact_id : contact_indexes.getAutocompleteScores(prefix, limit).keySet()) {
+            contacts.add(contacts_by_id.get(contact_id));
+        }
+        return contacts;
+    }
+
+    /**
+     * Returns the score that ranks a contact in 'autocompleteContacts', as in ContactManagerImpl:
+     * the number of meetings it attends in the top half, and the minute of its latest past meeting
+     * in the bottom half.
+     *
+     * @param contact_id the id of a known contact.
+     * @return the contact's score.
+     */
+    private long getActivityScore(int contact_id) {
+        long meeting_count = store.getMeetingCount(contact_id);
+        long latest_minute = Math.max(0, store.getLatestPastDate(contact_id) / MILLIS_PER_MINUTE);
+        return (meeting_count << 32) | latest_minute;
+    }
+
+    /**
+     * Raises the trie scores (if the trie has been built) of the given contacts, who have just
+     * been added to a meeting on the given date, or had a meeting on it promoted to the past.
+     * The new score is worked out from the old one, rather than from all of the contact's meetings.
+     *
+     * @param contacts the meeting's contacts.
+     * @param date the meeting's date.
+     * @param past whether the meeting is now a past meeting.
+     */
+    private void raiseActivityScores(Set<Contact> contacts, Calendar date, boolean past) {
+        if (!contact_indexes.isNameTrieBuilt())
+            return;
+
+        for (Contact contact : contacts) {
+            long latest_minute = contact_indexes.getScore(contact.getId()) & 0xFFFFFFFFL;
+            if (past)
+                latest_minute = Math.max(latest_minute, date.getTimeInMillis() / MILLIS_PER_MINUTE);
+
+            contact_indexes.raiseScore(contact.getId(), ((long) store.getMeetingCount(contact.getId()) << 32) | latest_minute);
+        }
+    }
+
+    @Override
+    public List<Contact> searchContactNames(String query, int max_distance) {
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int contact_id : ContactIndexes.rankByDistance(contact_indexes.getContactNameDistances(query, max_distance))) {
+            contacts.add(contacts_by_id.get(contact_id));
+        }
+        return contacts;
+    }
+
+    private static int[] getContactIds(Set<Contact> contacts) {
+        int[] contact_ids = new int[contacts.size()];
+        int i = 0;
+        for (Contact contact : contacts) {
+            contact_ids[i++] = contact.getId();
+        }
+        return contact_ids;
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAllOf(Set<Contact> contacts) {
+        ContactManagerImpl.ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        return store.getMeetingsWithAllOf(getContactIds(contacts));
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAnyOf(Set<Contact> contacts) {
+        ContactManagerImpl.ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        return store.getMeetingsWithAnyOf(getContactIds(contacts));
+    }
+
+    @Override
+    public Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days) {
+        ContactManagerImpl.ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        if (from == null)
+            throw new NullPointerException("from is null");
+
+        if (days < 1)
+            throw new IllegalArgumentException("The number of days " + days + " is less than 1");
+
+        List<WindowedBitmap> bitmaps = new ArrayList<WindowedBitmap>();
+        for (Contact contact : contacts) {
+            bitmaps.add(meeting_days_by_contact.get(contact.getId()));
+        }
+
+        return ContactIndexes.getFirstFreeDay(bitmaps, from, days);
+    }
+
+    /**
+     * Writes every contact and meeting to a temporary file with the configured DataStore, then
+     * renames it over the file (see 'FileUtil.replace').  The meetings are written straight from
+     * the store's flyweights.
+     */
+    @Override
+    public void flush() {
+        DataStore data = DIFactory.getInstance().newDataStore();
+        data.setContacts(contacts_by_id.values());
+        data.setFutureMeetings(store.getFutureMeetings());
+        data.setPastMeetings(store.getPastMeetings());
+
+        try {
+            File temp_file = new File(filename + ".tmp");
+            data.writeToFilename(temp_file.getPath());
+            FileUtil.replace(temp_file, new File(filename), false);
+        } catch (IOException e) {
+            System.out.println("Error! Couldn't write to filename: " + filename);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the number of meetings (past and future) held.
+     */
+    public int getMeetingCount() {
+        return store.size();
+    }
+}
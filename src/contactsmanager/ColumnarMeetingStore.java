@@ -0,0 +1,524 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.NoteBuffer;
+import contactsmanager.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A compact in-memory store for very large numbers of meetings, which keeps meeting data
+ * in columns (parallel primitive arrays) rather than as one object graph per meeting.
+ *
+ * Each meeting is a row, made up of:
+ *  - its id, in an int[];
+ *  - its date, as epoch milliseconds in a long[];
+ *  - its attendees' contact ids, as a sorted run in a single shared int[] pool, found
+ *    through an int[] of offsets into the pool;
+ *  - a reference to its notes (null for future meetings).
+ *
+ * Rows are found by id through a SparseIntArray, by contact through a list of rows per contact,
+ * and by day through a list of rows per day (in the default time zone).  Together these cost
+ * about 36 bytes per meeting plus 8 bytes per attendee, compared to several hundred bytes (a
+ * Calendar, a HashSet and its entries, plus tree nodes) for AbstractMeeting.
+ *
+ * Meetings are handed out as thin flyweights that read from the columns when asked, and
+ * are created on demand.  Contacts are resolved through the map given on construction, and
+ * dates are given in the default time zone.
+ *
+ * This class is not thread-safe.
+ */
+public class ColumnarMeetingStore {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_ROW = -1;
+
+    private final Map<Integer, Contact> contacts_by_id;
+
+    private int size = 0;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] dates = new long[INITIAL_CAPACITY];
+    private int[] attendee_offsets = new int[INITIAL_CAPACITY + 1];
+    // null for a future meeting; a String for notes given once, then a NoteBuffer once appended to
+    private Object[] notes = new Object[INITIAL_CAPACITY];
+
+    private int[] attendee_pool = new int[INITIAL_CAPACITY];
+    private int attendee_pool_size = 0;
+
+    private final SparseIntArray row_by_id = new SparseIntArray(NO_ROW);
+    private final Map<Integer, RowList> rows_by_contact = new HashMap<Integer, RowList>();
+    // Keyed by day number (see CalendarUtil.getDayNumber)
+    private final TreeMap<Integer, RowList> rows_by_day = new TreeMap<Integer, RowList>();
+
+    /**
+     * Creates an empty store.
+     *
+     * @param contacts_by_id the contacts that meetings' contact ids are resolved against.
+     * @throws NullPointerException if contacts_by_id is null.
+     */
+    public ColumnarMeetingStore(Map<Integer, Contact> contacts_by_id) {
+        if (contacts_by_id == null)
+            throw new NullPointerException("contacts_by_id is null");
+
+        this.contacts_by_id = contacts_by_id;
+    }
+
+    /**
+     * @return the number of meetings in the store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the given meeting to the store.  Past meetings keep their notes; any other meeting
+     * is stored as a future meeting.
+     *
+     * @param meeting the meeting to add.
+     * @throws IllegalArgumentException if the meeting's id is negative or already in the store.
+     */
+    public void add(Meeting meeting) {
+        String text = meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null;
+        add(meeting.getId(), meeting.getDate(), meeting.getContacts(), text);
+    }
+
+    /**
+     * Adds a meeting with the given id, date, contacts and notes to the store.
+     *
+     * @param id the meeting's id.
+     * @param date the meeting's date.
+     * @param contacts the meeting's contacts.
+     * @param text the meeting's notes, or null for a future meeting.
+     * @throws IllegalArgumentException if the id is negative or already in the store.
+     */
+    public void add(int id, Calendar date, Set<Contact> contacts, String text) {
+        if (id < 0)
+            throw new IllegalArgumentException("Meeting id " + id + " is negative");
+        if (getRow(id) != NO_ROW)
+            throw new IllegalArgumentException("Meeting id " + id + " is already in the store");
+
+        // Sort the attendees' ids, so membership tests can use a binary search
+        int[] contact_ids = new int[contacts.size()];
+        int i = 0;
+        for (Contact contact : contacts) {
+            contact_ids[i++] = contact.getId();
+        }
+        Arrays.sort(contact_ids);
+
+        ensureRowCapacity(size + 1);
+        ensurePoolCapacity(attendee_pool_size + contact_ids.length);
+
+        int row = size++;
+        ids[row] = id;
+        dates[row] = date.getTimeInMillis();
+        System.arraycopy(contact_ids, 0, attendee_pool, attendee_pool_size, contact_ids.length);
+        attendee_pool_size += contact_ids.length;
+        attendee_offsets[row + 1] = attendee_pool_size;
+        notes[row] = text;
+
+        row_by_id.set(id, row);
+        for (int contact_id : contact_ids) {
+            getOrCreate(rows_by_contact, contact_id).add(row);
+        }
+        getOrCreate(rows_by_day, CalendarUtil.getDayNumber(date)).add(row);
+    }
+
+    private static RowList getOrCreate(Map<Integer, RowList> rows_by_key, int key) {
+        RowList rows = rows_by_key.get(key);
+        if (rows == null) {
+            rows = new RowList();
+            rows_by_key.put(key, rows);
+        }
+        return rows;
+    }
+
+    private void ensureRowCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int new_capacity = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, new_capacity);
+            dates = Arrays.copyOf(dates, new_capacity);
+            attendee_offsets = Arrays.copyOf(attendee_offsets, new_capacity + 1);
+            notes = Arrays.copyOf(notes, new_capacity);
+        }
+    }
+
+    private void ensurePoolCapacity(int capacity) {
+        if (capacity > attendee_pool.length) {
+            attendee_pool = Arrays.copyOf(attendee_pool, Math.max(capacity, attendee_pool.length * 2));
+        }
+    }
+
+    private int getRow(int id) {
+        return row_by_id.get(id);
+    }
+
+    /**
+     * Returns a flyweight for the meeting with the given id, or null if there is none.
+     *
+     * @param id the meeting's id.
+     * @return a PastMeeting or FutureMeeting backed by the store, or null.
+     */
+    public Meeting get(int id) {
+        int row = getRow(id);
+        if (row == NO_ROW)
+            return null;
+
+        return getByRow(row);
+    }
+
+    private Meeting getByRow(int row) {
+        if (notes[row] == null) {
+            return new FutureMeetingView(row);
+        } else {
+            return new PastMeetingView(row);
+        }
+    }
+
+    /**
+     * Turns the future meeting with the given id into a past meeting with the given notes.
+     * If the meeting is already in the past, the notes are appended to its existing notes.
+     *
+     * @param id the meeting's id.
+     * @param text the notes to add.
+     * @throws IllegalArgumentException if there is no meeting with that id.
+     */
+    public void addNotes(int id, String text) {
+        int row = getRow(id);
+        if (row == NO_ROW)
+            throw new IllegalArgumentException("Meeting Id " + id + " does not exist");
+
+        if (notes[row] == null) {
+            notes[row] = text;
+        } else {
+            // Only meetings whose notes are appended to pay for a buffer
+            if (notes[row] instanceof String) {
+                NoteBuffer buffer = new NoteBuffer();
+                buffer.append((String) notes[row]);
+                notes[row] = buffer;
+            }
+            ((NoteBuffer) notes[row]).append(text);
+        }
+    }
+
+    /**
+     * Returns whether the contact with the given id attended the meeting with the given id.
+     *
+     * @param id the meeting's id.
+     * @param contact_id the contact's id.
+     * @return true if the contact is one of the meeting's attendees.
+     */
+    public boolean hasAttendee(int id, int contact_id) {
+        int row = getRow(id);
+        return row != NO_ROW && hasAttendeeInRow(row, contact_id);
+    }
+
+    private boolean hasAttendeeInRow(int row, int contact_id) {
+        return Arrays.binarySearch(attendee_pool, attendee_offsets[row], attendee_offsets[row + 1], contact_id) >= 0;
+    }
+
+    /**
+     * @param contact_id the contact's id.
+     * @return the number of meetings (past and future) the contact attends.
+     */
+    public int getMeetingCount(int contact_id) {
+        RowList rows = rows_by_contact.get(contact_id);
+        return rows == null ? 0 : rows.size;
+    }
+
+    /**
+     * @param contact_id the contact's id.
+     * @return the date of the contact's latest past meeting, in epoch milliseconds, or
+     *      Long.MIN_VALUE if it has none.
+     */
+    public long getLatestPastDate(int contact_id) {
+        long latest = Long.MIN_VALUE;
+        RowList rows = rows_by_contact.get(contact_id);
+        if (rows != null) {
+            for (int i = 0; i < rows.size; i++) {
+                int row = rows.rows[i];
+                if (notes[row] != null)
+                    latest = Math.max(latest, dates[row]);
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Returns the meetings that take place within the given time range, looking only at the
+     * days that the range covers.
+     *
+     * @param from_ms the start of the range, in epoch milliseconds (inclusive).
+     * @param to_ms the end of the range, in epoch milliseconds (exclusive).
+     * @return the meetings in the range, in chronological order.
+     */
+    public List<Meeting> getMeetingsBetween(long from_ms, long to_ms) {
+        List<Integer> rows = new ArrayList<Integer>();
+        if (from_ms < to_ms) {
+            for (RowList day_rows : rows_by_day.subMap(getDayNumber(from_ms), true, getDayNumber(to_ms - 1), true).values()) {
+                for (int i = 0; i < day_rows.size; i++) {
+                    int row = day_rows.rows[i];
+                    if (dates[row] >= from_ms && dates[row] < to_ms)
+                        rows.add(row);
+                }
+            }
+        }
+
+        return getSortedByDate(rows, Meeting.class);
+    }
+
+    private static int getDayNumber(long millis) {
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(millis);
+        return CalendarUtil.getDayNumber(date);
+    }
+
+    /**
+     * Returns the meetings on the same day as the given date (in the default time zone).
+     *
+     * @param date the date.
+     * @return the day's meetings, in chronological order.
+     */
+    public List<Meeting> getMeetingsOnDay(Calendar date) {
+        return getSortedByDate(toList(rows_by_day.get(CalendarUtil.getDayNumber(date))), Meeting.class);
+    }
+
+    /**
+     * Returns the meetings (past and future) that the contact with the given id attends.
+     *
+     * @param contact_id the contact's id.
+     * @return the contact's meetings, in chronological order.
+     */
+    public List<Meeting> getMeetingsWithAttendee(int contact_id) {
+        return getSortedByDate(toList(rows_by_contact.get(contact_id)), Meeting.class);
+    }
+
+    /**
+     * @param contact_id the contact's id.
+     * @return the contact's future meetings, in chronological order.
+     */
+    public List<Meeting> getFutureMeetingsWithAttendee(int contact_id) {
+        return this.<Meeting>getSortedByDate(toList(rows_by_contact.get(contact_id)), FutureMeeting.class);
+    }
+
+    /**
+     * @param contact_id the contact's id.
+     * @return the contact's past meetings, in chronological order.
+     */
+    public List<PastMeeting> getPastMeetingsWithAttendee(int contact_id) {
+        return getSortedByDate(toList(rows_by_contact.get(contact_id)), PastMeeting.class);
+    }
+
+    /**
+     * Returns the meetings that every one of the contacts with the given ids attends, by checking
+     * the meetings of the contact with the fewest against the rest.
+     *
+     * @param contact_ids the contacts' ids (not empty).
+     * @return the meetings, in chronological order.
+     */
+    public List<Meeting> getMeetingsWithAllOf(int[] contact_ids) {
+        RowList smallest = null;
+        for (int contact_id : contact_ids) {
+            RowList rows = rows_by_contact.get(contact_id);
+            if (rows == null)
+                return new LinkedList<Meeting>();
+
+            if (smallest == null || rows.size < smallest.size)
+                smallest = rows;
+        }
+
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < smallest.size; i++) {
+            int row = smallest.rows[i];
+            boolean has_all = true;
+            for (int contact_id : contact_ids) {
+                has_all = has_all && hasAttendeeInRow(row, contact_id);
+            }
+
+            if (has_all)
+                rows.add(row);
+        }
+        return getSortedByDate(rows, Meeting.class);
+    }
+
+    /**
+     * Returns the meetings that at least one of the contacts with the given ids attends.
+     *
+     * @param contact_ids the contacts' ids.
+     * @return the meetings, in chronological order (without duplicates).
+     */
+    public List<Meeting> getMeetingsWithAnyOf(int[] contact_ids) {
+        Set<Integer> rows = new HashSet<Integer>();
+        for (int contact_id : contact_ids) {
+            rows.addAll(toList(rows_by_contact.get(contact_id)));
+        }
+        return getSortedByDate(new ArrayList<Integer>(rows), Meeting.class);
+    }
+
+    /**
+     * @return every past meeting in the store, in the order they were added.
+     */
+    public List<PastMeeting> getPastMeetings() {
+        List<PastMeeting> meetings = new ArrayList<PastMeeting>();
+        for (int row = 0; row < size; row++) {
+            if (notes[row] != null)
+                meetings.add(new PastMeetingView(row));
+        }
+        return meetings;
+    }
+
+    /**
+     * @return every future meeting in the store, in the order they were added.
+     */
+    public List<FutureMeeting> getFutureMeetings() {
+        List<FutureMeeting> meetings = new ArrayList<FutureMeeting>();
+        for (int row = 0; row < size; row++) {
+            if (notes[row] == null)
+                meetings.add(new FutureMeetingView(row));
+        }
+        return meetings;
+    }
+
+    private static List<Integer> toList(RowList rows) {
+        List<Integer> list = new ArrayList<Integer>();
+        if (rows != null) {
+            for (int i = 0; i < rows.size; i++) {
+                list.add(rows.rows[i]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns flyweights for those of the given rows whose meetings are of the given type, sorted
+     * chronologically (then by id).
+     */
+    private <T extends Meeting> List<T> getSortedByDate(List<Integer> rows, Class<? extends T> type) {
+        // Compare on the columns directly, rather than through the flyweights' Calendars
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int n = Long.compare(dates[o1], dates[o2]);
+                if (n == 0) {
+                    return Integer.compare(ids[o1], ids[o2]);
+                } else {
+                    return n;
+                }
+            }
+        });
+
+        List<T> meetings = new LinkedList<T>();
+        for (int row : rows) {
+            Meeting meeting = getByRow(row);
+            if (type.isInstance(meeting))
+                meetings.add(type.cast(meeting));
+        }
+        return meetings;
+    }
+
+    /**
+     * A growable list of rows.
+     */
+    private static class RowList {
+        int[] rows = new int[4];
+        int size = 0;
+
+        void add(int row) {
+            if (size == rows.length)
+                rows = Arrays.copyOf(rows, size * 2);
+            rows[size++] = row;
+        }
+    }
+
+    /**
+     * A meeting that reads its data from a row of the store.
+     */
+    private abstract class MeetingView implements Meeting {
+        protected final int row;
+
+        MeetingView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public int getId() {
+            return ids[row];
+        }
+
+        @Override
+        public Calendar getDate() {
+            Calendar date = Calendar.getInstance();
+            date.setTimeInMillis(dates[row]);
+            return date;
+        }
+
+        @Override
+        public Set<Contact> getContacts() {
+            Set<Contact> contacts = new HashSet<Contact>();
+            for (int i = attendee_offsets[row]; i < attendee_offsets[row + 1]; i++) {
+                contacts.add(contacts_by_id.get(attendee_pool[i]));
+            }
+            return contacts;
+        }
+
+        private long getDateMillis() {
+            return dates[row];
+        }
+
+        /**
+         * Views are equal if they have the same id, date and contacts (as AbstractMeetings are),
+         * even if they're of different stores, so that a meeting equals itself once reloaded.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MeetingView that = (MeetingView) o;
+            return this.getId() == that.getId() && this.getDateMillis() == that.getDateMillis()
+                    && this.getContacts().equals(that.getContacts());
+        }
+
+        @Override
+        public int hashCode() {
+            return ids[row];
+        }
+    }
+
+    private class FutureMeetingView extends MeetingView implements FutureMeeting {
+        FutureMeetingView(int row) {
+            super(row);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Meeting with id=%d at %d with contacts %s", getId(), dates[row], getContacts());
+        }
+    }
+
+    private class PastMeetingView extends MeetingView implements PastMeeting {
+        PastMeetingView(int row) {
+            super(row);
+        }
+
+        @Override
+        public String getNotes() {
+            return notes[row].toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Meeting with id=%d at %d with contacts %s with notes: %s",
+                    getId(), dates[row], getContacts(), getNotes());
+        }
+    }
+}
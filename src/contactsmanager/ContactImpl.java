@@ -1,14 +1,17 @@
 package contactsmanager;
 
+import contactsmanager.util.NoteBuffer;
+
 /**
  * An implementation of Contact.
  *
  * Notes added are automatically trimmed, and subsequent notes are added on new lines.
+ * Notes are kept in a NoteBuffer, so adding notes doesn't copy the notes already written.
  */
 public class ContactImpl implements Contact {
     private final int id;
     private final String name;
-    private String notes = "";
+    private final NoteBuffer notes = new NoteBuffer();
 
     public ContactImpl(Integer id, String name) {
         this.id = id;
@@ -27,16 +30,25 @@ public class ContactImpl implements Contact {
 
     @Override
     public String getNotes() {
+        return notes.toString();
+    }
+
+    /**
+     * Returns the buffer holding this contact's notes, so they can be written out chunk by chunk.
+     *
+     * @return the contact's note buffer.
+     */
+    NoteBuffer getNoteBuffer() {
         return notes;
     }
 
     @Override
     public void addNotes(String note) {
         if (notes.isEmpty()) {
-            notes = note.trim();
-        } else {
-            notes = notes + '\n' + note.trim();
+            // Don't leave a blank line at the start of the notes
+            notes.clear();
         }
+        notes.append(note.trim());
     }
 
     @Override
@@ -57,12 +69,12 @@ public class ContactImpl implements Contact {
     public int hashCode() {
         int result = id;
         result = 31 * result + name.hashCode();
-        result = 31 * result + notes.hashCode();
+        result = 31 * result + getNotes().hashCode();
         return result;
     }
 
     @Override
     public String toString() {
-        return String.format("Contact with id=%d, name=%s, notes=%s", id, name, notes);
+        return String.format("Contact with id=%d, name=%s, notes=%s", id, name, getNotes());
     }
 }
\ No newline at end of file
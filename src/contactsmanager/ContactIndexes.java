@@ -0,0 +1,257 @@
+package contactsmanager;
+
+import contactsmanager.util.BkTree;
+import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.InvertedIndex;
+import contactsmanager.util.RankedRadixTrie;
+import contactsmanager.util.WindowedBitmap;
+
+import java.util.*;
+
+/**
+ * The indexes of contacts' names which ContactManagerImpl and ColumnarContactManager share: a trie
+ * of name words ranked by activity score, for 'autocompleteContacts', and a BK-tree of name words,
+ * for 'searchContactNames'.  Each is built from the manager's contacts the first time it's needed,
+ * then kept up to date as contacts are added.  Also finds 'getFirstFreeDay' from the bitmaps of
+ * the days contacts have meetings on, which both managers keep.
+ *
+ * Queries may run concurrently, so building an index is synchronised; adding contacts and
+ * raising scores must not run concurrently with queries.
+ */
+class ContactIndexes {
+    /**
+     * What the indexes are built from: the manager's contacts, and their activity scores.
+     */
+    interface Source {
+        /**
+         * @return every contact known to the manager.
+         */
+        Collection<Contact> getContacts();
+
+        /**
+         * Returns the score that ranks a contact in 'autocompleteContacts': the number of
+         * meetings it attends in the top half, and the minute of its latest past meeting in the
+         * bottom half.  Neither ever goes down, so neither does the score.
+         *
+         * @param contact_id the id of a known contact.
+         * @return the contact's score.
+         */
+        long getActivityScore(int contact_id);
+    }
+
+    private final Source source;
+    // Built on first use, by 'getNameTrie'
+    private volatile RankedRadixTrie name_trie = null;
+    // Built on first use, by 'getNameWordTree'
+    private volatile BkTree name_word_tree = null;
+
+    /**
+     * @param source the manager's contacts and their activity scores.
+     */
+    ContactIndexes(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Adds a new contact to whichever indexes have been built.
+     *
+     * @param contact the contact.
+     */
+    void addContact(Contact contact) {
+        if (name_trie != null)
+            name_trie.add(contact.getId(), InvertedIndex.tokenise(contact.getName()), source.getActivityScore(contact.getId()));
+
+        if (name_word_tree != null)
+            addNameWords(name_word_tree, contact);
+    }
+
+    /**
+     * @return whether the trie has been built, and so whether scores need raising.
+     */
+    boolean isNameTrieBuilt() {
+        return name_trie != null;
+    }
+
+    /**
+     * Returns the score the contact is ranked by in the trie.
+     *
+     * @param contact_id the contact's id.
+     * @return the score.
+     * @throws IllegalStateException if the trie hasn't been built.
+     */
+    long getScore(int contact_id) {
+        if (name_trie == null)
+            throw new IllegalStateException("The name trie hasn't been built");
+
+        return name_trie.getScore(contact_id);
+    }
+
+    /**
+     * Raises the contact's score in the trie to the given one, if the trie has been built and the
+     * score is higher.
+     *
+     * @param contact_id the contact's id.
+     * @param score the contact's new activity score.
+     */
+    void raiseScore(int contact_id, long score) {
+        RankedRadixTrie trie = name_trie;
+        if (trie != null && score > trie.getScore(contact_id))
+            trie.raiseScore(contact_id, score);
+    }
+
+    /**
+     * Returns the trie of contacts' name words, building it if this is the first time it's needed.
+     * As reads may run concurrently, building it is synchronised.
+     */
+    private RankedRadixTrie getNameTrie() {
+        RankedRadixTrie trie = name_trie;
+        if (trie == null) {
+            synchronized (this) {
+                trie = name_trie;
+                if (trie == null) {
+                    trie = new RankedRadixTrie();
+                    for (Contact contact : source.getContacts()) {
+                        trie.add(contact.getId(), InvertedIndex.tokenise(contact.getName()), source.getActivityScore(contact.getId()));
+                    }
+                    name_trie = trie;
+                }
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Returns the contacts found by 'autocompleteContacts', with their activity scores (which
+     * rank them, highest first and then by id).
+     *
+     * @param prefix the start of the word to look for.
+     * @param limit the greatest number of contacts to return.
+     * @return the scores of up to 'limit' contacts, keyed by contact id, in ranked order.
+     * @throws NullPointerException if the prefix is null.
+     * @throws IllegalArgumentException if limit is negative.
+     */
+    Map<Integer, Long> getAutocompleteScores(String prefix, int limit) {
+        if (prefix == null)
+            throw new NullPointerException("prefix is null");
+
+        if (limit < 0)
+            throw new IllegalArgumentException("limit " + limit + " is negative");
+
+        RankedRadixTrie trie = getNameTrie();
+        Map<Integer, Long> scores = new LinkedHashMap<Integer, Long>();
+        for (int contact_id : trie.search(prefix.toLowerCase(), limit)) {
+            scores.put(contact_id, trie.getScore(contact_id));
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the BK-tree of contacts' name words, building it if this is the first time it's
+     * needed.  As reads may run concurrently, building it is synchronised.
+     */
+    private BkTree getNameWordTree() {
+        BkTree tree = name_word_tree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = name_word_tree;
+                if (tree == null) {
+                    tree = new BkTree();
+                    for (Contact contact : source.getContacts()) {
+                        addNameWords(tree, contact);
+                    }
+                    name_word_tree = tree;
+                }
+            }
+        }
+        return tree;
+    }
+
+    private static void addNameWords(BkTree tree, Contact contact) {
+        for (String word : InvertedIndex.tokenise(contact.getName())) {
+            tree.add(word, contact.getId());
+        }
+    }
+
+    /**
+     * Returns the contacts found by 'searchContactNames', with the total number of edits each
+     * needs to match the query, so that results from several managers can be ranked together
+     * (with 'rankByDistance').
+     *
+     * @param query the name to search for.
+     * @param max_distance the greatest number of edits allowed for each word of the query.
+     * @return the total edits of matching contacts, keyed by contact id.
+     * @throws NullPointerException if the query is null.
+     * @throws IllegalArgumentException if max_distance is negative.
+     */
+    Map<Integer, Integer> getContactNameDistances(String query, int max_distance) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        if (max_distance < 0)
+            throw new IllegalArgumentException("max_distance " + max_distance + " is negative");
+
+        BkTree tree = getNameWordTree();
+        Map<Integer, Integer> distances = null;
+        for (String word : InvertedIndex.tokenise(query)) {
+            Map<Integer, Integer> word_distances = tree.search(word, max_distance);
+            if (distances == null) {
+                distances = word_distances;
+            } else {
+                // Keep only the contacts that match every word so far
+                Map<Integer, Integer> combined_distances = new HashMap<Integer, Integer>();
+                for (Map.Entry<Integer, Integer> distance : distances.entrySet()) {
+                    Integer word_distance = word_distances.get(distance.getKey());
+                    if (word_distance != null)
+                        combined_distances.put(distance.getKey(), distance.getValue() + word_distance);
+                }
+                distances = combined_distances;
+            }
+        }
+
+        return distances == null ? new HashMap<Integer, Integer>() : distances;
+    }
+
+    /**
+     * Returns the keys of the given distances map, sorted by distance (lowest first) then by key.
+     *
+     * @param distances distances keyed by contact id, as returned by 'getContactNameDistances'.
+     * @return the contact ids, closest first.
+     */
+    static List<Integer> rankByDistance(final Map<Integer, Integer> distances) {
+        List<Integer> ranked = new ArrayList<Integer>(distances.keySet());
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int n = distances.get(o1).compareTo(distances.get(o2));
+                return n != 0 ? n : o1.compareTo(o2);
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Returns the first of the given number of days, starting with the day of 'from', on which
+     * none of the given bitmaps of meeting days has a bit set, as 'getFirstFreeDay' does.
+     *
+     * @param bitmaps the days the contacts have meetings on, by day number.
+     * @param from the date to start from.
+     * @param days the number of days to look through.
+     * @return the start of the first free day (in the default time zone), or null if there's none.
+     */
+    static Calendar getFirstFreeDay(List<WindowedBitmap> bitmaps, Calendar from, int days) {
+        int first_day = CalendarUtil.getDayNumber(from);
+        int end_day = (int) Math.min((long) first_day + days, Integer.MAX_VALUE);
+        int free_day = WindowedBitmap.nextClearBit(bitmaps, first_day, end_day);
+        if (free_day == end_day)
+            return null;
+
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(from.getTimeInMillis());
+        date.add(Calendar.DAY_OF_YEAR, free_day - first_day);
+        date.set(Calendar.HOUR_OF_DAY, 0);
+        date.set(Calendar.MINUTE, 0);
+        date.set(Calendar.SECOND, 0);
+        date.set(Calendar.MILLISECOND, 0);
+        return date;
+    }
+}
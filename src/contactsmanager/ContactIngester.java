@@ -0,0 +1,400 @@
+package contactsmanager;
+
+import contactsmanager.util.BoundedMpscQueue;
+import contactsmanager.util.LatencyHistogram;
+import contactsmanager.util.SettableFuture;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A high-rate ingestion front end for a ContactManager, for many producer threads adding
+ * contacts, meetings and notes at once.
+ *
+ * Producers submit commands to a bounded lock-free queue (waiting while it's full), and get a
+ * Future for each command's result.  A single writer thread drains the queue in batches and
+ * applies the commands to the manager, which it has to itself, so no locks are taken on the
+ * manager and producers never contend with each other for it.  Consecutive commands of the same
+ * kind in a batch are applied with one call to the manager's batch method (eg. 'addNewContacts');
+ * if that call fails, as it's all-or-nothing, the commands are retried one at a time so that
+ * only the bad ones fail.
+ *
+ * Once 'close' has been called, new commands fail straight away; commands already being
+ * queued are still applied, as the writer waits for their producers before it stops.  If applying
+ * a command throws an Error, that command's future fails with it and the writer carries on.
+ *
+ * While an ingester is open, its manager must not be used by anything else.  'flush' is queued
+ * like any other command, so it saves every command submitted before it.  The queue depth seen
+ * by the writer and the size of each batch are recorded (see 'getQueueDepths' and 'getBatchSizes').
+ */
+public class ContactIngester implements Closeable {
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 10 * 1000 * 1000;
+    private static final long FULL_PARK_NANOS = 50 * 1000;
+
+    /**
+     * The kinds of command.  Commands of the first three kinds can be applied in groups.
+     */
+    private enum Kind {
+        ADD_CONTACT,
+        ADD_FUTURE_MEETING,
+        ADD_PAST_MEETING,
+        ADD_MEETING_NOTES,
+        FLUSH
+    }
+
+    /**
+     * A command waiting to be applied, and the future for its result.
+     */
+    private static class Command {
+        private final Kind kind;
+        private final SettableFuture<Integer> result = new SettableFuture<Integer>();
+        private int id;
+        private String name;
+        private String text;
+        private Set<Contact> contacts;
+        private Calendar date;
+
+        Command(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    private final ContactManager manager;
+    private final BoundedMpscQueue<Command> queue;
+    private final int max_batch_size;
+    private final Thread writer;
+    private volatile boolean writer_sleeping = false;
+    private volatile boolean closed = false;
+    // The producers part-way through queueing a command
+    private final AtomicInteger producers = new AtomicInteger();
+
+    private final LatencyHistogram queue_depths = new LatencyHistogram();
+    private final LatencyHistogram batch_sizes = new LatencyHistogram();
+    private final AtomicLong applied_count = new AtomicLong();
+
+    /**
+     * Creates an ingester for the given manager, with the default queue capacity and batch size.
+     *
+     * @param manager the manager to apply commands to.
+     */
+    public ContactIngester(ContactManager manager) {
+        this(manager, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an ingester for the given manager.
+     *
+     * @param manager the manager to apply commands to.
+     * @param capacity the most commands that can be queued (rounded up to a power of two).
+     * @param max_batch_size the most commands the writer drains from the queue at once.
+     * @throws IllegalArgumentException if capacity or max_batch_size isn't positive.
+     */
+    public ContactIngester(ContactManager manager, int capacity, int max_batch_size) {
+        if (manager == null)
+            throw new NullPointerException("manager is null");
+
+        if (max_batch_size < 1)
+            throw new IllegalArgumentException("Batch size " + max_batch_size + " isn't positive");
+
+        this.manager = manager;
+        this.queue = new BoundedMpscQueue<Command>(capacity);
+        this.max_batch_size = max_batch_size;
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                applyCommands();
+            }
+        }, "contact-manager-ingester");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a command, waiting while the queue is full.
+     *
+     * @throws IllegalStateException if the ingester has been closed.
+     */
+    private Future<Integer> submit(Command command) {
+        // Counted before checking 'closed', so that once closed the writer won't stop until this
+        // producer has either given up or queued the command
+        producers.incrementAndGet();
+        try {
+            if (closed) {
+                command.result.setException(new IllegalStateException("Ingester is closed"));
+                return command.result;
+            }
+
+            while (!queue.offer(command)) {
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        } finally {
+            producers.decrementAndGet();
+        }
+
+        if (writer_sleeping)
+            LockSupport.unpark(writer);
+        return command.result;
+    }
+
+    /**
+     * Queues the addition of a new contact.
+     *
+     * @param name the contact's name.
+     * @param notes the contact's notes.
+     * @return the new contact's id, once it's been added.
+     * @throws NullPointerException if name or notes is null.
+     * @throws IllegalStateException if the ingester has been closed.
+     */
+    public Future<Integer> addNewContact(String name, String notes) {
+        // Checked now so that a group of contacts can't fail when it's applied
+        if (name == null)
+            throw new NullPointerException("name is null");
+
+        if (notes == null)
+            throw new NullPointerException("notes is null");
+
+        Command command = new Command(Kind.ADD_CONTACT);
+        command.name = name;
+        command.text = notes;
+        return submit(command);
+    }
+
+    /**
+     * Queues the addition of a new future meeting.  The Future fails with the exception
+     * 'ContactManager.addFutureMeeting' would have thrown, if the meeting is invalid.
+     *
+     * @param contacts the meeting's contacts.
+     * @param date the meeting's date.
+     * @return the new meeting's id, once it's been added.
+     * @throws IllegalStateException if the ingester has been closed.
+     */
+    public Future<Integer> addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        Command command = new Command(Kind.ADD_FUTURE_MEETING);
+        command.contacts = contacts == null ? null : new HashSet<Contact>(contacts);
+        command.date = date == null ? null : (Calendar) date.clone();
+        return submit(command);
+    }
+
+    /**
+     * Queues the addition of a new past meeting.  The Future fails with the exception
+     * 'ContactManager.addNewPastMeeting' would have thrown, if the meeting is invalid.
+     *
+     * @param contacts the meeting's contacts.
+     * @param date the meeting's date.
+     * @param text the meeting's notes.
+     * @return the new meeting's id, once it's been added.
+     * @throws IllegalStateException if the ingester has been closed.
+     */
+    public Future<Integer> addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        Command command = new Command(Kind.ADD_PAST_MEETING);
+        command.contacts = contacts == null ? null : new HashSet<Contact>(contacts);
+        command.date = date == null ? null : (Calendar) date.clone();
+        command.text = text;
+        return submit(command);
+    }
+
+    /**
+     * Queues the addition of notes to a meeting.  The Future fails with the exception
+     * 'ContactManager.addMeetingNotes' would have thrown, if the notes can't be added.
+     *
+     * @param id the meeting's id.
+     * @param text the notes to add.
+     * @return the meeting's id, once the notes have been added.
+     * @throws IllegalStateException if the ingester has been closed.
+     */
+    public Future<Integer> addMeetingNotes(int id, String text) {
+        Command command = new Command(Kind.ADD_MEETING_NOTES);
+        command.id = id;
+        command.text = text;
+        return submit(command);
+    }
+
+    /**
+     * Queues a flush of the manager, which saves every command submitted before it.
+     *
+     * @return null, once the manager has been flushed.
+     * @throws IllegalStateException if the ingester has been closed.
+     */
+    public Future<Integer> flush() {
+        return submit(new Command(Kind.FLUSH));
+    }
+
+    /**
+     * Stops accepting commands, then waits for the writer to apply the ones already queued
+     * (including any that producers are part-way through queueing).
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+
+        if (Thread.currentThread() != writer) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The writer's loop: drain a batch, apply it, repeat, until closed and empty.
+     */
+    private void applyCommands() {
+        List<Command> batch = new ArrayList<Command>(max_batch_size);
+        while (true) {
+            int depth = queue.size();
+            if (queue.drainTo(batch, max_batch_size) > 0) {
+                queue_depths.record(depth);
+                batch_sizes.record(batch.size());
+                applyBatch(batch);
+                applied_count.addAndGet(batch.size());
+                batch.clear();
+                continue;
+            }
+
+            // Producers queue before they stop being counted, so check the count before the queue
+            if (closed && producers.get() == 0 && queue.isEmpty())
+                return;
+
+            // Producers check 'writer_sleeping' after queueing, so re-check the queue after setting it
+            writer_sleeping = true;
+            if (queue.isEmpty())
+                LockSupport.parkNanos(closed ? FULL_PARK_NANOS : IDLE_PARK_NANOS);
+            writer_sleeping = false;
+        }
+    }
+
+    /**
+     * Applies a batch of commands in order, grouping runs of commands of the same kind.
+     */
+    private void applyBatch(List<Command> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            Kind kind = batch.get(start).kind;
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).kind == kind) {
+                end++;
+            }
+
+            List<Command> run = batch.subList(start, end);
+            if (kind == Kind.ADD_MEETING_NOTES || kind == Kind.FLUSH || run.size() == 1) {
+                for (Command command : run) {
+                    applyGroup(Collections.singletonList(command));
+                }
+            } else {
+                try {
+                    applyGroup(run);
+                } catch (RuntimeException err) {
+                    // The group was all-or-nothing, so nothing was applied; find the bad commands
+                    for (Command command : run) {
+                        applyGroup(Collections.singletonList(command));
+                    }
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Applies a group of commands of the same kind with a single call to the manager.  If the
+     * group is a single command, any exception fails the command's future; otherwise a
+     * RuntimeException is rethrown (with no commands having been applied).  An Error fails
+     * every command in the group, as it can't be known which of them were applied.
+     */
+    private void applyGroup(List<Command> group) {
+        try {
+            List<Integer> ids = apply(group);
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).result.set(ids.get(i));
+            }
+        } catch (RuntimeException err) {
+            if (group.size() > 1)
+                throw err;
+            group.get(0).result.setException(err);
+        } catch (Error err) {
+            for (Command command : group) {
+                command.result.setException(err);
+            }
+        }
+    }
+
+    private List<Integer> apply(List<Command> group) {
+        Kind kind = group.get(0).kind;
+        switch (kind) {
+            case ADD_CONTACT: {
+                List<String> names = new ArrayList<String>(group.size());
+                List<String> notes = new ArrayList<String>(group.size());
+                for (Command command : group) {
+                    names.add(command.name);
+                    notes.add(command.text);
+                }
+                return manager.addNewContacts(names, notes);
+            }
+            case ADD_FUTURE_MEETING: {
+                List<Set<Contact>> contacts = new ArrayList<Set<Contact>>(group.size());
+                List<Calendar> dates = new ArrayList<Calendar>(group.size());
+                for (Command command : group) {
+                    contacts.add(command.contacts);
+                    dates.add(command.date);
+                }
+                return manager.addFutureMeetings(contacts, dates);
+            }
+            case ADD_PAST_MEETING: {
+                List<Set<Contact>> contacts = new ArrayList<Set<Contact>>(group.size());
+                List<Calendar> dates = new ArrayList<Calendar>(group.size());
+                List<String> texts = new ArrayList<String>(group.size());
+                for (Command command : group) {
+                    contacts.add(command.contacts);
+                    dates.add(command.date);
+                    texts.add(command.text);
+                }
+                return manager.addNewPastMeetings(contacts, dates, texts);
+            }
+            case ADD_MEETING_NOTES:
+                manager.addMeetingNotes(group.get(0).id, group.get(0).text);
+                return Collections.singletonList(group.get(0).id);
+            case FLUSH:
+                manager.flush();
+                return Collections.singletonList(null);
+            default:
+                throw new IllegalStateException("Unknown command " + kind);
+        }
+    }
+
+    /**
+     * @return the number of commands waiting in the queue now.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the histogram of how many commands were queued each time the writer drained a batch.
+     */
+    public LatencyHistogram getQueueDepths() {
+        return queue_depths;
+    }
+
+    /**
+     * @return the histogram of how many commands were in each batch the writer applied.
+     */
+    public LatencyHistogram getBatchSizes() {
+        return batch_sizes;
+    }
+
+    /**
+     * @return the number of commands applied so far (whether they succeeded or failed).
+     */
+    public long getAppliedCount() {
+        return applied_count.get();
+    }
+}
@@ -2,6 +2,7 @@ package contactsmanager;
 
 import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -19,6 +20,62 @@ public interface ContactManager {
      */
     int addFutureMeeting(Set<Contact> contacts, Calendar date);
 
+    /**
+     * Add many new meetings to be held in the future.  The i'th meeting has
+     * the i'th set of contacts and the i'th date.
+     *
+     * Every meeting is checked before any are added, so if an exception is
+     * thrown then none of the meetings have been added.
+     *
+     * @param contacts the contacts who will participate in each meeting.
+     * @param dates the date on which each meeting will take place.
+     * @return the IDs for the meetings, in the order given.
+     * @throws IllegalArgumentException if the lists are different lengths,
+     *      or any meeting is set for a time in the past,
+     *      or any contact is unknown / non-existent.
+     * @throws NullPointerException if any of the arguments or their elements are null.
+     */
+    List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates);
+
+    /**
+     * Add a meeting which recurs: it's held on the given date, and then every
+     * 'interval_days' days after it, 'count' times in all.
+     *
+     * Each occurrence is a future meeting with its own ID.  The first has the
+     * returned ID, and each of the rest has the ID after the one before it.
+     * Notes can be added to each occurrence once it's in the past, as with
+     * any other meeting.
+     *
+     * @param contacts the contacts who will participate in every occurrence.
+     * @param first_date the date of the first occurrence.
+     * @param interval_days the number of days from each occurrence to the next.
+     * @param count the number of occurrences.
+     * @return the ID of the first occurrence.
+     * @throws IllegalArgumentException if the first date is in the past,
+     *      or any contact is unknown / non-existent,
+     *      or the interval or count isn't positive.
+     * @throws NullPointerException if contacts or first_date is null.
+     */
+    int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count);
+
+    /**
+     * Add a meeting which recurs: it's held on the given first date, and then
+     * every 'interval_days' days after it, until the last date (inclusive).
+     * See 'addRecurringMeeting(Set, Calendar, int, int)'.
+     *
+     * @param contacts the contacts who will participate in every occurrence.
+     * @param first_date the date of the first occurrence.
+     * @param interval_days the number of days from each occurrence to the next.
+     * @param last_date the latest date an occurrence may be on.
+     * @return the ID of the first occurrence.
+     * @throws IllegalArgumentException if the first date is in the past,
+     *      or the last date is before the first,
+     *      or any contact is unknown / non-existent,
+     *      or the interval isn't positive.
+     * @throws NullPointerException if contacts, first_date or last_date is null.
+     */
+    int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date);
+
     /**
      * Returns the PAST meeting with the requested ID, or null if there is none.
      *
@@ -96,6 +153,23 @@ public interface ContactManager {
      */
     void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text);
 
+    /**
+     * Create new records for many meetings that took place in the past.  The
+     * i'th meeting has the i'th set of contacts, date and text.
+     *
+     * Every meeting is checked before any are added, so if an exception is
+     * thrown then none of the meetings have been added.
+     *
+     * @param contacts the participants of each meeting.
+     * @param dates    the date on which each meeting took place.
+     * @param texts    messages to be added about each meeting.
+     * @return the IDs for the meetings, in the order given.
+     * @throws IllegalArgumentException if the lists are different lengths,
+     *      or any list of contacts is empty, or any of the contacts do not exist.
+     * @throws NullPointerException     if any of the arguments or their elements are null.
+     */
+    List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts);
+
     /**
      * Add notes to a meeting.
      *
@@ -112,6 +186,19 @@ public interface ContactManager {
      */
     void addMeetingNotes(int id, String text);
 
+    /**
+     * Add notes to many meetings, as with 'addMeetingNotes(int, String)'.
+     *
+     * Every meeting is checked before notes are added to any, so if an
+     * exception is thrown then no notes have been added.
+     *
+     * @param notes_by_id the messages to be added, keyed by the meeting's ID.
+     * @throws IllegalArgumentException if any meeting does not exist.
+     * @throws IllegalStateException if any meeting is set for a date in the future.
+     * @throws NullPointerException if the map, or any of its IDs or notes, are null.
+     */
+    void addMeetingNotes(Map<Integer, String> notes_by_id);
+
     /**
      * Create a new contact with the specified name and notes.
      *
@@ -121,6 +208,20 @@ public interface ContactManager {
      */
     void addNewContact(String name, String notes);
 
+    /**
+     * Create many new contacts.  The i'th contact has the i'th name and notes.
+     *
+     * Every contact is checked before any are added, so if an exception is
+     * thrown then none of the contacts have been added.
+     *
+     * @param names the names of the contacts.
+     * @param notes notes to be added about each contact.
+     * @return the IDs of the new contacts, in the order given.
+     * @throws IllegalArgumentException if the lists are different lengths.
+     * @throws NullPointerException if the lists, or any of the names or notes, are null.
+     */
+    List<Integer> addNewContacts(List<String> names, List<String> notes);
+
     /**
      * Returns a list containing the contacts who correspond to the IDs.
      *
@@ -139,6 +240,103 @@ public interface ContactManager {
      */
     Set<Contact> getContacts(String name);
 
+    /**
+     * Returns the ids of the contacts whose notes contain every word of the query.
+     *
+     * Words are matched whole and case-insensitively, and the results are ranked by
+     * how many times the query's words appear in the contact's notes (most first).
+     *
+     * @param query the words to search for.
+     * @return the ids of matching contacts, best match first (maybe empty).
+     * @throws NullPointerException if the query is null.
+     */
+    List<Integer> searchContactNotes(String query);
+
+    /**
+     * Returns the ids of the past meetings whose notes contain every word of the query.
+     *
+     * Words are matched whole and case-insensitively, and the results are ranked by
+     * how many times the query's words appear in the meeting's notes (most first).
+     *
+     * @param query the words to search for.
+     * @return the ids of matching past meetings, best match first (maybe empty).
+     * @throws NullPointerException if the query is null.
+     */
+    List<Integer> searchMeetingNotes(String query);
+
+    /**
+     * Returns the most active contacts with a word of their name starting with the given prefix.
+     *
+     * Names are split into words on anything that isn't a letter or digit, and matched
+     * case-insensitively.  Contacts are ranked by how many meetings (past and future) they
+     * attend (most first), then by the date of their latest past meeting (latest first), then by id.
+     *
+     * @param prefix the start of the word to look for (an empty prefix matches every contact).
+     * @param limit the greatest number of contacts to return.
+     * @return up to 'limit' matching contacts, most active first (maybe empty).
+     * @throws NullPointerException if the prefix is null.
+     * @throws IllegalArgumentException if limit is negative.
+     */
+    List<Contact> autocompleteContacts(String prefix, int limit);
+
+    /**
+     * Returns the contacts whose names nearly match the query, allowing for typos.
+     *
+     * Names and the query are split into words on anything that isn't a letter or digit, and
+     * matched case-insensitively.  A contact matches if every word of the query is within
+     * 'max_distance' edits (single-character insertions, deletions or substitutions) of a word of
+     * its name.  Contacts are ranked by the total number of edits (fewest first), then by id.
+     *
+     * @param query the name to search for.
+     * @param max_distance the greatest number of edits allowed for each word of the query.
+     * @return the matching contacts, closest first (empty if none match, or the query has no words).
+     * @throws NullPointerException if the query is null.
+     * @throws IllegalArgumentException if max_distance is negative.
+     */
+    List<Contact> searchContactNames(String query, int max_distance);
+
+    /**
+     * Returns the list of meetings (past and future) which every one of the given contacts attends.
+     *
+     * If there are none, the returned list will be empty. Otherwise,
+     * the list will be chronologically sorted and will not contain any
+     * duplicates.
+     *
+     * @param contacts the contacts who must all attend.
+     * @return the list of meetings attended by all the contacts.
+     * @throws IllegalArgumentException if contacts is empty or any of the contacts do not exist.
+     * @throws NullPointerException if contacts is null.
+     */
+    List<Meeting> getMeetingsWithAllOf(Set<Contact> contacts);
+
+    /**
+     * Returns the list of meetings (past and future) which at least one of the given contacts attends.
+     *
+     * If there are none, the returned list will be empty. Otherwise,
+     * the list will be chronologically sorted and will not contain any
+     * duplicates.
+     *
+     * @param contacts the contacts of whom at least one must attend.
+     * @return the list of meetings attended by any of the contacts.
+     * @throws IllegalArgumentException if contacts is empty or any of the contacts do not exist.
+     * @throws NullPointerException if contacts is null.
+     */
+    List<Meeting> getMeetingsWithAnyOf(Set<Contact> contacts);
+
+    /**
+     * Returns the first day, of the given number of days starting with the given date's, on
+     * which none of the given contacts has a meeting (past or future).
+     *
+     * @param contacts the contacts who must all be free.
+     * @param from a date in the first day to look at.
+     * @param days the number of days to look at.
+     * @return the start (midnight) of the first free day, or null if none of the days is free.
+     * @throws IllegalArgumentException if contacts is empty, any of the contacts do not exist,
+     *      or days is less than 1.
+     * @throws NullPointerException if contacts or from is null.
+     */
+    Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days);
+
     /**
      * Save all data to disk.
      *
@@ -1,25 +1,144 @@
 package contactsmanager;
 
 import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.CompressedBitmap;
+import contactsmanager.util.FileUtil;
+import contactsmanager.util.InvertedIndex;
+import contactsmanager.util.LatencyHistogram;
+import contactsmanager.util.PackedStringScanner;
+import contactsmanager.util.PresortedCollections;
+import contactsmanager.util.WindowedBitmap;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * An implementation of ContactManager.
+ *
+ * Contacts' names are packed into a single buffer, which 'getContacts(String)' scans (in
+ * parallel, once there are enough of them).
+ *
+ * Contact and past meeting notes are kept in full-text indexes for 'searchContactNotes' and
+ * 'searchMeetingNotes'.  These are updated as contacts, past meetings and meeting notes are
+ * added through the manager; notes added directly with 'Contact.addNotes' afterwards are only
+ * picked up once the manager is reloaded.
+ *
+ * The ids of each contact's meetings (past and future) are also kept in a compressed bitmap,
+ * so that 'getMeetingsWithAllOf' and 'getMeetingsWithAnyOf' are bitmap intersections and unions.
+ * Likewise, the days each contact has meetings on are kept as one bit per day, so that
+ * 'getFirstFreeDay' ORs the contacts' bits a word (64 days) at a time.  A meeting promoted to
+ * the past keeps its day, so its bit stays set.
+ *
+ * The words of contacts' names are kept in a radix trie for 'autocompleteContacts', built when
+ * it's first used and kept up to date as contacts and meetings are added.  Its ranking only counts
+ * meetings that have been loaded, so in lazy-load mode (or with archived years) a contact's
+ * unloaded meetings don't count until they're loaded.  Likewise, the distinct words of names are
+ * kept in a BK-tree for 'searchContactNames', so that typos can be matched without comparing the
+ * query with every contact's name.  Both are kept in a ContactIndexes, shared with
+ * ColumnarContactManager.
+ *
+ * The batch methods ('addNewContacts', 'addFutureMeetings', 'addNewPastMeetings' and
+ * 'addMeetingNotes(Map)') check all of their arguments before changing anything, so a batch is
+ * added entirely or not at all.
+ *
+ * In lazy-load mode, only contacts are loaded when the manager is created.  Meetings are loaded
+ * from the file when first needed: a contact's meetings when that contact's meetings are first
+ * asked for, a meeting by id when it's first asked for by id, and all of them before anything
+ * that needs every meeting (eg. listing a date's meetings, searching meeting notes or flushing).
+ * Queries may run concurrently (see AsyncContactManager), so one that may have to load meetings
+ * (from the file or the archive), or create recurring meetings' occurrences, locks the manager
+ * while it does: see 'lockForRead'.
+ *
+ * Recurring meetings ('addRecurringMeeting') are kept as rules, and each occurrence is only
+ * created as a FutureMeeting when a query covers it: by id, by date, or by one of its contacts
+ * (which creates all of that contact's occurrences).  Adding notes to an occurrence promotes it
+ * to a PastMeeting, as with any other meeting.  'flush' saves the rules beside the file, and the
+ * file itself only holds the occurrences that have been promoted.
+ *
+ * If 'setPersistIndexes' is on, 'flush' also saves the sorted meeting indexes beside the file,
+ * and loading the file then fills them in from there rather than sorting every meeting again.
+ *
+ * With 'setArchivePastMeetings' on, past years' meetings are sealed into archive segments when
+ * flushing, and read back only when needed.  A segment that can't be read isn't skipped: the
+ * manager won't load, or whatever needs the segment's meetings throws IllegalStateException.
+ *
+ * With a notes memory budget ('setNotesMemoryBudget'), the notes of past meetings that haven't
+ * been used lately are kept on disk rather than in memory once the budget is used up.
+ *
+ * Changes made through the manager are published to subscribers (see 'subscribe'), each of
+ * which receives them in batches on its own thread.
+ *
+ * Reminders of future meetings (see 'startReminders') are scheduled as meetings are added, and
+ * cancelled as they're promoted to past meetings.
  */
 public class ContactManagerImpl implements ContactManager {
+    /**
+     * The stages of loading and flushing that are individually timed (see 'getStageTiming').
+     */
+    public enum Stage {
+        /** Reading and parsing the file into a DataStore. */
+        LOAD_PARSE,
+        /** Adding the loaded contacts and meetings to the manager's data structures. */
+        LOAD_INDEX,
+        /** Putting the manager's contacts and meetings into a DataStore. */
+        FLUSH_COLLECT,
+        /** Serialising the DataStore and writing it to file. */
+        FLUSH_WRITE,
+        /** Loading meetings when they're first needed, in lazy-load mode. */
+        LOAD_DEFERRED
+    }
+
     private static final String DEFAULT_FILENAME = "contacts.txt";
+    private static final String NOTES_SEGMENT_SUFFIX = ".notes";
     private final String filename;
+    private final boolean lazy_load_meetings;
+    // Meetings in the file that haven't been loaded yet, in lazy-load mode (otherwise null)
+    private MeetingSource pending_meetings = null;
     private int last_contact_id = -1;
     private int last_meeting_id = -1;
     private final Map<Integer,Contact> contacts_by_id = new HashMap<Integer, Contact>();
-    private final Map<Contact, Set<PastMeeting>> past_meetings_by_contact = new HashMap<Contact, Set<PastMeeting>>();
-    private final Map<Contact, Set<Meeting>> future_meetings_by_contact = new HashMap<Contact, Set<Meeting>>();
+    // Keyed by contact id, as Contacts' hash codes change when notes are added to them
+    private final Map<Integer, Set<PastMeeting>> past_meetings_by_contact = new HashMap<Integer, Set<PastMeeting>>();
+    private final Map<Integer, Set<Meeting>> future_meetings_by_contact = new HashMap<Integer, Set<Meeting>>();
     private final Map<Integer, PastMeeting> past_meetings_by_id = new HashMap<Integer, PastMeeting>();
     private final Map<Integer, FutureMeeting> future_meetings_by_id = new HashMap<Integer, FutureMeeting>();
+    private final Map<Integer, CompressedBitmap> meeting_ids_by_contact = new HashMap<Integer, CompressedBitmap>();
+    // The days (see 'CalendarUtil.getDayNumber') each contact has meetings on, including recurring meetings' occurrences
+    private final Map<Integer, WindowedBitmap> meeting_days_by_contact = new HashMap<Integer, WindowedBitmap>();
     private final Map<Calendar, Set<Meeting>> meetings_by_date;
+    // Recurring meetings by the id of their first occurrence, and by each of their contacts' ids
+    private final TreeMap<Integer, RecurringMeeting> recurring_meetings = new TreeMap<Integer, RecurringMeeting>();
+    private final Map<Integer, List<RecurringMeeting>> recurring_meetings_by_contact = new HashMap<Integer, List<RecurringMeeting>>();
+    private final PackedStringScanner contact_names = new PackedStringScanner();
+    private final InvertedIndex contact_notes_index = new InvertedIndex();
+    private final InvertedIndex meeting_notes_index = new InvertedIndex();
+    // The name trie and BK-tree, built on first use
+    private final ContactIndexes contact_indexes = new ContactIndexes(new ContactIndexes.Source() {
+        @Override
+        public Collection<Contact> getContacts() {
+            return contacts_by_id.values();
+        }
+
+        @Override
+        public long getActivityScore(int contact_id) {
+            return ContactManagerImpl.this.getActivityScore(contact_id);
+        }
+    });
+    private final Map<Stage, LatencyHistogram> stage_timings = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+    private final ChangeFeed change_feed = new ChangeFeed();
+    private final List<ReminderScheduler> reminder_schedulers = new CopyOnWriteArrayList<ReminderScheduler>();
+    private boolean persist_indexes = false;
+    private NoteSegmentStore note_store = null;
+    private MeetingArchive archive = null;
+    private boolean archive_past_meetings = false;
+    // Held for reading by queries, and for writing by those that have to load meetings (see 'lockForRead')
+    private final ReentrantReadWriteLock load_lock = new ReentrantReadWriteLock();
+    // The number of recurring meetings with occurrences not yet created
+    private int unexpanded_recurring_count = 0;
 
     /**
      * Create a new ContactManagerImpl object using the default filename ("contacts.txt") for storage.
@@ -34,13 +153,60 @@ public class ContactManagerImpl implements ContactManager {
      * If the file already exists, this will load from it.
      *
      * @param filename the file location to store data in.
+     * @throws IllegalStateException if one of the file's archive segments can't be read.
      */
     public ContactManagerImpl(String filename) {
+        this(filename, false);
+    }
+
+    /**
+     * Creates a new ContactManagerImpl object using the given filename for storage.
+     * If the file already exists, this will load from it.
+     *
+     * If 'lazy_load_meetings' is true, only the file's contacts are loaded here, and its meetings
+     * are loaded as they're needed.  This needs the configured DataStore to be an XmlDataStore;
+     * with any other, everything is loaded here regardless.
+     *
+     * @param filename the file location to store data in.
+     * @param lazy_load_meetings whether to load meetings when first needed, rather than now.
+     * @throws IllegalStateException if one of the file's archive segments can't be read.
+     */
+    public ContactManagerImpl(String filename, Boolean lazy_load_meetings) {
+        this(filename, lazy_load_meetings, true);
+    }
+
+    private ContactManagerImpl(String filename, boolean lazy_load_meetings, boolean load_file) {
         this.filename = filename;
+        this.lazy_load_meetings = lazy_load_meetings;
+        for (Stage stage : Stage.values()) {
+            stage_timings.put(stage, new LatencyHistogram());
+        }
         meetings_by_date = new TreeMap<Calendar, Set<Meeting>>(CalendarUtil.getCalendarDateComparator());
 
-        if (new File(filename).isFile())
+        if (load_file && new File(filename).isFile())
             loadFromFile();
+
+        if (load_file) {
+            MeetingArchive found_archive = MeetingArchive.open(filename, contacts_by_id);
+            if (!found_archive.getYears().isEmpty())
+                archive = found_archive;
+
+            for (RecurringMeeting meeting : RecurringMeeting.read(filename, contacts_by_id)) {
+                addRecurringMeetingRule(meeting);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty ContactManagerImpl which stores its data in the given file, but doesn't load
+     * from it (even if it exists).  It's up to the caller to fill it with 'addExistingContact' and
+     * 'addExistingMeetings'.
+     *
+     * @param filename the file location to store data in.
+     * @return the new manager.
+     */
+    static ContactManagerImpl newWithoutLoading(String filename) {
+        return new ContactManagerImpl(filename, false, false);
     }
 
     /**
@@ -54,7 +220,13 @@ public class ContactManagerImpl implements ContactManager {
     private void loadFromFile() {
         DataStore data = DIFactory.getInstance().newDataStore();
 
+        if (lazy_load_meetings && data instanceof XmlDataStore) {
+            loadContactsFromFile((XmlDataStore) data);
+            return;
+        }
+
         // Load and parse file.  If either fails, load nothing (but no exceptions are thrown)
+        long stage_start = System.nanoTime();
         try {
             data.loadFromFilename(filename);
         } catch (IOException e) {
@@ -63,331 +235,1311 @@ public class ContactManagerImpl implements ContactManager {
         } catch (IllegalArgumentException e) {
             e.printStackTrace();
             return;
+        } finally {
+            stage_timings.get(Stage.LOAD_PARSE).record(System.nanoTime() - stage_start);
         }
 
+        stage_start = System.nanoTime();
+
         // Load contacts
         for (Contact contact : data.getContacts()) {
             addContact(contact);
         }
 
-        // Load past meetings
+        if (addMeetingsFromIndexFile(data)) {
+            stage_timings.get(Stage.LOAD_INDEX).record(System.nanoTime() - stage_start);
+            return;
+        }
+
+        // Load past meetings, then future meetings, all added together once checked
+        List<Meeting> meetings = new ArrayList<Meeting>();
+
         for (PastMeeting meeting : data.getPastMeetings()) {
-            try {
-                // Ensure contacts are known
-                addMeeting(meeting);
-            } catch (IllegalArgumentException err) {
-                System.out.format("Couldn't load meeting '%d' from file '%s'%n", meeting.getId(), filename);
-                err.printStackTrace();
+            if (isLoadedMeetingValid(meeting)) {
+                meetings.add(meeting);
+                meeting_notes_index.add(meeting.getId(), meeting.getNotes());
             }
         }
 
-        // Load future meetings
         for (FutureMeeting meeting : data.getFutureMeetings()) {
-            try {
-                // Ensure contacts are known
-                addMeeting(meeting);
-            } catch (IllegalArgumentException err) {
-                System.out.format("Couldn't load meeting '%d' from file '%s'%n", meeting.getId(), filename);
-                err.printStackTrace();
-            }
+            if (isLoadedMeetingValid(meeting))
+                meetings.add(meeting);
         }
-    }
-
-    /**
-     * Checks the given contacts set is not null or empty, and contains only
-     * known contacts.
-     *
-     * @param contacts the set of contacts to check.
-     * @throws IllegalArgumentException if contacts is empty or contains unknown contacts.
-     */
-    private void ensureContactsAreKnown(Set<Contact> contacts) {
-        // Ensure at least one contact will attend
-        if (contacts.isEmpty())
-            throw new IllegalArgumentException("No contacts at meeting");
 
-        Set<Contact> unknown_contacts = new HashSet<Contact>(contacts);
-        unknown_contacts.removeAll(contacts_by_id.values());
+        addMeetings(meetings);
 
-        if (!unknown_contacts.isEmpty())
-            throw new IllegalArgumentException("Unknown contacts in meeting: " + unknown_contacts);
+        stage_timings.get(Stage.LOAD_INDEX).record(System.nanoTime() - stage_start);
     }
 
     /**
-     * Checks that the given contact is not null and is known.
+     * Adds the loaded meetings in the orders saved in the file's index file (see MeetingIndexFile),
+     * building the per-contact and per-date sets directly from them rather than sorting every
+     * meeting into them.  The loaded contacts must already have been added.
      *
-     * @param contact the contact to check.
-     * @throws NullPointerException if the contact is null.
-     * @throws IllegalArgumentException if the contact is not known.
-     */
-    private void ensureContactIsKnown(Contact contact) {
-        // Check that contact is not null
-        if (contact == null)
-            throw new NullPointerException("contact is null");
-
-        if (!contacts_by_id.containsValue(contact))
-            throw new IllegalArgumentException("contact '" + contact.getName() + "' does is not known");
-    }
-
-    /**
-     * Adds the given meeting object to the manager's internal data structures, and updates last_meeting_id.
+     * The index file is only used if it was written with the file as it is now, and lists exactly
+     * the loaded contacts and meetings.
      *
-     * @throws IllegalArgumentException if any of the meeting's contacts are unknown,
-     *      or no contacts will be at the meeting,
-     *      or if the given meeting is neither a PastMeeting nor a FutureMeeting.
+     * @param data the loaded data.
+     * @return true if the meetings were added; false (with nothing added) if there's no usable index file.
      */
-    private void addMeeting(Meeting meeting) {
-        // Ensure the meeting's contacts are valid
-        ensureContactsAreKnown(meeting.getContacts());
-
-        // Add the meeting to the correct data structures
-        if (meeting instanceof FutureMeeting) {
-
-            future_meetings_by_id.put(meeting.getId(), (FutureMeeting) meeting);
+    private boolean addMeetingsFromIndexFile(DataStore data) {
+        MeetingIndexFile index = MeetingIndexFile.read(filename);
+        if (index == null)
+            return false;
+
+        Map<Integer, Meeting> meetings = new HashMap<Integer, Meeting>();
+        long attendee_count = 0;
+        for (Meeting meeting : data.getPastMeetings()) {
+            if (meetings.put(meeting.getId(), meeting) != null)
+                return false;
+            attendee_count += meeting.getContacts().size();
+        }
+        for (Meeting meeting : data.getFutureMeetings()) {
+            if (meetings.put(meeting.getId(), meeting) != null)
+                return false;
+            attendee_count += meeting.getContacts().size();
+        }
 
-            for (Contact contact : meeting.getContacts()) {
-                future_meetings_by_contact.get(contact).add(meeting);
+        // Check each contact's lists hold meetings of the right kind, and every attendance is listed
+        int[] contact_ids = index.getContactIds();
+        if (contact_ids.length != contacts_by_id.size())
+            return false;
+
+        List<List<PastMeeting>> past_lists = new ArrayList<List<PastMeeting>>(contact_ids.length);
+        List<List<Meeting>> future_lists = new ArrayList<List<Meeting>>(contact_ids.length);
+        long indexed_attendee_count = 0;
+        for (int i = 0; i < contact_ids.length; i++) {
+            if (!contacts_by_id.containsKey(contact_ids[i]))
+                return false;
+
+            List<PastMeeting> past = new ArrayList<PastMeeting>(index.getPastMeetingIds(i).length);
+            for (int id : index.getPastMeetingIds(i)) {
+                Meeting meeting = meetings.get(id);
+                if (!(meeting instanceof PastMeeting))
+                    return false;
+                past.add((PastMeeting) meeting);
             }
 
-        } else if (meeting instanceof PastMeeting) {
+            List<Meeting> future = new ArrayList<Meeting>(index.getFutureMeetingIds(i).length);
+            for (int id : index.getFutureMeetingIds(i)) {
+                Meeting meeting = meetings.get(id);
+                if (!(meeting instanceof FutureMeeting))
+                    return false;
+                future.add(meeting);
+            }
 
-            past_meetings_by_id.put(meeting.getId(), (PastMeeting) meeting);
+            past_lists.add(past);
+            future_lists.add(future);
+            indexed_attendee_count += past.size() + future.size();
+        }
+        if (indexed_attendee_count != attendee_count)
+            return false;
+
+        // Check every meeting is in a day's bucket
+        List<Calendar> days = new ArrayList<Calendar>();
+        List<List<Meeting>> day_lists = new ArrayList<List<Meeting>>();
+        int day_meeting_count = 0;
+        for (int[] ids : index.getDayMeetingIds()) {
+            if (ids.length == 0)
+                continue;
+
+            List<Meeting> day = new ArrayList<Meeting>(ids.length);
+            for (int id : ids) {
+                Meeting meeting = meetings.get(id);
+                if (meeting == null)
+                    return false;
+                day.add(meeting);
+            }
+            days.add(day.get(0).getDate());
+            day_lists.add(day);
+            day_meeting_count += ids.length;
+        }
+        if (day_meeting_count != meetings.size())
+            return false;
+
+        // It all matches, so add the meetings, filling the sorted sets straight from the index's orders
+        for (Meeting meeting : meetings.values()) {
+            if (meeting instanceof FutureMeeting) {
+                future_meetings_by_id.put(meeting.getId(), (FutureMeeting) meeting);
+            } else {
+                past_meetings_by_id.put(meeting.getId(), (PastMeeting) meeting);
+                meeting_notes_index.add(meeting.getId(), ((PastMeeting) meeting).getNotes());
+            }
+            last_meeting_id = Math.max(last_meeting_id, meeting.getId());
+        }
 
-            for (Contact contact : meeting.getContacts()) {
-                past_meetings_by_contact.get(contact).add((PastMeeting) meeting);
+        Comparator<Meeting> date_order = CalendarUtil.getMeetingDateComparator();
+        for (int i = 0; i < contact_ids.length; i++) {
+            past_meetings_by_contact.put(contact_ids[i],
+                    new TreeSet<PastMeeting>(PresortedCollections.sortedSet(past_lists.get(i), date_order)));
+            future_meetings_by_contact.put(contact_ids[i],
+                    new TreeSet<Meeting>(PresortedCollections.sortedSet(future_lists.get(i), date_order)));
+
+            int[] meeting_ids = new int[past_lists.get(i).size() + future_lists.get(i).size()];
+            int count = 0;
+            for (Meeting meeting : past_lists.get(i)) {
+                meeting_ids[count++] = meeting.getId();
+            }
+            for (Meeting meeting : future_lists.get(i)) {
+                meeting_ids[count++] = meeting.getId();
+            }
+            Arrays.sort(meeting_ids);
+            CompressedBitmap bitmap = meeting_ids_by_contact.get(contact_ids[i]);
+            for (int id : meeting_ids) {
+                bitmap.add(id);
             }
 
-        } else {
-            throw new IllegalArgumentException("Given meeting was neither a PastMeeting nor a FutureMeeting");
+            // As in 'addMeetings', so that 'getFirstFreeDay' sees the loaded meetings' days
+            WindowedBitmap days_bitmap = meeting_days_by_contact.get(contact_ids[i]);
+            for (Meeting meeting : past_lists.get(i)) {
+                days_bitmap.add(CalendarUtil.getDayNumber(meeting.getDate()));
+            }
+            for (Meeting meeting : future_lists.get(i)) {
+                days_bitmap.add(CalendarUtil.getDayNumber(meeting.getDate()));
+            }
         }
 
-        // ----- Add the meeting to 'meetings_by_date' -----:
-        // Get the meetings list for the meeting's date
-        Set<Meeting> meetings_on_date = meetings_by_date.get(meeting.getDate());
-
-        if (meetings_on_date == null) {
-            // If no meetings have previously been added for this date,
-            // register a new set for this date (which will be kept naturally sorted due to the comparator)
-            meetings_on_date = new TreeSet<Meeting>(CalendarUtil.getMeetingDateComparator());
-            meetings_by_date.put(meeting.getDate(), meetings_on_date);
+        List<Set<Meeting>> day_sets = new ArrayList<Set<Meeting>>(day_lists.size());
+        for (List<Meeting> day : day_lists) {
+            day_sets.add(new TreeSet<Meeting>(PresortedCollections.sortedSet(day, date_order)));
         }
+        meetings_by_date.putAll(PresortedCollections.sortedMap(days, day_sets,
+                ((SortedMap<Calendar, Set<Meeting>>) meetings_by_date).comparator()));
 
-        // Add the given meeting to the set of meetings for the meeting's date
-        meetings_on_date.add(meeting);
+        addToNoteStore(meetings.values());
 
-        // Update 'last_meeting_id'
-        last_meeting_id = Math.max(last_meeting_id, meeting.getId());
+        return true;
     }
 
     /**
-     * Adds the given contact to the manager's internal data structures, and updates last_contact_id
-     * @param contact the contact to add to the manager.
+     * Loads only the contacts from the xml file at 'filename', leaving its meetings pending.
+     *
+     * If the file couldn't be accessed or its contacts couldn't be parsed, the file won't be loaded.
+     *
+     * @param data the data store to load the file with.
      */
-    private void addContact(Contact contact) {
-        // Add to contacts_by_id
-        contacts_by_id.put(contact.getId(), contact);
+    private void loadContactsFromFile(XmlDataStore data) {
+        long stage_start = System.nanoTime();
+        XmlMeetingIndex meeting_index;
+        try {
+            meeting_index = data.loadContactsAndIndexMeetings(filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            stage_timings.get(Stage.LOAD_PARSE).record(System.nanoTime() - stage_start);
+        }
 
-        // Create an empty set of meetings for this contact, which is kept sorted with a comparator
-        past_meetings_by_contact.put(contact, new TreeSet<PastMeeting>(CalendarUtil.getMeetingDateComparator()));
-        future_meetings_by_contact.put(contact, new TreeSet<Meeting>(CalendarUtil.getMeetingDateComparator()));
+        stage_start = System.nanoTime();
 
-        // Update last_contact_id
-        last_contact_id = Math.max(last_contact_id, contact.getId());
-    }
+        for (Contact contact : data.getContacts()) {
+            addContact(contact);
+        }
+        pending_meetings = meeting_index;
 
-    /**
-     * Returns the next available contact id.  NB this doesn't change last_meeting_id.
-     */
-    private int getNextContactId() {
-        return last_contact_id + 1;
+        stage_timings.get(Stage.LOAD_INDEX).record(System.nanoTime() - stage_start);
     }
 
     /**
-     * Returns the next available meeting id.  NB this doesn't change last_meeting_id.
+     * Adds meetings taken from 'pending_meetings' or 'archive' to the manager, skipping (with a warning) any that are invalid.
+     *
+     * @param meetings the meetings to add.
      */
-    private int getNextMeetingId() {
-        return last_meeting_id + 1;
-    }
-
-    @Override
-    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
-        if (date == null)
-            throw new NullPointerException("date is null");
-
-        if (contacts == null)
-            throw new NullPointerException(("contacts is null"));
-
-        // Ensure date is in future (inclusive of today)
-        if (!CalendarUtil.isDateInFuture(date))
-            throw new IllegalArgumentException("Date " + CalendarUtil.getCalendarString(date) + " is in the past");
+    private void addPendingMeetings(List<Meeting> meetings) {
+        if (meetings.isEmpty())
+            return;
 
-        // Finally, add the meeting.
-        int id = getNextMeetingId();
-        addMeeting(DIFactory.getInstance().newFutureMeeting(id, date, new HashSet<Contact>(contacts)));
-        return id;
-    }
+        long stage_start = System.nanoTime();
 
-    @Override
-    public PastMeeting getPastMeeting(int id) {
-        // Check that id is not that of a future meeting
-        if (future_meetings_by_id.containsKey(id)) {
-            throw new IllegalArgumentException("Id " + id + " belongs to a future meeting");
+        List<Meeting> valid_meetings = new ArrayList<Meeting>(meetings.size());
+        for (Meeting meeting : meetings) {
+            if (isLoadedMeetingValid(meeting)) {
+                valid_meetings.add(meeting);
+                if (meeting instanceof PastMeeting)
+                    meeting_notes_index.add(meeting.getId(), ((PastMeeting) meeting).getNotes());
+            }
         }
+        addMeetings(valid_meetings);
 
-        // Return past meeting, or null if it doesn't exist
-        return past_meetings_by_id.get(id);
+        stage_timings.get(Stage.LOAD_DEFERRED).record(System.nanoTime() - stage_start);
     }
 
-    @Override
-    public FutureMeeting getFutureMeeting(int id) {
-        // Check that id is not that of a past meeting
-        if (past_meetings_by_id.containsKey(id)) {
-            throw new IllegalArgumentException("Id " + id + " belongs to a past meeting");
+    /**
+     * Locks the manager for a query.  Queries may run concurrently with each other (see
+     * AsyncContactManager), but loading meetings changes the manager's data structures, so a
+     * query that might have to load meetings (from the file in lazy-load mode, or from its
+     * archive) or create recurring meetings' occurrences takes the write lock instead, and runs
+     * alone.  Once everything has been loaded and created, queries only take the read lock.
+     *
+     * Nothing but a write (which has the manager to itself anyway) can make loading necessary
+     * again, so once the read lock is held, a query that found nothing to load won't have to.
+     *
+     * @return the lock taken, for the caller to unlock.
+     */
+    private Lock lockForRead() {
+        Lock lock = load_lock.readLock();
+        lock.lock();
+        if (mayLoadMeetings()) {
+            // A read lock can't be upgraded, so let go of it first
+            lock.unlock();
+            lock = load_lock.writeLock();
+            lock.lock();
         }
+        return lock;
+    }
 
-        // Return past meeting, or null if it doesn't exist
-        return future_meetings_by_id.get(id);
+    /**
+     * @return true if a query might still have to load meetings, or create occurrences.
+     */
+    private boolean mayLoadMeetings() {
+        return pending_meetings != null || (archive != null && archive.hasUntakenSegments())
+                || unexpanded_recurring_count > 0;
     }
 
-    @Override
-    public Meeting getMeeting(int id) {
-        Meeting meeting = past_meetings_by_id.get(id);
+    /**
+     * Ensures every meeting has been loaded, from the file (in lazy-load mode) and its archive,
+     * and every occurrence of every recurring meeting created.
+     */
+    private void ensureAllMeetingsLoaded() {
+        ensureStoredMeetingsLoaded();
 
-        if (meeting == null) {
-            return future_meetings_by_id.get(id);
-        } else {
-            return meeting;
+        for (RecurringMeeting meeting : recurring_meetings.values()) {
+            expandRecurringMeeting(meeting, 0, meeting.getCount());
         }
     }
 
-    @Override
-    public List<Meeting> getFutureMeetingList(Contact contact) {
-        ensureContactIsKnown(contact);
+    /**
+     * Ensures every meeting has been loaded from the file (in lazy-load mode) and its archive,
+     * but doesn't create the occurrences of recurring meetings (which have no notes until they're
+     * promoted, and are then saved like any other meeting).
+     */
+    private void ensureStoredMeetingsLoaded() {
+        ensureFileMeetingsLoaded();
 
-        return new LinkedList<Meeting>(future_meetings_by_contact.get(contact));
+        if (archive != null)
+            addArchivedMeetings(archive.takeAll());
     }
 
-    @Override
-    public List<Meeting> getFutureMeetingList(Calendar date) {
-        // Check that date is not null
-        if (date == null)
-            throw new NullPointerException("date is null");
+    /**
+     * Ensures every meeting in the file has been loaded (in lazy-load mode), but not its archive.
+     */
+    private void ensureFileMeetingsLoaded() {
+        if (pending_meetings != null) {
+            // Ensure no meeting ids get reused once the source is gone
+            getNextMeetingId();
 
-        Set<Meeting> meetings_on_date = meetings_by_date.get(date);
-        if (meetings_on_date == null) {
-            meetings_on_date = new TreeSet<Meeting>();
+            addPendingMeetings(pending_meetings.takeAll());
+            pending_meetings = null;
         }
+    }
 
-        return new LinkedList<Meeting>(meetings_on_date);
+    /**
+     * Ensures the given contact's meetings have been loaded from the file (in lazy-load mode),
+     * and the occurrences of their recurring meetings created.
+     *
+     * @param contact_id the contact's id.
+     */
+    private void ensureMeetingsLoadedForContact(int contact_id) {
+        ensureStoredMeetingsLoadedForContact(contact_id);
+
+        List<RecurringMeeting> contact_recurring_meetings = recurring_meetings_by_contact.get(contact_id);
+        if (contact_recurring_meetings != null) {
+            for (RecurringMeeting meeting : contact_recurring_meetings) {
+                if (!meeting.isFullyExpanded())
+                    expandRecurringMeeting(meeting, 0, meeting.getCount());
+            }
+        }
     }
 
-    @Override
-    public List<PastMeeting> getPastMeetingList(Contact contact) {
-        ensureContactIsKnown(contact);
+    /**
+     * Ensures the given contact's meetings have been loaded from the file (in lazy-load mode) and
+     * its archive, but doesn't create the occurrences of their recurring meetings.
+     *
+     * @param contact_id the contact's id.
+     */
+    private void ensureStoredMeetingsLoadedForContact(int contact_id) {
+        if (pending_meetings != null)
+            addPendingMeetings(pending_meetings.takeMeetingsWithContact(contact_id));
 
-        return new LinkedList<PastMeeting>(past_meetings_by_contact.get(contact));
+        if (archive != null)
+            addArchivedMeetings(archive.takeMeetingsWithContact(contact_id));
     }
 
-    @Override
-    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
-        if (date == null)
-            throw new NullPointerException("date is null");
-
-        if (contacts == null)
-            throw new NullPointerException(("contacts is null"));
+    /**
+     * Ensures the meeting with the given id has been loaded from the file (in lazy-load mode),
+     * or created if it's an occurrence of a recurring meeting.
+     *
+     * @param id the meeting's id.
+     */
+    private void ensureMeetingLoaded(int id) {
+        ensureStoredMeetingLoaded(id);
 
-        if (text == null)
-            throw new NullPointerException("text is null");
+        RecurringMeeting meeting = getRecurringMeeting(id);
+        if (meeting != null) {
+            int index = id - meeting.getFirstId();
+            expandRecurringMeeting(meeting, index, index + 1);
+        }
+    }
 
-        // Ensure date is in past (inclusive of today)
-        if (!CalendarUtil.isDateInPast(date))
-            throw new IllegalArgumentException("Date " + CalendarUtil.getCalendarString(date) + " is in the future");
+    /**
+     * Ensures the meeting with the given id has been loaded from the file (in lazy-load mode)
+     * or its archive, if it's in either.
+     *
+     * @param id the meeting's id.
+     */
+    private void ensureStoredMeetingLoaded(int id) {
+        if (pending_meetings != null)
+            addPendingMeetings(pending_meetings.takeMeetingsWithId(id));
 
-        // Finally, add the meeting.
-        int id = getNextMeetingId();
-        addMeeting(DIFactory.getInstance().newPastMeeting(id, date, new HashSet<Contact>(contacts), text));
+        if (archive != null)
+            addArchivedMeetings(archive.takeMeetingsWithId(id));
     }
 
     /**
-     * Adds a meeting to the past based on the data in the given Meeting object, and adds
-     * the given text as its note.
+     * Creates the occurrences of a recurring meeting from index 'from' (inclusive) to 'to'
+     * (exclusive), except those already created.  An occurrence that was saved as a meeting (ie.
+     * once notes were added to it) is loaded instead.
      *
-     * @param meeting the meeting to base the new one on.
-     * @param text the notes to add to the old meeting.
-     * @throws IllegalStateException if the given state is in the future.
+     * @param meeting the recurring meeting.
+     * @param from the index of the first occurrence to create.
+     * @param to the index after the last occurrence to create.
      */
-    private void addExistingMeetingToPast(Meeting meeting, String text) {
-        // Check meeting is in the past (inclusive of today)
-        if (!CalendarUtil.isDateInPast(meeting.getDate()))
-            throw new IllegalStateException("Date " + CalendarUtil.getCalendarString(meeting.getDate()) + " is in the future");
+    private void expandRecurringMeeting(RecurringMeeting meeting, int from, int to) {
+        List<Meeting> occurrences = new ArrayList<Meeting>();
+        boolean expanded = false;
+        for (int index = from; index < to; index++) {
+            if (!meeting.expand(index))
+                continue;
+
+            expanded = true;
+
+            int id = meeting.getId(index);
+            ensureStoredMeetingLoaded(id);
+            if (!past_meetings_by_id.containsKey(id) && !future_meetings_by_id.containsKey(id))
+                occurrences.add(DIFactory.getInstance().newFutureMeeting(id, meeting.getDate(index), meeting.getContacts()));
+        }
+        addMeetings(occurrences);
 
-        // Recreate as past meeting
-        PastMeeting new_meeting = DIFactory.getInstance().newPastMeeting(meeting.getId(), meeting.getDate(), meeting.getContacts(), text);
+        if (expanded && meeting.isFullyExpanded())
+            unexpanded_recurring_count--;
+    }
 
-        // Remove old meeting from data structures
-        meetings_by_date.get(meeting.getDate()).remove(meeting);
+    /**
+     * Returns the recurring meeting the given id is an occurrence of.
+     *
+     * @param id the meeting id.
+     * @return the recurring meeting, or null if the id isn't an occurrence's.
+     */
+    RecurringMeeting getRecurringMeeting(int id) {
+        Map.Entry<Integer, RecurringMeeting> entry = recurring_meetings.floorEntry(id);
+        if (entry == null || !entry.getValue().hasId(id))
+            return null;
 
-        if (meeting instanceof PastMeeting) {
+        return entry.getValue();
+    }
 
-            for (Contact contact : meeting.getContacts()) {
-                past_meetings_by_contact.get(contact).remove(meeting);
+    /**
+     * Adds a recurring meeting to the manager's internal data structures (without creating any
+     * of its occurrences), and updates last_meeting_id.
+     *
+     * @param meeting the recurring meeting.
+     */
+    private void addRecurringMeetingRule(RecurringMeeting meeting) {
+        recurring_meetings.put(meeting.getFirstId(), meeting);
+        if (!meeting.isFullyExpanded())
+            unexpanded_recurring_count++;
+
+        // Occurrences are a whole number of days apart, so their days can be counted on from the first's
+        int first_day = CalendarUtil.getDayNumber(meeting.getFirstDate());
+        for (Contact contact : meeting.getContacts()) {
+            List<RecurringMeeting> contact_recurring_meetings = recurring_meetings_by_contact.get(contact.getId());
+            if (contact_recurring_meetings == null) {
+                contact_recurring_meetings = new ArrayList<RecurringMeeting>();
+                recurring_meetings_by_contact.put(contact.getId(), contact_recurring_meetings);
             }
+            contact_recurring_meetings.add(meeting);
 
-        } else if (meeting instanceof FutureMeeting) {
-
-            for (Contact contact : meeting.getContacts()) {
-                future_meetings_by_contact.get(contact).remove(meeting);
+            WindowedBitmap meeting_days = meeting_days_by_contact.get(contact.getId());
+            for (int index = 0; index < meeting.getCount(); index++) {
+                meeting_days.add(first_day + index * meeting.getIntervalDays());
             }
+        }
 
+        for (ReminderScheduler scheduler : reminder_schedulers) {
+            scheduler.schedule(meeting);
         }
 
-        // Add the new meeting
-        addMeeting(new_meeting);
+        last_meeting_id = Math.max(last_meeting_id, meeting.getLastId());
     }
 
-    @Override
-    public void addMeetingNotes(int id, String text) {
-        if (text == null)
-            throw new NullPointerException("text is null");
-        text = text.trim();
-
-        if (future_meetings_by_id.containsKey(id)) {
-            FutureMeeting meeting = future_meetings_by_id.get(id);
-
-            // If the meeting is in the future, this will throw the appropriate exception
-            addExistingMeetingToPast(meeting, text);
-
-            // If no exception was thrown, then it worked.  Can now remove from future_meetings_by_id
-            future_meetings_by_id.remove(id);
-        } else if (past_meetings_by_id.containsKey(id)) {
-            PastMeeting meeting = past_meetings_by_id.remove(id);
-
-            // Concatenate old and new notes
-            String total_notes = meeting.getNotes() + '\n' + text;
+    /**
+     * Ensures the meetings on the given date have been loaded, from the file (in lazy-load mode)
+     * and its archive, and the occurrences of recurring meetings on that date created.  Archived
+     * years are loaded whole, including the neighbouring year if the date is close enough to the
+     * start or end of its year for time zones to matter.
+     *
+     * @param date the date.
+     */
+    private void ensureMeetingsLoadedForDate(Calendar date) {
+        ensureFileMeetingsLoaded();
+
+        if (archive != null) {
+            Calendar day_before = (Calendar) date.clone();
+            day_before.add(Calendar.DAY_OF_YEAR, -1);
+            Calendar day_after = (Calendar) date.clone();
+            day_after.add(Calendar.DAY_OF_YEAR, 1);
+            addArchivedMeetings(archive.takeMeetingsInYears(day_before.get(Calendar.YEAR), day_after.get(Calendar.YEAR)));
+        }
 
-            // If the meeting is in the future, this will throw the appropriate exception, and the original is kept.
-            // If it succeeds, it will overwrite the previous 'meeting' object in the past_meetings_by_id map.
-            addExistingMeetingToPast(meeting, total_notes);
-        } else {
-            throw new IllegalArgumentException("Meeting Id " + id + " does not exist");
+        for (RecurringMeeting meeting : recurring_meetings.values()) {
+            int index = meeting.getIndexOn(date);
+            if (index >= 0)
+                expandRecurringMeeting(meeting, index, index + 1);
         }
     }
 
-    @Override
-    public void addNewContact(String name, String notes) {
-        // Check name is not null
-        if (name == null)
-            throw new NullPointerException("text is null");
-
-        // Check notes is not null
-        if (notes == null)
-            throw new NullPointerException("notes is null");
-
-        Contact contact = DIFactory.getInstance().newContact(getNextContactId(), name);
+    /**
+     * Adds meetings taken from 'archive', except any that are also in the file, whose versions
+     * are newer.
+     *
+     * @param meetings the meetings to add.
+     */
+    private void addArchivedMeetings(List<Meeting> meetings) {
+        // The file's versions must be loaded first, so they're the ones kept
+        if (pending_meetings != null) {
+            for (Meeting meeting : meetings) {
+                addPendingMeetings(pending_meetings.takeMeetingsWithId(meeting.getId()));
+            }
+        }
 
-        // Add notes to contact.  It will automatically remove whitespace.
-        contact.addNotes(notes);
+        List<Meeting> new_meetings = new ArrayList<Meeting>(meetings.size());
+        for (Meeting meeting : meetings) {
+            if (!past_meetings_by_id.containsKey(meeting.getId()) && !future_meetings_by_id.containsKey(meeting.getId()))
+                new_meetings.add(meeting);
+        }
+        addPendingMeetings(new_meetings);
+    }
 
-        addContact(contact);
+    /**
+     * Returns whether a meeting loaded from file can be added to the manager, printing a warning if not.
+     *
+     * @param meeting the loaded meeting.
+     * @return true if the meeting is valid.
+     */
+    private boolean isLoadedMeetingValid(Meeting meeting) {
+        try {
+            // Ensure contacts are known
+            ensureMeetingIsValid(meeting);
+            return true;
+        } catch (IllegalArgumentException err) {
+            System.out.format("Couldn't load meeting '%d' from file '%s'%n", meeting.getId(), filename);
+            err.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Checks the given contacts set is not empty, and contains only known contacts.
+     *
+     * These checks are shared by the other ContactManagers, which also keep their contacts by id.
+     *
+     * @param contacts_by_id the known contacts, by id.
+     * @param contacts the set of contacts to check.
+     * @throws IllegalArgumentException if contacts is empty or contains unknown contacts.
+     */
+    static void ensureContactsAreKnown(Map<Integer, Contact> contacts_by_id, Set<Contact> contacts) {
+        // Ensure at least one contact will attend
+        if (contacts.isEmpty())
+            throw new IllegalArgumentException("No contacts at meeting");
+
+        // Look each contact up by id, rather than searching through all known contacts
+        Set<Contact> unknown_contacts = new HashSet<Contact>();
+        for (Contact contact : contacts) {
+            if (!isContactKnown(contacts_by_id, contact))
+                unknown_contacts.add(contact);
+        }
+
+        if (!unknown_contacts.isEmpty())
+            throw new IllegalArgumentException("Unknown contacts in meeting: " + unknown_contacts);
+    }
+
+    /**
+     * Returns whether the given contact is known (ie. equal to the known contact with the same id).
+     *
+     * @param contacts_by_id the known contacts, by id.
+     * @param contact the contact to check (which may be null, and so is not known).
+     * @return true if the contact is known.
+     */
+    private static boolean isContactKnown(Map<Integer, Contact> contacts_by_id, Contact contact) {
+        return contact != null && contact.equals(contacts_by_id.get(contact.getId()));
+    }
+
+    /**
+     * Checks that the given contact is not null and is known.
+     *
+     * @param contacts_by_id the known contacts, by id.
+     * @param contact the contact to check.
+     * @throws NullPointerException if the contact is null.
+     * @throws IllegalArgumentException if the contact is not known.
+     */
+    static void ensureContactIsKnown(Map<Integer, Contact> contacts_by_id, Contact contact) {
+        // Check that contact is not null
+        if (contact == null)
+            throw new NullPointerException("contact is null");
+
+        if (!isContactKnown(contacts_by_id, contact))
+            throw new IllegalArgumentException("contact '" + contact.getName() + "' is not known");
+    }
+
+    /**
+     * Checks the contacts given to 'getMeetingsWithAllOf', 'getMeetingsWithAnyOf' or 'getFirstFreeDay'.
+     *
+     * @param contacts_by_id the known contacts, by id.
+     * @param contacts the set of contacts to check.
+     * @throws NullPointerException if contacts is null.
+     * @throws IllegalArgumentException if contacts is empty or contains unknown contacts.
+     */
+    static void ensureQueryContactsAreKnown(Map<Integer, Contact> contacts_by_id, Set<Contact> contacts) {
+        if (contacts == null)
+            throw new NullPointerException("contacts is null");
+
+        if (contacts.isEmpty())
+            throw new IllegalArgumentException("No contacts given");
+
+        ensureContactsAreKnown(contacts_by_id, contacts);
+    }
+
+    /**
+     * Checks that the given meeting can be added to the manager.
+     *
+     * @param meeting the meeting to check.
+     * @throws IllegalArgumentException if any of the meeting's contacts are unknown,
+     *      or no contacts will be at the meeting,
+     *      or if the given meeting is neither a PastMeeting nor a FutureMeeting.
+     */
+    private void ensureMeetingIsValid(Meeting meeting) {
+        // Ensure the meeting's contacts are valid
+        ensureContactsAreKnown(contacts_by_id, meeting.getContacts());
+
+        if (!(meeting instanceof FutureMeeting) && !(meeting instanceof PastMeeting))
+            throw new IllegalArgumentException("Given meeting was neither a PastMeeting nor a FutureMeeting");
+    }
+
+    /**
+     * Checks the arguments for a new future meeting, as given to 'addFutureMeeting'.
+     *
+     * @param contacts_by_id the known contacts, by id.
+     * @throws NullPointerException if contacts or date is null.
+     * @throws IllegalArgumentException if the date is in the past, or contacts is empty or contains unknown contacts.
+     */
+    static void ensureNewFutureMeetingIsValid(Map<Integer, Contact> contacts_by_id, Set<Contact> contacts, Calendar date) {
+        if (date == null)
+            throw new NullPointerException("date is null");
+
+        if (contacts == null)
+            throw new NullPointerException(("contacts is null"));
+
+        // Ensure date is in future (inclusive of today)
+        if (!CalendarUtil.isDateInFuture(date))
+            throw new IllegalArgumentException("Date " + CalendarUtil.getCalendarString(date) + " is in the past");
+
+        ensureContactsAreKnown(contacts_by_id, contacts);
+    }
+
+    /**
+     * Checks the arguments for a new past meeting, as given to 'addNewPastMeeting'.
+     *
+     * @param contacts_by_id the known contacts, by id.
+     * @throws NullPointerException if contacts, date or text is null.
+     * @throws IllegalArgumentException if the date is in the future, or contacts is empty or contains unknown contacts.
+     */
+    static void ensureNewPastMeetingIsValid(Map<Integer, Contact> contacts_by_id, Set<Contact> contacts, Calendar date,
+                                            String text) {
+        if (date == null)
+            throw new NullPointerException("date is null");
+
+        if (contacts == null)
+            throw new NullPointerException(("contacts is null"));
+
+        if (text == null)
+            throw new NullPointerException("text is null");
+
+        // Ensure date is in past (inclusive of today)
+        if (!CalendarUtil.isDateInPast(date))
+            throw new IllegalArgumentException("Date " + CalendarUtil.getCalendarString(date) + " is in the future");
+
+        ensureContactsAreKnown(contacts_by_id, contacts);
+    }
+
+    /**
+     * Adds the given meetings, which must already have been checked with 'ensureMeetingIsValid',
+     * to the manager's internal data structures, and updates last_meeting_id.
+     *
+     * The meetings are grouped by contact and by date first, so each contact's and each date's
+     * data structures are looked up once per batch rather than once per meeting.
+     *
+     * @param meetings the meetings to add.
+     */
+    private void addMeetings(List<? extends Meeting> meetings) {
+        Map<Integer, List<Meeting>> meetings_by_contact_id = new HashMap<Integer, List<Meeting>>();
+        Map<Calendar, List<Meeting>> meetings_by_day = new TreeMap<Calendar, List<Meeting>>(CalendarUtil.getCalendarDateComparator());
+
+        for (Meeting meeting : meetings) {
+            if (meeting instanceof FutureMeeting) {
+                future_meetings_by_id.put(meeting.getId(), (FutureMeeting) meeting);
+            } else {
+                past_meetings_by_id.put(meeting.getId(), (PastMeeting) meeting);
+            }
+
+            // A meeting keeps its date when it moves to the past, so re-adding its day is harmless
+            int day = CalendarUtil.getDayNumber(meeting.getDate());
+            for (Contact contact : meeting.getContacts()) {
+                List<Meeting> contact_meetings = meetings_by_contact_id.get(contact.getId());
+                if (contact_meetings == null) {
+                    contact_meetings = new ArrayList<Meeting>();
+                    meetings_by_contact_id.put(contact.getId(), contact_meetings);
+                }
+                contact_meetings.add(meeting);
+                meeting_days_by_contact.get(contact.getId()).add(day);
+            }
+
+            Calendar date = meeting.getDate();
+            List<Meeting> day_meetings = meetings_by_day.get(date);
+            if (day_meetings == null) {
+                day_meetings = new ArrayList<Meeting>();
+                meetings_by_day.put(date, day_meetings);
+            }
+            day_meetings.add(meeting);
+
+            // Update 'last_meeting_id'
+            last_meeting_id = Math.max(last_meeting_id, meeting.getId());
+        }
+
+        // Add the meetings to each of their contacts' sets and bitmaps
+        for (Map.Entry<Integer, List<Meeting>> entry : meetings_by_contact_id.entrySet()) {
+            Set<Meeting> future_meetings = future_meetings_by_contact.get(entry.getKey());
+            Set<PastMeeting> past_meetings = past_meetings_by_contact.get(entry.getKey());
+            CompressedBitmap meeting_ids = meeting_ids_by_contact.get(entry.getKey());
+
+            for (Meeting meeting : entry.getValue()) {
+                if (meeting instanceof FutureMeeting) {
+                    future_meetings.add(meeting);
+                } else {
+                    past_meetings.add((PastMeeting) meeting);
+                }
+
+                // A meeting keeps its id when it moves to the past, so re-adding it here is harmless
+                meeting_ids.add(meeting.getId());
+            }
+        }
+
+        // ----- Add the meetings to 'meetings_by_date' -----:
+        for (Map.Entry<Calendar, List<Meeting>> entry : meetings_by_day.entrySet()) {
+            // Get the meetings list for the meetings' date
+            Set<Meeting> meetings_on_date = meetings_by_date.get(entry.getKey());
+
+            if (meetings_on_date == null) {
+                // If no meetings have previously been added for this date,
+                // register a new set for this date (which will be kept naturally sorted due to the comparator)
+                meetings_on_date = new TreeSet<Meeting>(CalendarUtil.getMeetingDateComparator());
+                meetings_by_date.put(entry.getKey(), meetings_on_date);
+            }
+
+            meetings_on_date.addAll(entry.getValue());
+        }
+
+        addToNoteStore(meetings);
+
+        if (!reminder_schedulers.isEmpty())
+            scheduleReminders(meetings);
+
+        if (contact_indexes.isNameTrieBuilt()) {
+            for (int contact_id : meetings_by_contact_id.keySet()) {
+                contact_indexes.raiseScore(contact_id, getActivityScore(contact_id));
+            }
+        }
+    }
+
+    /**
+     * Schedules reminders for those of the given meetings that are future meetings, except for
+     * occurrences of recurring meetings (whose reminders are scheduled from their rules).
+     *
+     * @param meetings the meetings.
+     */
+    private void scheduleReminders(Collection<? extends Meeting> meetings) {
+        for (Meeting meeting : meetings) {
+            if (meeting instanceof FutureMeeting && getRecurringMeeting(meeting.getId()) == null) {
+                for (ReminderScheduler scheduler : reminder_schedulers) {
+                    scheduler.schedule((FutureMeeting) meeting);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the given meetings' notes to 'note_store' (if there is one), for those that are
+     * PastMeetingImpls.
+     *
+     * @param meetings the meetings.
+     */
+    private void addToNoteStore(Collection<? extends Meeting> meetings) {
+        if (note_store == null)
+            return;
+
+        List<PastMeetingImpl> past_meetings = new ArrayList<PastMeetingImpl>();
+        for (Meeting meeting : meetings) {
+            if (meeting instanceof PastMeetingImpl)
+                past_meetings.add((PastMeetingImpl) meeting);
+        }
+        note_store.addAll(past_meetings);
+    }
+
+    /**
+     * Removes the given meeting from the per-contact and per-date sets (but not from the by-id
+     * maps, nor from 'meeting_ids_by_contact', as the meeting's id stays in use).
+     *
+     * @param meeting the meeting to remove.
+     */
+    private void removeMeetingFromSortedSets(Meeting meeting) {
+        meetings_by_date.get(meeting.getDate()).remove(meeting);
+
+        if (meeting instanceof PastMeeting) {
+
+            for (Contact contact : meeting.getContacts()) {
+                past_meetings_by_contact.get(contact.getId()).remove(meeting);
+            }
+
+        } else if (meeting instanceof FutureMeeting) {
+
+            for (Contact contact : meeting.getContacts()) {
+                future_meetings_by_contact.get(contact.getId()).remove(meeting);
+            }
+
+        }
+    }
+
+    /**
+     * Adds the given contact to the manager's internal data structures, and updates last_contact_id
+     * @param contact the contact to add to the manager.
+     */
+    private void addContact(Contact contact) {
+        // Add to contacts_by_id
+        contacts_by_id.put(contact.getId(), contact);
+        contact_names.add(contact.getId(), contact.getName());
+        contact_notes_index.add(contact.getId(), contact.getNotes());
+
+        // Create an empty set of meetings for this contact, which is kept sorted with a comparator
+        past_meetings_by_contact.put(contact.getId(), new TreeSet<PastMeeting>(CalendarUtil.getMeetingDateComparator()));
+        future_meetings_by_contact.put(contact.getId(), new TreeSet<Meeting>(CalendarUtil.getMeetingDateComparator()));
+        meeting_ids_by_contact.put(contact.getId(), new CompressedBitmap());
+        meeting_days_by_contact.put(contact.getId(), new WindowedBitmap());
+
+        contact_indexes.addContact(contact);
+
+        // Update last_contact_id
+        last_contact_id = Math.max(last_contact_id, contact.getId());
+    }
+
+    /**
+     * Returns the next available contact id.  NB this doesn't change last_meeting_id.
+     */
+    private int getNextContactId() {
+        return last_contact_id + 1;
+    }
+
+    /**
+     * Returns the next available meeting id.  NB this doesn't change last_meeting_id, except to
+     * account for meetings which haven't been loaded yet.
+     */
+    private int getNextMeetingId() {
+        if (pending_meetings != null)
+            last_meeting_id = Math.max(last_meeting_id, pending_meetings.getLastMeetingId());
+
+        if (archive != null)
+            last_meeting_id = Math.max(last_meeting_id, archive.getLastMeetingId());
+
+        return last_meeting_id + 1;
+    }
+
+    /**
+     * Adds the given contact, which already has an id, to the manager.
+     *
+     * @param contact the contact to add.
+     * @throws IllegalArgumentException if there is already a contact with the same id.
+     */
+    void addExistingContact(Contact contact) {
+        if (contacts_by_id.containsKey(contact.getId()))
+            throw new IllegalArgumentException("Contact id " + contact.getId() + " is already used");
+
+        addContact(contact);
+    }
+
+    /**
+     * Returns whether the manager has a contact with the given id.
+     *
+     * @param contact_id the contact's id.
+     * @return true if there is a contact with that id.
+     */
+    boolean hasContact(int contact_id) {
+        return contacts_by_id.containsKey(contact_id);
+    }
+
+    /**
+     * Adds the given meetings, which already have ids, to the manager.  Every meeting is
+     * checked before any are added.
+     *
+     * @param meetings the meetings to add.
+     * @throws IllegalArgumentException if any meeting's id is already used, or any meeting
+     *      has no contacts or unknown contacts.
+     */
+    void addExistingMeetings(List<? extends Meeting> meetings) {
+        ensureAllMeetingsLoaded();
+
+        for (Meeting meeting : meetings) {
+            if (getMeeting(meeting.getId()) != null)
+                throw new IllegalArgumentException("Meeting id " + meeting.getId() + " is already used");
+
+            ensureMeetingIsValid(meeting);
+        }
+
+        addMeetings(meetings);
+
+        for (Meeting meeting : meetings) {
+            if (meeting instanceof PastMeeting)
+                meeting_notes_index.add(meeting.getId(), ((PastMeeting) meeting).getNotes());
+        }
+    }
+
+    @Override
+    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        ensureNewFutureMeetingIsValid(contacts_by_id, contacts, date);
+
+        // Finally, add the meeting.
+        int id = getNextMeetingId();
+        List<Meeting> meetings = Collections.<Meeting>singletonList(DIFactory.getInstance().newFutureMeeting(id, date, contacts));
+        addMeetings(meetings);
+        publishMeetingsAdded(meetings);
+        return id;
+    }
+
+    /**
+     * Checks that two lists of arguments to a batch method are the same length.
+     *
+     * @throws NullPointerException if either list is null.
+     * @throws IllegalArgumentException if the lists are different lengths.
+     */
+    static void ensureSameSize(List<?> first, String first_name, List<?> second, String second_name) {
+        if (first == null)
+            throw new NullPointerException(first_name + " is null");
+
+        if (second == null)
+            throw new NullPointerException(second_name + " is null");
+
+        if (first.size() != second.size())
+            throw new IllegalArgumentException(String.format("%d %s were given, but %d %s",
+                    first.size(), first_name, second.size(), second_name));
+    }
+
+    @Override
+    public List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        ensureSameSize(contacts, "contacts", dates, "dates");
+
+        // Check every meeting before adding any of them
+        Iterator<Set<Contact>> contacts_iterator = contacts.iterator();
+        for (Calendar date : dates) {
+            ensureNewFutureMeetingIsValid(contacts_by_id, contacts_iterator.next(), date);
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = getNextMeetingId();
+        List<Integer> ids = new ArrayList<Integer>(dates.size());
+        List<Meeting> meetings = new ArrayList<Meeting>(dates.size());
+        contacts_iterator = contacts.iterator();
+        for (Calendar date : dates) {
+            meetings.add(DIFactory.getInstance().newFutureMeeting(id, date, contacts_iterator.next()));
+            ids.add(id++);
+        }
+
+        addMeetings(meetings);
+        publishMeetingsAdded(meetings);
+        return ids;
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count) {
+        ensureNewFutureMeetingIsValid(contacts_by_id, contacts, first_date);
+        RecurringMeeting.ensureValid(interval_days, count);
+
+        // Only the rule is added; its occurrences are created as queries cover them
+        RecurringMeeting meeting = new RecurringMeeting(getNextMeetingId(), first_date, interval_days, count, contacts);
+        addRecurringMeetingRule(meeting);
+        return meeting.getFirstId();
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date) {
+        ensureNewFutureMeetingIsValid(contacts_by_id, contacts, first_date);
+
+        if (last_date == null)
+            throw new NullPointerException("last_date is null");
+
+        RecurringMeeting.ensureValid(interval_days, 1);
+        return addRecurringMeeting(contacts, first_date, interval_days,
+                RecurringMeeting.countUntil(first_date, interval_days, last_date));
+    }
+
+    /**
+     * Adds the given recurring meeting, whose occurrences already have ids, to the manager.
+     *
+     * @param first_id the id of the first occurrence.
+     * @param first_date the date of the first occurrence.
+     * @param interval_days the number of days from each occurrence to the next.
+     * @param count the number of occurrences.
+     * @param contacts the contacts at every occurrence.
+     * @throws IllegalArgumentException if the ids aren't all after those already used, the
+     *      interval or count isn't positive, or contacts is empty or contains unknown contacts.
+     */
+    void addExistingRecurringMeeting(int first_id, Calendar first_date, int interval_days, int count, Set<Contact> contacts) {
+        if (first_id < getNextMeetingId())
+            throw new IllegalArgumentException("Meeting id " + first_id + " is already used");
+
+        RecurringMeeting.ensureValid(interval_days, count);
+        ensureContactsAreKnown(contacts_by_id, contacts);
+
+        addRecurringMeetingRule(new RecurringMeeting(first_id, first_date, interval_days, count, contacts));
+    }
+
+    @Override
+    public PastMeeting getPastMeeting(int id) {
+        Lock lock = lockForRead();
+        try {
+            ensureMeetingLoaded(id);
+
+            // Check that id is not that of a future meeting
+            if (future_meetings_by_id.containsKey(id)) {
+                throw new IllegalArgumentException("Id " + id + " belongs to a future meeting");
+            }
+
+            // Return past meeting, or null if it doesn't exist
+            return past_meetings_by_id.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public FutureMeeting getFutureMeeting(int id) {
+        Lock lock = lockForRead();
+        try {
+            ensureMeetingLoaded(id);
+
+            // Check that id is not that of a past meeting
+            if (past_meetings_by_id.containsKey(id)) {
+                throw new IllegalArgumentException("Id " + id + " belongs to a past meeting");
+            }
+
+            // Return past meeting, or null if it doesn't exist
+            return future_meetings_by_id.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Meeting getMeeting(int id) {
+        Lock lock = lockForRead();
+        try {
+            ensureMeetingLoaded(id);
+
+            Meeting meeting = past_meetings_by_id.get(id);
+
+            if (meeting == null) {
+                return future_meetings_by_id.get(id);
+            } else {
+                return meeting;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Contact contact) {
+        Lock lock = lockForRead();
+        try {
+            ensureContactIsKnown(contacts_by_id, contact);
+            ensureMeetingsLoadedForContact(contact.getId());
+
+            return new LinkedList<Meeting>(future_meetings_by_contact.get(contact.getId()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Calendar date) {
+        // Check that date is not null
+        if (date == null)
+            throw new NullPointerException("date is null");
+
+        Lock lock = lockForRead();
+        try {
+            ensureMeetingsLoadedForDate(date);
+
+            Set<Meeting> meetings_on_date = meetings_by_date.get(date);
+            if (meetings_on_date == null) {
+                meetings_on_date = new TreeSet<Meeting>();
+            }
+
+            return new LinkedList<Meeting>(meetings_on_date);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<PastMeeting> getPastMeetingList(Contact contact) {
+        Lock lock = lockForRead();
+        try {
+            ensureContactIsKnown(contacts_by_id, contact);
+            ensureMeetingsLoadedForContact(contact.getId());
+
+            return new LinkedList<PastMeeting>(past_meetings_by_contact.get(contact.getId()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        ensureNewPastMeetingIsValid(contacts_by_id, contacts, date, text);
+
+        // Finally, add the meeting.
+        int id = getNextMeetingId();
+        List<Meeting> meetings = Collections.<Meeting>singletonList(DIFactory.getInstance().newPastMeeting(id, date, contacts, text));
+        addMeetings(meetings);
+        meeting_notes_index.add(id, text);
+        publishMeetingsAdded(meetings);
+    }
+
+    @Override
+    public List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        ensureSameSize(contacts, "contacts", dates, "dates");
+        ensureSameSize(dates, "dates", texts, "texts");
+
+        // Check every meeting before adding any of them
+        Iterator<Set<Contact>> contacts_iterator = contacts.iterator();
+        Iterator<String> texts_iterator = texts.iterator();
+        for (Calendar date : dates) {
+            ensureNewPastMeetingIsValid(contacts_by_id, contacts_iterator.next(), date, texts_iterator.next());
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = getNextMeetingId();
+        List<Integer> ids = new ArrayList<Integer>(dates.size());
+        List<Meeting> meetings = new ArrayList<Meeting>(dates.size());
+        contacts_iterator = contacts.iterator();
+        texts_iterator = texts.iterator();
+        for (Calendar date : dates) {
+            String text = texts_iterator.next();
+            meetings.add(DIFactory.getInstance().newPastMeeting(id, date, contacts_iterator.next(), text));
+            meeting_notes_index.add(id, text);
+            ids.add(id++);
+        }
+
+        addMeetings(meetings);
+        publishMeetingsAdded(meetings);
+        return ids;
+    }
+
+    /**
+     * Creates a past meeting with the same id, date and contacts as the given meeting, whose notes
+     * are the given meeting's notes (if it's a past meeting) followed by the given text on a new line.
+     *
+     * @param meeting the meeting to base the new one on.
+     * @param text the notes to add.
+     * @return the new past meeting.
+     */
+    private PastMeeting newPastMeetingWithAddedNotes(Meeting meeting, String text) {
+        String total_notes = text;
+
+        if (meeting instanceof PastMeeting) {
+            // Concatenate old and new notes
+            total_notes = ((PastMeeting) meeting).getNotes() + '\n' + text;
+        }
+
+        return DIFactory.getInstance().newPastMeeting(meeting.getId(), meeting.getDate(), meeting.getContacts(), total_notes);
+    }
+
+    /**
+     * Returns the meeting with the given id that notes would be added to, checking that it can take notes.
+     *
+     * @param id the meeting's id.
+     * @return the meeting.
+     * @throws IllegalArgumentException if the meeting does not exist.
+     * @throws IllegalStateException if the meeting is set for a date in the future.
+     */
+    private Meeting getMeetingToAddNotesTo(int id) {
+        ensureMeetingLoaded(id);
+
+        Meeting meeting = future_meetings_by_id.get(id);
+        if (meeting == null)
+            meeting = past_meetings_by_id.get(id);
+
+        if (meeting == null)
+            throw new IllegalArgumentException("Meeting Id " + id + " does not exist");
+
+        // Check meeting is in the past (inclusive of today)
+        if (!CalendarUtil.isDateInPast(meeting.getDate()))
+            throw new IllegalStateException("Date " + CalendarUtil.getCalendarString(meeting.getDate()) + " is in the future");
+
+        return meeting;
+    }
+
+    /**
+     * Adds the given text to the notes of the given meeting, which must have come from
+     * 'getMeetingToAddNotesTo'.
+     *
+     * Notes are appended in place where possible.  Otherwise, the meeting is removed from the
+     * per-contact and per-date sets and the past meeting that replaces it is returned; the caller
+     * must then add it with 'addMeetings'.
+     *
+     * @param meeting the meeting to add notes to.
+     * @param text the notes to add.
+     * @return the past meeting to replace the given one with, or null if the notes were added in place.
+     */
+    private PastMeeting addNotesToMeeting(Meeting meeting, String text) {
+        boolean was_future = future_meetings_by_id.remove(meeting.getId()) != null;
+
+        if (was_future) {
+            for (ReminderScheduler scheduler : reminder_schedulers) {
+                scheduler.cancel(meeting.getId());
+            }
+        }
+
+        // The meeting's archive segment (if any) will no longer hold it as it is
+        if (archive != null)
+            archive.markChanged(meeting.getId());
+
+        if (!was_future && meeting instanceof PastMeetingImpl) {
+            // The date and contacts are unchanged, so the notes can be appended in place without
+            // touching any of the data structures the meeting is indexed in.
+            ((PastMeetingImpl) meeting).appendNotes(text);
+            return null;
+        }
+
+        // Recreate as past meeting.  Its id, date and contacts are unchanged, so 'meeting_ids_by_contact'
+        // and 'meeting_days_by_contact' need no updating, and the new meeting overwrites the old one
+        // in past_meetings_by_id.
+        removeMeetingFromSortedSets(meeting);
+        return newPastMeetingWithAddedNotes(meeting, text);
+    }
+
+    @Override
+    public void addMeetingNotes(int id, String text) {
+        if (text == null)
+            throw new NullPointerException("text is null");
+        text = text.trim();
+
+        // If the meeting is missing or in the future, this will throw the appropriate exception
+        Meeting meeting = getMeetingToAddNotesTo(id);
+
+        PastMeeting new_meeting = addNotesToMeeting(meeting, text);
+        if (new_meeting != null)
+            addMeetings(Collections.singletonList(new_meeting));
+
+        // Only the new text needs indexing, as the old notes were indexed when they were added
+        meeting_notes_index.add(id, text);
+        publishNotesAdded(meeting, new_meeting, text);
+    }
+
+    @Override
+    public void addMeetingNotes(Map<Integer, String> notes_by_id) {
+        if (notes_by_id == null)
+            throw new NullPointerException("notes_by_id is null");
+
+        // Check every meeting and note before changing any of them
+        List<Meeting> meetings = new ArrayList<Meeting>(notes_by_id.size());
+        List<String> texts = new ArrayList<String>(notes_by_id.size());
+        for (Map.Entry<Integer, String> entry : notes_by_id.entrySet()) {
+            if (entry.getKey() == null)
+                throw new NullPointerException("meeting id is null");
+
+            if (entry.getValue() == null)
+                throw new NullPointerException("text for meeting " + entry.getKey() + " is null");
+
+            meetings.add(getMeetingToAddNotesTo(entry.getKey()));
+            texts.add(entry.getValue().trim());
+        }
+
+        // Then add the notes, and re-add the recreated meetings together
+        List<PastMeeting> new_meetings = new ArrayList<PastMeeting>();
+        List<PastMeeting> replacements = new ArrayList<PastMeeting>(meetings.size());
+        for (int i = 0; i < meetings.size(); i++) {
+            PastMeeting new_meeting = addNotesToMeeting(meetings.get(i), texts.get(i));
+            if (new_meeting != null)
+                new_meetings.add(new_meeting);
+            replacements.add(new_meeting);
+
+            meeting_notes_index.add(meetings.get(i).getId(), texts.get(i));
+        }
+
+        addMeetings(new_meetings);
+
+        for (int i = 0; i < meetings.size(); i++) {
+            publishNotesAdded(meetings.get(i), replacements.get(i), texts.get(i));
+        }
+    }
+
+    @Override
+    public void addNewContact(String name, String notes) {
+        // Check name is not null
+        if (name == null)
+            throw new NullPointerException("text is null");
+
+        // Check notes is not null
+        if (notes == null)
+            throw new NullPointerException("notes is null");
+
+        Contact contact = DIFactory.getInstance().newContact(getNextContactId(), name);
+
+        // Add notes to contact.  It will automatically remove whitespace.
+        contact.addNotes(notes);
+
+        addContact(contact);
+        publish(ChangeEvent.Type.CONTACT_ADDED, contact, null, null);
+    }
+
+    @Override
+    public List<Integer> addNewContacts(List<String> names, List<String> notes) {
+        ensureSameSize(names, "names", notes, "notes");
+
+        // Check every contact before adding any of them
+        Iterator<String> notes_iterator = notes.iterator();
+        for (String name : names) {
+            if (name == null)
+                throw new NullPointerException("name is null");
+
+            if (notes_iterator.next() == null)
+                throw new NullPointerException("notes is null");
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = getNextContactId();
+        List<Integer> ids = new ArrayList<Integer>(names.size());
+        notes_iterator = notes.iterator();
+        for (String name : names) {
+            Contact contact = DIFactory.getInstance().newContact(id, name);
+            contact.addNotes(notes_iterator.next());
+            addContact(contact);
+            publish(ChangeEvent.Type.CONTACT_ADDED, contact, null, null);
+            ids.add(id++);
+        }
+
+        return ids;
     }
 
     @Override
@@ -409,32 +1561,555 @@ public class ContactManagerImpl implements ContactManager {
 
     @Override
     public Set<Contact> getContacts(String name) {
+        if (name == null)
+            throw new NullPointerException("name is null");
+
         Set<Contact> matching_contacts = new HashSet<Contact>();
+        for (int contact_id : contact_names.findContaining(name)) {
+            matching_contacts.add(contacts_by_id.get(contact_id));
+        }
+
+        return matching_contacts;
+    }
+
+    @Override
+    public List<Integer> searchContactNotes(String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        return contact_notes_index.search(query);
+    }
+
+    /**
+     * Returns the scores of the contacts whose notes match the query, as ranked by 'searchContactNotes'.
+     *
+     * @param query the words to search for.
+     * @return the scores of matching contacts, keyed by contact id.
+     * @throws NullPointerException if the query is null.
+     */
+    Map<Integer, Integer> getContactNoteScores(String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        return contact_notes_index.getScores(query);
+    }
+
+    /**
+     * Returns the scores of the past meetings whose notes match the query, as ranked by 'searchMeetingNotes'.
+     *
+     * @param query the words to search for.
+     * @return the scores of matching meetings, keyed by meeting id.
+     * @throws NullPointerException if the query is null.
+     */
+    Map<Integer, Integer> getMeetingNoteScores(String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        Lock lock = lockForRead();
+        try {
+            ensureStoredMeetingsLoaded();
+
+            return meeting_notes_index.getScores(query);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Integer> searchMeetingNotes(String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        Lock lock = lockForRead();
+        try {
+            ensureStoredMeetingsLoaded();
+
+            return meeting_notes_index.search(query);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> autocompleteContacts(String prefix, int limit) {
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int contact_id : getAutocompleteScores(prefix, limit).keySet()) {
+            contacts.add(contacts_by_id.get(contact_id));
+        }
+        return contacts;
+    }
+
+    /**
+     * Returns the contacts found by 'autocompleteContacts', with their activity scores (which
+     * rank them, highest first and then by id), so that results from several managers can be
+     * ranked together.
+     *
+     * @param prefix the start of the word to look for.
+     * @param limit the greatest number of contacts to return.
+     * @return the scores of up to 'limit' contacts, keyed by contact id, in ranked order.
+     * @throws NullPointerException if the prefix is null.
+     * @throws IllegalArgumentException if limit is negative.
+     */
+    Map<Integer, Long> getAutocompleteScores(String prefix, int limit) {
+        Lock lock = lockForRead();
+        try {
+            return contact_indexes.getAutocompleteScores(prefix, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the score that ranks a contact in 'autocompleteContacts': the number of meetings it
+     * attends in the top half, and the minute of its latest past meeting in the bottom half.  Neither
+     * ever goes down, so neither does the score.
+     *
+     * @param contact_id the id of a known contact.
+     * @return the contact's score.
+     */
+    private long getActivityScore(int contact_id) {
+        long meeting_count = meeting_ids_by_contact.get(contact_id).getCardinality();
+
+        long latest_minute = 0;
+        SortedSet<PastMeeting> past_meetings = (SortedSet<PastMeeting>) past_meetings_by_contact.get(contact_id);
+        if (!past_meetings.isEmpty())
+            latest_minute = Math.max(0, past_meetings.last().getDate().getTimeInMillis() / (60 * 1000));
+
+        return (meeting_count << 32) | latest_minute;
+    }
+
+    @Override
+    public List<Contact> searchContactNames(String query, int max_distance) {
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int contact_id : ContactIndexes.rankByDistance(getContactNameDistances(query, max_distance))) {
+            contacts.add(contacts_by_id.get(contact_id));
+        }
+        return contacts;
+    }
+
+    /**
+     * Returns the contacts found by 'searchContactNames', with the total number of edits each
+     * needs to match the query, so that results from several managers can be ranked together
+     * (with 'rankByDistance').
+     *
+     * @param query the name to search for.
+     * @param max_distance the greatest number of edits allowed for each word of the query.
+     * @return the total edits of matching contacts, keyed by contact id.
+     * @throws NullPointerException if the query is null.
+     * @throws IllegalArgumentException if max_distance is negative.
+     */
+    Map<Integer, Integer> getContactNameDistances(String query, int max_distance) {
+        return contact_indexes.getContactNameDistances(query, max_distance);
+    }
 
-        for (Contact contact : contacts_by_id.values()) {
-            if (contact.getName().contains(name)) {
-                matching_contacts.add(contact);
+    @Override
+    public List<Meeting> getMeetingsWithAllOf(Set<Contact> contacts) {
+        Lock lock = lockForRead();
+        try {
+            CompressedBitmap meeting_ids = null;
+            for (CompressedBitmap contact_meeting_ids : getMeetingIdBitmaps(contacts)) {
+                meeting_ids = meeting_ids == null
+                        ? contact_meeting_ids
+                        : CompressedBitmap.and(meeting_ids, contact_meeting_ids);
             }
+
+            return getMeetingsSortedByDate(meeting_ids);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return matching_contacts;
+    @Override
+    public List<Meeting> getMeetingsWithAnyOf(Set<Contact> contacts) {
+        Lock lock = lockForRead();
+        try {
+            CompressedBitmap meeting_ids = new CompressedBitmap();
+            for (CompressedBitmap contact_meeting_ids : getMeetingIdBitmaps(contacts)) {
+                meeting_ids = CompressedBitmap.or(meeting_ids, contact_meeting_ids);
+            }
+
+            return getMeetingsSortedByDate(meeting_ids);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public void flush() {
-        DataStore data = DIFactory.getInstance().newDataStore();
+    public Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days) {
+        if (contacts == null)
+            throw new NullPointerException("contacts is null");
+
+        if (from == null)
+            throw new NullPointerException("from is null");
+
+        if (contacts.isEmpty())
+            throw new IllegalArgumentException("No contacts given");
+
+        if (days < 1)
+            throw new IllegalArgumentException("The number of days " + days + " is less than 1");
+
+        Lock lock = lockForRead();
+        try {
+            ensureContactsAreKnown(contacts_by_id, contacts);
+
+            // Recurring meetings' days are set from their rules, so their occurrences needn't be created
+            List<WindowedBitmap> bitmaps = new ArrayList<WindowedBitmap>();
+            for (Contact contact : contacts) {
+                ensureStoredMeetingsLoadedForContact(contact.getId());
+                bitmaps.add(meeting_days_by_contact.get(contact.getId()));
+            }
+
+            return ContactIndexes.getFirstFreeDay(bitmaps, from, days);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the meeting id bitmaps of the given contacts, smallest first (so that
+     * intersections shrink as quickly as possible).
+     *
+     * @param contacts the contacts whose bitmaps to return.
+     * @return the contacts' bitmaps.
+     * @throws NullPointerException if contacts is null.
+     * @throws IllegalArgumentException if contacts is empty or contains unknown contacts.
+     */
+    private List<CompressedBitmap> getMeetingIdBitmaps(Set<Contact> contacts) {
+        ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        List<CompressedBitmap> bitmaps = new ArrayList<CompressedBitmap>();
+        for (Contact contact : contacts) {
+            ensureMeetingsLoadedForContact(contact.getId());
+            bitmaps.add(meeting_ids_by_contact.get(contact.getId()));
+        }
+
+        Collections.sort(bitmaps, new Comparator<CompressedBitmap>() {
+            @Override
+            public int compare(CompressedBitmap o1, CompressedBitmap o2) {
+                return Integer.compare(o1.getCardinality(), o2.getCardinality());
+            }
+        });
+        return bitmaps;
+    }
+
+    /**
+     * Returns the meetings with the given ids, chronologically sorted.
+     *
+     * @param meeting_ids the meetings' ids.
+     * @return the meetings.
+     */
+    private List<Meeting> getMeetingsSortedByDate(CompressedBitmap meeting_ids) {
+        List<Meeting> meetings = new ArrayList<Meeting>(meeting_ids.getCardinality());
+        for (int id : meeting_ids.toArray()) {
+            meetings.add(getMeeting(id));
+        }
 
-        // Put data in data store
-        data.setContacts(contacts_by_id.values());
-        data.setFutureMeetings(future_meetings_by_id.values());
-        data.setPastMeetings(past_meetings_by_id.values());
+        Collections.sort(meetings, CalendarUtil.getMeetingDateComparator());
+        return new LinkedList<Meeting>(meetings);
+    }
 
-        // Save data store to file
+    @Override
+    public void flush() {
         try {
-            data.writeToFilename(filename);
+            writeToFile(false);
         } catch (IOException e) {
             System.out.println("Error! Couldn't write to filename: " + filename);
             e.printStackTrace();
         }
     }
+
+    /**
+     * Writes the manager's contacts and meetings to its file, as 'flush' does, but reports a
+     * failure to write rather than printing it.  Each file is written in full to a temporary file
+     * and then renamed over the old one (see 'FileUtil.replace').
+     *
+     * @param sync whether to force every file to disk before returning.
+     * @throws IOException if the file couldn't be written.
+     */
+    void writeToFile(boolean sync) throws IOException {
+        // Loading and sealing meetings change the manager's data structures, so queries wait for
+        // those, though not for the files to be written
+        Lock lock = load_lock.writeLock();
+        lock.lock();
+        try {
+            // The file is about to be overwritten, so anything still pending in it must be loaded
+            // first (but archived meetings stay where they are)
+            ensureFileMeetingsLoaded();
+
+            long stage_start = System.nanoTime();
+            DataStore data = DIFactory.getInstance().newDataStore();
+
+            // Put data in data store, sealing any past years not yet archived (if archiving)
+            Collection<PastMeeting> past_meetings = past_meetings_by_id.values();
+            Map<Integer, List<PastMeeting>> meetings_to_archive = new TreeMap<Integer, List<PastMeeting>>();
+            if (archive != null || archive_past_meetings) {
+                past_meetings = new ArrayList<PastMeeting>();
+                int current_year = Calendar.getInstance().get(Calendar.YEAR);
+                if (archive == null)
+                    archive = MeetingArchive.open(filename, contacts_by_id);
+
+                for (PastMeeting meeting : past_meetings_by_id.values()) {
+                    if (archive.isClean(meeting))
+                        continue;
+
+                    int year = meeting.getDate().get(Calendar.YEAR);
+                    if (archive_past_meetings && year < current_year && !archive.hasSegment(year)) {
+                        List<PastMeeting> year_meetings = meetings_to_archive.get(year);
+                        if (year_meetings == null) {
+                            year_meetings = new ArrayList<PastMeeting>();
+                            meetings_to_archive.put(year, year_meetings);
+                        }
+                        year_meetings.add(meeting);
+                    } else {
+                        past_meetings.add(meeting);
+                    }
+                }
+            }
+
+            // Occurrences of recurring meetings are saved as their rules, until they're promoted
+            Collection<FutureMeeting> future_meetings = future_meetings_by_id.values();
+            if (!recurring_meetings.isEmpty()) {
+                future_meetings = new ArrayList<FutureMeeting>();
+                for (FutureMeeting meeting : future_meetings_by_id.values()) {
+                    if (getRecurringMeeting(meeting.getId()) == null)
+                        future_meetings.add(meeting);
+                }
+            }
+
+            data.setContacts(contacts_by_id.values());
+            data.setFutureMeetings(future_meetings);
+            data.setPastMeetings(past_meetings);
+
+            stage_timings.get(Stage.FLUSH_COLLECT).record(System.nanoTime() - stage_start);
+            stage_start = System.nanoTime();
+
+            // Save data store to file
+            try {
+                // Sealed before the file is written, so a failure in between leaves meetings in both,
+                // where the file's copy wins, rather than in neither
+                for (Map.Entry<Integer, List<PastMeeting>> entry : meetings_to_archive.entrySet()) {
+                    archive.seal(entry.getKey(), entry.getValue(), sync);
+                }
+
+                // Hold on to the read lock, so that no query loads meetings while they're written
+                Lock read_lock = load_lock.readLock();
+                read_lock.lock();
+                lock.unlock();
+                lock = read_lock;
+
+                // The file leaves out the occurrences the rules cover, so (as with sealing) they go first
+                RecurringMeeting.write(filename, recurring_meetings.values(), sync);
+
+                File temp_file = new File(filename + ".tmp");
+                data.writeToFilename(temp_file.getPath());
+                FileUtil.replace(temp_file, new File(filename), sync);
+
+                // The indexes would cover archived meetings and occurrences that aren't in the file
+                if (persist_indexes && (archive == null || archive.getYears().isEmpty()) && recurring_meetings.isEmpty()) {
+                    MeetingIndexFile.write(filename, past_meetings_by_contact, future_meetings_by_contact, meetings_by_date);
+                } else {
+                    // Any index file left from before no longer matches the file
+                    MeetingIndexFile.delete(filename);
+                }
+            } finally {
+                stage_timings.get(Stage.FLUSH_WRITE).record(System.nanoTime() - stage_start);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Subscribes a listener to the changes made through this manager: contacts added, meetings
+     * added, future meetings promoted to past meetings, and notes added to meetings.  Loading
+     * from file isn't a change, so publishes nothing, and nor does creating a recurring meeting's
+     * occurrences as queries cover them.
+     *
+     * Events are buffered for the listener in a ring buffer of the given capacity, and delivered
+     * in batches on the subscription's own thread (see ChangeFeed).  With BLOCK, a change waits
+     * for the listener when the buffer is full, so the listener mustn't call back into this
+     * manager, or into a wrapper that holds a lock while making changes: it would deadlock.
+     *
+     * @param listener the listener to deliver events to.
+     * @param capacity the number of events to buffer for the listener.
+     * @param policy what to do with new events when the buffer is full.
+     * @return the subscription, which the listener is unsubscribed by closing.
+     * @throws NullPointerException if listener or policy is null.
+     * @throws IllegalArgumentException if capacity isn't positive.
+     */
+    public ChangeFeed.Subscription subscribe(ChangeListener listener, int capacity, ChangeFeed.OverflowPolicy policy) {
+        return change_feed.subscribe(listener, capacity, policy);
+    }
+
+    /**
+     * Starts reminding the given listener of each future meeting, 'lead_time_millis' before it
+     * starts (or as soon as possible, for a meeting starting sooner than that), checking for due
+     * reminders once a second.  Reminders are delivered on a pool of the given number of threads
+     * (see ReminderScheduler).
+     *
+     * The current future meetings are scheduled first, so in lazy-load mode the file's meetings
+     * are loaded.  Meetings added afterwards are scheduled as they're added, and those promoted
+     * to past meetings have their reminders cancelled.  This locks the manager as a query that
+     * loads meetings does (see 'lockForRead'), so may be called concurrently with queries, but
+     * not with changes.
+     *
+     * @param listener the listener to deliver reminders to.
+     * @param lead_time_millis how long before each meeting starts to remind the listener of it.
+     * @param threads the number of threads to deliver reminders on.
+     * @return the scheduler, which stops reminding the listener when closed.
+     * @throws NullPointerException if listener is null.
+     * @throws IllegalArgumentException if lead_time_millis is negative or threads isn't positive.
+     */
+    public ReminderScheduler startReminders(ReminderListener listener, long lead_time_millis, int threads) {
+        return startReminders(listener, lead_time_millis, threads, 1000);
+    }
+
+    /**
+     * As 'startReminders(ReminderListener, long, int)', but checking for due reminders every
+     * 'tick_millis' milliseconds.
+     */
+    ReminderScheduler startReminders(ReminderListener listener, long lead_time_millis, int threads, long tick_millis) {
+        if (listener == null)
+            throw new NullPointerException("listener is null");
+
+        if (lead_time_millis < 0)
+            throw new IllegalArgumentException("Lead time " + lead_time_millis + " is negative");
+
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count " + threads + " isn't positive");
+
+        ReminderScheduler scheduler = new ReminderScheduler(listener, lead_time_millis, threads, tick_millis, reminder_schedulers);
+
+        // Queries may load meetings or create occurrences meanwhile, so keep them out until the
+        // scheduler is registered (and will schedule whatever they add) and has everything so far
+        Lock lock = load_lock.writeLock();
+        lock.lock();
+        try {
+            // Registered before the copy, so nothing added in between is missed; anything in both
+            // is just scheduled twice, and the second replaces the first
+            reminder_schedulers.add(scheduler);
+
+            // Future meetings are never archived, so only the file's need loading
+            ensureFileMeetingsLoaded();
+
+            List<FutureMeeting> meetings = new ArrayList<FutureMeeting>(future_meetings_by_id.size());
+            for (FutureMeeting meeting : future_meetings_by_id.values()) {
+                if (getRecurringMeeting(meeting.getId()) == null)
+                    meetings.add(meeting);
+            }
+            scheduler.scheduleAll(meetings, recurring_meetings.values());
+        } catch (RuntimeException e) {
+            // Unregister it, and let its threads go
+            scheduler.close();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+
+        scheduler.start();
+        return scheduler;
+    }
+
+    private void publish(ChangeEvent.Type type, Contact contact, Meeting meeting, String text) {
+        if (change_feed.hasSubscribers())
+            change_feed.publish(type, contact, meeting, text);
+    }
+
+    private void publishMeetingsAdded(List<? extends Meeting> meetings) {
+        if (!change_feed.hasSubscribers())
+            return;
+
+        for (Meeting meeting : meetings) {
+            change_feed.publish(ChangeEvent.Type.MEETING_ADDED, null, meeting, null);
+        }
+    }
+
+    /**
+     * Publishes the addition of notes to a meeting.
+     *
+     * @param meeting the meeting the notes were added to.
+     * @param new_meeting the meeting that replaced it, or null if the notes were added in place.
+     * @param text the notes that were added.
+     */
+    private void publishNotesAdded(Meeting meeting, PastMeeting new_meeting, String text) {
+        if (!change_feed.hasSubscribers())
+            return;
+
+        Meeting current_meeting = new_meeting == null ? meeting : new_meeting;
+        if (meeting instanceof FutureMeeting)
+            change_feed.publish(ChangeEvent.Type.MEETING_PROMOTED, null, current_meeting, null);
+        change_feed.publish(ChangeEvent.Type.NOTES_APPENDED, null, current_meeting, text);
+    }
+
+    /**
+     * Sets whether 'flush' also saves the meeting indexes (in date order, per contact and per day)
+     * to an index file beside the file, so that loading the file can use them rather than
+     * rebuilding them.  When not set, 'flush' deletes any index file, as it would be out of date.
+     * Loading uses an index file whenever there's one that matches the file.
+     *
+     * @param persist_indexes whether to save the meeting indexes when flushing.
+     */
+    public void setPersistIndexes(boolean persist_indexes) {
+        this.persist_indexes = persist_indexes;
+    }
+
+    /**
+     * Sets whether 'flush' seals the past meetings of earlier years into per-year archive segments
+     * beside the file (see MeetingArchive), rather than writing them into the file every time.
+     *
+     * A year is sealed at the first flush after it ends, and its segment is never rewritten.
+     * Afterwards, the file only holds the year's meetings that changed (eg. gained notes) or were
+     * added after it was sealed.  Archived meetings are only read when something needs them: a
+     * meeting by id, a contact's meetings, a date in the year, or anything needing every meeting
+     * (eg. searching meeting notes).
+     *
+     * Existing segments are always read, whether or not this is set.
+     *
+     * @param archive_past_meetings whether to archive past years when flushing.
+     */
+    public void setArchivePastMeetings(boolean archive_past_meetings) {
+        this.archive_past_meetings = archive_past_meetings;
+    }
+
+    /**
+     * Sets the most memory (estimated as two bytes per character) past meetings' notes may use.
+     * Beyond it, the notes of the least recently used meetings (the oldest, to begin with) are
+     * spilled to a segment file beside the file (its name plus ".notes"), and read back when
+     * they're next needed; see NoteSegmentStore.  Only PastMeetingImpls' notes are spilled.
+     *
+     * The first call creates the segment file, and later calls change the budget.
+     *
+     * @param memory_budget the budget, in bytes.
+     * @throws IllegalArgumentException if memory_budget is negative.
+     * @throws IOException if the segment file can't be created.
+     */
+    public void setNotesMemoryBudget(long memory_budget) throws IOException {
+        if (note_store != null) {
+            note_store.setMemoryBudget(memory_budget);
+            return;
+        }
+
+        note_store = new NoteSegmentStore(filename + NOTES_SEGMENT_SUFFIX, memory_budget);
+        addToNoteStore(past_meetings_by_id.values());
+    }
+
+    /**
+     * Returns the store past meetings' notes are spilled through, for its statistics.
+     *
+     * @return the store, or null if 'setNotesMemoryBudget' hasn't been called.
+     */
+    public NoteSegmentStore getNoteStore() {
+        return note_store;
+    }
+
+    /**
+     * Returns the histogram of how long (in nanoseconds) the given stage of loading or
+     * flushing has taken.  The histogram is live, so it can be snapshotted or reset by the caller.
+     *
+     * @param stage the stage of loading or flushing.
+     * @return the timings recorded for that stage.
+     */
+    public LatencyHistogram getStageTiming(Stage stage) {
+        return stage_timings.get(stage);
+    }
 }
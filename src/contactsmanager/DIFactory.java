@@ -1,17 +1,44 @@
 package contactsmanager;
 
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Dependency Injection factory singleton class.
  *
  * Implementations are matched to interfaces in the "config.ini" file, which this class interprets
  * thus decoupling the two in the code.
+ *
+ * "ContactManager=contactsmanager.ColumnarContactManager" keeps meetings in columns rather than
+ * as an object each, for very large numbers of meetings.  The ContactManagerImpl options below
+ * don't apply to it, and it loads everything regardless of "LazyLoadMeetings".
+ *
+ * If "InstrumentContactManager=true" is set in the config file, ContactManagers are handed out
+ * wrapped in an InstrumentedContactManager, which records per-operation latencies.
+ *
+ * If "LazyLoadMeetings=true" is set, ContactManagers created with a filename are asked to load
+ * the file's meetings only when they're first needed (see ContactManagerImpl).
+ *
+ * If "PersistIndexes=true" is set, ContactManagerImpls save their meeting indexes beside their
+ * files when flushing, so they needn't be rebuilt when the files are loaded.
+ *
+ * If "ArchivePastMeetings=true" is set, ContactManagerImpls seal past years' meetings into
+ * archive segments beside their files when flushing.
+ *
+ * If "NotesMemoryBudget=<bytes>" is set, ContactManagerImpls keep their past meetings' notes
+ * within that budget, spilling the rest to disk.
+ *
+ * Constructors are looked up reflectively once, then cached, as contacts and meetings are
+ * created in bulk when loading files and adding batches.
  */
 public class DIFactory {
     // Singleton
@@ -26,16 +53,36 @@ public class DIFactory {
 
     // Factory
     private final Class contact, past_meeting, future_meeting, contact_manager, data_store;
+    private final boolean instrument_contact_manager;
+    private final boolean lazy_load_meetings;
+    private final boolean persist_indexes;
+    private final boolean archive_past_meetings;
+    private final long notes_memory_budget;
     private final Class<?>[] contact_constructor = new Class<?>[]{Integer.class, String.class};
     private final Class<?>[] past_meeting_constructor = new Class<?>[]{Integer.class, Calendar.class, Set.class, String.class};
     private final Class<?>[] future_meeting_constructor = new Class<?>[]{Integer.class, Calendar.class, Set.class};
     private final Class<?>[] default_constructor = new Class<?>[]{};
     private final Class<?>[] contact_manager_filename_constructor = new Class<?>[]{String.class};
+    private final Class<?>[] contact_manager_lazy_constructor = new Class<?>[]{String.class, Boolean.class};
+    // Keyed by (class, parameter types array).  The arrays above are only ever used by identity.
+    private final ConcurrentHashMap<List<Object>, Constructor<?>> constructors = new ConcurrentHashMap<List<Object>, Constructor<?>>();
+
+    private Constructor<?> getConstructor(Class<?> clazz, Class<?>[] parameter_types) throws NoSuchMethodException {
+        List<Object> key = Arrays.<Object>asList(clazz, parameter_types);
+        Constructor<?> constructor = constructors.get(key);
+
+        if (constructor == null) {
+            constructor = clazz.getConstructor(parameter_types);
+            constructors.put(key, constructor);
+        }
+
+        return constructor;
+    }
 
     private Object newInstance(Class<?> clazz, Class<?>[] parameter_types, Object... parameters) {
 
         try {
-            return clazz.getConstructor(parameter_types).newInstance(parameters);
+            return getConstructor(clazz, parameter_types).newInstance(parameters);
         } catch (InstantiationException e) {
             throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
@@ -60,11 +107,42 @@ public class DIFactory {
     }
 
     public ContactManager newContactManager() {
-        return (ContactManager) newInstance(contact_manager, default_constructor);
+        return configureContactManager((ContactManager) newInstance(contact_manager, default_constructor));
     }
 
     public ContactManager newContactManager(String filename) {
-        return (ContactManager) newInstance(contact_manager, contact_manager_filename_constructor, filename);
+        if (lazy_load_meetings) {
+            return configureContactManager(
+                    (ContactManager) newInstance(contact_manager, contact_manager_lazy_constructor, filename, true));
+        }
+
+        return configureContactManager(
+                (ContactManager) newInstance(contact_manager, contact_manager_filename_constructor, filename));
+    }
+
+    private ContactManager configureContactManager(ContactManager manager) {
+        if (manager instanceof ContactManagerImpl) {
+            if (persist_indexes)
+                ((ContactManagerImpl) manager).setPersistIndexes(true);
+
+            if (archive_past_meetings)
+                ((ContactManagerImpl) manager).setArchivePastMeetings(true);
+
+            if (notes_memory_budget >= 0) {
+                try {
+                    ((ContactManagerImpl) manager).setNotesMemoryBudget(notes_memory_budget);
+                } catch (IOException e) {
+                    // The manager still works, just without a budget
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if (instrument_contact_manager) {
+            return new InstrumentedContactManager(manager);
+        } else {
+            return manager;
+        }
     }
 
     public DataStore newDataStore() {
@@ -82,6 +160,11 @@ public class DIFactory {
             future_meeting = Class.forName(props.getProperty("FutureMeeting"));
             contact_manager = Class.forName(props.getProperty("ContactManager"));
             data_store = Class.forName(props.getProperty("DataStore"));
+            instrument_contact_manager = Boolean.parseBoolean(props.getProperty("InstrumentContactManager", "false"));
+            lazy_load_meetings = Boolean.parseBoolean(props.getProperty("LazyLoadMeetings", "false"));
+            persist_indexes = Boolean.parseBoolean(props.getProperty("PersistIndexes", "false"));
+            archive_past_meetings = Boolean.parseBoolean(props.getProperty("ArchivePastMeetings", "false"));
+            notes_memory_budget = Long.parseLong(props.getProperty("NotesMemoryBudget", "-1").trim());
 
             props_file.close();
 
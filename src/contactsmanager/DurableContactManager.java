@@ -0,0 +1,914 @@
+package contactsmanager;
+
+import contactsmanager.util.LatencyHistogram;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A ContactManager whose changes are durable as soon as each call returns, without rewriting
+ * the whole file each time.
+ *
+ * Each change is applied to a ContactManagerImpl and appended to a log file (the manager's
+ * filename plus ".log"), and the call then waits until its record has been forced to disk.
+ * A single commit thread collects the records from concurrent callers and forces them with one
+ * fsync: it waits from the first record of a batch for up to 'max_latency_us' microseconds, or
+ * until 'max_batch_size' records are waiting, then writes and forces them all and wakes their
+ * callers.  So many concurrent writers share each fsync, rather than taking one apiece.
+ *
+ * 'flush' writes the whole file, as usual but forcing it to disk, and then empties the log.
+ * When the manager is created, the file is loaded and the log is replayed on top of it.  Records
+ * hold the ids the changes were given, so replaying a record that's already in the file (if the
+ * manager stopped between writing the file and emptying the log) changes nothing; a record cut
+ * short by a crash is discarded, along with anything after it.  A complete record that can't be
+ * applied (eg. one naming contacts the file doesn't have) means the log doesn't belong with the
+ * file, so the manager refuses to open rather than discard it.
+ *
+ * If a batch of records can't be written to the log, the changes waiting for it throw
+ * IllegalStateException, and so does every later change, without being applied: the log can't
+ * be trusted any more, so the manager has to be closed and created again.
+ *
+ * A change is applied before its record is committed, so queries from other threads can see it
+ * before it's durable.  If the commit then fails, the change isn't undone: it stays visible
+ * until the manager is closed, and a 'flush' would still write it to the file.  Whether it
+ * survives a restart otherwise depends on how much of the batch reached the disk, so the caller,
+ * which gets IllegalStateException, can't tell; it should check once the manager is recreated.
+ *
+ * All methods are thread-safe.  Changes are applied one at a time, in the order they're logged.
+ * Queries run concurrently with each other, but not with changes.
+ */
+public class DurableContactManager implements ContactManager, Closeable {
+    private static final String LOG_SUFFIX = ".log";
+    private static final long DEFAULT_MAX_LATENCY_US = 1000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    // Record types
+    private static final byte CONTACTS = 0;
+    private static final byte FUTURE_MEETINGS = 1;
+    private static final byte PAST_MEETINGS = 2;
+    private static final byte MEETING_NOTES = 3;
+    private static final byte RECURRING_MEETINGS = 4;
+
+    private final ContactManagerImpl manager;
+    private final String filename;
+    private final String log_filename;
+    private final FileChannel log;
+    private final long max_latency_nanos;
+    private final int max_batch_size;
+    private final Thread committer;
+
+    // Guard 'manager': changes take the write lock, so they're applied and logged in the same
+    // order, and queries take the read lock, so they run concurrently with each other (which
+    // ContactManagerImpl supports) but never with a change
+    private final Lock read_lock;
+    private final Lock write_lock;
+
+    // Guards the fields below, which hold the records waiting to be committed
+    private final Object commit_lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pending_count = 0;
+    private long batch_started = 0;
+    private long logged_sequence = 0;
+    private long durable_sequence = 0;
+    private IOException commit_failure = null;
+    private boolean closed = false;
+
+    // Guards writing to and truncating the log
+    private final Object log_lock = new Object();
+
+    // Held while flushing
+    private final Object flush_lock = new Object();
+
+    private final LatencyHistogram batch_sizes = new LatencyHistogram();
+
+    /**
+     * Creates a DurableContactManager using the given filename for storage, committing with the
+     * default latency and batch size.  If the file or its log already exist, they're loaded.
+     *
+     * @param filename the file to store contacts and meetings in.
+     * @throws IllegalStateException if the log couldn't be opened.
+     */
+    public DurableContactManager(String filename) {
+        this(filename, DEFAULT_MAX_LATENCY_US, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a DurableContactManager using the given filename for storage.  If the file or its
+     * log already exist, they're loaded.
+     *
+     * @param filename the file to store contacts and meetings in.
+     * @param max_latency_us the longest a record waits for others to share its fsync, in microseconds.
+     * @param max_batch_size the most records committed with one fsync.
+     * @throws IllegalArgumentException if max_latency_us is negative or max_batch_size isn't positive.
+     * @throws IllegalStateException if the log couldn't be opened.
+     */
+    public DurableContactManager(String filename, long max_latency_us, int max_batch_size) {
+        if (max_latency_us < 0)
+            throw new IllegalArgumentException("Latency " + max_latency_us + " is negative");
+
+        if (max_batch_size < 1)
+            throw new IllegalArgumentException("Batch size " + max_batch_size + " isn't positive");
+
+        this.manager = new ContactManagerImpl(filename);
+        this.filename = filename;
+        this.log_filename = filename + LOG_SUFFIX;
+        this.max_latency_nanos = max_latency_us * 1000;
+        this.max_batch_size = max_batch_size;
+
+        ReadWriteLock lock = new ReentrantReadWriteLock();
+        read_lock = lock.readLock();
+        write_lock = lock.writeLock();
+
+        try {
+            long valid_length = replayLog();
+            log = new RandomAccessFile(log_filename, "rw").getChannel();
+            // Drop any torn record at the end, so new records follow the last good one
+            log.truncate(valid_length);
+            log.position(valid_length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't open log " + log_filename, e);
+        }
+
+        committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitRecords();
+            }
+        }, "contact-manager-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * @return the log file's name.
+     */
+    String getLogFilename() {
+        return log_filename;
+    }
+
+    // Writing records
+
+    /**
+     * Writes a Calendar as its time in milliseconds and its time zone's id.
+     */
+    private static void writeCalendar(DataOutputStream out, Calendar date) throws IOException {
+        out.writeLong(date.getTimeInMillis());
+        out.writeUTF(date.getTimeZone().getID());
+    }
+
+    private static Calendar readCalendar(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        Calendar date = Calendar.getInstance(TimeZone.getTimeZone(in.readUTF()));
+        date.setTimeInMillis(millis);
+        return date;
+    }
+
+    /**
+     * Writes a String as its length and UTF-8 bytes (as 'writeUTF' is limited to 64KB).
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeContactIds(DataOutputStream out, Set<Contact> contacts) throws IOException {
+        out.writeInt(contacts.size());
+        for (Contact contact : contacts) {
+            out.writeInt(contact.getId());
+        }
+    }
+
+    private Set<Contact> readContacts(DataInputStream in) throws IOException {
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+            if (!manager.hasContact(ids[i]))
+                throw new IOException("Log record refers to unknown contact " + ids[i]);
+        }
+        return manager.getContacts(ids);
+    }
+
+    /**
+     * Returns the record for newly added contacts.
+     */
+    private byte[] contactsRecord(List<Integer> ids, List<String> names, List<String> notes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(CONTACTS);
+        out.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            out.writeInt(ids.get(i));
+            writeString(out, names.get(i));
+            writeString(out, notes.get(i));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the record for newly added meetings (past or future), as added by the manager.
+     */
+    private byte[] meetingsRecord(byte type, List<Integer> ids) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeInt(ids.size());
+        for (int id : ids) {
+            Meeting meeting = manager.getMeeting(id);
+            out.writeInt(id);
+            writeCalendar(out, meeting.getDate());
+            writeContactIds(out, meeting.getContacts());
+            if (type == PAST_MEETINGS)
+                writeString(out, ((PastMeeting) meeting).getNotes());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the record for a newly added recurring meeting (as its rule, not its occurrences),
+     * given the id of its first occurrence.
+     */
+    private byte[] recurringMeetingRecord(int id) throws IOException {
+        RecurringMeeting meeting = manager.getRecurringMeeting(id);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECURRING_MEETINGS);
+        out.writeInt(1);
+        out.writeInt(id);
+        writeCalendar(out, meeting.getFirstDate());
+        out.writeInt(meeting.getIntervalDays());
+        out.writeInt(meeting.getCount());
+        writeContactIds(out, meeting.getContacts());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the record for notes just added to meetings.  The length of each meeting's notes
+     * afterwards is recorded too; as notes only grow, replaying the record can tell from it
+     * whether the notes are already there.
+     */
+    private byte[] notesRecord(Map<Integer, String> notes_by_id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MEETING_NOTES);
+        out.writeInt(notes_by_id.size());
+        for (Map.Entry<Integer, String> entry : notes_by_id.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(((PastMeeting) manager.getMeeting(entry.getKey())).getNotes().length());
+            writeString(out, entry.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    // Replaying the log
+
+    /**
+     * Applies every complete record in the log to the manager.
+     *
+     * @return the length of the log's complete records, after which anything is discarded.
+     * @throws IOException if the log couldn't be read, or has a complete record that can't be applied.
+     */
+    private long replayLog() throws IOException {
+        File file = new File(log_filename);
+        if (!file.exists())
+            return 0;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long valid_length = 0;
+        try {
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    long checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length < 1 || length > file.length() - valid_length)
+                        break;
+
+                    record = new byte[length];
+                    in.readFully(record);
+                    if (crc(record) != checksum)
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    replayRecord(new DataInputStream(new ByteArrayInputStream(record)));
+                } catch (RuntimeException e) {
+                    // The record was written whole, so it's the log that's wrong, not the write
+                    throw new IOException("Corrupt record at " + valid_length + " in " + log_filename, e);
+                }
+                valid_length += 8 + record.length;
+            }
+        } finally {
+            in.close();
+        }
+
+        if (valid_length < file.length())
+            System.out.println("Warning: discarding " + (file.length() - valid_length) + " bytes at the end of " + log_filename);
+        return valid_length;
+    }
+
+    private static long crc(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Applies a record, skipping whatever part of it the manager already has.
+     */
+    private void replayRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int count = in.readInt();
+        List<Meeting> meetings = new ArrayList<Meeting>();
+
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            switch (type) {
+                case CONTACTS: {
+                    String name = readString(in);
+                    String notes = readString(in);
+                    if (!manager.hasContact(id)) {
+                        Contact contact = DIFactory.getInstance().newContact(id, name);
+                        contact.addNotes(notes);
+                        manager.addExistingContact(contact);
+                    }
+                    break;
+                }
+                case FUTURE_MEETINGS:
+                case PAST_MEETINGS: {
+                    Calendar date = readCalendar(in);
+                    Set<Contact> contacts = readContacts(in);
+                    if (type == FUTURE_MEETINGS) {
+                        if (manager.getMeeting(id) == null)
+                            meetings.add(DIFactory.getInstance().newFutureMeeting(id, date, contacts));
+                    } else {
+                        String notes = readString(in);
+                        if (manager.getMeeting(id) == null)
+                            meetings.add(DIFactory.getInstance().newPastMeeting(id, date, contacts, notes));
+                    }
+                    break;
+                }
+                case RECURRING_MEETINGS: {
+                    Calendar first_date = readCalendar(in);
+                    int interval_days = in.readInt();
+                    int occurrences = in.readInt();
+                    Set<Contact> contacts = readContacts(in);
+                    if (manager.getMeeting(id) == null)
+                        manager.addExistingRecurringMeeting(id, first_date, interval_days, occurrences, contacts);
+                    break;
+                }
+                case MEETING_NOTES: {
+                    int notes_length = in.readInt();
+                    String text = readString(in);
+                    Meeting meeting = manager.getMeeting(id);
+                    if (!(meeting instanceof PastMeeting) || ((PastMeeting) meeting).getNotes().length() < notes_length)
+                        manager.addMeetingNotes(id, text);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+
+        if (!meetings.isEmpty())
+            manager.addExistingMeetings(meetings);
+    }
+
+    // Committing records
+
+    /**
+     * Checks that a change can be logged, before it's applied.  Must be called while holding
+     * 'write_lock'.
+     *
+     * @throws IllegalStateException if the manager is closed, or the log couldn't be written.
+     */
+    private void ensureWritable() {
+        synchronized (commit_lock) {
+            if (closed)
+                throw new IllegalStateException("Manager is closed");
+
+            if (commit_failure != null)
+                throw new IllegalStateException("Couldn't write to " + log_filename, commit_failure);
+        }
+    }
+
+    /**
+     * Queues a record to be committed, returning its sequence number.  Must be called while
+     * holding 'write_lock', so records are queued in the order they were applied.
+     */
+    private long log(byte[] record) {
+        synchronized (commit_lock) {
+            if (closed)
+                throw new IllegalStateException("Manager is closed");
+
+            DataOutputStream out = new DataOutputStream(pending);
+            try {
+                out.writeInt(record.length);
+                out.writeInt((int) crc(record));
+                out.write(record);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (pending_count++ == 0) {
+                batch_started = System.nanoTime();
+                commit_lock.notifyAll();
+            } else if (pending_count >= max_batch_size) {
+                commit_lock.notifyAll();
+            }
+            return ++logged_sequence;
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number has been forced to disk.
+     *
+     * @throws IllegalStateException if the log couldn't be written.
+     */
+    private void awaitDurable(long sequence) {
+        boolean interrupted = false;
+        synchronized (commit_lock) {
+            while (durable_sequence < sequence && commit_failure == null) {
+                try {
+                    commit_lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (durable_sequence < sequence)
+            throw new IllegalStateException("Couldn't write to " + log_filename, commit_failure);
+    }
+
+    /**
+     * The commit thread's loop: wait for a batch to fill or time out, then write and force it.
+     */
+    private void commitRecords() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            int batch_count;
+            long batch_sequence;
+
+            synchronized (commit_lock) {
+                while (pending_count == 0 && !closed) {
+                    waitQuietly(0);
+                }
+
+                if (pending_count == 0)
+                    return;
+
+                // Give other writers the rest of the window to join this batch
+                long remaining = batch_started + max_latency_nanos - System.nanoTime();
+                while (pending_count < max_batch_size && remaining > 0 && !closed) {
+                    waitQuietly(remaining);
+                    remaining = batch_started + max_latency_nanos - System.nanoTime();
+                }
+
+                batch = pending;
+                batch_count = pending_count;
+                batch_sequence = logged_sequence;
+                pending = new ByteArrayOutputStream(batch.size());
+                pending_count = 0;
+            }
+
+            IOException failure = null;
+            synchronized (log_lock) {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        log.write(buffer);
+                    }
+                    log.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            batch_sizes.record(batch_count);
+
+            synchronized (commit_lock) {
+                if (failure != null) {
+                    failure.printStackTrace();
+                    commit_failure = failure;
+                } else {
+                    durable_sequence = Math.max(durable_sequence, batch_sequence);
+                }
+                commit_lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits on 'commit_lock' (which must be held) for up to the given time, or until notified.
+     */
+    private void waitQuietly(long nanos) {
+        try {
+            if (nanos <= 0)
+                commit_lock.wait();
+            else
+                commit_lock.wait(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            // Only close stops the commit thread
+        }
+    }
+
+    /**
+     * @return the histogram of how many records were committed with each fsync.
+     */
+    public LatencyHistogram getBatchSizes() {
+        return batch_sizes;
+    }
+
+    /**
+     * Commits any records still waiting, then stops the commit thread and closes the log.
+     * Changes made afterwards throw IllegalStateException.
+     */
+    @Override
+    public void close() {
+        synchronized (commit_lock) {
+            closed = true;
+            commit_lock.notifyAll();
+        }
+
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ContactManager
+
+    @Override
+    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        long sequence;
+        int id;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            id = manager.addFutureMeeting(contacts, date);
+            sequence = log(recordOf(FUTURE_MEETINGS, Collections.singletonList(id)));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+        return id;
+    }
+
+    @Override
+    public List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        long sequence;
+        List<Integer> ids;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            ids = manager.addFutureMeetings(contacts, dates);
+            sequence = log(recordOf(FUTURE_MEETINGS, ids));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+        return ids;
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count) {
+        long sequence;
+        int id;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            id = manager.addRecurringMeeting(contacts, first_date, interval_days, count);
+            sequence = log(recordOfRecurringMeeting(id));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+        return id;
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date) {
+        long sequence;
+        int id;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            id = manager.addRecurringMeeting(contacts, first_date, interval_days, last_date);
+            sequence = log(recordOfRecurringMeeting(id));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+        return id;
+    }
+
+    @Override
+    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        long sequence;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            // Added as a batch of one, to learn the new meeting's id
+            List<Integer> ids = manager.addNewPastMeetings(Collections.singletonList(contacts),
+                    Collections.singletonList(date), Collections.singletonList(text));
+            sequence = log(recordOf(PAST_MEETINGS, ids));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        long sequence;
+        List<Integer> ids;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            ids = manager.addNewPastMeetings(contacts, dates, texts);
+            sequence = log(recordOf(PAST_MEETINGS, ids));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+        return ids;
+    }
+
+    @Override
+    public void addMeetingNotes(int id, String text) {
+        addMeetingNotes(Collections.singletonMap(id, text));
+    }
+
+    @Override
+    public void addMeetingNotes(Map<Integer, String> notes_by_id) {
+        long sequence;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            manager.addMeetingNotes(notes_by_id);
+            sequence = log(recordOf(notes_by_id));
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void addNewContact(String name, String notes) {
+        addNewContacts(Collections.singletonList(name), Collections.singletonList(notes));
+    }
+
+    @Override
+    public List<Integer> addNewContacts(List<String> names, List<String> notes) {
+        long sequence;
+        List<Integer> ids;
+        write_lock.lock();
+        try {
+            ensureWritable();
+            ids = manager.addNewContacts(names, notes);
+            try {
+                sequence = log(contactsRecord(ids, names, notes));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } finally {
+            write_lock.unlock();
+        }
+        awaitDurable(sequence);
+        return ids;
+    }
+
+    private byte[] recordOf(byte type, List<Integer> ids) {
+        try {
+            return meetingsRecord(type, ids);
+        } catch (IOException e) {
+            // Records are written to memory, so this can't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] recordOfRecurringMeeting(int id) {
+        try {
+            return recurringMeetingRecord(id);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] recordOf(Map<Integer, String> notes_by_id) {
+        try {
+            return notesRecord(notes_by_id);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public PastMeeting getPastMeeting(int id) {
+        read_lock.lock();
+        try {
+            return manager.getPastMeeting(id);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public FutureMeeting getFutureMeeting(int id) {
+        read_lock.lock();
+        try {
+            return manager.getFutureMeeting(id);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public Meeting getMeeting(int id) {
+        read_lock.lock();
+        try {
+            return manager.getMeeting(id);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Contact contact) {
+        read_lock.lock();
+        try {
+            return manager.getFutureMeetingList(contact);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Calendar date) {
+        read_lock.lock();
+        try {
+            return manager.getFutureMeetingList(date);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<PastMeeting> getPastMeetingList(Contact contact) {
+        read_lock.lock();
+        try {
+            return manager.getPastMeetingList(contact);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Contact> getContacts(int... ids) {
+        read_lock.lock();
+        try {
+            return manager.getContacts(ids);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Contact> getContacts(String name) {
+        read_lock.lock();
+        try {
+            return manager.getContacts(name);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Integer> searchContactNotes(String query) {
+        read_lock.lock();
+        try {
+            return manager.searchContactNotes(query);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Integer> searchMeetingNotes(String query) {
+        read_lock.lock();
+        try {
+            return manager.searchMeetingNotes(query);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> autocompleteContacts(String prefix, int limit) {
+        read_lock.lock();
+        try {
+            return manager.autocompleteContacts(prefix, limit);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> searchContactNames(String query, int max_distance) {
+        read_lock.lock();
+        try {
+            return manager.searchContactNames(query, max_distance);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAllOf(Set<Contact> contacts) {
+        read_lock.lock();
+        try {
+            return manager.getMeetingsWithAllOf(contacts);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAnyOf(Set<Contact> contacts) {
+        read_lock.lock();
+        try {
+            return manager.getMeetingsWithAnyOf(contacts);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    @Override
+    public Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days) {
+        read_lock.lock();
+        try {
+            return manager.getFirstFreeDay(contacts, from, days);
+        } finally {
+            read_lock.unlock();
+        }
+    }
+
+    /**
+     * Writes every contact and meeting to the file and forces it to disk, then empties the log
+     * (whose changes are now all in the file).  If the file couldn't be written, the log is kept.
+     */
+    @Override
+    public void flush() {
+        // One flush at a time, as each writes the same temporary file; and changes wait (so the
+        // log is only emptied of what the file holds), but queries don't
+        synchronized (flush_lock) {
+            read_lock.lock();
+            try {
+                try {
+                    manager.writeToFile(true);
+                } catch (IOException e) {
+                    System.out.println("Error! Couldn't write to filename: " + filename);
+                    e.printStackTrace();
+                    return;
+                }
+
+                // A batch being written now is in the file too, so it's harmless if it lands after this
+                synchronized (log_lock) {
+                    try {
+                        log.truncate(0);
+                        log.position(0);
+                        log.force(true);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } finally {
+                read_lock.unlock();
+            }
+        }
+    }
+}
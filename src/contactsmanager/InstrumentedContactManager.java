@@ -0,0 +1,584 @@
+package contactsmanager;
+
+import contactsmanager.util.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ContactManager that wraps another, recording call counts, error counts and
+ * latency histograms for each of its operations.
+ *
+ * Recording is lock-free and allocation-free, so the wrapper adds very little to each call.
+ * If the wrapped manager is a ContactManagerImpl, its load and flush stage timings are
+ * included in the stats dump too.
+ */
+public class InstrumentedContactManager implements ContactManager {
+    /**
+     * The ContactManager operations that are measured.
+     */
+    public enum Operation {
+        ADD_FUTURE_MEETING("addFutureMeeting"),
+        ADD_FUTURE_MEETINGS("addFutureMeetings"),
+        ADD_RECURRING_MEETING("addRecurringMeeting(Set, Calendar, int, int)"),
+        ADD_RECURRING_MEETING_UNTIL("addRecurringMeeting(Set, Calendar, int, Calendar)"),
+        GET_PAST_MEETING("getPastMeeting"),
+        GET_FUTURE_MEETING("getFutureMeeting"),
+        GET_MEETING("getMeeting"),
+        GET_FUTURE_MEETING_LIST_BY_CONTACT("getFutureMeetingList(Contact)"),
+        GET_FUTURE_MEETING_LIST_BY_DATE("getFutureMeetingList(Calendar)"),
+        GET_PAST_MEETING_LIST("getPastMeetingList"),
+        ADD_NEW_PAST_MEETING("addNewPastMeeting"),
+        ADD_NEW_PAST_MEETINGS("addNewPastMeetings"),
+        ADD_MEETING_NOTES("addMeetingNotes(int, String)"),
+        ADD_MEETING_NOTES_BATCH("addMeetingNotes(Map)"),
+        ADD_NEW_CONTACT("addNewContact"),
+        ADD_NEW_CONTACTS("addNewContacts"),
+        GET_CONTACTS_BY_ID("getContacts(int...)"),
+        GET_CONTACTS_BY_NAME("getContacts(String)"),
+        SEARCH_CONTACT_NOTES("searchContactNotes"),
+        SEARCH_MEETING_NOTES("searchMeetingNotes"),
+        AUTOCOMPLETE_CONTACTS("autocompleteContacts"),
+        SEARCH_CONTACT_NAMES("searchContactNames"),
+        GET_MEETINGS_WITH_ALL_OF("getMeetingsWithAllOf"),
+        GET_MEETINGS_WITH_ANY_OF("getMeetingsWithAnyOf"),
+        GET_FIRST_FREE_DAY("getFirstFreeDay"),
+        FLUSH("flush");
+
+        private final String method_name;
+
+        Operation(String method_name) {
+            this.method_name = method_name;
+        }
+
+        @Override
+        public String toString() {
+            return method_name;
+        }
+    }
+
+    /**
+     * The latencies and errors recorded for a single operation.
+     */
+    private static class OperationStats {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        void recordSince(long start) {
+            latencies.record(System.nanoTime() - start);
+        }
+
+        void recordError() {
+            errors.incrementAndGet();
+        }
+    }
+
+    private final ContactManager delegate;
+    private final OperationStats[] stats = new OperationStats[Operation.values().length];
+    private Timer dump_timer;
+
+    /**
+     * Creates an instrumented wrapper around the given ContactManager.
+     *
+     * @param delegate the ContactManager that calls are passed on to.
+     * @throws NullPointerException if delegate is null.
+     */
+    public InstrumentedContactManager(ContactManager delegate) {
+        if (delegate == null)
+            throw new NullPointerException("delegate is null");
+
+        this.delegate = delegate;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OperationStats();
+        }
+    }
+
+    /**
+     * @return the ContactManager that calls are passed on to.
+     */
+    public ContactManager getDelegate() {
+        return delegate;
+    }
+
+    private OperationStats getStats(Operation operation) {
+        return stats[operation.ordinal()];
+    }
+
+    /**
+     * Returns a snapshot of the latencies (in nanoseconds) recorded for the given operation.
+     * The snapshot's count is the number of calls made, including those that failed.
+     *
+     * @param operation the operation.
+     * @return a snapshot of the operation's latencies.
+     */
+    public LatencyHistogram.Snapshot getLatencySnapshot(Operation operation) {
+        return getStats(operation).latencies.getSnapshot();
+    }
+
+    /**
+     * Returns the number of calls of the given operation that threw an exception.
+     *
+     * @param operation the operation.
+     * @return the number of failed calls.
+     */
+    public long getErrorCount(Operation operation) {
+        return getStats(operation).errors.get();
+    }
+
+    /**
+     * Clears all recorded stats (including the wrapped manager's stage timings).
+     */
+    public void reset() {
+        for (OperationStats operation_stats : stats) {
+            operation_stats.latencies.reset();
+            operation_stats.errors.set(0);
+        }
+
+        if (delegate instanceof ContactManagerImpl) {
+            for (ContactManagerImpl.Stage stage : ContactManagerImpl.Stage.values()) {
+                ((ContactManagerImpl) delegate).getStageTiming(stage).reset();
+            }
+        }
+    }
+
+    /**
+     * Returns a human-readable table of the recorded stats, with one line for
+     * each operation (and each load/flush stage) that has been called at least once.
+     * Latencies are given in microseconds.
+     *
+     * @return the stats, as text.
+     */
+    public String getStatsDump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format("%-32s %10s %8s %10s %10s %10s %10s%n",
+                "operation", "calls", "errors", "p50(us)", "p99(us)", "p999(us)", "max(us)"));
+
+        for (Operation operation : Operation.values()) {
+            appendStatsLine(dump, operation.toString(), getLatencySnapshot(operation), getErrorCount(operation));
+        }
+
+        if (delegate instanceof ContactManagerImpl) {
+            for (ContactManagerImpl.Stage stage : ContactManagerImpl.Stage.values()) {
+                LatencyHistogram.Snapshot snapshot = ((ContactManagerImpl) delegate).getStageTiming(stage).getSnapshot();
+                appendStatsLine(dump, "stage " + stage, snapshot, 0);
+            }
+        }
+
+        return dump.toString();
+    }
+
+    private void appendStatsLine(StringBuilder dump, String name, LatencyHistogram.Snapshot snapshot, long errors) {
+        if (snapshot.getCount() == 0)
+            return;
+
+        dump.append(String.format("%-32s %10d %8d %10.1f %10.1f %10.1f %10.1f%n",
+                name, snapshot.getCount(), errors,
+                snapshot.getValueAtPercentile(50) / 1000.0,
+                snapshot.getValueAtPercentile(99) / 1000.0,
+                snapshot.getValueAtPercentile(99.9) / 1000.0,
+                snapshot.getMax() / 1000.0));
+    }
+
+    /**
+     * Starts printing the stats dump to the given stream every 'period_ms' milliseconds,
+     * on a background (daemon) thread.  Any previously started periodic dump is stopped.
+     *
+     * @param out the stream to print to.
+     * @param period_ms the time between dumps, in milliseconds.
+     * @throws IllegalArgumentException if period_ms is not positive.
+     */
+    public synchronized void startPeriodicDump(final PrintStream out, long period_ms) {
+        if (period_ms <= 0)
+            throw new IllegalArgumentException("period_ms must be positive");
+
+        stopPeriodicDump();
+        dump_timer = new Timer("ContactManager stats dump", true);
+        dump_timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                out.print(getStatsDump());
+                out.flush();
+            }
+        }, period_ms, period_ms);
+    }
+
+    /**
+     * Stops the periodic dump (if one was started).
+     */
+    public synchronized void stopPeriodicDump() {
+        if (dump_timer != null) {
+            dump_timer.cancel();
+            dump_timer = null;
+        }
+    }
+
+    @Override
+    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        OperationStats operation_stats = getStats(Operation.ADD_FUTURE_MEETING);
+        long start = System.nanoTime();
+        try {
+            return delegate.addFutureMeeting(contacts, date);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        OperationStats operation_stats = getStats(Operation.ADD_FUTURE_MEETINGS);
+        long start = System.nanoTime();
+        try {
+            return delegate.addFutureMeetings(contacts, dates);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count) {
+        OperationStats operation_stats = getStats(Operation.ADD_RECURRING_MEETING);
+        long start = System.nanoTime();
+        try {
+            return delegate.addRecurringMeeting(contacts, first_date, interval_days, count);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date) {
+        OperationStats operation_stats = getStats(Operation.ADD_RECURRING_MEETING_UNTIL);
+        long start = System.nanoTime();
+        try {
+            return delegate.addRecurringMeeting(contacts, first_date, interval_days, last_date);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public PastMeeting getPastMeeting(int id) {
+        OperationStats operation_stats = getStats(Operation.GET_PAST_MEETING);
+        long start = System.nanoTime();
+        try {
+            return delegate.getPastMeeting(id);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public FutureMeeting getFutureMeeting(int id) {
+        OperationStats operation_stats = getStats(Operation.GET_FUTURE_MEETING);
+        long start = System.nanoTime();
+        try {
+            return delegate.getFutureMeeting(id);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public Meeting getMeeting(int id) {
+        OperationStats operation_stats = getStats(Operation.GET_MEETING);
+        long start = System.nanoTime();
+        try {
+            return delegate.getMeeting(id);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Contact contact) {
+        OperationStats operation_stats = getStats(Operation.GET_FUTURE_MEETING_LIST_BY_CONTACT);
+        long start = System.nanoTime();
+        try {
+            return delegate.getFutureMeetingList(contact);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Calendar date) {
+        OperationStats operation_stats = getStats(Operation.GET_FUTURE_MEETING_LIST_BY_DATE);
+        long start = System.nanoTime();
+        try {
+            return delegate.getFutureMeetingList(date);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<PastMeeting> getPastMeetingList(Contact contact) {
+        OperationStats operation_stats = getStats(Operation.GET_PAST_MEETING_LIST);
+        long start = System.nanoTime();
+        try {
+            return delegate.getPastMeetingList(contact);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        OperationStats operation_stats = getStats(Operation.ADD_NEW_PAST_MEETING);
+        long start = System.nanoTime();
+        try {
+            delegate.addNewPastMeeting(contacts, date, text);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        OperationStats operation_stats = getStats(Operation.ADD_NEW_PAST_MEETINGS);
+        long start = System.nanoTime();
+        try {
+            return delegate.addNewPastMeetings(contacts, dates, texts);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public void addMeetingNotes(int id, String text) {
+        OperationStats operation_stats = getStats(Operation.ADD_MEETING_NOTES);
+        long start = System.nanoTime();
+        try {
+            delegate.addMeetingNotes(id, text);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public void addMeetingNotes(Map<Integer, String> notes_by_id) {
+        OperationStats operation_stats = getStats(Operation.ADD_MEETING_NOTES_BATCH);
+        long start = System.nanoTime();
+        try {
+            delegate.addMeetingNotes(notes_by_id);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public void addNewContact(String name, String notes) {
+        OperationStats operation_stats = getStats(Operation.ADD_NEW_CONTACT);
+        long start = System.nanoTime();
+        try {
+            delegate.addNewContact(name, notes);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Integer> addNewContacts(List<String> names, List<String> notes) {
+        OperationStats operation_stats = getStats(Operation.ADD_NEW_CONTACTS);
+        long start = System.nanoTime();
+        try {
+            return delegate.addNewContacts(names, notes);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public Set<Contact> getContacts(int... ids) {
+        OperationStats operation_stats = getStats(Operation.GET_CONTACTS_BY_ID);
+        long start = System.nanoTime();
+        try {
+            return delegate.getContacts(ids);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public Set<Contact> getContacts(String name) {
+        OperationStats operation_stats = getStats(Operation.GET_CONTACTS_BY_NAME);
+        long start = System.nanoTime();
+        try {
+            return delegate.getContacts(name);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Integer> searchContactNotes(String query) {
+        OperationStats operation_stats = getStats(Operation.SEARCH_CONTACT_NOTES);
+        long start = System.nanoTime();
+        try {
+            return delegate.searchContactNotes(query);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Integer> searchMeetingNotes(String query) {
+        OperationStats operation_stats = getStats(Operation.SEARCH_MEETING_NOTES);
+        long start = System.nanoTime();
+        try {
+            return delegate.searchMeetingNotes(query);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Contact> autocompleteContacts(String prefix, int limit) {
+        OperationStats operation_stats = getStats(Operation.AUTOCOMPLETE_CONTACTS);
+        long start = System.nanoTime();
+        try {
+            return delegate.autocompleteContacts(prefix, limit);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Contact> searchContactNames(String query, int max_distance) {
+        OperationStats operation_stats = getStats(Operation.SEARCH_CONTACT_NAMES);
+        long start = System.nanoTime();
+        try {
+            return delegate.searchContactNames(query, max_distance);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAllOf(Set<Contact> contacts) {
+        OperationStats operation_stats = getStats(Operation.GET_MEETINGS_WITH_ALL_OF);
+        long start = System.nanoTime();
+        try {
+            return delegate.getMeetingsWithAllOf(contacts);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAnyOf(Set<Contact> contacts) {
+        OperationStats operation_stats = getStats(Operation.GET_MEETINGS_WITH_ANY_OF);
+        long start = System.nanoTime();
+        try {
+            return delegate.getMeetingsWithAnyOf(contacts);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days) {
+        OperationStats operation_stats = getStats(Operation.GET_FIRST_FREE_DAY);
+        long start = System.nanoTime();
+        try {
+            return delegate.getFirstFreeDay(contacts, from, days);
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+
+    @Override
+    public void flush() {
+        OperationStats operation_stats = getStats(Operation.FLUSH);
+        long start = System.nanoTime();
+        try {
+            delegate.flush();
+        } catch (RuntimeException err) {
+            operation_stats.recordError();
+            throw err;
+        } finally {
+            operation_stats.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,783 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * An XmlDataStore that loads files by memory-mapping them and scanning their bytes directly,
+ * rather than building a DOM.  Files are saved just as XmlDataStore saves them.
+ *
+ * The scanner only understands the schema XmlDataStore writes: a root element holding at most
+ * one each of "Contacts", "FutureMeetings" and "PastMeetings"; contacts with an id and exactly
+ * one "name" and "notes"; meetings with an id, exactly one "date" and "contacts" (and "notes",
+ * for past meetings), with each attendee a "contact" with an id.  Anything else (an unknown
+ * or repeated element, a missing or non-integer id, mismatched tags, a DOCTYPE) is rejected.
+ * Comments are allowed between elements.
+ *
+ * Text is decoded straight from the mapped file, and only searched for entities if it contains
+ * '&'.  Ids and dates are parsed from the bytes without creating Strings (dates in unusual forms
+ * fall back to CalendarUtil).  As in XmlDataStore, meetings' unknown contacts get placeholder
+ * (nameless) contacts, for ContactManager to reject.
+ *
+ * NB. The mapping is only released when it's garbage collected; on some platforms a file can't
+ * be overwritten while it's mapped.
+ */
+public class MappedXmlDataStore extends XmlDataStore {
+    private static final byte[] CONTACTS = bytes("Contacts");
+    private static final byte[] FUTURE_MEETINGS = bytes("FutureMeetings");
+    private static final byte[] PAST_MEETINGS = bytes("PastMeetings");
+    private static final byte[] CONTACT = bytes("contact");
+    private static final byte[] CONTACT_LIST = bytes("contacts");
+    private static final byte[] MEETING = bytes("meeting");
+    private static final byte[] NAME = bytes("name");
+    private static final byte[] NOTES = bytes("notes");
+    private static final byte[] DATE = bytes("date");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] DATE_SEPARATOR = bytes(" at ");
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The state of the current load
+    private ByteBuffer buffer;
+    private int position;
+    private String filename;
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    // The current tag's name, id, and whether it's self-closing
+    private int name_start;
+    private int name_end;
+    private int id;
+    private boolean has_id;
+    private boolean self_closing;
+
+    // The time zones seen in dates (as bytes), and their offsets from UTC
+    private final List<byte[]> zone_names = new ArrayList<byte[]>();
+    private final List<Integer> zone_offsets = new ArrayList<Integer>();
+
+    /**
+     * A meeting whose contacts can't be looked up until every contact is loaded.
+     */
+    private static class MeetingRecord {
+        private final int id;
+        private Calendar date;
+        private int[] contact_ids;
+        private String notes;
+
+        MeetingRecord(int id) {
+            this.id = id;
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return text.getBytes("US-ASCII");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void loadFromFilename(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Xml file " + filename + " is too large to map");
+
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.position = 0;
+            this.filename = filename;
+            parseDocument();
+        } finally {
+            buffer = null;
+            file.close();
+        }
+    }
+
+    // Scanning
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Xml file " + filename + " could not be parsed: " + message +
+                " at byte " + position);
+    }
+
+    private boolean atEnd() {
+        return position >= buffer.limit();
+    }
+
+    private byte peek(int offset) {
+        int index = position + offset;
+        return index < buffer.limit() ? buffer.get(index) : 0;
+    }
+
+    private byte next() {
+        if (atEnd())
+            throw error("Unexpected end of file");
+        return buffer.get(position++);
+    }
+
+    private void expect(char c) {
+        if (next() != c)
+            throw error("Expected '" + c + "'");
+    }
+
+    private boolean startsWith(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (peek(i) != text.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isNameByte(byte b) {
+        return !isSpace(b) && b != '/' && b != '>' && b != '=' && b != '<' && b != 0;
+    }
+
+    /**
+     * Skips whitespace and comments.
+     */
+    private void skipSpace() {
+        while (!atEnd()) {
+            if (isSpace(peek(0))) {
+                position++;
+            } else if (startsWith("<!--")) {
+                position += 4;
+                while (!startsWith("-->")) {
+                    next();
+                }
+                position += 3;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given range of the file holds the given bytes.
+     */
+    private boolean matches(int start, int end, byte[] expected) {
+        if (end - start != expected.length)
+            return false;
+
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isTag(byte[] name) {
+        return matches(name_start, name_end, name);
+    }
+
+    /**
+     * Returns whether the next tag is an end tag (after any space).
+     */
+    private boolean atEndTag() {
+        skipSpace();
+        return startsWith("</");
+    }
+
+    /**
+     * Reads a start tag, setting its name, its id (if it has one) and whether it's self-closing.
+     */
+    private void readStartTag() {
+        skipSpace();
+        expect('<');
+        name_start = position;
+        while (isNameByte(peek(0))) {
+            position++;
+        }
+        name_end = position;
+        if (name_end == name_start)
+            throw error("Expected a tag");
+
+        has_id = false;
+        while (true) {
+            boolean spaced = isSpace(peek(0));
+            while (isSpace(peek(0))) {
+                position++;
+            }
+
+            byte b = next();
+            if (b == '>') {
+                self_closing = false;
+                return;
+            } else if (b == '/') {
+                expect('>');
+                self_closing = true;
+                return;
+            } else if (!spaced) {
+                throw error("Expected a space before an attribute");
+            }
+
+            // An attribute: name="value" or name='value'
+            int attribute_start = position - 1;
+            while (isNameByte(peek(0))) {
+                position++;
+            }
+            int attribute_end = position;
+            while (isSpace(peek(0))) {
+                position++;
+            }
+            expect('=');
+            while (isSpace(peek(0))) {
+                position++;
+            }
+
+            byte quote = next();
+            if (quote != '"' && quote != '\'')
+                throw error("Expected a quoted attribute value");
+            int value_start = position;
+            while ((b = next()) != quote) {
+                if (b == '<')
+                    throw error("'<' in attribute value");
+            }
+
+            if (matches(attribute_start, attribute_end, ID)) {
+                if (has_id)
+                    throw error("Repeated id");
+                id = parseInt(value_start, position - 1);
+                has_id = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the end tag for the element named by the given range of the file.
+     */
+    private void readEndTag(int start, int end) {
+        skipSpace();
+        expect('<');
+        expect('/');
+        int tag_start = position;
+        while (isNameByte(peek(0))) {
+            position++;
+        }
+        if (position - tag_start != end - start)
+            throw error("Mismatched end tag");
+        for (int i = 0; i < end - start; i++) {
+            if (buffer.get(tag_start + i) != buffer.get(start + i))
+                throw error("Mismatched end tag");
+        }
+
+        while (isSpace(peek(0))) {
+            position++;
+        }
+        expect('>');
+    }
+
+    private byte[] bytesOf(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks the current start tag had an id, and returns it.
+     */
+    private int requireId() {
+        if (!has_id)
+            throw error("Missing id");
+        return id;
+    }
+
+    /**
+     * Parses an integer from the given range of the file, as 'Integer.valueOf' would.
+     */
+    private int parseInt(int start, int end) {
+        boolean negative = false;
+        int index = start;
+        if (index < end && (buffer.get(index) == '-' || buffer.get(index) == '+')) {
+            negative = buffer.get(index) == '-';
+            index++;
+        }
+        if (index == end)
+            throw error("Malformed integer");
+
+        long value = 0;
+        for (; index < end; index++) {
+            byte b = buffer.get(index);
+            if (b < '0' || b > '9')
+                throw error("Malformed integer");
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw error("Integer out of range");
+        }
+
+        if (negative)
+            value = -value;
+        if (value > Integer.MAX_VALUE)
+            throw error("Integer out of range");
+        return (int) value;
+    }
+
+    // Text
+
+    /**
+     * Reads the text content of the current element (which has just been started) and its end tag.
+     *
+     * @return the text, with entities decoded and line endings normalised.
+     */
+    private String readText() {
+        if (self_closing)
+            return "";
+
+        int tag_start = name_start, tag_end = name_end;
+        int start = position;
+        boolean has_entity = false, has_return = false;
+        byte b;
+        while ((b = peek(0)) != '<') {
+            next();
+            has_entity |= b == '&';
+            has_return |= b == '\r';
+        }
+        int end = position;
+        readEndTag(tag_start, tag_end);
+
+        String text = decode(start, end);
+        if (has_return)
+            text = text.replace("\r\n", "\n").replace('\r', '\n');
+        if (has_entity)
+            text = decodeEntities(text);
+        return text;
+    }
+
+    /**
+     * Decodes the given range of the file from UTF-8.
+     */
+    private String decode(int start, int end) {
+        if (chars.capacity() < end - start)
+            chars = CharBuffer.allocate(Math.max(end - start, chars.capacity() * 2));
+        chars.clear();
+
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(end);
+        bytes.position(start);
+        decoder.reset();
+        if (decoder.decode(bytes, chars, true).isError() || decoder.flush(chars).isError())
+            throw error("Malformed UTF-8");
+
+        chars.flip();
+        return chars.toString();
+    }
+
+    /**
+     * Replaces the predefined entities and character references in the given text.
+     */
+    private String decodeEntities(String text) {
+        StringBuilder decoded = new StringBuilder(text.length());
+        int index = 0;
+        while (index < text.length()) {
+            char c = text.charAt(index);
+            if (c != '&') {
+                decoded.append(c);
+                index++;
+                continue;
+            }
+
+            int end = text.indexOf(';', index);
+            if (end == -1)
+                throw error("Unterminated entity");
+            String entity = text.substring(index + 1, end);
+
+            if (entity.equals("lt")) {
+                decoded.append('<');
+            } else if (entity.equals("gt")) {
+                decoded.append('>');
+            } else if (entity.equals("amp")) {
+                decoded.append('&');
+            } else if (entity.equals("quot")) {
+                decoded.append('"');
+            } else if (entity.equals("apos")) {
+                decoded.append('\'');
+            } else if (entity.startsWith("#")) {
+                try {
+                    int code_point = entity.startsWith("#x")
+                            ? Integer.parseInt(entity.substring(2), 16)
+                            : Integer.parseInt(entity.substring(1));
+                    decoded.appendCodePoint(code_point);
+                } catch (IllegalArgumentException e) {
+                    throw error("Malformed character reference &" + entity + ";");
+                }
+            } else {
+                throw error("Unknown entity &" + entity + ";");
+            }
+            index = end + 1;
+        }
+        return decoded.toString();
+    }
+
+    // Dates
+
+    /**
+     * Parses the text content of the current "date" element (which has just been started), as
+     * written by 'CalendarUtil.getCalendarString' (eg. "15/01/2013 at 12:30:00.5 GMT").
+     */
+    private Calendar readDate() throws ParseException {
+        if (self_closing)
+            return CalendarUtil.getCalendarFromString("");
+
+        int tag_start = name_start, tag_end = name_end;
+        int start = position;
+        boolean plain = true;
+        byte b;
+        while ((b = peek(0)) != '<') {
+            next();
+            plain &= b != '&' && b != '\r';
+        }
+        int end = position;
+        readEndTag(tag_start, tag_end);
+
+        Calendar date = plain ? parseDate(start, end) : null;
+        if (date == null) {
+            // Anything unusual is left to SimpleDateFormat (via CalendarUtil)
+            position = start;
+            name_start = tag_start;
+            name_end = tag_end;
+            self_closing = false;
+            return CalendarUtil.getCalendarFromString(readText());
+        }
+        return date;
+    }
+
+    /**
+     * Parses a date in the form "dd/MM/yyyy at HH:mm:ss.S z" from the given range of the file.
+     *
+     * @return the date, or null if it isn't in exactly that form with valid fields (or its
+     *      time zone's offset depends on the date).
+     */
+    private Calendar parseDate(int start, int end) {
+        if (end - start < 10)
+            return null;
+
+        int index = start;
+        int day = digits(index, 2);
+        int month = digits(index + 3, 2);
+        int year = digits(index + 6, 4);
+        index += 10;
+        if (day < 0 || month < 0 || year < 0 || buffer.get(start + 2) != '/' || buffer.get(start + 5) != '/'
+                || end - index < DATE_SEPARATOR.length || !matches(index, index + DATE_SEPARATOR.length, DATE_SEPARATOR))
+            return null;
+        index += DATE_SEPARATOR.length;
+
+        if (end - index < 10)
+            return null;
+        int hour = digits(index, 2);
+        int minute = digits(index + 3, 2);
+        int second = digits(index + 6, 2);
+        if (hour < 0 || minute < 0 || second < 0 || buffer.get(index + 2) != ':' || buffer.get(index + 5) != ':'
+                || buffer.get(index + 8) != '.')
+            return null;
+        index += 9;
+
+        int millis = 0, millis_digits = 0;
+        while (index < end && buffer.get(index) >= '0' && buffer.get(index) <= '9' && millis_digits < 3) {
+            millis = millis * 10 + (buffer.get(index++) - '0');
+            millis_digits++;
+        }
+        if (millis_digits == 0 || index >= end || buffer.get(index) != ' ')
+            return null;
+        index++;
+
+        if (year < 1600 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59)
+            return null;
+
+        Integer offset = getZoneOffset(index, end);
+        if (offset == null)
+            return null;
+
+        long local_millis = ((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000L
+                + second * 1000L + millis;
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(local_millis - offset);
+        return date;
+    }
+
+    /**
+     * Parses the given number of digits at the given position, or returns -1 if they aren't all digits.
+     */
+    private int digits(int index, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            if (index + i >= buffer.limit())
+                return -1;
+            byte b = buffer.get(index + i);
+            if (b < '0' || b > '9')
+                return -1;
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4: case 6: case 9: case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the number of days from 1/1/1970 to the given (Gregorian) date.
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        // Count from March, so the leap day is at the end of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long year_of_era = y - era * 400;
+        long day_of_year = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long day_of_era = year_of_era * 365 + year_of_era / 4 - year_of_era / 100 + day_of_year;
+        return era * 146097 + day_of_era - 719468;
+    }
+
+    /**
+     * Returns the offset from UTC (in milliseconds) of the time zone named in the given range of
+     * the file, or null if it can't be parsed or its offset depends on the date.  Each zone is
+     * looked up with SimpleDateFormat the first time it's seen.
+     */
+    private Integer getZoneOffset(int start, int end) {
+        for (int i = 0; i < zone_names.size(); i++) {
+            if (matches(start, end, zone_names.get(i)))
+                return zone_offsets.get(i);
+        }
+
+        byte[] name = bytesOf(start, end);
+        Integer offset;
+        try {
+            String zone = new String(name, "UTF-8");
+            int winter_offset = getZoneOffset("15/01/2001 at 00:00:00.0 " + zone, daysSinceEpoch(2001, 1, 15));
+            int summer_offset = getZoneOffset("15/07/2001 at 00:00:00.0 " + zone, daysSinceEpoch(2001, 7, 15));
+            offset = winter_offset == summer_offset ? winter_offset : null;
+        } catch (IOException e) {
+            offset = null;
+        } catch (ParseException e) {
+            offset = null;
+        }
+
+        zone_names.add(name);
+        zone_offsets.add(offset);
+        return offset;
+    }
+
+    private static int getZoneOffset(String date, long days_since_epoch) throws ParseException {
+        return (int) (days_since_epoch * 24 * 60 * 60 * 1000 - CalendarUtil.getCalendarFromString(date).getTimeInMillis());
+    }
+
+    // Elements
+
+    /**
+     * Parses the whole file into the store.
+     */
+    private void parseDocument() {
+        List<Contact> contacts = new ArrayList<Contact>();
+        List<MeetingRecord> future_meetings = new ArrayList<MeetingRecord>();
+        List<MeetingRecord> past_meetings = new ArrayList<MeetingRecord>();
+
+        // Skip any byte order mark, xml declaration and comments
+        if (peek(0) == (byte) 0xEF && peek(1) == (byte) 0xBB && peek(2) == (byte) 0xBF)
+            position += 3;
+        skipSpace();
+        while (startsWith("<?")) {
+            while (!startsWith("?>")) {
+                next();
+            }
+            position += 2;
+            skipSpace();
+        }
+        if (startsWith("<!"))
+            throw error("Unsupported declaration");
+
+        readStartTag();
+        int root_start = name_start, root_end = name_end;
+        boolean seen_contacts = false, seen_future = false, seen_past = false;
+
+        if (!self_closing) {
+            while (!atEndTag()) {
+                readStartTag();
+                if (isTag(CONTACTS) && !seen_contacts) {
+                    seen_contacts = true;
+                    readContacts(contacts);
+                } else if (isTag(FUTURE_MEETINGS) && !seen_future) {
+                    seen_future = true;
+                    readMeetings(future_meetings, false);
+                } else if (isTag(PAST_MEETINGS) && !seen_past) {
+                    seen_past = true;
+                    readMeetings(past_meetings, true);
+                } else {
+                    throw error("Unexpected element");
+                }
+            }
+            readEndTag(root_start, root_end);
+        }
+
+        skipSpace();
+        if (!atEnd())
+            throw error("Unexpected content after the root element");
+
+        // Now every contact is known, the meetings' contacts can be looked up
+        Map<Integer, Contact> contacts_by_id = new HashMap<Integer, Contact>();
+        for (Contact contact : contacts) {
+            contacts_by_id.put(contact.getId(), contact);
+        }
+
+        List<FutureMeeting> loaded_future_meetings = new ArrayList<FutureMeeting>(future_meetings.size());
+        for (MeetingRecord record : future_meetings) {
+            loaded_future_meetings.add(DIFactory.getInstance().newFutureMeeting(
+                    record.id, record.date, getMeetingContacts(record, contacts_by_id)));
+        }
+
+        List<PastMeeting> loaded_past_meetings = new ArrayList<PastMeeting>(past_meetings.size());
+        for (MeetingRecord record : past_meetings) {
+            loaded_past_meetings.add(DIFactory.getInstance().newPastMeeting(
+                    record.id, record.date, getMeetingContacts(record, contacts_by_id), record.notes));
+        }
+
+        setContacts(contacts);
+        setFutureMeetings(loaded_future_meetings);
+        setPastMeetings(loaded_past_meetings);
+    }
+
+    /**
+     * Reads the contacts in a "Contacts" element (which has just been started).
+     */
+    private void readContacts(List<Contact> contacts) {
+        if (self_closing)
+            return;
+
+        int section_start = name_start, section_end = name_end;
+        while (!atEndTag()) {
+            readStartTag();
+            if (!isTag(CONTACT))
+                throw error("Expected a contact");
+            int contact_id = requireId();
+            int contact_start = name_start, contact_end = name_end;
+
+            String name = null, notes = null;
+            if (!self_closing) {
+                while (!atEndTag()) {
+                    readStartTag();
+                    if (isTag(NAME) && name == null) {
+                        name = readText();
+                    } else if (isTag(NOTES) && notes == null) {
+                        notes = readText();
+                    } else {
+                        throw error("Unexpected or repeated element in contact");
+                    }
+                }
+                readEndTag(contact_start, contact_end);
+            }
+
+            if (name == null || notes == null)
+                throw error("Contact " + contact_id + " needs a name and notes");
+
+            Contact contact = DIFactory.getInstance().newContact(contact_id, name);
+            contact.addNotes(notes);
+            contacts.add(contact);
+        }
+        readEndTag(section_start, section_end);
+    }
+
+    /**
+     * Reads the meetings in a "FutureMeetings" or "PastMeetings" element (which has just been started).
+     */
+    private void readMeetings(List<MeetingRecord> meetings, boolean past) {
+        if (self_closing)
+            return;
+
+        int section_start = name_start, section_end = name_end;
+        while (!atEndTag()) {
+            readStartTag();
+            if (!isTag(MEETING) || self_closing)
+                throw error("Expected a meeting");
+            MeetingRecord record = new MeetingRecord(requireId());
+            int meeting_start = name_start, meeting_end = name_end;
+
+            while (!atEndTag()) {
+                readStartTag();
+                if (isTag(DATE) && record.date == null) {
+                    try {
+                        record.date = readDate();
+                    } catch (ParseException e) {
+                        throw new IllegalArgumentException("Calendar date could not be parsed", e);
+                    }
+                } else if (isTag(CONTACT_LIST) && record.contact_ids == null) {
+                    record.contact_ids = readContactIds();
+                } else if (past && isTag(NOTES) && record.notes == null) {
+                    record.notes = readText();
+                } else {
+                    throw error("Unexpected or repeated element in meeting");
+                }
+            }
+            readEndTag(meeting_start, meeting_end);
+
+            if (record.date == null || record.contact_ids == null || (past && record.notes == null))
+                throw error("Meeting " + record.id + " is missing an element");
+            meetings.add(record);
+        }
+        readEndTag(section_start, section_end);
+    }
+
+    /**
+     * Reads the attendees' ids in a meeting's "contacts" element (which has just been started).
+     */
+    private int[] readContactIds() {
+        if (self_closing)
+            return new int[0];
+
+        int list_start = name_start, list_end = name_end;
+        int[] ids = new int[4];
+        int count = 0;
+        while (!atEndTag()) {
+            readStartTag();
+            if (!isTag(CONTACT))
+                throw error("Expected a contact");
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = requireId();
+
+            if (!self_closing)
+                readEndTag(name_start, name_end);
+        }
+        readEndTag(list_start, list_end);
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static Set<Contact> getMeetingContacts(MeetingRecord record, Map<Integer, Contact> contacts_by_id) {
+        Set<Contact> contacts = new HashSet<Contact>();
+        for (int contact_id : record.contact_ids) {
+            Contact contact = contacts_by_id.get(contact_id);
+            if (contact == null)
+                contact = DIFactory.getInstance().newContact(contact_id, "");
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+}
@@ -0,0 +1,430 @@
+package contactsmanager;
+
+import contactsmanager.util.FileUtil;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The past meetings of earlier years that ContactManagerImpl has sealed into per-year segment
+ * files beside its data file (the data file's name plus ".<year>.archive"), as a MeetingSource.
+ *
+ * A segment is written once, when its year is sealed, and never changed.  Its header lists the
+ * ids of its meetings and of the contacts attending them, so opening the archive only reads the
+ * headers; a segment's meetings are read (all at once, after checking the segment's CRC32) the
+ * first time anything needs one of its meetings or contacts, or its year.  So 'take' methods
+ * may return more meetings than were asked for.
+ *
+ * A meeting changed after it's been read from (or sealed into) a segment must be saved in the
+ * data file instead: the manager tells the archive with 'markChanged', and saves every past
+ * meeting that isn't 'isClean'.  When the data file and a segment both have a meeting, the data
+ * file's is the current one.
+ *
+ * Segment meetings are rebuilt with the manager's own contacts (looked up by id), as contacts'
+ * notes may have changed since the segment was written.
+ *
+ * A segment that can't be read is never skipped, as its meetings would vanish and their ids could
+ * be given out again.  If its header can't be read, the archive doesn't open; if its meetings
+ * can't be, whatever needed them throws IllegalStateException, and the segment stays untaken (so
+ * nothing it holds is lost, and a later attempt may succeed).  This class is not thread-safe.
+ */
+final class MeetingArchive implements MeetingSource {
+    private static final String SEGMENT_SUFFIX = ".archive";
+    private static final int MAGIC = 0x434D4152;
+    private static final int VERSION = 1;
+
+    /**
+     * A segment file, and what its header says is in it.
+     */
+    private static class Segment {
+        private final int year;
+        private final File file;
+        private final int[] meeting_ids;
+        private final int[] contact_ids;
+        private boolean taken = false;
+
+        Segment(int year, File file, int[] meeting_ids, int[] contact_ids) {
+            this.year = year;
+            this.file = file;
+            this.meeting_ids = meeting_ids;
+            this.contact_ids = contact_ids;
+        }
+    }
+
+    private final String data_filename;
+    private final Map<Integer, Contact> contacts_by_id;
+    private final SortedMap<Integer, Segment> segments_by_year = new TreeMap<Integer, Segment>();
+    // The meetings read from or sealed into segments, and not changed since
+    private final Map<Integer, Meeting> clean_meetings = new HashMap<Integer, Meeting>();
+    private int last_meeting_id = -1;
+    // The number of segments not yet taken, so the manager can tell whether a query might take any
+    private int untaken_count = 0;
+
+    private MeetingArchive(String data_filename, Map<Integer, Contact> contacts_by_id) {
+        this.data_filename = data_filename;
+        this.contacts_by_id = contacts_by_id;
+    }
+
+    /**
+     * Opens the archive of the given data file, reading the headers of its segments.
+     *
+     * @param data_filename the data file.
+     * @param contacts_by_id the manager's contacts, which segment meetings are rebuilt with.
+     * @return the archive (which has no segments if there are no segment files).
+     * @throws IllegalStateException if a segment file's header can't be read.
+     */
+    static MeetingArchive open(String data_filename, Map<Integer, Contact> contacts_by_id) {
+        MeetingArchive archive = new MeetingArchive(data_filename, contacts_by_id);
+
+        File data_file = new File(data_filename).getAbsoluteFile();
+        String prefix = data_file.getName() + ".";
+        File[] files = data_file.getParentFile().listFiles();
+        if (files == null)
+            return archive;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(prefix) || !name.endsWith(SEGMENT_SUFFIX) || !file.isFile())
+                continue;
+
+            String year = name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length());
+            if (!year.matches("-?[0-9]{1,9}"))
+                continue;
+
+            try {
+                archive.addSegment(readHeader(file, Integer.parseInt(year)));
+            } catch (IOException e) {
+                throw newUnreadableSegmentException(file, e);
+            } catch (IllegalArgumentException e) {
+                throw newUnreadableSegmentException(file, e);
+            }
+        }
+        return archive;
+    }
+
+    private static IllegalStateException newUnreadableSegmentException(File file, Exception cause) {
+        return new IllegalStateException("Couldn't read archive segment '" + file + "'", cause);
+    }
+
+    /**
+     * @param data_filename the data file.
+     * @param year the year.
+     * @return the name of the data file's segment file for the year.
+     */
+    static String getSegmentFilename(String data_filename, int year) {
+        return data_filename + "." + year + SEGMENT_SUFFIX;
+    }
+
+    private void addSegment(Segment segment) {
+        segments_by_year.put(segment.year, segment);
+        if (!segment.taken)
+            untaken_count++;
+        if (segment.meeting_ids.length > 0)
+            last_meeting_id = Math.max(last_meeting_id, segment.meeting_ids[segment.meeting_ids.length - 1]);
+    }
+
+    private static Segment readHeader(File file, int year) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IllegalArgumentException("Not an archive segment");
+            if (in.readInt() != year)
+                throw new IllegalArgumentException("Segment isn't for " + year);
+
+            int[] meeting_ids = readInts(in);
+            int[] contact_ids = readInts(in);
+            return new Segment(year, file, meeting_ids, contact_ids);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            throw new IllegalArgumentException("Negative count " + count);
+
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * @param year the year.
+     * @return true if the year has been sealed into a segment.
+     */
+    boolean hasSegment(int year) {
+        return segments_by_year.containsKey(year);
+    }
+
+    /**
+     * @return the years that have been sealed, in order.
+     */
+    Set<Integer> getYears() {
+        return Collections.unmodifiableSet(segments_by_year.keySet());
+    }
+
+    /**
+     * @return the number of segments whose meetings have been read (or were sealed in this session).
+     */
+    int getTakenSegmentCount() {
+        int count = 0;
+        for (Segment segment : segments_by_year.values()) {
+            if (segment.taken)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if any segment's meetings haven't been taken yet.
+     */
+    boolean hasUntakenSegments() {
+        return untaken_count > 0;
+    }
+
+    /**
+     * Returns whether the given meeting is one read from (or sealed into) a segment, unchanged
+     * since, so needn't be saved in the data file.
+     *
+     * @param meeting the meeting.
+     * @return true if the meeting's segment holds it as it is.
+     */
+    boolean isClean(Meeting meeting) {
+        return clean_meetings.get(meeting.getId()) == meeting;
+    }
+
+    /**
+     * Records that the meeting with the given id has changed (or been replaced), so its segment no
+     * longer holds it as it is.
+     *
+     * @param id the meeting's id.
+     */
+    void markChanged(int id) {
+        clean_meetings.remove(id);
+    }
+
+    /**
+     * Writes the given year's past meetings to the year's segment file.  They're then clean.
+     *
+     * @param year the year.
+     * @param meetings the year's past meetings.
+     * @param sync whether to force the segment file to disk (see 'FileUtil.replace').
+     * @throws IllegalStateException if the year already has a segment.
+     * @throws IOException if the segment can't be written.
+     */
+    void seal(int year, Collection<? extends PastMeeting> meetings, boolean sync) throws IOException {
+        if (hasSegment(year))
+            throw new IllegalStateException("Year " + year + " is already archived");
+
+        File file = new File(getSegmentFilename(data_filename, year));
+        if (file.exists())
+            throw new IllegalStateException("Archive segment " + file + " already exists");
+
+        int[] meeting_ids = new int[meetings.size()];
+        Set<Integer> contact_id_set = new TreeSet<Integer>();
+        int i = 0;
+        for (PastMeeting meeting : meetings) {
+            meeting_ids[i++] = meeting.getId();
+            for (Contact contact : meeting.getContacts()) {
+                contact_id_set.add(contact.getId());
+            }
+        }
+        Arrays.sort(meeting_ids);
+        int[] contact_ids = new int[contact_id_set.size()];
+        i = 0;
+        for (int id : contact_id_set) {
+            contact_ids[i++] = id;
+        }
+
+        File temp_file = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(new FileOutputStream(temp_file), crc)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(year);
+            writeInts(out, meeting_ids);
+            writeInts(out, contact_ids);
+
+            for (PastMeeting meeting : meetings) {
+                out.writeInt(meeting.getId());
+                out.writeLong(meeting.getDate().getTimeInMillis());
+                out.writeUTF(meeting.getDate().getTimeZone().getID());
+                out.writeInt(meeting.getContacts().size());
+                for (Contact contact : meeting.getContacts()) {
+                    out.writeInt(contact.getId());
+                }
+                byte[] notes = meeting.getNotes().getBytes("UTF-8");
+                out.writeInt(notes.length);
+                out.write(notes);
+            }
+
+            // The checksum covers everything written so far
+            out.flush();
+            out.writeInt((int) crc.getValue());
+        } finally {
+            out.close();
+        }
+
+        FileUtil.replace(temp_file, file, sync);
+
+        Segment segment = new Segment(year, file, meeting_ids, contact_ids);
+        segment.taken = true;
+        addSegment(segment);
+        for (PastMeeting meeting : meetings) {
+            clean_meetings.put(meeting.getId(), meeting);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads all of the given segments' meetings, then marks the segments taken.  If any can't be
+     * read, none are taken.
+     *
+     * @throws IllegalStateException if a segment can't be read.
+     */
+    private List<Meeting> take(List<Segment> segments) {
+        List<Meeting> meetings = new ArrayList<Meeting>();
+        for (Segment segment : segments) {
+            try {
+                meetings.addAll(readMeetings(segment));
+            } catch (IOException e) {
+                throw newUnreadableSegmentException(segment.file, e);
+            } catch (IllegalArgumentException e) {
+                throw newUnreadableSegmentException(segment.file, e);
+            }
+        }
+
+        for (Segment segment : segments) {
+            segment.taken = true;
+            untaken_count--;
+        }
+        for (Meeting meeting : meetings) {
+            clean_meetings.put(meeting.getId(), meeting);
+        }
+        return meetings;
+    }
+
+    private List<Meeting> readMeetings(Segment segment) throws IOException {
+        byte[] bytes = new byte[(int) segment.file.length()];
+        DataInputStream file_in = new DataInputStream(new FileInputStream(segment.file));
+        try {
+            file_in.readFully(bytes);
+        } finally {
+            file_in.close();
+        }
+
+        if (bytes.length < 4)
+            throw new IllegalArgumentException("Segment is truncated");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(bytes.length - 4);
+        if (in.readInt() != (int) crc.getValue())
+            throw new IllegalArgumentException("Segment is corrupt (its checksum doesn't match)");
+
+        in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        in.readInt();
+        in.readInt();
+        in.readInt();
+        int meeting_count = readInts(in).length;
+        readInts(in);
+
+        List<Meeting> meetings = new ArrayList<Meeting>(meeting_count);
+        for (int i = 0; i < meeting_count; i++) {
+            int id = in.readInt();
+            long millis = in.readLong();
+            Calendar date = Calendar.getInstance(TimeZone.getTimeZone(in.readUTF()));
+            date.setTimeInMillis(millis);
+
+            Set<Contact> contacts = new HashSet<Contact>();
+            int contact_count = in.readInt();
+            for (int j = 0; j < contact_count; j++) {
+                int contact_id = in.readInt();
+                Contact contact = contacts_by_id.get(contact_id);
+                // An unknown contact leaves the meeting invalid, which the manager warns about
+                contacts.add(contact != null ? contact : DIFactory.getInstance().newContact(contact_id, ""));
+            }
+
+            byte[] notes = new byte[in.readInt()];
+            in.readFully(notes);
+            meetings.add(DIFactory.getInstance().newPastMeeting(id, date, contacts, new String(notes, "UTF-8")));
+        }
+        return meetings;
+    }
+
+    @Override
+    public int getLastMeetingId() {
+        return last_meeting_id;
+    }
+
+    /**
+     * @throws IllegalStateException if one of the segments holding the contact's meetings can't be read.
+     */
+    @Override
+    public List<Meeting> takeMeetingsWithContact(int contact_id) {
+        List<Segment> segments = new ArrayList<Segment>();
+        for (Segment segment : segments_by_year.values()) {
+            if (!segment.taken && Arrays.binarySearch(segment.contact_ids, contact_id) >= 0)
+                segments.add(segment);
+        }
+        return take(segments);
+    }
+
+    /**
+     * @throws IllegalStateException if the segment holding the meeting can't be read.
+     */
+    @Override
+    public List<Meeting> takeMeetingsWithId(int id) {
+        List<Segment> segments = new ArrayList<Segment>();
+        for (Segment segment : segments_by_year.values()) {
+            if (!segment.taken && Arrays.binarySearch(segment.meeting_ids, id) >= 0)
+                segments.add(segment);
+        }
+        return take(segments);
+    }
+
+    /**
+     * Takes the pending meetings of the given years.
+     *
+     * @param first_year the first year.
+     * @param last_year the last year (inclusive).
+     * @return the meetings (maybe empty).
+     * @throws IllegalStateException if one of the years' segments can't be read.
+     */
+    List<Meeting> takeMeetingsInYears(int first_year, int last_year) {
+        List<Segment> segments = new ArrayList<Segment>();
+        if (first_year <= last_year) {
+            for (Segment segment : segments_by_year.subMap(first_year, last_year + 1).values()) {
+                if (!segment.taken)
+                    segments.add(segment);
+            }
+        }
+        return take(segments);
+    }
+
+    /**
+     * @throws IllegalStateException if a segment can't be read.
+     */
+    @Override
+    public List<Meeting> takeAll() {
+        List<Segment> segments = new ArrayList<Segment>();
+        for (Segment segment : segments_by_year.values()) {
+            if (!segment.taken)
+                segments.add(segment);
+        }
+        return take(segments);
+    }
+}
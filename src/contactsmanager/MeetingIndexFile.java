@@ -0,0 +1,251 @@
+package contactsmanager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The sidecar file ContactManagerImpl keeps its meeting indexes in (the data file's name plus
+ * ".idx"), so that loading can skip sorting every meeting into them.
+ *
+ * It holds, for each contact, the ids of their past and future meetings in date order, and the
+ * ids of each day's meetings (days in order, and meetings in date order within them).  The
+ * header records the length and CRC32 of the data file the indexes were written with, and the
+ * time zone days were bucketed in; the file ends with a CRC32 of everything before it.  If any
+ * of these don't match, the file is stale (or torn) and 'read' ignores it.
+ *
+ * Files are written to a temporary file and then renamed, so a reader never sees half of one.
+ */
+final class MeetingIndexFile {
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int MAGIC = 0x434D4958;
+    private static final int VERSION = 1;
+
+    private final int[] contact_ids;
+    private final int[][] past_meeting_ids;
+    private final int[][] future_meeting_ids;
+    private final int[][] day_meeting_ids;
+
+    private MeetingIndexFile(int[] contact_ids, int[][] past_meeting_ids, int[][] future_meeting_ids, int[][] day_meeting_ids) {
+        this.contact_ids = contact_ids;
+        this.past_meeting_ids = past_meeting_ids;
+        this.future_meeting_ids = future_meeting_ids;
+        this.day_meeting_ids = day_meeting_ids;
+    }
+
+    /**
+     * @param data_filename the name of the data file.
+     * @return the name of the data file's index file.
+     */
+    static String getFilename(String data_filename) {
+        return data_filename + INDEX_SUFFIX;
+    }
+
+    /**
+     * @return the ids of the indexed contacts.
+     */
+    int[] getContactIds() {
+        return contact_ids;
+    }
+
+    /**
+     * @param index the contact's position in 'getContactIds'.
+     * @return the ids of the contact's past meetings, in date order.
+     */
+    int[] getPastMeetingIds(int index) {
+        return past_meeting_ids[index];
+    }
+
+    /**
+     * @param index the contact's position in 'getContactIds'.
+     * @return the ids of the contact's future meetings, in date order.
+     */
+    int[] getFutureMeetingIds(int index) {
+        return future_meeting_ids[index];
+    }
+
+    /**
+     * @return the ids of each day's meetings, with days and the meetings within them in date order.
+     */
+    int[][] getDayMeetingIds() {
+        return day_meeting_ids;
+    }
+
+    /**
+     * Returns the CRC32 of the given file's contents.
+     *
+     * @param filename the file.
+     * @return the checksum.
+     * @throws IOException if the file can't be read.
+     */
+    static long checksum(String filename) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(filename);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the index file for the given data file, which must have just been written from the
+     * given indexes.
+     *
+     * @param data_filename the data file.
+     * @param past_meetings_by_contact each contact's past meetings, in date order.
+     * @param future_meetings_by_contact each contact's future meetings, in date order.
+     * @param meetings_by_date each day's meetings, with days in order and meetings in date order.
+     * @throws IOException if the data file can't be read, or the index file can't be written.
+     */
+    static void write(String data_filename,
+                      Map<Integer, ? extends Collection<? extends Meeting>> past_meetings_by_contact,
+                      Map<Integer, ? extends Collection<? extends Meeting>> future_meetings_by_contact,
+                      Map<Calendar, ? extends Collection<? extends Meeting>> meetings_by_date) throws IOException {
+        String filename = getFilename(data_filename);
+        File temp_file = new File(filename + ".tmp");
+
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(new FileOutputStream(temp_file), crc)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(new File(data_filename).length());
+            out.writeLong(checksum(data_filename));
+            out.writeUTF(TimeZone.getDefault().getID());
+
+            out.writeInt(past_meetings_by_contact.size());
+            for (Map.Entry<Integer, ? extends Collection<? extends Meeting>> entry : past_meetings_by_contact.entrySet()) {
+                out.writeInt(entry.getKey());
+                writeIds(out, entry.getValue());
+                writeIds(out, future_meetings_by_contact.get(entry.getKey()));
+            }
+
+            out.writeInt(meetings_by_date.size());
+            for (Collection<? extends Meeting> meetings : meetings_by_date.values()) {
+                writeIds(out, meetings);
+            }
+
+            // The checksum covers everything written so far
+            out.flush();
+            out.writeInt((int) crc.getValue());
+        } finally {
+            out.close();
+        }
+
+        File file = new File(filename);
+        if (!temp_file.renameTo(file)) {
+            // Some platforms won't rename over an existing file
+            if (!file.delete() || !temp_file.renameTo(file))
+                throw new IOException("Couldn't replace index file " + filename);
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, Collection<? extends Meeting> meetings) throws IOException {
+        out.writeInt(meetings.size());
+        for (Meeting meeting : meetings) {
+            out.writeInt(meeting.getId());
+        }
+    }
+
+    /**
+     * Reads the index file for the given data file, if it's there and was written with the data
+     * file as it is now.
+     *
+     * @param data_filename the data file.
+     * @return the indexes, or null if there's no index file or it's stale or corrupt.
+     */
+    static MeetingIndexFile read(String data_filename) {
+        File file = new File(getFilename(data_filename));
+        if (!file.isFile() || file.length() > Integer.MAX_VALUE)
+            return null;
+
+        try {
+            MappedByteBuffer buffer;
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            } finally {
+                in.close();
+            }
+
+            // Check the whole file before using any of it
+            int content_length = buffer.limit() - 4;
+            if (content_length < 0)
+                return null;
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[64 * 1024];
+            ByteBuffer content = buffer.duplicate();
+            content.limit(content_length);
+            while (content.hasRemaining()) {
+                int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+            if (buffer.getInt(content_length) != (int) crc.getValue())
+                return null;
+
+            // Then check it was written with the current data file, in the current time zone
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            long data_length = buffer.getLong();
+            long data_crc = buffer.getLong();
+            byte[] zone = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(zone);
+            if (!new String(zone, "UTF-8").equals(TimeZone.getDefault().getID())
+                    || data_length != new File(data_filename).length()
+                    || data_crc != checksum(data_filename))
+                return null;
+
+            int contact_count = buffer.getInt();
+            int[] contact_ids = new int[contact_count];
+            int[][] past_meeting_ids = new int[contact_count][];
+            int[][] future_meeting_ids = new int[contact_count][];
+            for (int i = 0; i < contact_count; i++) {
+                contact_ids[i] = buffer.getInt();
+                past_meeting_ids[i] = readIds(buffer);
+                future_meeting_ids[i] = readIds(buffer);
+            }
+
+            int[][] day_meeting_ids = new int[buffer.getInt()][];
+            for (int i = 0; i < day_meeting_ids.length; i++) {
+                day_meeting_ids[i] = readIds(buffer);
+            }
+
+            return new MeetingIndexFile(contact_ids, past_meeting_ids, future_meeting_ids, day_meeting_ids);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // eg. a count running past the end of the file
+            return null;
+        }
+    }
+
+    private static int[] readIds(ByteBuffer buffer) {
+        int[] ids = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(ids);
+        buffer.position(buffer.position() + ids.length * 4);
+        return ids;
+    }
+
+    /**
+     * Deletes the index file for the given data file, if there is one.
+     *
+     * @param data_filename the data file.
+     */
+    static void delete(String data_filename) {
+        File file = new File(getFilename(data_filename));
+        if (file.exists() && !file.delete())
+            System.out.println("Warning: couldn't delete stale index file " + file);
+    }
+}
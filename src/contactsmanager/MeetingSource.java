@@ -0,0 +1,43 @@
+package contactsmanager;
+
+import java.util.List;
+
+/**
+ * A source of meetings that ContactManagerImpl hasn't loaded yet, which it takes meetings
+ * from as they're first needed rather than all at once.
+ *
+ * Each meeting is handed out at most once: after being taken, it's no longer pending.
+ * Meetings are returned as found, so may still have unknown contacts; it's up to the
+ * ContactManagerImpl to check them.
+ */
+interface MeetingSource {
+    /**
+     * @return the highest id of any meeting in the source (whether or not it's been taken),
+     *      or -1 if there are none.
+     */
+    int getLastMeetingId();
+
+    /**
+     * Takes the pending meetings which the contact with the given id attends.
+     *
+     * @param contact_id the contact's id.
+     * @return the meetings (maybe empty).
+     */
+    List<Meeting> takeMeetingsWithContact(int contact_id);
+
+    /**
+     * Takes the pending meeting(s) with the given id.  There would normally be at most one,
+     * but a malformed file could have both a past and a future meeting with the same id.
+     *
+     * @param id the meeting's id.
+     * @return the meetings (maybe empty).
+     */
+    List<Meeting> takeMeetingsWithId(int id);
+
+    /**
+     * Takes all of the pending meetings.
+     *
+     * @return the meetings (maybe empty).
+     */
+    List<Meeting> takeAll();
+}
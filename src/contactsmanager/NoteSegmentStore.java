@@ -0,0 +1,458 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.NoteBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+/**
+ * Keeps past meetings' notes within a memory budget, by spilling the notes of the least recently
+ * used meetings to a segment file, and reading them back when they're next needed.
+ *
+ * Meetings are added oldest first, so until they've been used, the oldest meetings' notes are the
+ * first to be spilled.  Memory use is estimated as two bytes per character of notes.  Each spill
+ * appends a record ([int length][UTF-8 notes]) to the segment file; a meeting keeps its record
+ * when it's read back, so spilling it again costs nothing unless notes were added to it in the
+ * meantime.  Once most of the file is records no meeting needs any more, it's compacted in place.
+ *
+ * The segment file is scratch space: it's emptied when the store is created and deleted when it's
+ * closed (or the JVM exits), and the data file remains the only record of the notes.  Only
+ * PastMeetingImpls can be managed; they route 'getNotes' and 'appendNotes' through the store.
+ * All methods are synchronized.
+ */
+public class NoteSegmentStore implements Closeable {
+    private static final long COMPACT_MIN_DEAD_BYTES = 1024 * 1024;
+
+    /**
+     * A managed meeting, and where its notes are in the segment file (if they've been written).
+     */
+    private static class Entry {
+        private final PastMeetingImpl meeting;
+        private long resident_bytes = 0;
+        private long offset = -1;
+        private int length = 0;
+
+        Entry(PastMeetingImpl meeting) {
+            this.meeting = meeting;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile segment;
+    private long memory_budget;
+    private volatile boolean closed = false;
+    private boolean spilling_failed = false;
+
+    // Resident meetings' entries, least recently used first
+    private final LinkedHashMap<Integer, Entry> resident = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private final Map<Integer, Entry> spilled = new HashMap<Integer, Entry>();
+
+    private long bytes_resident = 0;
+    private long bytes_spilled = 0;
+    private long segment_end = 0;
+    private long live_segment_bytes = 0;
+    private long hit_count = 0;
+    private long miss_count = 0;
+    private long eviction_count = 0;
+
+    /**
+     * Creates a store spilling to the given segment file, emptying the file if it exists.
+     *
+     * @param filename the segment file.
+     * @param memory_budget the most bytes of notes to keep in memory.
+     * @throws IllegalArgumentException if memory_budget is negative.
+     * @throws IOException if the segment file can't be created.
+     */
+    public NoteSegmentStore(String filename, long memory_budget) throws IOException {
+        if (filename == null)
+            throw new NullPointerException("filename is null");
+
+        if (memory_budget < 0)
+            throw new IllegalArgumentException("Memory budget " + memory_budget + " is negative");
+
+        this.file = new File(filename);
+        this.memory_budget = memory_budget;
+        segment = new RandomAccessFile(file, "rw");
+        segment.setLength(0);
+        file.deleteOnExit();
+    }
+
+    /**
+     * Sets the most bytes of notes to keep in memory, spilling notes if they're now over it.
+     *
+     * @param memory_budget the budget, in bytes.
+     * @throws IllegalArgumentException if memory_budget is negative.
+     */
+    public synchronized void setMemoryBudget(long memory_budget) {
+        if (memory_budget < 0)
+            throw new IllegalArgumentException("Memory budget " + memory_budget + " is negative");
+
+        this.memory_budget = memory_budget;
+        evictToBudget(null);
+    }
+
+    /**
+     * @return the most bytes of notes kept in memory.
+     */
+    public synchronized long getMemoryBudget() {
+        return memory_budget;
+    }
+
+    /**
+     * Starts managing the notes of the given meetings.  They're added oldest first, so the
+     * oldest are spilled first.  Meetings already managed by a store are skipped.
+     *
+     * @param meetings the meetings.
+     */
+    synchronized void addAll(Collection<PastMeetingImpl> meetings) {
+        if (closed)
+            return;
+
+        List<PastMeetingImpl> oldest_first = new ArrayList<PastMeetingImpl>(meetings);
+        Collections.sort(oldest_first, CalendarUtil.getMeetingDateComparator());
+
+        for (PastMeetingImpl meeting : oldest_first) {
+            NoteSegmentStore store = meeting.getNoteStore();
+            if (store != null && !store.isClosed())
+                continue;
+
+            // A meeting replacing another with the same id takes over its place
+            Entry old = resident.remove(meeting.getId());
+            if (old != null) {
+                bytes_resident -= old.resident_bytes;
+                discardRecord(old);
+            }
+            old = spilled.remove(meeting.getId());
+            if (old != null) {
+                // The replaced meeting may still be referenced elsewhere, so give it its notes back
+                NoteBuffer notes = new NoteBuffer();
+                notes.append(readRecord(old));
+                old.meeting.setResidentNotes(notes);
+                bytes_spilled -= old.length;
+                discardRecord(old);
+            }
+
+            Entry entry = new Entry(meeting);
+            entry.resident_bytes = estimateBytes(meeting.getResidentNotes());
+            resident.put(meeting.getId(), entry);
+            bytes_resident += entry.resident_bytes;
+
+            // Set before the meeting's notes can be spilled, so readers that find them gone find the store
+            meeting.setNoteStore(this);
+        }
+
+        evictToBudget(null);
+    }
+
+    private boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the given meeting's notes, reading them back into memory if they were spilled.
+     *
+     * @param meeting the meeting.
+     * @return its notes.
+     * @throws IllegalStateException if spilled notes couldn't be read back.
+     */
+    synchronized String getNotes(PastMeetingImpl meeting) {
+        Entry entry = resident.get(meeting.getId());
+        if (entry != null && entry.meeting == meeting) {
+            hit_count++;
+        } else {
+            entry = spilled.get(meeting.getId());
+            if (entry == null || entry.meeting != meeting)
+                return meeting.getResidentNotes().toString();
+
+            miss_count++;
+            loadBack(entry);
+            evictToBudget(entry);
+        }
+
+        return meeting.getResidentNotes().toString();
+    }
+
+    /**
+     * Returns the buffer holding the given meeting's notes, without counting it as a use: if the
+     * notes are spilled, they're read into a new buffer, but left spilled.
+     *
+     * @param meeting the meeting.
+     * @return a buffer holding its notes.
+     * @throws IllegalStateException if spilled notes couldn't be read.
+     */
+    synchronized NoteBuffer getNoteBuffer(PastMeetingImpl meeting) {
+        Entry entry = spilled.get(meeting.getId());
+        if (entry == null || entry.meeting != meeting)
+            return meeting.getResidentNotes();
+
+        NoteBuffer notes = new NoteBuffer();
+        notes.append(readRecord(entry));
+        return notes;
+    }
+
+    /**
+     * Appends the given text to the given meeting's notes, reading them back into memory first if
+     * they were spilled.
+     *
+     * @param meeting the meeting.
+     * @param text the text to append.
+     * @throws NullPointerException if text is null.
+     * @throws IllegalStateException if spilled notes couldn't be read back.
+     */
+    synchronized void appendNotes(PastMeetingImpl meeting, String text) {
+        if (text == null)
+            throw new NullPointerException("text is null");
+
+        Entry entry = resident.get(meeting.getId());
+        if (entry == null || entry.meeting != meeting) {
+            entry = spilled.get(meeting.getId());
+            if (entry == null || entry.meeting != meeting) {
+                meeting.getResidentNotes().append(text);
+                return;
+            }
+            loadBack(entry);
+        }
+
+        meeting.getResidentNotes().append(text);
+
+        // The record no longer matches the notes
+        discardRecord(entry);
+        bytes_resident -= entry.resident_bytes;
+        entry.resident_bytes = estimateBytes(meeting.getResidentNotes());
+        bytes_resident += entry.resident_bytes;
+
+        evictToBudget(entry);
+    }
+
+    /**
+     * Reads a spilled meeting's notes back into memory, making it the most recently used.
+     */
+    private void loadBack(Entry entry) {
+        NoteBuffer notes = new NoteBuffer();
+        notes.append(readRecord(entry));
+
+        spilled.remove(entry.meeting.getId());
+        bytes_spilled -= entry.length;
+        entry.resident_bytes = estimateBytes(notes);
+        resident.put(entry.meeting.getId(), entry);
+        bytes_resident += entry.resident_bytes;
+
+        entry.meeting.setResidentNotes(notes);
+    }
+
+    /**
+     * Spills the least recently used meetings' notes until the resident notes are within budget,
+     * or only the given entry (which has just been used) is left.
+     */
+    private void evictToBudget(Entry keep) {
+        if (spilling_failed || closed)
+            return;
+
+        Iterator<Entry> it = resident.values().iterator();
+        while (bytes_resident > memory_budget && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry == keep)
+                continue;
+
+            try {
+                if (entry.offset < 0)
+                    writeRecord(entry);
+            } catch (IOException e) {
+                // Keep everything in memory from now on, rather than failing every change
+                System.out.println("Couldn't spill notes to " + file + "; keeping them in memory");
+                e.printStackTrace();
+                spilling_failed = true;
+                return;
+            }
+
+            it.remove();
+            bytes_resident -= entry.resident_bytes;
+            entry.resident_bytes = 0;
+            spilled.put(entry.meeting.getId(), entry);
+            bytes_spilled += entry.length;
+            eviction_count++;
+
+            entry.meeting.setResidentNotes(null);
+        }
+
+        if (segment_end - live_segment_bytes > Math.max(COMPACT_MIN_DEAD_BYTES, live_segment_bytes))
+            compact();
+    }
+
+    private static long estimateBytes(NoteBuffer notes) {
+        return 2L * notes.length();
+    }
+
+    private void writeRecord(Entry entry) throws IOException {
+        byte[] bytes = entry.meeting.getResidentNotes().toString().getBytes("UTF-8");
+        segment.seek(segment_end);
+        segment.writeInt(bytes.length);
+        segment.write(bytes);
+
+        entry.offset = segment_end;
+        entry.length = bytes.length;
+        segment_end += 4 + bytes.length;
+        live_segment_bytes += 4 + bytes.length;
+    }
+
+    private String readRecord(Entry entry) {
+        try {
+            byte[] bytes = new byte[entry.length];
+            segment.seek(entry.offset + 4);
+            segment.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read the notes of meeting " + entry.meeting.getId() + " from " + file, e);
+        }
+    }
+
+    /**
+     * Marks the entry's record (if it has one) as no longer needed.
+     */
+    private void discardRecord(Entry entry) {
+        if (entry.offset >= 0) {
+            live_segment_bytes -= 4 + entry.length;
+            entry.offset = -1;
+            entry.length = 0;
+        }
+    }
+
+    /**
+     * Moves the live records to the start of the segment file, in order, and cuts off the rest.
+     * A record only ever moves towards the start, so it can't overwrite one yet to be moved.
+     */
+    private void compact() {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Entry entry : resident.values()) {
+            if (entry.offset >= 0)
+                entries.add(entry);
+        }
+        for (Entry entry : spilled.values()) {
+            entries.add(entry);
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+            }
+        });
+
+        try {
+            long position = 0;
+            byte[] buffer = new byte[0];
+            for (Entry entry : entries) {
+                int record_length = 4 + entry.length;
+                if (entry.offset != position) {
+                    if (buffer.length < record_length)
+                        buffer = new byte[record_length];
+                    segment.seek(entry.offset);
+                    segment.readFully(buffer, 0, record_length);
+                    segment.seek(position);
+                    segment.write(buffer, 0, record_length);
+                    entry.offset = position;
+                }
+                position += record_length;
+            }
+            segment.setLength(position);
+            segment_end = position;
+        } catch (IOException e) {
+            // Some records may be half-moved, so the file can't be trusted any more
+            throw new IllegalStateException("Couldn't compact " + file, e);
+        }
+    }
+
+    /**
+     * @return the number of times a managed meeting's notes were read while in memory.
+     */
+    public synchronized long getHitCount() {
+        return hit_count;
+    }
+
+    /**
+     * @return the number of times a managed meeting's notes had to be read back from the segment file.
+     */
+    public synchronized long getMissCount() {
+        return miss_count;
+    }
+
+    /**
+     * @return the fraction of reads of managed meetings' notes that found them in memory (or 1 if
+     *         there haven't been any).
+     */
+    public synchronized double getHitRate() {
+        long reads = hit_count + miss_count;
+        return reads == 0 ? 1.0 : (double) hit_count / reads;
+    }
+
+    /**
+     * @return the number of times a meeting's notes were spilled.
+     */
+    public synchronized long getEvictionCount() {
+        return eviction_count;
+    }
+
+    /**
+     * @return the estimated bytes of managed meetings' notes in memory.
+     */
+    public synchronized long getBytesResident() {
+        return bytes_resident;
+    }
+
+    /**
+     * @return the bytes of spilled notes (as UTF-8).
+     */
+    public synchronized long getBytesSpilled() {
+        return bytes_spilled;
+    }
+
+    /**
+     * @return the length of the segment file, including records no longer needed.
+     */
+    public synchronized long getSegmentLength() {
+        return segment_end;
+    }
+
+    /**
+     * @return the number of managed meetings whose notes are in memory.
+     */
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * @return the number of managed meetings whose notes are spilled.
+     */
+    public synchronized int getSpilledCount() {
+        return spilled.size();
+    }
+
+    /**
+     * Reads every spilled meeting's notes back into memory, then deletes the segment file.  The
+     * meetings keep working, without a budget; meetings added afterwards aren't managed.
+     *
+     * @throws IllegalStateException if spilled notes couldn't be read back.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        for (Entry entry : new ArrayList<Entry>(spilled.values())) {
+            loadBack(entry);
+        }
+        closed = true;
+        spilled.clear();
+
+        try {
+            segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!file.delete())
+            System.out.println("Warning: couldn't delete note segment file " + file);
+    }
+}
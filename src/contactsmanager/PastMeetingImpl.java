@@ -1,24 +1,109 @@
 package contactsmanager;
 
+import contactsmanager.util.NoteBuffer;
+
 import java.util.Calendar;
 import java.util.Set;
 
 /**
  * An implementation of PastMeeting, extending AbstractMeeting by allowing notes to be added.
+ *
+ * Notes are kept in a NoteBuffer, so appending to them doesn't copy the notes already written.
+ * ContactManagerImpl appends notes to meetings in place (see 'appendNotes'), so the notes (and
+ * therefore 'hashCode') of a meeting can change: don't key hash-based collections on PastMeetingImpls.
+ *
+ * A meeting's notes can be handed to a NoteSegmentStore, which may spill them to disk (leaving
+ * 'notes' null) and read them back when they're next used.
  */
 public class PastMeetingImpl extends AbstractMeeting implements PastMeeting {
-    private final String notes;
+    // Both are written under the store's lock; 'note_store' is set before 'notes' is first nulled
+    private volatile NoteBuffer notes = new NoteBuffer();
+    private volatile NoteSegmentStore note_store = null;
 
+    /**
+     * @param notes the meeting's notes (null is taken as no notes).
+     */
     public PastMeetingImpl(Integer id, Calendar date, Set<Contact> contacts, String notes) {
         super(id, date, contacts);
-        this.notes = notes;
+        this.notes.append(notes == null ? "" : notes);
     }
 
     @Override
     public String getNotes() {
+        // Read 'notes' first: if it's been spilled, 'note_store' is sure to be seen
+        NoteBuffer resident_notes = notes;
+        NoteSegmentStore store = note_store;
+        if (store != null)
+            return store.getNotes(this);
+
+        return resident_notes.toString();
+    }
+
+    /**
+     * Returns the buffer holding this meeting's notes, so they can be written out chunk by chunk.
+     * If the notes have been spilled, they're read into a new buffer (and left spilled).
+     *
+     * @return the meeting's note buffer.
+     */
+    NoteBuffer getNoteBuffer() {
+        NoteBuffer resident_notes = notes;
+        NoteSegmentStore store = note_store;
+        if (store != null)
+            return store.getNoteBuffer(this);
+
+        return resident_notes;
+    }
+
+    /**
+     * @return the store managing this meeting's notes, or null if there isn't one.
+     */
+    NoteSegmentStore getNoteStore() {
+        return note_store;
+    }
+
+    /**
+     * Sets the store managing this meeting's notes.  Only NoteSegmentStore should call this.
+     *
+     * @param note_store the store.
+     */
+    void setNoteStore(NoteSegmentStore note_store) {
+        this.note_store = note_store;
+    }
+
+    /**
+     * @return the buffer holding this meeting's notes, or null if they've been spilled.
+     */
+    NoteBuffer getResidentNotes() {
         return notes;
     }
 
+    /**
+     * Sets the buffer holding this meeting's notes (or null when they've been spilled).  Only
+     * NoteSegmentStore should call this.
+     *
+     * @param notes the buffer.
+     */
+    void setResidentNotes(NoteBuffer notes) {
+        this.notes = notes;
+    }
+
+    /**
+     * Appends the given text to the meeting's notes, on a new line.  The meeting's id, date
+     * and contacts are unaffected, so it can stay in any date- or id-sorted collections.
+     *
+     * @param text the text to append.
+     * @throws NullPointerException if text is null.
+     */
+    void appendNotes(String text) {
+        NoteBuffer resident_notes = notes;
+        NoteSegmentStore store = note_store;
+        if (store != null) {
+            store.appendNotes(this, text);
+        } else {
+            resident_notes.append(text);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -35,12 +120,12 @@ public class PastMeetingImpl extends AbstractMeeting implements PastMeeting {
     @Override
     public int hashCode() {
         int result = super.hashCode();
-        result = 31 * result + notes.hashCode();
+        result = 31 * result + getNotes().hashCode();
         return result;
     }
 
     @Override
     public String toString() {
-        return super.toString() + " with notes: " + notes;
+        return super.toString() + " with notes: " + getNotes();
     }
 }
@@ -0,0 +1,379 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.FileUtil;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A recurring meeting, kept by ContactManagerImpl as a rule rather than as a meeting per
+ * occurrence: the same contacts meet on a first date and then every 'interval_days' days after
+ * it, 'count' times in all.  Occurrence k (counting from 0) has the id 'first_id + k', and is
+ * on the first date with k times the interval added (in the first date's time zone).
+ *
+ * The manager creates each occurrence as a FutureMeeting when a query first covers it, and
+ * 'expand' records which occurrences it has created, so none is created twice.
+ *
+ * The rules are saved in a sidecar file (the data file's name plus ".recurring"), which ends
+ * with a CRC32 of everything before it.  It's written to a temporary file and then renamed, so
+ * a reader never sees half of one.
+ */
+final class RecurringMeeting {
+    private static final String RULES_SUFFIX = ".recurring";
+    private static final int MAGIC = 0x434D5243;
+    private static final int VERSION = 1;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final int first_id;
+    private final Calendar first_date;
+    private final int interval_days;
+    private final int count;
+    private final AttendeeSet contacts;
+    private final BitSet expanded = new BitSet();
+
+    /**
+     * Creates a recurring meeting.  The arguments must already have been checked (see
+     * 'ensureValid').
+     *
+     * @param first_id the id of the first occurrence.
+     * @param first_date the date of the first occurrence.
+     * @param interval_days the number of days from each occurrence to the next.
+     * @param count the number of occurrences.
+     * @param contacts the contacts at every occurrence.
+     */
+    RecurringMeeting(int first_id, Calendar first_date, int interval_days, int count, Set<Contact> contacts) {
+        this.first_id = first_id;
+        this.first_date = (Calendar) first_date.clone();
+        this.interval_days = interval_days;
+        this.count = count;
+        this.contacts = new AttendeeSet(contacts);
+    }
+
+    /**
+     * Checks a recurring meeting's interval and count.
+     *
+     * @param interval_days the number of days from each occurrence to the next.
+     * @param count the number of occurrences.
+     * @throws IllegalArgumentException if either isn't positive, or the last occurrence would be
+     *      more days after the first than an int can count.
+     */
+    static void ensureValid(int interval_days, int count) {
+        if (interval_days < 1)
+            throw new IllegalArgumentException("Interval " + interval_days + " isn't positive");
+
+        if (count < 1)
+            throw new IllegalArgumentException("Count " + count + " isn't positive");
+
+        if ((long) interval_days * (count - 1) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(count + " occurrences every " + interval_days + " days is too long");
+    }
+
+    /**
+     * Returns the number of occurrences from the first date to the last date (inclusive), every
+     * 'interval_days' days.
+     *
+     * @param first_date the date of the first occurrence.
+     * @param interval_days the number of days from each occurrence to the next (positive).
+     * @param last_date the latest date an occurrence may be on.
+     * @return the number of occurrences.
+     * @throws IllegalArgumentException if the last date is before the first, or too long after it.
+     */
+    static int countUntil(Calendar first_date, int interval_days, Calendar last_date) {
+        if (CalendarUtil.getCalendarDateComparator().compare(last_date, first_date) < 0)
+            throw new IllegalArgumentException("Last date " + CalendarUtil.getCalendarString(last_date)
+                    + " is before the first, " + CalendarUtil.getCalendarString(first_date));
+
+        // Estimate from the time between them, then step to the exact count, as days vary in length
+        long estimate = (last_date.getTimeInMillis() - first_date.getTimeInMillis()) / MILLIS_PER_DAY / interval_days + 1;
+        if (estimate * interval_days > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Occurrences every " + interval_days + " days until "
+                    + CalendarUtil.getCalendarString(last_date) + " is too long");
+
+        int count = (int) estimate;
+        RecurringMeeting rule = new RecurringMeeting(0, first_date, interval_days, 1, Collections.<Contact>emptySet());
+        while (count > 1 && CalendarUtil.getCalendarDateComparator().compare(rule.getDate(count - 1), last_date) > 0) {
+            count--;
+        }
+        while (CalendarUtil.getCalendarDateComparator().compare(rule.getDate(count), last_date) <= 0) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the id of the first occurrence.
+     */
+    int getFirstId() {
+        return first_id;
+    }
+
+    /**
+     * @return the id of the last occurrence.
+     */
+    int getLastId() {
+        return first_id + count - 1;
+    }
+
+    /**
+     * @return the date of the first occurrence.
+     */
+    Calendar getFirstDate() {
+        return (Calendar) first_date.clone();
+    }
+
+    /**
+     * @return the number of days from each occurrence to the next.
+     */
+    int getIntervalDays() {
+        return interval_days;
+    }
+
+    /**
+     * @return the number of occurrences.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the contacts at every occurrence.
+     */
+    Set<Contact> getContacts() {
+        return contacts;
+    }
+
+    /**
+     * @param contact_id a contact's id.
+     * @return true if the contact is at every occurrence.
+     */
+    boolean hasAttendee(int contact_id) {
+        return contacts.containsId(contact_id);
+    }
+
+    /**
+     * @param id a meeting id.
+     * @return true if the id is one of the occurrences'.
+     */
+    boolean hasId(int id) {
+        return id >= first_id && id - first_id < count;
+    }
+
+    /**
+     * @param index the occurrence's index (from 0).
+     * @return the occurrence's id.
+     */
+    int getId(int index) {
+        return first_id + index;
+    }
+
+    /**
+     * @param index the occurrence's index (from 0).
+     * @return the occurrence's date.
+     */
+    Calendar getDate(int index) {
+        Calendar date = (Calendar) first_date.clone();
+        date.add(Calendar.DAY_OF_YEAR, index * interval_days);
+        return date;
+    }
+
+    /**
+     * Returns the index of the occurrence on the given day, if there is one.
+     *
+     * @param date the day.
+     * @return the occurrence's index, or -1 if none is on that day.
+     */
+    int getIndexOn(Calendar date) {
+        // Days vary in length (eg. when the clocks change), so the estimate may be one out
+        long days = (long) Math.floor((date.getTimeInMillis() - first_date.getTimeInMillis()) / (double) MILLIS_PER_DAY);
+        long estimate = Math.max(-1, Math.min(count, days / interval_days));
+        for (long index = estimate - 1; index <= estimate + 1; index++) {
+            if (index >= 0 && index < count && CalendarUtil.areDatesEqual(getDate((int) index), date))
+                return (int) index;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence after the given time.
+     *
+     * @param millis the time, in milliseconds since the epoch.
+     * @return the occurrence's index, or the count if every occurrence is at or before then.
+     */
+    int getFirstIndexAfter(long millis) {
+        // Start from just before the estimate, as days vary in length
+        long days = (millis - first_date.getTimeInMillis()) / MILLIS_PER_DAY;
+        int index = (int) Math.max(0, Math.min(count, days / interval_days - 1));
+        while (index < count && getDate(index).getTimeInMillis() <= millis) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Records that the given occurrence has been created.
+     *
+     * @param index the occurrence's index.
+     * @return true if it hadn't been recorded before.
+     */
+    boolean expand(int index) {
+        if (expanded.get(index))
+            return false;
+
+        expanded.set(index);
+        return true;
+    }
+
+    /**
+     * @return the number of occurrences that have been created.
+     */
+    int getExpandedCount() {
+        return expanded.cardinality();
+    }
+
+    /**
+     * @return true if every occurrence has been created.
+     */
+    boolean isFullyExpanded() {
+        return getExpandedCount() == count;
+    }
+
+    /**
+     * @param data_filename the name of the data file.
+     * @return the name of the data file's recurring meetings file.
+     */
+    static String getFilename(String data_filename) {
+        return data_filename + RULES_SUFFIX;
+    }
+
+    /**
+     * Writes the recurring meetings file for the given data file, or deletes it if there are no
+     * recurring meetings.
+     *
+     * @param data_filename the data file.
+     * @param meetings the recurring meetings.
+     * @param sync whether to force the file to disk (see 'FileUtil.replace').
+     * @throws IOException if the file can't be written.
+     */
+    static void write(String data_filename, Collection<RecurringMeeting> meetings, boolean sync) throws IOException {
+        String filename = getFilename(data_filename);
+        File file = new File(filename);
+        if (meetings.isEmpty()) {
+            if (file.exists()) {
+                if (!file.delete())
+                    throw new IOException("Couldn't delete recurring meetings file " + filename);
+                if (sync)
+                    FileUtil.forceDirectory(file);
+            }
+            return;
+        }
+
+        File temp_file = new File(filename + ".tmp");
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(new FileOutputStream(temp_file), crc)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(meetings.size());
+            for (RecurringMeeting meeting : meetings) {
+                out.writeInt(meeting.first_id);
+                out.writeLong(meeting.first_date.getTimeInMillis());
+                out.writeUTF(meeting.first_date.getTimeZone().getID());
+                out.writeInt(meeting.interval_days);
+                out.writeInt(meeting.count);
+                int[] contact_ids = meeting.contacts.getIds();
+                out.writeInt(contact_ids.length);
+                for (int contact_id : contact_ids) {
+                    out.writeInt(contact_id);
+                }
+            }
+
+            // The checksum covers everything written so far
+            out.flush();
+            out.writeInt((int) crc.getValue());
+        } finally {
+            out.close();
+        }
+
+        FileUtil.replace(temp_file, file, sync);
+    }
+
+    /**
+     * Reads the recurring meetings file for the given data file, if there is one.
+     *
+     * Recurring meetings with unknown contacts aren't read (with a warning printed to stdout),
+     * and nor is anything if the file is corrupt.
+     *
+     * @param data_filename the data file.
+     * @param contacts_by_id the known contacts, by id.
+     * @return the recurring meetings (maybe empty).
+     */
+    static List<RecurringMeeting> read(String data_filename, Map<Integer, Contact> contacts_by_id) {
+        List<RecurringMeeting> meetings = new ArrayList<RecurringMeeting>();
+        File file = new File(getFilename(data_filename));
+        if (!file.isFile())
+            return meetings;
+
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+
+            // Check the whole file before using any of it
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+            in.skipBytes(bytes.length - 4);
+            if (in.readInt() != (int) crc.getValue())
+                throw new IOException("Checksum doesn't match");
+
+            in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a recurring meetings file");
+
+            int meeting_count = in.readInt();
+            for (int i = 0; i < meeting_count; i++) {
+                int first_id = in.readInt();
+                long millis = in.readLong();
+                Calendar first_date = Calendar.getInstance(TimeZone.getTimeZone(in.readUTF()));
+                first_date.setTimeInMillis(millis);
+                int interval_days = in.readInt();
+                int count = in.readInt();
+
+                Set<Contact> contacts = new HashSet<Contact>();
+                boolean contacts_known = true;
+                int contact_count = in.readInt();
+                for (int j = 0; j < contact_count; j++) {
+                    Contact contact = contacts_by_id.get(in.readInt());
+                    if (contact == null)
+                        contacts_known = false;
+                    else
+                        contacts.add(contact);
+                }
+
+                if (contacts_known && !contacts.isEmpty()) {
+                    meetings.add(new RecurringMeeting(first_id, first_date, interval_days, count, contacts));
+                } else {
+                    System.out.format("Couldn't load recurring meeting '%d' from file '%s'%n", first_id, file);
+                }
+            }
+        } catch (IOException e) {
+            System.out.format("Couldn't load recurring meetings from file '%s'%n", file);
+            e.printStackTrace();
+            meetings.clear();
+        } catch (RuntimeException e) {
+            // eg. a file too short to hold a checksum
+            System.out.format("Couldn't load recurring meetings from file '%s'%n", file);
+            e.printStackTrace();
+            meetings.clear();
+        }
+        return meetings;
+    }
+}
@@ -0,0 +1,14 @@
+package contactsmanager;
+
+/**
+ * A receiver of meeting reminders (see 'ContactManagerImpl.startReminders').
+ */
+public interface ReminderListener {
+    /**
+     * Receives the reminder for a meeting which is about to start.  This is called on one of the
+     * scheduler's delivery threads, so may be called concurrently for different meetings.
+     *
+     * @param meeting the meeting.
+     */
+    void onReminder(FutureMeeting meeting);
+}
@@ -0,0 +1,257 @@
+package contactsmanager;
+
+import contactsmanager.util.DaemonThreadFactory;
+import contactsmanager.util.TimerWheel;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reminds a listener of each of a ContactManagerImpl's future meetings a set time before it
+ * starts (see 'ContactManagerImpl.startReminders').
+ *
+ * Reminders wait in a hierarchical timer wheel (see TimerWheel), so scheduling and cancelling
+ * one is O(1) however many are waiting.  A thread advances the wheel once a tick, and hands each
+ * reminder that has fallen due to a bounded pool of threads to deliver.  When the pool's queue is
+ * full, the ticking thread delivers the reminder itself, so a slow listener holds up later
+ * reminders rather than letting them queue without bound.
+ *
+ * A recurring meeting has one reminder waiting at a time, for its next occurrence; when it
+ * falls due, the reminder for the occurrence after that is scheduled.  So a recurring meeting
+ * costs the same as a single meeting, and its occurrences needn't have been created.  A future
+ * meeting promoted to a past meeting has its reminder cancelled (and a recurring meeting moves
+ * on to its next occurrence).  Meetings that have already started when they're scheduled get no
+ * reminder; those starting within the lead time are reminded at the next tick.
+ *
+ * Scheduling and cancelling are thread-safe, so the manager's thread can change reminders while
+ * the ticking thread takes them.
+ */
+public class ReminderScheduler implements Closeable {
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final ReminderListener listener;
+    private final long lead_time_millis;
+    private final Collection<ReminderScheduler> schedulers;
+    // Guarded by itself
+    private final TimerWheel<Reminder> wheel;
+    private final ThreadPoolExecutor executor;
+    private final Thread ticker;
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * A waiting reminder: either of a single meeting, or of one occurrence of a recurring meeting.
+     */
+    private static final class Reminder {
+        private final FutureMeeting meeting;
+        private final RecurringMeeting recurring_meeting;
+        private final int index;
+
+        Reminder(FutureMeeting meeting, RecurringMeeting recurring_meeting, int index) {
+            this.meeting = meeting;
+            this.recurring_meeting = recurring_meeting;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Creates a scheduler with no reminders waiting.  It doesn't tick until 'start' is called.
+     *
+     * @param listener the listener to deliver reminders to.
+     * @param lead_time_millis how long before each meeting starts to remind the listener of it.
+     * @param threads the number of threads to deliver reminders on.
+     * @param tick_millis how often to check for reminders that are due, in milliseconds.
+     * @param schedulers the manager's schedulers, which this removes itself from when closed.
+     */
+    ReminderScheduler(ReminderListener listener, long lead_time_millis, int threads, long tick_millis,
+                      Collection<ReminderScheduler> schedulers) {
+        this.listener = listener;
+        this.lead_time_millis = lead_time_millis;
+        this.schedulers = schedulers;
+        this.wheel = new TimerWheel<Reminder>(tick_millis, System.currentTimeMillis());
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new DaemonThreadFactory("contact-manager-reminder"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, "contact-manager-reminder-ticker");
+        ticker.setDaemon(true);
+    }
+
+    /**
+     * Starts the ticking thread.
+     */
+    void start() {
+        ticker.start();
+    }
+
+    /**
+     * Schedules the reminders for the given meetings and recurring meetings together, as when
+     * the scheduler is first started.
+     *
+     * @param meetings the future meetings (none of them occurrences of the recurring meetings).
+     * @param recurring_meetings the recurring meetings.
+     */
+    void scheduleAll(Collection<? extends FutureMeeting> meetings, Collection<RecurringMeeting> recurring_meetings) {
+        long now = System.currentTimeMillis();
+        synchronized (wheel) {
+            for (FutureMeeting meeting : meetings) {
+                scheduleMeeting(meeting, now);
+            }
+
+            for (RecurringMeeting meeting : recurring_meetings) {
+                scheduleOccurrence(meeting, meeting.getFirstIndexAfter(now));
+            }
+        }
+    }
+
+    /**
+     * Schedules the reminder for a future meeting (replacing any already waiting for it).
+     *
+     * @param meeting the meeting, which mustn't be an occurrence of a recurring meeting.
+     */
+    void schedule(FutureMeeting meeting) {
+        long now = System.currentTimeMillis();
+        synchronized (wheel) {
+            scheduleMeeting(meeting, now);
+        }
+    }
+
+    /**
+     * Schedules the reminder for the next occurrence of a recurring meeting.
+     *
+     * @param meeting the recurring meeting.
+     */
+    void schedule(RecurringMeeting meeting) {
+        long now = System.currentTimeMillis();
+        synchronized (wheel) {
+            scheduleOccurrence(meeting, meeting.getFirstIndexAfter(now));
+        }
+    }
+
+    /**
+     * Cancels the reminder waiting for the meeting with the given id, if there is one.  If the
+     * meeting is an occurrence of a recurring meeting, the next occurrence's reminder is
+     * scheduled in its place.
+     *
+     * @param id the meeting's id.
+     */
+    void cancel(int id) {
+        synchronized (wheel) {
+            Reminder reminder = wheel.cancel(id);
+            if (reminder != null && reminder.recurring_meeting != null)
+                scheduleOccurrence(reminder.recurring_meeting, reminder.index + 1);
+        }
+    }
+
+    // Must be called holding the wheel's lock
+    private void scheduleMeeting(FutureMeeting meeting, long now) {
+        long start = meeting.getDate().getTimeInMillis();
+        if (start > now)
+            wheel.schedule(meeting.getId(), start - lead_time_millis, new Reminder(meeting, null, 0));
+    }
+
+    // Must be called holding the wheel's lock
+    private void scheduleOccurrence(RecurringMeeting meeting, int index) {
+        if (index < meeting.getCount()) {
+            long start = meeting.getDate(index).getTimeInMillis();
+            wheel.schedule(meeting.getId(index), start - lead_time_millis, new Reminder(null, meeting, index));
+        }
+    }
+
+    /**
+     * @return the number of reminders waiting.
+     */
+    public int getWaitingCount() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    /**
+     * @return the number of reminders delivered so far.
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Takes the reminders due by the given time, and hands them to the delivery threads.
+     *
+     * @param now_millis the time, in milliseconds since the epoch.
+     */
+    void deliverDueReminders(long now_millis) {
+        List<FutureMeeting> meetings = new ArrayList<FutureMeeting>();
+        synchronized (wheel) {
+            for (Reminder reminder : wheel.advance(now_millis)) {
+                if (reminder.meeting != null) {
+                    meetings.add(reminder.meeting);
+                } else {
+                    // Take the occurrences after this one that are already due too, as the wheel
+                    // has advanced past them, then schedule the next
+                    RecurringMeeting recurring_meeting = reminder.recurring_meeting;
+                    int index = reminder.index;
+                    do {
+                        meetings.add(DIFactory.getInstance().newFutureMeeting(recurring_meeting.getId(index),
+                                recurring_meeting.getDate(index), recurring_meeting.getContacts()));
+                        index++;
+                    } while (index < recurring_meeting.getCount()
+                            && recurring_meeting.getDate(index).getTimeInMillis() - lead_time_millis <= now_millis);
+                    scheduleOccurrence(recurring_meeting, index);
+                }
+            }
+        }
+
+        for (final FutureMeeting meeting : meetings) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.onReminder(meeting);
+                    } catch (RuntimeException e) {
+                        System.out.format("Reminder listener failed for meeting '%d'%n", meeting.getId());
+                        e.printStackTrace();
+                    }
+                    delivered.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void tick() {
+        long tick_millis = wheel.getTickMillis();
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            deliverDueReminders(now);
+
+            try {
+                Thread.sleep(Math.max(1, (now / tick_millis + 1) * tick_millis - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops delivering reminders, and stops the manager scheduling any more.  Reminders already
+     * handed to the delivery threads are still delivered.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        schedulers.remove(this);
+        ticker.interrupt();
+        executor.shutdown();
+    }
+}
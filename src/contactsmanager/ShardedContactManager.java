@@ -0,0 +1,1073 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.DaemonThreadFactory;
+import contactsmanager.util.InvertedIndex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A ContactManager which partitions its contacts, and their meetings, across several shards,
+ * each a ContactManagerImpl with its own file ("<filename>.shard<n>").
+ *
+ * A contact's home shard is chosen by a hash of its id.  A meeting is stored in the home shard
+ * of its lowest-id contact; any of its other contacts whose home is elsewhere are added to that
+ * shard as guests, so that the shard can check, store and save the meeting like any other.
+ * Contact and meeting ids are allocated here, so are unique across all the shards.
+ *
+ * Shards are loaded and flushed in parallel.  Loading re-partitions whatever was in the files
+ * by the current number of shards, so files written with a different number of shards still
+ * load correctly: every "<filename>.shard<n>" file is loaded, even those beyond the current
+ * number of shards, which are deleted once a flush has written their data to the current ones.
+ *
+ * Queries over everything (eg. 'getContacts(String)' or 'getFutureMeetingList(Calendar)'), and
+ * about contacts' meetings, are scattered across every shard, and their results gathered and
+ * merged; shards which don't have the contacts answer straight away.  'getContacts(int...)' and
+ * queries by meeting id are answered on the caller's thread, as is 'getFirstFreeDay', which asks
+ * the shards in turn.
+ *
+ * The shards are loaded, flushed and queried on a thread per shard, which are stopped by 'close'.
+ *
+ * This class is not thread-safe.
+ */
+public class ShardedContactManager implements ContactManager, Closeable {
+    private static final String DEFAULT_FILENAME = "contacts.txt";
+    private static final int DEFAULT_SHARD_COUNT = 4;
+
+    private final ContactManagerImpl[] shards;
+    private final String[] shard_filenames;
+    // Files of shards beyond the current number, left by a manager with more shards
+    private final List<String> extra_shard_filenames = new ArrayList<String>();
+    private final ExecutorService executor;
+    // Every contact, by id, as held by its home shard
+    private final Map<Integer, Contact> contacts_by_id = new HashMap<Integer, Contact>();
+    private int last_contact_id = -1;
+    private int last_meeting_id = -1;
+
+    /**
+     * Creates a new ShardedContactManager using the default filename ("contacts.txt") and number
+     * of shards.  If the shards' files already exist, this will load from them.
+     */
+    public ShardedContactManager() {
+        this(DEFAULT_FILENAME);
+    }
+
+    /**
+     * Creates a new ShardedContactManager using the given filename and the default number of
+     * shards.  If the shards' files already exist, this will load from them.
+     *
+     * @param filename the file location to base the shards' file locations on.
+     */
+    public ShardedContactManager(String filename) {
+        this(filename, DEFAULT_SHARD_COUNT);
+    }
+
+    /**
+     * Creates a new ShardedContactManager using the given filename and number of shards.
+     * If the shards' files already exist, this will load from them.
+     *
+     * @param filename the file location to base the shards' file locations on.
+     * @param shard_count the number of shards.
+     * @throws IllegalArgumentException if shard_count is less than 1.
+     */
+    public ShardedContactManager(String filename, int shard_count) {
+        if (filename == null)
+            throw new NullPointerException("filename is null");
+
+        if (shard_count < 1)
+            throw new IllegalArgumentException("There must be at least one shard, not " + shard_count);
+
+        shards = new ContactManagerImpl[shard_count];
+        shard_filenames = new String[shard_count];
+        for (int i = 0; i < shard_count; i++) {
+            shard_filenames[i] = getShardFilename(filename, i);
+        }
+
+        executor = Executors.newFixedThreadPool(shard_count, new DaemonThreadFactory("contact-manager-shard"));
+
+        boolean loaded = false;
+        try {
+            load(filename);
+            loaded = true;
+        } finally {
+            if (!loaded)
+                executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the name of the file that the given shard is stored in.
+     *
+     * @param filename the filename the manager was created with.
+     * @param shard the shard's index.
+     * @return the shard's filename.
+     */
+    static String getShardFilename(String filename, int shard) {
+        return filename + ".shard" + shard;
+    }
+
+    /**
+     * Returns the names of the shard files to load: the current shards' files (whether or not
+     * they exist), followed by any existing files of shards beyond them, as left by a manager
+     * with more shards, in shard order.
+     *
+     * @param filename the filename the manager was created with.
+     * @param shard_count the current number of shards.
+     * @return the shard files' names.
+     */
+    static List<String> findShardFilenames(String filename, int shard_count) {
+        List<String> shard_filenames = new ArrayList<String>();
+        for (int i = 0; i < shard_count; i++) {
+            shard_filenames.add(getShardFilename(filename, i));
+        }
+
+        File file = new File(filename).getAbsoluteFile();
+        String prefix = getShardFilename(file.getName(), 0);
+        prefix = prefix.substring(0, prefix.length() - 1);
+        File[] siblings = file.getParentFile() == null ? null : file.getParentFile().listFiles();
+        if (siblings == null)
+            return shard_filenames;
+
+        SortedSet<Integer> extra_shards = new TreeSet<Integer>();
+        for (File sibling : siblings) {
+            String name = sibling.getName();
+            if (!sibling.isFile() || !name.startsWith(prefix))
+                continue;
+
+            String shard = name.substring(prefix.length());
+            if (shard.isEmpty() || shard.length() > 9 || !shard.matches("[0-9]+"))
+                continue;
+
+            if (Integer.parseInt(shard) >= shard_count)
+                extra_shards.add(Integer.parseInt(shard));
+        }
+
+        for (int shard : extra_shards) {
+            shard_filenames.add(getShardFilename(filename, shard));
+        }
+        return shard_filenames;
+    }
+
+    /**
+     * Returns the index of the home shard of the contact with the given id.
+     *
+     * @param contact_id the contact's id.
+     * @return the shard's index.
+     */
+    int getShardIndex(int contact_id) {
+        // Mix the id's bits, so that patterns in ids don't become patterns in shards
+        int hash = contact_id * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % shards.length;
+    }
+
+    /**
+     * Returns the index of the shard that the given meeting is stored in: the home shard of its
+     * lowest-id contact.
+     *
+     * @param contacts the meeting's contacts (not empty).
+     * @return the shard's index.
+     */
+    private int getMeetingShardIndex(Set<Contact> contacts) {
+        int lowest_id = Integer.MAX_VALUE;
+        for (Contact contact : contacts) {
+            lowest_id = Math.min(lowest_id, contact.getId());
+        }
+        return getShardIndex(lowest_id);
+    }
+
+    /**
+     * Runs the given tasks on the executor and waits for all of them to finish.
+     *
+     * @param tasks the tasks to run.
+     * @param <T> the type of the tasks' results.
+     * @return the tasks' results, in the same order as the tasks.
+     * @throws RuntimeException (or Error) whatever a task threw.
+     * @throws IllegalStateException if the manager has been closed.
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) {
+        if (executor.isShutdown())
+            throw new IllegalStateException("Manager is closed");
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+
+    /**
+     * A query of one shard, as run by 'queryAll'.
+     *
+     * @param <T> the type of the query's result.
+     */
+    private interface ShardQuery<T> {
+        T query(int shard_index, ContactManagerImpl shard);
+    }
+
+    /**
+     * Runs the given query against every shard on the executor, and waits for all of them.
+     *
+     * @param query the query.
+     * @param <T> the type of the query's results.
+     * @return each shard's result, in shard order.
+     * @throws IllegalStateException if the manager has been closed.
+     */
+    private <T> List<T> queryAll(final ShardQuery<T> query) {
+        List<Callable<T>> tasks = new ArrayList<Callable<T>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            final int shard_index = i;
+            tasks.add(new Callable<T>() {
+                @Override
+                public T call() {
+                    return query.query(shard_index, shards[shard_index]);
+                }
+            });
+        }
+        return runAll(tasks);
+    }
+
+    /**
+     * Loads every shard's file in parallel, including those of shards beyond the current number,
+     * then re-partitions what was loaded into new shards.
+     *
+     * Contacts are taken from their home shard's file where possible, otherwise from whichever
+     * file has them as a guest.  Meetings with unknown contacts, or whose ids have already been
+     * loaded, aren't loaded (with a warning printed to stdout).  Files which couldn't be accessed
+     * or parsed are skipped.
+     *
+     * @param filename the filename the manager was created with.
+     */
+    private void load(String filename) {
+        // Parse every file in parallel
+        List<String> load_filenames = findShardFilenames(filename, shards.length);
+        extra_shard_filenames.addAll(load_filenames.subList(shards.length, load_filenames.size()));
+        List<Callable<DataStore>> parse_tasks = new ArrayList<Callable<DataStore>>();
+        for (final String shard_filename : load_filenames) {
+            parse_tasks.add(new Callable<DataStore>() {
+                @Override
+                public DataStore call() {
+                    return loadShardFile(shard_filename);
+                }
+            });
+        }
+        List<DataStore> loaded = runAll(parse_tasks);
+
+        // Choose one instance of each contact, preferring the one from its home shard
+        for (int i = 0; i < loaded.size(); i++) {
+            if (loaded.get(i) == null)
+                continue;
+
+            for (Contact contact : loaded.get(i).getContacts()) {
+                if (getShardIndex(contact.getId()) == i || !contacts_by_id.containsKey(contact.getId()))
+                    contacts_by_id.put(contact.getId(), contact);
+
+                last_contact_id = Math.max(last_contact_id, contact.getId());
+            }
+        }
+
+        // Group the meetings by the shard they now belong in
+        final List<List<Meeting>> meetings_by_shard = new ArrayList<List<Meeting>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            meetings_by_shard.add(new ArrayList<Meeting>());
+        }
+
+        Set<Integer> loaded_meeting_ids = new HashSet<Integer>();
+        for (int i = 0; i < loaded.size(); i++) {
+            DataStore data = loaded.get(i);
+            if (data == null)
+                continue;
+
+            List<Meeting> meetings = new ArrayList<Meeting>(data.getPastMeetings());
+            meetings.addAll(data.getFutureMeetings());
+            for (Meeting meeting : meetings) {
+                // Ensure no meeting ids get reused, even those of meetings that aren't loaded
+                last_meeting_id = Math.max(last_meeting_id, meeting.getId());
+
+                Meeting known_meeting = withKnownContacts(meeting);
+                if (known_meeting == null || !loaded_meeting_ids.add(meeting.getId())) {
+                    System.out.format("Couldn't load meeting '%d' from file '%s'%n", meeting.getId(), load_filenames.get(i));
+                    continue;
+                }
+
+                meetings_by_shard.get(getMeetingShardIndex(known_meeting.getContacts())).add(known_meeting);
+            }
+        }
+
+        // Build every shard in parallel
+        List<Callable<ContactManagerImpl>> build_tasks = new ArrayList<Callable<ContactManagerImpl>>();
+        for (int i = 0; i < shards.length; i++) {
+            final int shard_index = i;
+            build_tasks.add(new Callable<ContactManagerImpl>() {
+                @Override
+                public ContactManagerImpl call() {
+                    return buildShard(shard_index, meetings_by_shard.get(shard_index));
+                }
+            });
+        }
+        runAll(build_tasks).toArray(shards);
+    }
+
+    /**
+     * Loads the given shard file into a new DataStore.
+     *
+     * @param shard_filename the file to load.
+     * @return the loaded data, or null if there's no such file or it couldn't be loaded.
+     */
+    private static DataStore loadShardFile(String shard_filename) {
+        if (!new File(shard_filename).isFile())
+            return null;
+
+        DataStore data = DIFactory.getInstance().newDataStore();
+        try {
+            data.loadFromFilename(shard_filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Returns a copy of the given loaded meeting whose contacts are the manager's instances of
+     * them, as each file has its own instances of the same contacts.
+     *
+     * @param meeting the meeting as loaded from file.
+     * @return the copy, or null if the meeting has no contacts, or unknown contacts.
+     */
+    private Meeting withKnownContacts(Meeting meeting) {
+        if (meeting.getContacts().isEmpty())
+            return null;
+
+        Set<Contact> contacts = new HashSet<Contact>();
+        for (Contact contact : meeting.getContacts()) {
+            Contact known_contact = contacts_by_id.get(contact.getId());
+            if (!contact.equals(known_contact))
+                return null;
+            contacts.add(known_contact);
+        }
+
+        if (meeting instanceof PastMeeting) {
+            return DIFactory.getInstance().newPastMeeting(meeting.getId(), meeting.getDate(), contacts,
+                    ((PastMeeting) meeting).getNotes());
+        } else if (meeting instanceof FutureMeeting) {
+            return DIFactory.getInstance().newFutureMeeting(meeting.getId(), meeting.getDate(), contacts);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the given shard, with its home contacts, the given meetings, and those meetings'
+     * guest contacts.
+     *
+     * @param shard_index the shard's index.
+     * @param meetings the meetings that belong in the shard.
+     * @return the new shard.
+     */
+    private ContactManagerImpl buildShard(int shard_index, List<Meeting> meetings) {
+        ContactManagerImpl shard = ContactManagerImpl.newWithoutLoading(shard_filenames[shard_index]);
+
+        for (Contact contact : contacts_by_id.values()) {
+            if (getShardIndex(contact.getId()) == shard_index)
+                shard.addExistingContact(contact);
+        }
+
+        for (Meeting meeting : meetings) {
+            addGuestContacts(shard, meeting.getContacts());
+        }
+        shard.addExistingMeetings(meetings);
+
+        return shard;
+    }
+
+    /**
+     * Adds any of the given contacts which the shard doesn't have yet to it, as guests.
+     *
+     * @param shard the shard to add the contacts to.
+     * @param contacts the contacts (which must all be known).
+     */
+    private void addGuestContacts(ContactManagerImpl shard, Set<Contact> contacts) {
+        for (Contact contact : contacts) {
+            if (!shard.hasContact(contact.getId()))
+                shard.addExistingContact(contacts_by_id.get(contact.getId()));
+        }
+    }
+
+    /**
+     * Adds the given meetings, which must already have been checked, to the shards they belong in.
+     *
+     * @param meetings the meetings to add.
+     */
+    private void addMeetings(List<? extends Meeting> meetings) {
+        Map<Integer, List<Meeting>> meetings_by_shard = new HashMap<Integer, List<Meeting>>();
+        for (Meeting meeting : meetings) {
+            int shard_index = getMeetingShardIndex(meeting.getContacts());
+            List<Meeting> shard_meetings = meetings_by_shard.get(shard_index);
+            if (shard_meetings == null) {
+                shard_meetings = new ArrayList<Meeting>();
+                meetings_by_shard.put(shard_index, shard_meetings);
+            }
+            shard_meetings.add(meeting);
+            last_meeting_id = Math.max(last_meeting_id, meeting.getId());
+        }
+
+        for (Map.Entry<Integer, List<Meeting>> entry : meetings_by_shard.entrySet()) {
+            ContactManagerImpl shard = shards[entry.getKey()];
+            for (Meeting meeting : entry.getValue()) {
+                addGuestContacts(shard, meeting.getContacts());
+            }
+            shard.addExistingMeetings(entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the given contacts as the manager's instances of them.
+     *
+     * @param contacts the contacts (which must all be known).
+     * @return the manager's instances.
+     */
+    private Set<Contact> getKnownContacts(Set<Contact> contacts) {
+        Set<Contact> known_contacts = new HashSet<Contact>();
+        for (Contact contact : contacts) {
+            known_contacts.add(contacts_by_id.get(contact.getId()));
+        }
+        return known_contacts;
+    }
+
+    /**
+     * Returns the shard holding the meeting with the given id.
+     *
+     * @param id the meeting's id.
+     * @return the shard, or null if no shard has the meeting.
+     */
+    private ContactManagerImpl getShardWithMeeting(int id) {
+        for (ContactManagerImpl shard : shards) {
+            if (shard.getMeeting(id) != null)
+                return shard;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the shard holding the meeting with the given id, checking that it can take notes.
+     *
+     * @param id the meeting's id.
+     * @return the shard.
+     * @throws IllegalArgumentException if the meeting does not exist.
+     * @throws IllegalStateException if the meeting is set for a date in the future.
+     */
+    private ContactManagerImpl getShardToAddNotesTo(int id) {
+        ContactManagerImpl shard = getShardWithMeeting(id);
+        if (shard == null)
+            throw new IllegalArgumentException("Meeting Id " + id + " does not exist");
+
+        Calendar date = shard.getMeeting(id).getDate();
+        if (!CalendarUtil.isDateInPast(date))
+            throw new IllegalStateException("Date " + CalendarUtil.getCalendarString(date) + " is in the future");
+
+        return shard;
+    }
+
+    /**
+     * Merges the given lists of meetings gathered from the shards into one chronological list.
+     *
+     * @param meeting_lists the shards' lists.
+     * @param <T> the type of meeting.
+     * @return the merged list.
+     */
+    private static <T extends Meeting> List<T> mergeByDate(List<List<T>> meeting_lists) {
+        List<T> meetings = new ArrayList<T>();
+        for (List<T> meeting_list : meeting_lists) {
+            meetings.addAll(meeting_list);
+        }
+
+        Collections.sort(meetings, CalendarUtil.getMeetingDateComparator());
+        return new LinkedList<T>(meetings);
+    }
+
+    /**
+     * Merges the given per-contact scores gathered from the shards, taking each contact's score
+     * from its home shard only, as guests are scored in their own home shards.
+     *
+     * @param shard_scores each shard's scores by contact id, in shard order.
+     * @param <V> the type of score.
+     * @return the merged scores.
+     */
+    private <V> Map<Integer, V> mergeHomeScores(List<Map<Integer, V>> shard_scores) {
+        Map<Integer, V> scores = new HashMap<Integer, V>();
+        for (int i = 0; i < shard_scores.size(); i++) {
+            for (Map.Entry<Integer, V> entry : shard_scores.get(i).entrySet()) {
+                if (getShardIndex(entry.getKey()) == i)
+                    scores.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return scores;
+    }
+
+    @Override
+    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts, date);
+
+        int id = last_meeting_id + 1;
+        addMeetings(Collections.singletonList(
+                DIFactory.getInstance().newFutureMeeting(id, date, getKnownContacts(contacts))));
+        return id;
+    }
+
+    @Override
+    public List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        ContactManagerImpl.ensureSameSize(contacts, "contacts", dates, "dates");
+
+        // Check every meeting before adding any of them
+        Iterator<Set<Contact>> contacts_iterator = contacts.iterator();
+        for (Calendar date : dates) {
+            ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts_iterator.next(), date);
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = last_meeting_id + 1;
+        List<Integer> ids = new ArrayList<Integer>(dates.size());
+        List<Meeting> meetings = new ArrayList<Meeting>(dates.size());
+        contacts_iterator = contacts.iterator();
+        for (Calendar date : dates) {
+            meetings.add(DIFactory.getInstance().newFutureMeeting(id, date, getKnownContacts(contacts_iterator.next())));
+            ids.add(id++);
+        }
+
+        addMeetings(meetings);
+        return ids;
+    }
+
+    /**
+     * The occurrences are added straight away as future meetings, to the shard the meeting
+     * belongs to, rather than kept as a rule: shards only hold meetings, and load from files
+     * re-partitioned meeting by meeting.
+     */
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count) {
+        ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts, first_date);
+        RecurringMeeting.ensureValid(interval_days, count);
+
+        int id = last_meeting_id + 1;
+        RecurringMeeting rule = new RecurringMeeting(id, first_date, interval_days, count, getKnownContacts(contacts));
+        List<Meeting> meetings = new ArrayList<Meeting>(count);
+        for (int index = 0; index < count; index++) {
+            meetings.add(DIFactory.getInstance().newFutureMeeting(rule.getId(index), rule.getDate(index), rule.getContacts()));
+        }
+
+        addMeetings(meetings);
+        return id;
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date) {
+        ContactManagerImpl.ensureNewFutureMeetingIsValid(contacts_by_id, contacts, first_date);
+
+        if (last_date == null)
+            throw new NullPointerException("last_date is null");
+
+        RecurringMeeting.ensureValid(interval_days, 1);
+        return addRecurringMeeting(contacts, first_date, interval_days,
+                RecurringMeeting.countUntil(first_date, interval_days, last_date));
+    }
+
+    @Override
+    public PastMeeting getPastMeeting(int id) {
+        ContactManagerImpl shard = getShardWithMeeting(id);
+        return shard == null ? null : shard.getPastMeeting(id);
+    }
+
+    @Override
+    public FutureMeeting getFutureMeeting(int id) {
+        ContactManagerImpl shard = getShardWithMeeting(id);
+        return shard == null ? null : shard.getFutureMeeting(id);
+    }
+
+    @Override
+    public Meeting getMeeting(int id) {
+        ContactManagerImpl shard = getShardWithMeeting(id);
+        return shard == null ? null : shard.getMeeting(id);
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(final Contact contact) {
+        ContactManagerImpl.ensureContactIsKnown(contacts_by_id, contact);
+
+        // The contact's meetings are in its home shard, and any shard it's a guest in
+        return mergeByDate(queryAll(new ShardQuery<List<Meeting>>() {
+            @Override
+            public List<Meeting> query(int shard_index, ContactManagerImpl shard) {
+                if (!shard.hasContact(contact.getId()))
+                    return Collections.emptyList();
+                return shard.getFutureMeetingList(contact);
+            }
+        }));
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(final Calendar date) {
+        if (date == null)
+            throw new NullPointerException("date is null");
+
+        return mergeByDate(queryAll(new ShardQuery<List<Meeting>>() {
+            @Override
+            public List<Meeting> query(int shard_index, ContactManagerImpl shard) {
+                return shard.getFutureMeetingList(date);
+            }
+        }));
+    }
+
+    @Override
+    public List<PastMeeting> getPastMeetingList(final Contact contact) {
+        ContactManagerImpl.ensureContactIsKnown(contacts_by_id, contact);
+
+        return mergeByDate(queryAll(new ShardQuery<List<PastMeeting>>() {
+            @Override
+            public List<PastMeeting> query(int shard_index, ContactManagerImpl shard) {
+                if (!shard.hasContact(contact.getId()))
+                    return Collections.emptyList();
+                return shard.getPastMeetingList(contact);
+            }
+        }));
+    }
+
+    @Override
+    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        ContactManagerImpl.ensureNewPastMeetingIsValid(contacts_by_id, contacts, date, text);
+
+        int id = last_meeting_id + 1;
+        addMeetings(Collections.singletonList(
+                DIFactory.getInstance().newPastMeeting(id, date, getKnownContacts(contacts), text)));
+    }
+
+    @Override
+    public List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        ContactManagerImpl.ensureSameSize(contacts, "contacts", dates, "dates");
+        ContactManagerImpl.ensureSameSize(dates, "dates", texts, "texts");
+
+        // Check every meeting before adding any of them
+        Iterator<Set<Contact>> contacts_iterator = contacts.iterator();
+        Iterator<String> texts_iterator = texts.iterator();
+        for (Calendar date : dates) {
+            ContactManagerImpl.ensureNewPastMeetingIsValid(contacts_by_id, contacts_iterator.next(), date, texts_iterator.next());
+        }
+
+        // Then add them all, with a contiguous range of ids
+        int id = last_meeting_id + 1;
+        List<Integer> ids = new ArrayList<Integer>(dates.size());
+        List<Meeting> meetings = new ArrayList<Meeting>(dates.size());
+        contacts_iterator = contacts.iterator();
+        texts_iterator = texts.iterator();
+        for (Calendar date : dates) {
+            meetings.add(DIFactory.getInstance().newPastMeeting(id, date,
+                    getKnownContacts(contacts_iterator.next()), texts_iterator.next()));
+            ids.add(id++);
+        }
+
+        addMeetings(meetings);
+        return ids;
+    }
+
+    @Override
+    public void addMeetingNotes(int id, String text) {
+        if (text == null)
+            throw new NullPointerException("text is null");
+
+        getShardToAddNotesTo(id).addMeetingNotes(id, text);
+    }
+
+    @Override
+    public void addMeetingNotes(Map<Integer, String> notes_by_id) {
+        if (notes_by_id == null)
+            throw new NullPointerException("notes_by_id is null");
+
+        // Check every meeting and note before changing any of them, grouping them by shard
+        Map<ContactManagerImpl, Map<Integer, String>> notes_by_shard =
+                new LinkedHashMap<ContactManagerImpl, Map<Integer, String>>();
+        for (Map.Entry<Integer, String> entry : notes_by_id.entrySet()) {
+            if (entry.getKey() == null)
+                throw new NullPointerException("meeting id is null");
+
+            if (entry.getValue() == null)
+                throw new NullPointerException("text for meeting " + entry.getKey() + " is null");
+
+            ContactManagerImpl shard = getShardToAddNotesTo(entry.getKey());
+            Map<Integer, String> shard_notes = notes_by_shard.get(shard);
+            if (shard_notes == null) {
+                shard_notes = new LinkedHashMap<Integer, String>();
+                notes_by_shard.put(shard, shard_notes);
+            }
+            shard_notes.put(entry.getKey(), entry.getValue());
+        }
+
+        // Each shard's notes have been checked, so none of these will fail
+        for (Map.Entry<ContactManagerImpl, Map<Integer, String>> entry : notes_by_shard.entrySet()) {
+            entry.getKey().addMeetingNotes(entry.getValue());
+        }
+    }
+
+    /**
+     * Creates a contact with the next id and adds it to its home shard.
+     *
+     * @param name the contact's name.
+     * @param notes the contact's notes.
+     * @return the new contact's id.
+     */
+    private int addContact(String name, String notes) {
+        Contact contact = DIFactory.getInstance().newContact(++last_contact_id, name);
+
+        // Add notes to contact.  It will automatically remove whitespace.
+        contact.addNotes(notes);
+
+        contacts_by_id.put(contact.getId(), contact);
+        shards[getShardIndex(contact.getId())].addExistingContact(contact);
+        return contact.getId();
+    }
+
+    @Override
+    public void addNewContact(String name, String notes) {
+        if (name == null)
+            throw new NullPointerException("text is null");
+
+        if (notes == null)
+            throw new NullPointerException("notes is null");
+
+        addContact(name, notes);
+    }
+
+    @Override
+    public List<Integer> addNewContacts(List<String> names, List<String> notes) {
+        ContactManagerImpl.ensureSameSize(names, "names", notes, "notes");
+
+        // Check every contact before adding any of them
+        Iterator<String> notes_iterator = notes.iterator();
+        for (String name : names) {
+            if (name == null)
+                throw new NullPointerException("name is null");
+
+            if (notes_iterator.next() == null)
+                throw new NullPointerException("notes is null");
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(names.size());
+        notes_iterator = notes.iterator();
+        for (String name : names) {
+            ids.add(addContact(name, notes_iterator.next()));
+        }
+        return ids;
+    }
+
+    @Override
+    public Set<Contact> getContacts(int... ids) {
+        Set<Contact> contacts = new HashSet<Contact>();
+
+        for (int id : ids) {
+            Contact contact = contacts_by_id.get(id);
+
+            // Check that contact is known
+            if (contact == null)
+                throw new IllegalArgumentException("Contact with id " + id + " does not exist");
+
+            contacts.add(contact);
+        }
+
+        return contacts;
+    }
+
+    @Override
+    public Set<Contact> getContacts(final String name) {
+        if (name == null)
+            throw new NullPointerException("name is null");
+
+        // Only take each shard's home contacts, as guests are found in their own home shards
+        List<Set<Contact>> contact_sets = queryAll(new ShardQuery<Set<Contact>>() {
+            @Override
+            public Set<Contact> query(int shard_index, ContactManagerImpl shard) {
+                Set<Contact> home_contacts = new HashSet<Contact>();
+                for (Contact contact : shard.getContacts(name)) {
+                    if (getShardIndex(contact.getId()) == shard_index)
+                        home_contacts.add(contact);
+                }
+                return home_contacts;
+            }
+        });
+
+        Set<Contact> matching_contacts = new HashSet<Contact>();
+        for (Set<Contact> contact_set : contact_sets) {
+            matching_contacts.addAll(contact_set);
+        }
+        return matching_contacts;
+    }
+
+    @Override
+    public List<Integer> searchContactNotes(final String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        return InvertedIndex.rank(mergeHomeScores(queryAll(new ShardQuery<Map<Integer, Integer>>() {
+            @Override
+            public Map<Integer, Integer> query(int shard_index, ContactManagerImpl shard) {
+                return shard.getContactNoteScores(query);
+            }
+        })));
+    }
+
+    @Override
+    public List<Integer> searchMeetingNotes(final String query) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        List<Map<Integer, Integer>> shard_scores = queryAll(new ShardQuery<Map<Integer, Integer>>() {
+            @Override
+            public Map<Integer, Integer> query(int shard_index, ContactManagerImpl shard) {
+                return shard.getMeetingNoteScores(query);
+            }
+        });
+
+        // Each meeting is only in one shard, so the shards' scores never overlap
+        Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+        for (Map<Integer, Integer> scores_part : shard_scores) {
+            scores.putAll(scores_part);
+        }
+        return InvertedIndex.rank(scores);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A contact is ranked by its home shard, so only by the meetings stored there: those it
+     * attends as a guest in other shards aren't counted.
+     */
+    @Override
+    public List<Contact> autocompleteContacts(final String prefix, final int limit) {
+        if (prefix == null)
+            throw new NullPointerException("prefix is null");
+
+        if (limit < 0)
+            throw new IllegalArgumentException("limit " + limit + " is negative");
+
+        // Guests can take up some of a shard's results, so ask again for more until it's given
+        // 'limit' of its home contacts, or everything it has
+        final Map<Integer, Long> scores = mergeHomeScores(queryAll(new ShardQuery<Map<Integer, Long>>() {
+            @Override
+            public Map<Integer, Long> query(int shard_index, ContactManagerImpl shard) {
+                int shard_limit = limit;
+                while (true) {
+                    Map<Integer, Long> shard_scores = shard.getAutocompleteScores(prefix, shard_limit);
+                    int home_count = 0;
+                    for (int contact_id : shard_scores.keySet()) {
+                        if (getShardIndex(contact_id) == shard_index)
+                            home_count++;
+                    }
+
+                    if (home_count >= limit || shard_scores.size() < shard_limit)
+                        return shard_scores;
+                    shard_limit = (int) Math.min(Integer.MAX_VALUE, 2L * shard_limit);
+                }
+            }
+        }));
+
+        List<Integer> ranked = new ArrayList<Integer>(scores.keySet());
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int n = scores.get(o2).compareTo(scores.get(o1));
+                return n != 0 ? n : o1.compareTo(o2);
+            }
+        });
+
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int contact_id : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            contacts.add(contacts_by_id.get(contact_id));
+        }
+        return contacts;
+    }
+
+    @Override
+    public List<Contact> searchContactNames(final String query, final int max_distance) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        if (max_distance < 0)
+            throw new IllegalArgumentException("max_distance " + max_distance + " is negative");
+
+        Map<Integer, Integer> distances = mergeHomeScores(queryAll(new ShardQuery<Map<Integer, Integer>>() {
+            @Override
+            public Map<Integer, Integer> query(int shard_index, ContactManagerImpl shard) {
+                return shard.getContactNameDistances(query, max_distance);
+            }
+        }));
+
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int contact_id : ContactIndexes.rankByDistance(distances)) {
+            contacts.add(contacts_by_id.get(contact_id));
+        }
+        return contacts;
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAllOf(final Set<Contact> contacts) {
+        ContactManagerImpl.ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        // Only shards which have every one of the contacts can have meetings with all of them
+        return mergeByDate(queryAll(new ShardQuery<List<Meeting>>() {
+            @Override
+            public List<Meeting> query(int shard_index, ContactManagerImpl shard) {
+                for (Contact contact : contacts) {
+                    if (!shard.hasContact(contact.getId()))
+                        return Collections.emptyList();
+                }
+                return shard.getMeetingsWithAllOf(contacts);
+            }
+        }));
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAnyOf(final Set<Contact> contacts) {
+        ContactManagerImpl.ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        // Ask each shard about whichever of the contacts it has
+        return mergeByDate(queryAll(new ShardQuery<List<Meeting>>() {
+            @Override
+            public List<Meeting> query(int shard_index, ContactManagerImpl shard) {
+                Set<Contact> shard_contacts = new HashSet<Contact>();
+                for (Contact contact : contacts) {
+                    if (shard.hasContact(contact.getId()))
+                        shard_contacts.add(contact);
+                }
+
+                if (shard_contacts.isEmpty())
+                    return Collections.emptyList();
+                return shard.getMeetingsWithAnyOf(shard_contacts);
+            }
+        }));
+    }
+
+    @Override
+    public Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days) {
+        ContactManagerImpl.ensureQueryContactsAreKnown(contacts_by_id, contacts);
+
+        if (from == null)
+            throw new NullPointerException("from is null");
+
+        if (days < 1)
+            throw new IllegalArgumentException("The number of days " + days + " is less than 1");
+
+        // Split the contacts between the shards that have them
+        List<ContactManagerImpl> query_shards = new ArrayList<ContactManagerImpl>();
+        List<Set<Contact>> query_contacts = new ArrayList<Set<Contact>>();
+        for (ContactManagerImpl shard : shards) {
+            Set<Contact> shard_contacts = new HashSet<Contact>();
+            for (Contact contact : contacts) {
+                if (shard.hasContact(contact.getId()))
+                    shard_contacts.add(contact);
+            }
+
+            if (!shard_contacts.isEmpty()) {
+                query_shards.add(shard);
+                query_contacts.add(shard_contacts);
+            }
+        }
+
+        // Each shard's first free day is a lower bound, so ask each from the latest found so far,
+        // until they all agree on it
+        int first_day = CalendarUtil.getDayNumber(from);
+        Calendar free_date = from;
+        int free_day = first_day;
+        int agreed = 0;
+        for (int i = 0; agreed < query_shards.size(); i = (i + 1) % query_shards.size()) {
+            Calendar shard_free_date = query_shards.get(i).getFirstFreeDay(query_contacts.get(i), free_date,
+                    days - (free_day - first_day));
+            if (shard_free_date == null)
+                return null;
+
+            int shard_free_day = CalendarUtil.getDayNumber(shard_free_date);
+            agreed = shard_free_day == free_day ? agreed + 1 : 1;
+            free_date = shard_free_date;
+            free_day = shard_free_day;
+        }
+        return free_date;
+    }
+
+    /**
+     * Writes every shard to its file in parallel.  Once they've all been written, the files of
+     * any shards beyond the current number, which have been re-homed, are deleted.
+     */
+    @Override
+    public void flush() {
+        List<Callable<Boolean>> flush_tasks = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < shards.length; i++) {
+            final ContactManagerImpl shard = shards[i];
+            final String shard_filename = shard_filenames[i];
+            flush_tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        shard.writeToFile(false);
+                        return true;
+                    } catch (IOException e) {
+                        System.out.println("Error! Couldn't write to filename: " + shard_filename);
+                        e.printStackTrace();
+                        return false;
+                    }
+                }
+            });
+        }
+
+        // Only once every shard has been written are the extra shards' files no longer needed
+        if (runAll(flush_tasks).contains(false))
+            return;
+
+        for (Iterator<String> iterator = extra_shard_filenames.iterator(); iterator.hasNext(); ) {
+            String extra_filename = iterator.next();
+            File file = new File(extra_filename);
+            if (file.exists() && !file.delete()) {
+                System.out.println("Warning: couldn't delete old shard file " + file);
+                continue;
+            }
+            MeetingIndexFile.delete(extra_filename);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Stops the shards' threads, without flushing.  Flushing, and queries which go to every shard,
+     * throw IllegalStateException afterwards.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+}
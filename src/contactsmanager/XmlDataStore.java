@@ -1,6 +1,7 @@
 package contactsmanager;
 
 import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.NoteBuffer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -16,13 +17,20 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.util.*;
 
 /**
  * An implementation of DataStore that loads and saves data in xml files.
+ *
+ * As well as loading whole files, it can load just a file's contacts and leave its meetings
+ * to be parsed one record at a time (see 'loadContactsAndIndexMeetings').
  */
 public class XmlDataStore implements DataStore {
     private final Set<Contact> contacts = new HashSet<Contact>();
@@ -153,6 +161,20 @@ public class XmlDataStore implements DataStore {
         doc = doc_builder.parse(new File(filename));
     }
 
+    /**
+     * Parses the given xml and converts it to a Document object for further analysis.
+     *
+     * @param xml the xml, encoded in UTF-8.
+     * @throws ParserConfigurationException if the xml can't be parsed.
+     * @throws IOException if the xml can't be read.
+     * @throws SAXException if the xml can't be parsed.
+     */
+    private void loadXmlFromBytes(byte[] xml) throws ParserConfigurationException, IOException, SAXException {
+        DocumentBuilderFactory doc_factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder doc_builder = doc_factory.newDocumentBuilder();
+        doc = doc_builder.parse(new ByteArrayInputStream(xml));
+    }
+
     /**
      * Adds data under the given element.
      *
@@ -174,6 +196,30 @@ public class XmlDataStore implements DataStore {
         element.appendChild(data_element);
     }
 
+    /**
+     * Adds the notes in the given buffer under the given element, as a "notes" element.
+     *
+     * Each chunk of the notes is added as its own text node (with new lines between them),
+     * so the notes are never concatenated into a single string.  Adjacent text nodes are
+     * written out as one piece of text, so the resulting xml is the same as if they had been.
+     *
+     * @param notes the notes to add.
+     * @param element the element to add the notes under.
+     */
+    private void addNotesUnderElement(NoteBuffer notes, Element element) {
+        Element notes_element = doc.createElement("notes");
+
+        boolean first_chunk = true;
+        for (String chunk : notes.getChunks()) {
+            if (!first_chunk)
+                notes_element.appendChild(doc.createTextNode("\n"));
+            notes_element.appendChild(doc.createTextNode(chunk));
+            first_chunk = false;
+        }
+
+        element.appendChild(notes_element);
+    }
+
     /**
      * Retrieves data from under the given element.
      *
@@ -262,7 +308,11 @@ public class XmlDataStore implements DataStore {
 
             // Add contact data to this element
             addDataUnderElement("name", contact.getName(), contact_element);
-            addDataUnderElement("notes", contact.getNotes(), contact_element);
+            if (contact instanceof ContactImpl) {
+                addNotesUnderElement(((ContactImpl) contact).getNoteBuffer(), contact_element);
+            } else {
+                addDataUnderElement("notes", contact.getNotes(), contact_element);
+            }
 
             // Add contact id as attribute
             addIdToElement(contact.getId(), contact_element);
@@ -305,7 +355,11 @@ public class XmlDataStore implements DataStore {
             Element meeting_element = createElementFromMeeting(meeting);
 
             // Since this is a past meeting, we also need to add meeting notes
-            addDataUnderElement("notes", meeting.getNotes(), meeting_element);
+            if (meeting instanceof PastMeetingImpl) {
+                addNotesUnderElement(((PastMeetingImpl) meeting).getNoteBuffer(), meeting_element);
+            } else {
+                addDataUnderElement("notes", meeting.getNotes(), meeting_element);
+            }
 
             // Add element to top-level future meetings element
             past_meetings_root.appendChild(meeting_element);
@@ -371,10 +425,101 @@ public class XmlDataStore implements DataStore {
         }
     }
 
+    /**
+     * Loads only the contacts from the xml file at 'filename', and returns an index of the
+     * file's meetings which parses them as they're taken.  Only as much of the file as comes
+     * before the end of the contacts is read here.
+     *
+     * Any meetings in the store are cleared, and none are loaded into it.
+     *
+     * @param filename the name of the file to load.
+     * @return an index of the meetings in the file.
+     * @throws IOException if file cannot be read.
+     * @throws IllegalArgumentException if the contacts cannot be parsed, or don't come before the meetings.
+     */
+    XmlMeetingIndex loadContactsAndIndexMeetings(String filename) throws IOException {
+        // Clear data in this store
+        contacts.clear();
+        future_meetings.clear();
+        past_meetings.clear();
+
+        // Find where the contacts are in the file
+        long contacts_start = -1, contacts_end = -1;
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            XmlTagScanner scanner = new XmlTagScanner(in, 0);
+            while (contacts_end == -1 && scanner.next()) {
+                String name = scanner.getName();
+
+                if (name.equals("Contacts") && !scanner.isClosing()) {
+                    contacts_start = scanner.getTagStart();
+                    if (scanner.isSelfClosing())
+                        contacts_end = scanner.getTagEnd();
+                } else if (name.equals("Contacts")) {
+                    contacts_end = scanner.getTagEnd();
+                } else if (contacts_start == -1 && (name.equals("FutureMeetings") || name.equals("PastMeetings"))) {
+                    throw new IllegalArgumentException("Meetings come before contacts in " + filename);
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (contacts_end == -1)
+            throw new IllegalArgumentException("No contacts were found in " + filename);
+        if (contacts_end - contacts_start > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Contacts are too large to load from " + filename);
+
+        // Parse just the contacts
+        try {
+            loadXmlFromBytes(XmlTagScanner.readRange(filename, contacts_start, (int) (contacts_end - contacts_start)));
+            loadContacts();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalArgumentException("Xml file could not be parsed", e);
+        } catch (SAXException e) {
+            throw new IllegalArgumentException("Xml file could not be parsed", e);
+        }
+
+        return new XmlMeetingIndex(this, filename, contacts_end);
+    }
+
+    /**
+     * Parses a single meeting record (ie. one "meeting" element) from a file whose contacts
+     * were loaded with 'loadContactsAndIndexMeetings'.
+     *
+     * @param record the record's xml, encoded in UTF-8.
+     * @param past true if the record is of a past meeting, false if of a future meeting.
+     * @return the meeting.
+     * @throws IllegalArgumentException if the record cannot be parsed.
+     */
+    Meeting parseMeetingRecord(byte[] record, boolean past) {
+        try {
+            loadXmlFromBytes(record);
+
+            if (past) {
+                return newPastMeetingFromNode(doc.getDocumentElement());
+            } else {
+                return newFutureMeetingFromNode(doc.getDocumentElement());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Meeting could not be read", e);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalArgumentException("Meeting could not be parsed", e);
+        } catch (SAXException e) {
+            throw new IllegalArgumentException("Meeting could not be parsed", e);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Calendar date could not be parsed", e);
+        }
+    }
+
     /**
      * Returns contact objects from the given node that represents a meeting
      * (ie. returns the list of attendees for a given meeting).
      *
+     * Contact ids that don't belong to a loaded contact are given placeholder (nameless) contacts,
+     * so that the meeting can still be loaded here, and ContactManager can reject it as having
+     * unknown contacts.
+     *
      * @param meeting_node the node representing a meeting.
      * @return the contact objects who attended the meeting.
      */
@@ -391,7 +536,11 @@ public class XmlDataStore implements DataStore {
 
             if (contact_node.getNodeType() == Node.ELEMENT_NODE) {
                 int contact_id = getIdFromNode(contact_node);
-                meeting_contacts.add(contacts_by_id.get(contact_id));
+                Contact contact = contacts_by_id.get(contact_id);
+                if (contact == null)
+                    contact = DIFactory.getInstance().newContact(contact_id, "");
+
+                meeting_contacts.add(contact);
             }
         }
 
@@ -413,19 +562,31 @@ public class XmlDataStore implements DataStore {
              meeting_node = meeting_node.getNextSibling()) {
 
             if (meeting_node.getNodeType() == Node.ELEMENT_NODE) {
-                // Get contact id from attribute
-                int id = getIdFromNode(meeting_node);
-
-                // Get rest of contact data
-                Calendar date = CalendarUtil.getCalendarFromString(getDataUnderNode("date", meeting_node));
-                Set<Contact> meeting_contacts = getContactsFromMeetingNode(meeting_node);
-
-                // Create meeting object
-                future_meetings.add(DIFactory.getInstance().newFutureMeeting(id, date, meeting_contacts));
+                future_meetings.add(newFutureMeetingFromNode(meeting_node));
             }
         }
     }
 
+    /**
+     * Creates a future meeting from the given node that represents one.
+     *
+     * @param meeting_node the node representing the meeting.
+     * @return the meeting.
+     * @throws ParseException if the calendar date couldn't be parsed.
+     * @throws ParserConfigurationException if the xml couldn't be parsed.
+     */
+    private FutureMeeting newFutureMeetingFromNode(Node meeting_node) throws ParserConfigurationException, ParseException {
+        // Get contact id from attribute
+        int id = getIdFromNode(meeting_node);
+
+        // Get rest of contact data
+        Calendar date = CalendarUtil.getCalendarFromString(getDataUnderNode("date", meeting_node));
+        Set<Contact> meeting_contacts = getContactsFromMeetingNode(meeting_node);
+
+        // Create meeting object
+        return DIFactory.getInstance().newFutureMeeting(id, date, meeting_contacts);
+    }
+
     /**
      * Loads past meetings from the loaded xml file.
      *
@@ -441,20 +602,32 @@ public class XmlDataStore implements DataStore {
              meeting_node = meeting_node.getNextSibling()) {
 
             if (meeting_node.getNodeType() == Node.ELEMENT_NODE) {
-                // Get contact id from attribute
-                int id = getIdFromNode(meeting_node);
-
-                // Get rest of contact data
-                Calendar date = CalendarUtil.getCalendarFromString(getDataUnderNode("date", meeting_node));
-                String notes = getDataUnderNode("notes", meeting_node);
-                Set<Contact> meeting_contacts = getContactsFromMeetingNode(meeting_node);
-
-                // Create meeting object
-                past_meetings.add(DIFactory.getInstance().newPastMeeting(id, date, meeting_contacts, notes));
+                past_meetings.add(newPastMeetingFromNode(meeting_node));
             }
         }
     }
 
+    /**
+     * Creates a past meeting from the given node that represents one.
+     *
+     * @param meeting_node the node representing the meeting.
+     * @return the meeting.
+     * @throws ParseException if the calendar date couldn't be parsed.
+     * @throws ParserConfigurationException if the xml couldn't be parsed.
+     */
+    private PastMeeting newPastMeetingFromNode(Node meeting_node) throws ParseException, ParserConfigurationException {
+        // Get contact id from attribute
+        int id = getIdFromNode(meeting_node);
+
+        // Get rest of contact data
+        Calendar date = CalendarUtil.getCalendarFromString(getDataUnderNode("date", meeting_node));
+        String notes = getDataUnderNode("notes", meeting_node);
+        Set<Contact> meeting_contacts = getContactsFromMeetingNode(meeting_node);
+
+        // Create meeting object
+        return DIFactory.getInstance().newPastMeeting(id, date, meeting_contacts, notes);
+    }
+
     /**
      * Loads contacts from the loaded xml file.
      *
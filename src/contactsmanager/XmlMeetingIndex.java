@@ -0,0 +1,257 @@
+package contactsmanager;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MeetingSource over the meetings in an xml file written by XmlDataStore, which parses each
+ * meeting's record only when the meeting is taken.
+ *
+ * On first use, the file (from the end of its contacts) is scanned for meeting records, noting
+ * each one's position, length, id and contact ids, but not parsing dates or notes or creating
+ * any meetings.  Taking meetings then reads and parses just their records.  So nothing about
+ * the meetings is read until something needs them.
+ *
+ * The file must not change while meetings are still pending.  Records that can't be parsed
+ * are skipped with a warning; if the file can't be scanned, it's treated as having no meetings.
+ *
+ * This class is not thread-safe.
+ */
+class XmlMeetingIndex implements MeetingSource {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final XmlDataStore data_store;
+    private final String filename;
+    private final long meetings_start;
+    private boolean indexed = false;
+
+    // Each meeting record, in file order
+    private int record_count = 0;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private boolean[] past = new boolean[INITIAL_CAPACITY];
+    private boolean[] taken = new boolean[INITIAL_CAPACITY];
+
+    private final Map<Integer, List<Integer>> records_by_contact = new HashMap<Integer, List<Integer>>();
+    private final Map<Integer, List<Integer>> records_by_id = new HashMap<Integer, List<Integer>>();
+    private int last_meeting_id = -1;
+
+    /**
+     * Creates an index over the meetings in the given file.
+     *
+     * @param data_store the data store that loaded the file's contacts, which parses the meeting records.
+     * @param filename the file's name.
+     * @param meetings_start the position in the file after which the meetings are.
+     */
+    XmlMeetingIndex(XmlDataStore data_store, String filename, long meetings_start) {
+        this.data_store = data_store;
+        this.filename = filename;
+        this.meetings_start = meetings_start;
+    }
+
+    /**
+     * Scans the file for meeting records, if it hasn't been already.
+     */
+    private void ensureIndexed() {
+        if (indexed)
+            return;
+        indexed = true;
+
+        try {
+            scan();
+        } catch (IOException e) {
+            System.out.format("Couldn't index meetings in file '%s'%n", filename);
+            e.printStackTrace();
+            clear();
+            last_meeting_id = -1;
+        } catch (IllegalArgumentException e) {
+            System.out.format("Couldn't index meetings in file '%s'%n", filename);
+            e.printStackTrace();
+            clear();
+            last_meeting_id = -1;
+        }
+    }
+
+    private void scan() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            long skipped = 0;
+            while (skipped < meetings_start) {
+                long n = in.skip(meetings_start - skipped);
+                if (n <= 0)
+                    throw new IOException("File '" + filename + "' is shorter than expected");
+                skipped += n;
+            }
+
+            XmlTagScanner scanner = new XmlTagScanner(in, meetings_start);
+            String section = null;
+            long record_start = -1;
+            int record_id = -1;
+            List<Integer> record_contacts = new ArrayList<Integer>();
+
+            while (scanner.next()) {
+                String name = scanner.getName();
+
+                if (name.equals("FutureMeetings") || name.equals("PastMeetings")) {
+                    // Entering or leaving a section of meetings
+                    section = scanner.isClosing() || scanner.isSelfClosing() ? null : name;
+                } else if (name.equals("meeting") && section != null) {
+                    if (!scanner.isClosing()) {
+                        record_start = scanner.getTagStart();
+                        record_id = scanner.getId();
+                        record_contacts.clear();
+                    }
+
+                    if (scanner.isClosing() || scanner.isSelfClosing()) {
+                        addRecord(record_id, record_start, scanner.getTagEnd(),
+                                section.equals("PastMeetings"), record_contacts);
+                        record_start = -1;
+                    }
+                } else if (name.equals("contact") && record_start != -1 && !scanner.isClosing()) {
+                    record_contacts.add(scanner.getId());
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void addRecord(int id, long start, long end, boolean is_past, List<Integer> contact_ids) {
+        if (end - start > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Meeting '" + id + "' is too large to load");
+
+        if (record_count == ids.length) {
+            int new_capacity = record_count * 2;
+            ids = Arrays.copyOf(ids, new_capacity);
+            offsets = Arrays.copyOf(offsets, new_capacity);
+            lengths = Arrays.copyOf(lengths, new_capacity);
+            past = Arrays.copyOf(past, new_capacity);
+            taken = Arrays.copyOf(taken, new_capacity);
+        }
+
+        int record = record_count++;
+        ids[record] = id;
+        offsets[record] = start;
+        lengths[record] = (int) (end - start);
+        past[record] = is_past;
+
+        getRecordList(records_by_id, id).add(record);
+        for (int contact_id : contact_ids) {
+            getRecordList(records_by_contact, contact_id).add(record);
+        }
+
+        last_meeting_id = Math.max(last_meeting_id, id);
+    }
+
+    private static List<Integer> getRecordList(Map<Integer, List<Integer>> records_by_key, int key) {
+        List<Integer> records = records_by_key.get(key);
+        if (records == null) {
+            records = new ArrayList<Integer>(2);
+            records_by_key.put(key, records);
+        }
+        return records;
+    }
+
+    /**
+     * Drops every record (but not 'last_meeting_id').
+     */
+    private void clear() {
+        record_count = 0;
+        records_by_contact.clear();
+        records_by_id.clear();
+    }
+
+    @Override
+    public int getLastMeetingId() {
+        ensureIndexed();
+        return last_meeting_id;
+    }
+
+    @Override
+    public List<Meeting> takeMeetingsWithContact(int contact_id) {
+        ensureIndexed();
+        return take(records_by_contact.remove(contact_id));
+    }
+
+    @Override
+    public List<Meeting> takeMeetingsWithId(int id) {
+        ensureIndexed();
+        return take(records_by_id.remove(id));
+    }
+
+    @Override
+    public List<Meeting> takeAll() {
+        ensureIndexed();
+
+        List<Integer> records = new ArrayList<Integer>();
+        for (int record = 0; record < record_count; record++) {
+            records.add(record);
+        }
+
+        List<Meeting> meetings = take(records);
+
+        // Nothing is left pending, so the index can be dropped
+        clear();
+        return meetings;
+    }
+
+    /**
+     * Reads and parses the given records, skipping any that have already been taken.
+     *
+     * @param records the records to take (maybe null).
+     * @return the meetings in the records.
+     */
+    private List<Meeting> take(List<Integer> records) {
+        List<Meeting> meetings = new ArrayList<Meeting>();
+        if (records == null || records.isEmpty())
+            return meetings;
+
+        // Read the records in file order, so the reads only ever seek forwards
+        Collections.sort(records);
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(filename, "r");
+
+            for (int record : records) {
+                if (taken[record])
+                    continue;
+                taken[record] = true;
+
+                try {
+                    byte[] bytes = new byte[lengths[record]];
+                    file.seek(offsets[record]);
+                    file.readFully(bytes);
+
+                    meetings.add(data_store.parseMeetingRecord(bytes, past[record]));
+                } catch (IllegalArgumentException err) {
+                    System.out.format("Couldn't load meeting '%d' from file '%s'%n", ids[record], filename);
+                    err.printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            System.out.format("Couldn't load meetings from file '%s'%n", filename);
+            e.printStackTrace();
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return meetings;
+    }
+}
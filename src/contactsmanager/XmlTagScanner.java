@@ -0,0 +1,215 @@
+package contactsmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * A minimal forward-only scanner over the tags of an xml file, which reports each tag's name,
+ * kind and position (in bytes) without parsing the document.
+ *
+ * It relies on '<' only ever starting markup, which holds for xml written by XmlDataStore
+ * (text and attribute values have '<' escaped).  Comments, processing instructions and
+ * declarations are skipped.  Text between tags is skipped without being decoded.
+ */
+class XmlTagScanner {
+    private final InputStream in;
+    private long position;
+
+    private final ByteArrayOutputStream tag = new ByteArrayOutputStream();
+    private long tag_start = -1;
+    private long tag_end = -1;
+    private String name = null;
+    private boolean closing = false;
+    private boolean self_closing = false;
+
+    /**
+     * Creates a scanner reading from the given stream.
+     *
+     * @param in the stream to read from (which should be buffered).
+     * @param start_position the position in the file that the stream starts at.
+     */
+    XmlTagScanner(InputStream in, long start_position) {
+        this.in = in;
+        this.position = start_position;
+    }
+
+    /**
+     * Moves on to the next tag.
+     *
+     * @return false if there are no more tags.
+     * @throws IOException if the stream can't be read.
+     * @throws IllegalArgumentException if the stream ends part way through a tag.
+     */
+    boolean next() throws IOException {
+        while (true) {
+            // Skip to the next '<'
+            int b;
+            do {
+                b = read();
+                if (b == -1)
+                    return false;
+            } while (b != '<');
+
+            tag_start = position - 1;
+            tag.reset();
+            tag.write('<');
+            readTagUntil('>');
+
+            byte[] bytes = tag.toByteArray();
+            if (startsWith(bytes, "<!--")) {
+                // A comment may contain '>', so keep going until the end of the comment
+                while (!endsWith(tag.toByteArray(), "-->")) {
+                    readTagUntil('>');
+                }
+                continue;
+            } else if (bytes.length > 1 && (bytes[1] == '?' || bytes[1] == '!')) {
+                continue;
+            }
+
+            tag_end = position;
+            closing = bytes[1] == '/';
+            self_closing = bytes[bytes.length - 2] == '/';
+
+            int name_start = closing ? 2 : 1;
+            int name_end = name_start;
+            while (name_end < bytes.length && isNameByte(bytes[name_end])) {
+                name_end++;
+            }
+            name = new String(bytes, name_start, name_end - name_start, "US-ASCII");
+
+            return true;
+        }
+    }
+
+    /**
+     * Appends bytes to 'tag' up to and including the given terminator.
+     */
+    private void readTagUntil(char terminator) throws IOException {
+        int b;
+        do {
+            b = read();
+            if (b == -1)
+                throw new IllegalArgumentException("Xml ended part way through a tag at byte " + tag_start);
+            tag.write(b);
+        } while (b != terminator);
+    }
+
+    private int read() throws IOException {
+        int b = in.read();
+        if (b != -1)
+            position++;
+        return b;
+    }
+
+    private static boolean isNameByte(byte b) {
+        return b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != '/' && b != '>';
+    }
+
+    private static boolean startsWith(byte[] bytes, String prefix) {
+        if (bytes.length < prefix.length())
+            return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean endsWith(byte[] bytes, String suffix) {
+        if (bytes.length < suffix.length())
+            return false;
+
+        int offset = bytes.length - suffix.length();
+        for (int i = 0; i < suffix.length(); i++) {
+            if (bytes[offset + i] != suffix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the current tag's name (eg. "meeting" for both "<meeting id="1">" and "</meeting>").
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if the current tag is an end tag (eg. "</meeting>").
+     */
+    boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * @return true if the current tag is an empty-element tag (eg. "<contact id="1"/>").
+     */
+    boolean isSelfClosing() {
+        return self_closing;
+    }
+
+    /**
+     * @return the position of the current tag's '<'.
+     */
+    long getTagStart() {
+        return tag_start;
+    }
+
+    /**
+     * @return the position just after the current tag's '>'.
+     */
+    long getTagEnd() {
+        return tag_end;
+    }
+
+    /**
+     * Returns the value of the current tag's "id" attribute.
+     *
+     * @return the id.
+     * @throws IllegalArgumentException if the tag has no id, or the id isn't an integer.
+     */
+    int getId() {
+        String text;
+        try {
+            text = tag.toString("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int index = text.indexOf(" id=");
+        if (index == -1)
+            throw new IllegalArgumentException("No id in tag " + text);
+
+        char quote = text.charAt(index + 4);
+        int value_end = text.indexOf(quote, index + 5);
+        if (value_end == -1)
+            throw new IllegalArgumentException("Malformed id in tag " + text);
+
+        // Throws NumberFormatException (an IllegalArgumentException) if the id isn't an integer
+        return Integer.valueOf(text.substring(index + 5, value_end));
+    }
+
+    /**
+     * Reads the given range of bytes from the file at 'filename'.
+     *
+     * @param filename the file to read.
+     * @param offset the position of the first byte.
+     * @param length the number of bytes.
+     * @return the bytes.
+     * @throws IOException if the file can't be read, or is shorter than expected.
+     */
+    static byte[] readRange(String filename, long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            file.seek(offset);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,496 @@
+package contactsmanager.remote;
+
+import contactsmanager.Contact;
+import contactsmanager.ContactManager;
+import contactsmanager.DIFactory;
+import contactsmanager.remote.Protocol.Request;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * A server which exposes a ContactManager over the network, to RemoteContactManager clients.
+ *
+ * All connections are served by a single thread using a java.nio Selector, so thousands of
+ * (mostly idle) connections cost a socket and a couple of buffers each rather than a thread each.
+ * The same thread calls the manager, so the manager never sees concurrent calls and needn't be
+ * thread-safe.  Each connection's requests are answered in order, and a client may pipeline
+ * requests (send more before the earlier ones are answered); every complete request that has
+ * arrived is handled before the responses are written back together.
+ *
+ * A connection whose client isn't reading its responses stops being read from once too many
+ * responses are waiting to be written, so one slow client can't make the server buffer without
+ * limit.  A connection that sends a malformed frame is closed.  Anything the manager throws,
+ * including an Error, is sent back as an error response, and the server carries on.
+ *
+ * The server can also be run on its own (see 'main'), serving a ContactManager created by DIFactory.
+ */
+public class ContactManagerServer implements Closeable {
+    /** The port that 'main' listens on, unless another is given. */
+    public static final int DEFAULT_PORT = 7733;
+    private static final String DEFAULT_FILENAME = "contacts.txt";
+    private static final int BACKLOG = 4096;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    // Stop reading from a connection while more than this many bytes of responses are waiting for it
+    private static final int MAX_PENDING_OUTPUT = 4 * 1024 * 1024;
+
+    private final ContactManager manager;
+    private final InetSocketAddress address;
+    private Selector selector;
+    private ServerSocketChannel server_channel;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * The state of one client's connection.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        // Bytes read but not yet handled, ready to be written to
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        // Responses not yet (fully) written, in order
+        private final Deque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+        private long output_bytes = 0;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Creates a server for the given manager, which will listen on the given port of the loopback
+     * interface once started.
+     *
+     * @param manager the manager to serve.
+     * @param port the port to listen on, or 0 for any free port.
+     */
+    public ContactManagerServer(ContactManager manager, int port) {
+        this(manager, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Creates a server for the given manager, which will listen on the given address once started.
+     *
+     * @param manager the manager to serve.
+     * @param address the address to listen on.
+     */
+    public ContactManagerServer(ContactManager manager, InetSocketAddress address) {
+        if (manager == null)
+            throw new NullPointerException("manager is null");
+
+        if (address == null)
+            throw new NullPointerException("address is null");
+
+        this.manager = manager;
+        this.address = address;
+    }
+
+    /**
+     * Starts listening, and serving connections on a new thread.
+     *
+     * @throws IOException if the server can't listen on its address.
+     * @throws IllegalStateException if the server has already been started.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null)
+            throw new IllegalStateException("Server has already been started");
+
+        selector = Selector.open();
+        server_channel = ServerSocketChannel.open();
+        server_channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server_channel.bind(address, BACKLOG);
+        server_channel.configureBlocking(false);
+        server_channel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "contact-manager-server");
+        thread.start();
+    }
+
+    /**
+     * @return the port the server is listening on (which is useful if it was started on port 0).
+     * @throws IllegalStateException if the server hasn't been started.
+     */
+    public synchronized int getPort() {
+        if (server_channel == null)
+            throw new IllegalStateException("Server hasn't been started");
+
+        return server_channel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops the server, closing every connection, and waits for its thread to finish.  Once this
+     * returns, the manager won't be called again, so it's safe to flush it.
+     */
+    @Override
+    public synchronized void close() {
+        if (thread == null || !running)
+            return;
+
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        } else if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable())
+                                read(key, connection);
+                            if (key.isValid() && key.isWritable())
+                                write(key, connection);
+                        }
+                    } catch (IOException e) {
+                        if (key.channel() == server_channel) {
+                            // Eg. out of file descriptors; keep listening, as connections may close
+                            e.printStackTrace();
+                        } else {
+                            // Only this connection is affected, so carry on serving the rest
+                            closeConnection(key);
+                        }
+                    } catch (RuntimeException err) {
+                        // A bug in handling one connection mustn't stop the server serving the rest
+                        err.printStackTrace();
+                        if (key.channel() != server_channel)
+                            closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error! Contact manager server stopped");
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server_channel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+        }
+    }
+
+    private void read(SelectionKey key, Connection connection) throws IOException {
+        if (connection.channel.read(connection.input) == -1) {
+            closeConnection(key);
+            return;
+        }
+
+        handleFrames(connection);
+        write(key, connection);
+    }
+
+    /**
+     * Handles every complete frame that has been read, until too many responses are waiting to
+     * be written (in which case the rest are left until some have been).
+     */
+    private void handleFrames(Connection connection) throws IOException {
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (input.remaining() >= 4 && connection.output_bytes <= MAX_PENDING_OUTPUT) {
+            int length = readFrameLength(input, input.position());
+            if (input.remaining() < 4 + length)
+                break;
+
+            byte[] frame = new byte[length];
+            input.position(input.position() + 4);
+            input.get(frame);
+
+            byte[] response = handle(frame);
+            connection.output.add(ByteBuffer.wrap(response));
+            connection.output_bytes += response.length;
+        }
+        input.compact();
+
+        // Make room for the rest of a large frame
+        if (input.position() >= 4) {
+            long needed = 4L + readFrameLength(input, 0);
+            if (needed > input.capacity()) {
+                ByteBuffer larger;
+                try {
+                    larger = ByteBuffer.allocate((int) needed);
+                } catch (OutOfMemoryError e) {
+                    // Drop just this connection, rather than stopping the server
+                    throw new IOException("Not enough memory for a frame of " + needed + " bytes", e);
+                }
+                input.flip();
+                larger.put(input);
+                connection.input = larger;
+            }
+        }
+    }
+
+    /**
+     * Reads a frame's length, checking that it's one the protocol allows.
+     *
+     * @param input the buffer the frame is in.
+     * @param index the index of the frame's length in the buffer.
+     * @return the frame's length (after the length itself).
+     * @throws IOException if the length is malformed.
+     */
+    private static int readFrameLength(ByteBuffer input, int index) throws IOException {
+        int length = input.getInt(index);
+        if (length < Protocol.HEADER_LENGTH || length > Protocol.MAX_FRAME_LENGTH)
+            throw new IOException("Malformed frame length " + length);
+        return length;
+    }
+
+    private void write(SelectionKey key, Connection connection) throws IOException {
+        writeResponses(connection);
+
+        // Once enough responses have been written, carry on with any frames that were left waiting
+        if (connection.output_bytes <= MAX_PENDING_OUTPUT && connection.input.position() > 0) {
+            handleFrames(connection);
+            writeResponses(connection);
+        }
+
+        int interest = 0;
+        if (connection.output_bytes <= MAX_PENDING_OUTPUT)
+            interest |= SelectionKey.OP_READ;
+        if (!connection.output.isEmpty())
+            interest |= SelectionKey.OP_WRITE;
+        key.interestOps(interest);
+    }
+
+    private void writeResponses(Connection connection) throws IOException {
+        while (!connection.output.isEmpty()) {
+            ByteBuffer response = connection.output.peek();
+            connection.output_bytes -= connection.channel.write(response);
+            if (response.hasRemaining())
+                break;
+            connection.output.poll();
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handles one request frame, returning its response frame.
+     *
+     * @param frame the request frame (after its length).
+     * @return the response frame (including its length).
+     * @throws IOException if the request's arguments are malformed.
+     */
+    private byte[] handle(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        int request_id = in.readInt();
+        int code = in.readUnsignedByte();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Leave room for the header, which is filled in once the payload's length is known
+        out.writeInt(0);
+        out.writeInt(request_id);
+        out.writeByte(Protocol.STATUS_OK);
+
+        try {
+            dispatch(Request.fromCode(code), in, out);
+        } catch (IOException e) {
+            // The request is malformed, so the connection is closed
+            throw e;
+        } catch (Throwable err) {
+            // Including Errors (eg. a StackOverflowError in the manager), which must not stop the
+            // server.  Throw away any partly-written result, and send the error instead
+            bytes.reset();
+            out.writeInt(0);
+            out.writeInt(request_id);
+            out.writeByte(Protocol.getErrorStatus(err));
+            Protocol.writeString(out, String.valueOf(err.getMessage()), "message");
+        }
+
+        out.flush();
+        ByteBuffer response = ByteBuffer.wrap(bytes.toByteArray());
+        response.putInt(0, response.capacity() - 4);
+        return response.array();
+    }
+
+    /**
+     * Reads a request's arguments, calls the manager and writes its result.
+     */
+    private void dispatch(Request request, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (request) {
+            case ADD_FUTURE_MEETING: {
+                Set<Contact> contacts = Protocol.readContacts(in);
+                out.writeInt(manager.addFutureMeeting(contacts, Protocol.readCalendar(in)));
+                break;
+            }
+            case ADD_FUTURE_MEETINGS: {
+                List<Set<Contact>> contacts = Protocol.readContactSets(in);
+                Protocol.writeInts(out, manager.addFutureMeetings(contacts, Protocol.readCalendars(in)));
+                break;
+            }
+            case GET_PAST_MEETING:
+                Protocol.writeMeeting(out, manager.getPastMeeting(in.readInt()));
+                break;
+            case GET_FUTURE_MEETING:
+                Protocol.writeMeeting(out, manager.getFutureMeeting(in.readInt()));
+                break;
+            case GET_MEETING:
+                Protocol.writeMeeting(out, manager.getMeeting(in.readInt()));
+                break;
+            case GET_FUTURE_MEETING_LIST_BY_CONTACT:
+                Protocol.writeMeetings(out, manager.getFutureMeetingList(Protocol.readContact(in)));
+                break;
+            case GET_FUTURE_MEETING_LIST_BY_DATE:
+                Protocol.writeMeetings(out, manager.getFutureMeetingList(Protocol.readCalendar(in)));
+                break;
+            case GET_PAST_MEETING_LIST:
+                Protocol.writeMeetings(out, manager.getPastMeetingList(Protocol.readContact(in)));
+                break;
+            case ADD_NEW_PAST_MEETING: {
+                Set<Contact> contacts = Protocol.readContacts(in);
+                Calendar date = Protocol.readCalendar(in);
+                manager.addNewPastMeeting(contacts, date, Protocol.readString(in));
+                break;
+            }
+            case ADD_NEW_PAST_MEETINGS: {
+                List<Set<Contact>> contacts = Protocol.readContactSets(in);
+                List<Calendar> dates = Protocol.readCalendars(in);
+                Protocol.writeInts(out, manager.addNewPastMeetings(contacts, dates, Protocol.readStrings(in)));
+                break;
+            }
+            case ADD_MEETING_NOTES: {
+                int id = in.readInt();
+                manager.addMeetingNotes(id, Protocol.readString(in));
+                break;
+            }
+            case ADD_MEETING_NOTES_BATCH:
+                manager.addMeetingNotes(Protocol.readNotesById(in));
+                break;
+            case ADD_NEW_CONTACT: {
+                String name = Protocol.readString(in);
+                manager.addNewContact(name, Protocol.readString(in));
+                break;
+            }
+            case ADD_NEW_CONTACTS: {
+                List<String> names = Protocol.readStrings(in);
+                Protocol.writeInts(out, manager.addNewContacts(names, Protocol.readStrings(in)));
+                break;
+            }
+            case GET_CONTACTS_BY_ID:
+                Protocol.writeContacts(out, manager.getContacts(Protocol.readIntArray(in)), "contacts");
+                break;
+            case GET_CONTACTS_BY_NAME:
+                Protocol.writeContacts(out, manager.getContacts(Protocol.readString(in)), "contacts");
+                break;
+            case SEARCH_CONTACT_NOTES:
+                Protocol.writeInts(out, manager.searchContactNotes(Protocol.readString(in)));
+                break;
+            case SEARCH_MEETING_NOTES:
+                Protocol.writeInts(out, manager.searchMeetingNotes(Protocol.readString(in)));
+                break;
+            case GET_MEETINGS_WITH_ALL_OF:
+                Protocol.writeMeetings(out, manager.getMeetingsWithAllOf(Protocol.readContacts(in)));
+                break;
+            case GET_MEETINGS_WITH_ANY_OF:
+                Protocol.writeMeetings(out, manager.getMeetingsWithAnyOf(Protocol.readContacts(in)));
+                break;
+            case FLUSH:
+                manager.flush();
+                break;
+            case AUTOCOMPLETE_CONTACTS: {
+                String prefix = Protocol.readString(in);
+                Protocol.writeContacts(out, manager.autocompleteContacts(prefix, in.readInt()), "contacts");
+                break;
+            }
+            case SEARCH_CONTACT_NAMES: {
+                String query = Protocol.readString(in);
+                Protocol.writeContacts(out, manager.searchContactNames(query, in.readInt()), "contacts");
+                break;
+            }
+            case ADD_RECURRING_MEETING: {
+                Set<Contact> contacts = Protocol.readContacts(in);
+                Calendar first_date = Protocol.readCalendar(in);
+                int interval_days = in.readInt();
+                out.writeInt(manager.addRecurringMeeting(contacts, first_date, interval_days, in.readInt()));
+                break;
+            }
+            case ADD_RECURRING_MEETING_UNTIL: {
+                Set<Contact> contacts = Protocol.readContacts(in);
+                Calendar first_date = Protocol.readCalendar(in);
+                int interval_days = in.readInt();
+                out.writeInt(manager.addRecurringMeeting(contacts, first_date, interval_days, Protocol.readCalendar(in)));
+                break;
+            }
+            case GET_FIRST_FREE_DAY: {
+                Set<Contact> contacts = Protocol.readContacts(in);
+                Calendar from = Protocol.readCalendar(in);
+                Protocol.writeNullableCalendar(out, manager.getFirstFreeDay(contacts, from, in.readInt()));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported request " + request);
+        }
+    }
+
+    /**
+     * Runs a standalone server, until the process is stopped.  The manager is flushed when
+     * the server stops.
+     *
+     * @param args optionally the port to listen on, then the file to store contacts in.
+     * @throws IOException if the server can't listen on the port.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String filename = args.length > 1 ? args[1] : DEFAULT_FILENAME;
+
+        final ContactManager manager = DIFactory.getInstance().newContactManager(filename);
+        final ContactManagerServer server = new ContactManagerServer(manager, port);
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.close();
+                manager.flush();
+            }
+        });
+
+        System.out.format("Serving contacts from '%s' on port %d%n", filename, server.getPort());
+    }
+}
@@ -0,0 +1,481 @@
+package contactsmanager.remote;
+
+import contactsmanager.Contact;
+import contactsmanager.DIFactory;
+import contactsmanager.FutureMeeting;
+import contactsmanager.Meeting;
+import contactsmanager.PastMeeting;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The binary protocol spoken between ContactManagerServer and RemoteContactManager.
+ *
+ * Every message is a frame: a 4-byte length (of the rest of the frame), a 4-byte request id, and
+ * a 1-byte code, followed by the payload.  In a request the code is the Request's ordinal; in a
+ * response it's one of the STATUS_ codes, and the response has the same request id as its
+ * request.  A client may send any number of requests without waiting for their responses; the
+ * server answers each connection's requests in the order they were sent.
+ *
+ * Payloads are the method's arguments (or result) in order, with no type information beyond what
+ * the request implies: ints and longs are big-endian, strings are a length then UTF-8 bytes,
+ * collections are a count then their items, dates are milliseconds since the epoch then a time
+ * zone id, and meetings start with a tag byte saying whether they're null, future or past.
+ * A contact is its id, name and notes; but a meeting's contacts are only ids, which refer to the
+ * attendees written (each once) ahead of the meeting, or of the list of meetings.  So a contact in
+ * many meetings has its notes sent once per response rather than once per meeting.  (Contacts in
+ * requests are always sent whole, as the server checks that each is known by comparing its name and
+ * notes as well as its id.)
+ * A date that may be null (eg. 'getFirstFreeDay's result) starts with a boolean saying whether
+ * it's there.
+ * An error response's payload is the message of the exception that the server's manager threw.
+ */
+final class Protocol {
+    /**
+     * The ContactManager methods that can be requested.
+     */
+    enum Request {
+        ADD_FUTURE_MEETING,
+        ADD_FUTURE_MEETINGS,
+        GET_PAST_MEETING,
+        GET_FUTURE_MEETING,
+        GET_MEETING,
+        GET_FUTURE_MEETING_LIST_BY_CONTACT,
+        GET_FUTURE_MEETING_LIST_BY_DATE,
+        GET_PAST_MEETING_LIST,
+        ADD_NEW_PAST_MEETING,
+        ADD_NEW_PAST_MEETINGS,
+        ADD_MEETING_NOTES,
+        ADD_MEETING_NOTES_BATCH,
+        ADD_NEW_CONTACT,
+        ADD_NEW_CONTACTS,
+        GET_CONTACTS_BY_ID,
+        GET_CONTACTS_BY_NAME,
+        SEARCH_CONTACT_NOTES,
+        SEARCH_MEETING_NOTES,
+        GET_MEETINGS_WITH_ALL_OF,
+        GET_MEETINGS_WITH_ANY_OF,
+        FLUSH,
+        AUTOCOMPLETE_CONTACTS,
+        SEARCH_CONTACT_NAMES,
+        ADD_RECURRING_MEETING,
+        ADD_RECURRING_MEETING_UNTIL,
+        GET_FIRST_FREE_DAY;
+
+        private static final Request[] values = values();
+
+        /**
+         * @param code a request's code, as sent on the wire.
+         * @return the request with that code.
+         * @throws IllegalArgumentException if there's no such request.
+         */
+        static Request fromCode(int code) {
+            if (code < 0 || code >= values.length)
+                throw new IllegalArgumentException("Unknown request code " + code);
+            return values[code];
+        }
+    }
+
+    /** The bytes in a frame's header after its length: the request id and the code. */
+    static final int HEADER_LENGTH = 5;
+    /** The largest frame (after its length) that either side will accept. */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NULL_POINTER = 1;
+    static final byte STATUS_ILLEGAL_ARGUMENT = 2;
+    static final byte STATUS_ILLEGAL_STATE = 3;
+    static final byte STATUS_SERVER_ERROR = 4;
+
+    private static final byte MEETING_NULL = 0;
+    private static final byte MEETING_FUTURE = 1;
+    private static final byte MEETING_PAST = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Protocol() {
+    }
+
+    /**
+     * Returns the status code for an exception (or error) thrown by the server's manager.
+     *
+     * @param err the exception.
+     * @return the status to respond with.
+     */
+    static byte getErrorStatus(Throwable err) {
+        if (err instanceof NullPointerException) {
+            return STATUS_NULL_POINTER;
+        } else if (err instanceof IllegalArgumentException) {
+            return STATUS_ILLEGAL_ARGUMENT;
+        } else if (err instanceof IllegalStateException) {
+            return STATUS_ILLEGAL_STATE;
+        } else {
+            return STATUS_SERVER_ERROR;
+        }
+    }
+
+    /**
+     * Returns the exception to throw on the client for an error response.
+     *
+     * @param status the response's status.
+     * @param message the response's message.
+     * @return the exception.
+     */
+    static RuntimeException newErrorException(byte status, String message) {
+        switch (status) {
+            case STATUS_NULL_POINTER:
+                return new NullPointerException(message);
+            case STATUS_ILLEGAL_ARGUMENT:
+                return new IllegalArgumentException(message);
+            case STATUS_ILLEGAL_STATE:
+                return new IllegalStateException(message);
+            default:
+                return new IllegalStateException("Server error: " + message);
+        }
+    }
+
+    /**
+     * Checks that a value about to be written isn't null, as nulls can't be sent.
+     *
+     * @throws NullPointerException if value is null.
+     */
+    private static void ensureNotNull(Object value, String name) {
+        if (value == null)
+            throw new NullPointerException(name + " is null");
+    }
+
+    static void writeString(DataOutputStream out, String value, String name) throws IOException {
+        ensureNotNull(value, name);
+
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads a count of items or bytes, checking it's sensible before anything is allocated for it.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_FRAME_LENGTH)
+            throw new IOException("Malformed count " + count);
+        return count;
+    }
+
+    static void writeCalendar(DataOutputStream out, Calendar date, String name) throws IOException {
+        ensureNotNull(date, name);
+
+        out.writeLong(date.getTimeInMillis());
+        writeString(out, date.getTimeZone().getID(), "time zone");
+    }
+
+    static Calendar readCalendar(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        Calendar date = Calendar.getInstance(TimeZone.getTimeZone(readString(in)));
+        date.setTimeInMillis(millis);
+        return date;
+    }
+
+    static void writeNullableCalendar(DataOutputStream out, Calendar date) throws IOException {
+        out.writeBoolean(date != null);
+        if (date != null)
+            writeCalendar(out, date, "date");
+    }
+
+    static Calendar readNullableCalendar(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readCalendar(in) : null;
+    }
+
+    static void writeContact(DataOutputStream out, Contact contact, String name) throws IOException {
+        ensureNotNull(contact, name);
+
+        out.writeInt(contact.getId());
+        writeString(out, contact.getName(), "contact name");
+        writeString(out, contact.getNotes(), "contact notes");
+    }
+
+    static Contact readContact(DataInputStream in) throws IOException {
+        Contact contact = DIFactory.getInstance().newContact(in.readInt(), readString(in));
+
+        String notes = readString(in);
+        if (!notes.isEmpty())
+            contact.addNotes(notes);
+        return contact;
+    }
+
+    static void writeContacts(DataOutputStream out, Collection<Contact> contacts, String name) throws IOException {
+        ensureNotNull(contacts, name);
+
+        out.writeInt(contacts.size());
+        for (Contact contact : contacts) {
+            writeContact(out, contact, "contact");
+        }
+    }
+
+    static Set<Contact> readContacts(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        Set<Contact> contacts = new HashSet<Contact>();
+        for (int i = 0; i < count; i++) {
+            contacts.add(readContact(in));
+        }
+        return contacts;
+    }
+
+    static List<Contact> readContactList(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int i = 0; i < count; i++) {
+            contacts.add(readContact(in));
+        }
+        return contacts;
+    }
+
+    /**
+     * Writes every contact attending the given meetings, once each, so that the meetings can refer
+     * to them by id.
+     */
+    private static void writeAttendees(DataOutputStream out, Collection<? extends Meeting> meetings) throws IOException {
+        Map<Integer, Contact> attendees = new LinkedHashMap<Integer, Contact>();
+        for (Meeting meeting : meetings) {
+            if (meeting != null) {
+                for (Contact contact : meeting.getContacts()) {
+                    attendees.put(contact.getId(), contact);
+                }
+            }
+        }
+        writeContacts(out, attendees.values(), "attendees");
+    }
+
+    /**
+     * Reads the contacts written by 'writeAttendees', keyed by id.
+     */
+    private static Map<Integer, Contact> readAttendees(DataInputStream in) throws IOException {
+        Map<Integer, Contact> attendees = new HashMap<Integer, Contact>();
+        for (Contact contact : readContactList(in)) {
+            attendees.put(contact.getId(), contact);
+        }
+        return attendees;
+    }
+
+    /**
+     * Writes a meeting whose attendees have already been written, with only its contacts' ids.
+     */
+    private static void writeMeetingBody(DataOutputStream out, Meeting meeting) throws IOException {
+        if (meeting == null) {
+            out.writeByte(MEETING_NULL);
+            return;
+        }
+
+        out.writeByte(meeting instanceof PastMeeting ? MEETING_PAST : MEETING_FUTURE);
+        out.writeInt(meeting.getId());
+        writeCalendar(out, meeting.getDate(), "meeting date");
+        Set<Contact> contacts = meeting.getContacts();
+        out.writeInt(contacts.size());
+        for (Contact contact : contacts) {
+            out.writeInt(contact.getId());
+        }
+        if (meeting instanceof PastMeeting)
+            writeString(out, ((PastMeeting) meeting).getNotes(), "meeting notes");
+    }
+
+    /**
+     * Reads a meeting written by 'writeMeetingBody', resolving its contacts' ids to the given attendees.
+     */
+    private static Meeting readMeetingBody(DataInputStream in, Map<Integer, Contact> attendees) throws IOException {
+        byte tag = in.readByte();
+        if (tag == MEETING_NULL)
+            return null;
+
+        int id = in.readInt();
+        Calendar date = readCalendar(in);
+        int count = readCount(in);
+        Set<Contact> contacts = new HashSet<Contact>();
+        for (int i = 0; i < count; i++) {
+            int contact_id = in.readInt();
+            Contact contact = attendees.get(contact_id);
+            if (contact == null)
+                throw new IOException("Meeting " + id + " has unknown attendee " + contact_id);
+            contacts.add(contact);
+        }
+
+        if (tag == MEETING_PAST) {
+            return DIFactory.getInstance().newPastMeeting(id, date, contacts, readString(in));
+        } else if (tag == MEETING_FUTURE) {
+            return DIFactory.getInstance().newFutureMeeting(id, date, contacts);
+        } else {
+            throw new IOException("Malformed meeting tag " + tag);
+        }
+    }
+
+    private static PastMeeting toPastMeeting(Meeting meeting) throws IOException {
+        if (meeting != null && !(meeting instanceof PastMeeting))
+            throw new IOException("Expected a past meeting, not meeting " + meeting.getId());
+        return (PastMeeting) meeting;
+    }
+
+    private static FutureMeeting toFutureMeeting(Meeting meeting) throws IOException {
+        if (meeting != null && !(meeting instanceof FutureMeeting))
+            throw new IOException("Expected a future meeting, not meeting " + meeting.getId());
+        return (FutureMeeting) meeting;
+    }
+
+    static void writeMeeting(DataOutputStream out, Meeting meeting) throws IOException {
+        writeAttendees(out, Collections.singletonList(meeting));
+        writeMeetingBody(out, meeting);
+    }
+
+    static Meeting readMeeting(DataInputStream in) throws IOException {
+        return readMeetingBody(in, readAttendees(in));
+    }
+
+    static PastMeeting readPastMeeting(DataInputStream in) throws IOException {
+        return toPastMeeting(readMeeting(in));
+    }
+
+    static FutureMeeting readFutureMeeting(DataInputStream in) throws IOException {
+        return toFutureMeeting(readMeeting(in));
+    }
+
+    static void writeMeetings(DataOutputStream out, List<? extends Meeting> meetings) throws IOException {
+        writeAttendees(out, meetings);
+        out.writeInt(meetings.size());
+        for (Meeting meeting : meetings) {
+            writeMeetingBody(out, meeting);
+        }
+    }
+
+    static List<Meeting> readMeetings(DataInputStream in) throws IOException {
+        Map<Integer, Contact> attendees = readAttendees(in);
+        int count = readCount(in);
+        List<Meeting> meetings = new LinkedList<Meeting>();
+        for (int i = 0; i < count; i++) {
+            meetings.add(readMeetingBody(in, attendees));
+        }
+        return meetings;
+    }
+
+    static List<PastMeeting> readPastMeetings(DataInputStream in) throws IOException {
+        Map<Integer, Contact> attendees = readAttendees(in);
+        int count = readCount(in);
+        List<PastMeeting> meetings = new LinkedList<PastMeeting>();
+        for (int i = 0; i < count; i++) {
+            meetings.add(toPastMeeting(readMeetingBody(in, attendees)));
+        }
+        return meetings;
+    }
+
+    static void writeInts(DataOutputStream out, List<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static List<Integer> readInts(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<Integer> values = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readInt());
+        }
+        return values;
+    }
+
+    static void writeIntArray(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static int[] readIntArray(DataInputStream in) throws IOException {
+        int[] values = new int[readCount(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> values, String name) throws IOException {
+        ensureNotNull(values, name);
+
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value, name + " item");
+        }
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<String> values = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    static void writeCalendars(DataOutputStream out, List<Calendar> dates, String name) throws IOException {
+        ensureNotNull(dates, name);
+
+        out.writeInt(dates.size());
+        for (Calendar date : dates) {
+            writeCalendar(out, date, "date");
+        }
+    }
+
+    static List<Calendar> readCalendars(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<Calendar> dates = new ArrayList<Calendar>(count);
+        for (int i = 0; i < count; i++) {
+            dates.add(readCalendar(in));
+        }
+        return dates;
+    }
+
+    static void writeContactSets(DataOutputStream out, List<Set<Contact>> contact_sets, String name) throws IOException {
+        ensureNotNull(contact_sets, name);
+
+        out.writeInt(contact_sets.size());
+        for (Set<Contact> contacts : contact_sets) {
+            writeContacts(out, contacts, "contacts");
+        }
+    }
+
+    static List<Set<Contact>> readContactSets(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<Set<Contact>> contact_sets = new ArrayList<Set<Contact>>(count);
+        for (int i = 0; i < count; i++) {
+            contact_sets.add(readContacts(in));
+        }
+        return contact_sets;
+    }
+
+    static void writeNotesById(DataOutputStream out, Map<Integer, String> notes_by_id) throws IOException {
+        ensureNotNull(notes_by_id, "notes_by_id");
+
+        out.writeInt(notes_by_id.size());
+        for (Map.Entry<Integer, String> entry : notes_by_id.entrySet()) {
+            ensureNotNull(entry.getKey(), "meeting id");
+            out.writeInt(entry.getKey());
+            writeString(out, entry.getValue(), "text for meeting " + entry.getKey());
+        }
+    }
+
+    static Map<Integer, String> readNotesById(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        Map<Integer, String> notes_by_id = new LinkedHashMap<Integer, String>();
+        for (int i = 0; i < count; i++) {
+            notes_by_id.put(in.readInt(), readString(in));
+        }
+        return notes_by_id;
+    }
+}
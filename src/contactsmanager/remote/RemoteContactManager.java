@@ -0,0 +1,517 @@
+package contactsmanager.remote;
+
+import contactsmanager.*;
+import contactsmanager.remote.Protocol.Request;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ContactManager whose calls are made, over one connection, to a ContactManagerServer.
+ *
+ * Calls throw the same exceptions that the server's manager did (NullPointerException,
+ * IllegalArgumentException and IllegalStateException keep their type; anything else becomes an
+ * IllegalStateException).  If the connection fails, calls throw IllegalStateException.
+ *
+ * The contacts and meetings returned are copies, so adding notes to a returned contact changes
+ * only the copy (and, as its notes no longer match the server's, the server will treat it as
+ * unknown).
+ *
+ * This class is thread-safe.  Calls from different threads are pipelined on the connection:
+ * each is sent without waiting for the others' responses, which are matched back to their
+ * callers by request id.
+ */
+public class RemoteContactManager implements ContactManager, Closeable {
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final AtomicInteger next_request_id = new AtomicInteger();
+    private final ConcurrentMap<Integer, PendingCall> pending_calls = new ConcurrentHashMap<Integer, PendingCall>();
+    // Set once the connection has failed or been closed
+    private volatile IOException failure = null;
+
+    /**
+     * A call that has been sent, waiting for its response.
+     */
+    private static class PendingCall {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private byte status;
+        private byte[] payload;
+        private IOException failure;
+
+        void complete(byte status, byte[] payload) {
+            this.status = status;
+            this.payload = payload;
+            done.countDown();
+        }
+
+        void fail(IOException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /**
+         * Waits for the response.
+         *
+         * @return the response's payload.
+         * @throws RuntimeException the exception thrown by the server's manager.
+         * @throws IllegalStateException if the connection failed.
+         */
+        DataInputStream await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for server", e);
+            }
+
+            if (failure != null)
+                throw new IllegalStateException("Connection to server failed", failure);
+
+            DataInputStream response = new DataInputStream(new ByteArrayInputStream(payload));
+            if (status != Protocol.STATUS_OK)
+                throw Protocol.newErrorException(status, Protocol.readString(response));
+            return response;
+        }
+    }
+
+    /**
+     * A request's arguments, written into memory.
+     */
+    private static class Arguments extends DataOutputStream {
+        Arguments() {
+            super(new ByteArrayOutputStream());
+        }
+
+        byte[] toByteArray() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    /**
+     * Connects to the ContactManagerServer at the given host and port.
+     *
+     * @param host the server's host.
+     * @param port the server's port.
+     * @throws IOException if the server can't be connected to.
+     */
+    public RemoteContactManager(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readResponses();
+            }
+        }, "remote-contact-manager-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Reads responses and hands them to their callers, until the connection fails or is closed.
+     */
+    private void readResponses() {
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < Protocol.HEADER_LENGTH || length > Protocol.MAX_FRAME_LENGTH)
+                    throw new IOException("Malformed frame length " + length);
+
+                int request_id = in.readInt();
+                byte status = in.readByte();
+                byte[] payload = new byte[length - Protocol.HEADER_LENGTH];
+                in.readFully(payload);
+
+                PendingCall call = pending_calls.remove(request_id);
+                if (call == null)
+                    throw new IOException("Response to unknown request " + request_id);
+                call.complete(status, payload);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Fails every pending call (and every later one) with the given error, and closes the connection.
+     */
+    private void fail(IOException e) {
+        if (failure == null)
+            failure = e;
+
+        for (Integer request_id : pending_calls.keySet()) {
+            PendingCall call = pending_calls.remove(request_id);
+            if (call != null)
+                call.fail(failure);
+        }
+
+        try {
+            socket.close();
+        } catch (IOException err) {
+            err.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @param request the request.
+     * @param arguments the request's arguments.
+     * @return the response's payload.
+     * @throws RuntimeException the exception thrown by the server's manager.
+     * @throws IllegalStateException if the connection has failed.
+     */
+    private DataInputStream call(Request request, Arguments arguments) throws IOException {
+        byte[] payload = arguments.toByteArray();
+        int request_id = next_request_id.getAndIncrement();
+        PendingCall call = new PendingCall();
+        pending_calls.put(request_id, call);
+
+        // If the connection failed before the call was added, nothing else will fail the call
+        if (failure != null) {
+            pending_calls.remove(request_id);
+            throw new IllegalStateException("Connection to server failed", failure);
+        }
+
+        try {
+            synchronized (out) {
+                out.writeInt(Protocol.HEADER_LENGTH + payload.length);
+                out.writeInt(request_id);
+                out.writeByte(request.ordinal());
+                out.write(payload);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        return call.await();
+    }
+
+    /**
+     * Wraps an error in reading a response.
+     */
+    private static IllegalStateException newMalformedResponseException(IOException e) {
+        return new IllegalStateException("Malformed response from server", e);
+    }
+
+    /**
+     * Closes the connection.  Calls still waiting for responses fail with IllegalStateException.
+     */
+    @Override
+    public void close() {
+        fail(new IOException("Connection closed"));
+    }
+
+    @Override
+    public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            Protocol.writeCalendar(arguments, date, "date");
+            return call(Request.ADD_FUTURE_MEETING, arguments).readInt();
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Integer> addFutureMeetings(List<Set<Contact>> contacts, List<Calendar> dates) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContactSets(arguments, contacts, "contacts");
+            Protocol.writeCalendars(arguments, dates, "dates");
+            return Protocol.readInts(call(Request.ADD_FUTURE_MEETINGS, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, int count) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            Protocol.writeCalendar(arguments, first_date, "first_date");
+            arguments.writeInt(interval_days);
+            arguments.writeInt(count);
+            return call(Request.ADD_RECURRING_MEETING, arguments).readInt();
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public int addRecurringMeeting(Set<Contact> contacts, Calendar first_date, int interval_days, Calendar last_date) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            Protocol.writeCalendar(arguments, first_date, "first_date");
+            arguments.writeInt(interval_days);
+            Protocol.writeCalendar(arguments, last_date, "last_date");
+            return call(Request.ADD_RECURRING_MEETING_UNTIL, arguments).readInt();
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public PastMeeting getPastMeeting(int id) {
+        try {
+            Arguments arguments = new Arguments();
+            arguments.writeInt(id);
+            return Protocol.readPastMeeting(call(Request.GET_PAST_MEETING, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public FutureMeeting getFutureMeeting(int id) {
+        try {
+            Arguments arguments = new Arguments();
+            arguments.writeInt(id);
+            return Protocol.readFutureMeeting(call(Request.GET_FUTURE_MEETING, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public Meeting getMeeting(int id) {
+        try {
+            Arguments arguments = new Arguments();
+            arguments.writeInt(id);
+            return Protocol.readMeeting(call(Request.GET_MEETING, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Contact contact) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContact(arguments, contact, "contact");
+            return Protocol.readMeetings(call(Request.GET_FUTURE_MEETING_LIST_BY_CONTACT, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Meeting> getFutureMeetingList(Calendar date) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeCalendar(arguments, date, "date");
+            return Protocol.readMeetings(call(Request.GET_FUTURE_MEETING_LIST_BY_DATE, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<PastMeeting> getPastMeetingList(Contact contact) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContact(arguments, contact, "contact");
+            return Protocol.readPastMeetings(call(Request.GET_PAST_MEETING_LIST, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            Protocol.writeCalendar(arguments, date, "date");
+            Protocol.writeString(arguments, text, "text");
+            call(Request.ADD_NEW_PAST_MEETING, arguments);
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Integer> addNewPastMeetings(List<Set<Contact>> contacts, List<Calendar> dates, List<String> texts) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContactSets(arguments, contacts, "contacts");
+            Protocol.writeCalendars(arguments, dates, "dates");
+            Protocol.writeStrings(arguments, texts, "texts");
+            return Protocol.readInts(call(Request.ADD_NEW_PAST_MEETINGS, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public void addMeetingNotes(int id, String text) {
+        try {
+            Arguments arguments = new Arguments();
+            arguments.writeInt(id);
+            Protocol.writeString(arguments, text, "text");
+            call(Request.ADD_MEETING_NOTES, arguments);
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public void addMeetingNotes(Map<Integer, String> notes_by_id) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeNotesById(arguments, notes_by_id);
+            call(Request.ADD_MEETING_NOTES_BATCH, arguments);
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public void addNewContact(String name, String notes) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeString(arguments, name, "name");
+            Protocol.writeString(arguments, notes, "notes");
+            call(Request.ADD_NEW_CONTACT, arguments);
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Integer> addNewContacts(List<String> names, List<String> notes) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeStrings(arguments, names, "names");
+            Protocol.writeStrings(arguments, notes, "notes");
+            return Protocol.readInts(call(Request.ADD_NEW_CONTACTS, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public Set<Contact> getContacts(int... ids) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeIntArray(arguments, ids);
+            return Protocol.readContacts(call(Request.GET_CONTACTS_BY_ID, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public Set<Contact> getContacts(String name) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeString(arguments, name, "name");
+            return Protocol.readContacts(call(Request.GET_CONTACTS_BY_NAME, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Integer> searchContactNotes(String query) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeString(arguments, query, "query");
+            return Protocol.readInts(call(Request.SEARCH_CONTACT_NOTES, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Integer> searchMeetingNotes(String query) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeString(arguments, query, "query");
+            return Protocol.readInts(call(Request.SEARCH_MEETING_NOTES, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Contact> autocompleteContacts(String prefix, int limit) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeString(arguments, prefix, "prefix");
+            arguments.writeInt(limit);
+            return Protocol.readContactList(call(Request.AUTOCOMPLETE_CONTACTS, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Contact> searchContactNames(String query, int max_distance) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeString(arguments, query, "query");
+            arguments.writeInt(max_distance);
+            return Protocol.readContactList(call(Request.SEARCH_CONTACT_NAMES, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAllOf(Set<Contact> contacts) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            return Protocol.readMeetings(call(Request.GET_MEETINGS_WITH_ALL_OF, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public List<Meeting> getMeetingsWithAnyOf(Set<Contact> contacts) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            return Protocol.readMeetings(call(Request.GET_MEETINGS_WITH_ANY_OF, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public Calendar getFirstFreeDay(Set<Contact> contacts, Calendar from, int days) {
+        try {
+            Arguments arguments = new Arguments();
+            Protocol.writeContacts(arguments, contacts, "contacts");
+            Protocol.writeCalendar(arguments, from, "from");
+            arguments.writeInt(days);
+            return Protocol.readNullableCalendar(call(Request.GET_FIRST_FREE_DAY, arguments));
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            call(Request.FLUSH, new Arguments());
+        } catch (IOException e) {
+            throw newMalformedResponseException(e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A BK-tree of words, each belonging to one or more (integer) ids, which finds the words within a
+ * given edit (Levenshtein) distance of a query.
+ *
+ * Each node holds a word, and its children are keyed by their words' distance from it.  As edit
+ * distance is a metric, a word within k of the query can only be below a child whose distance from
+ * its parent is within k of the query's distance from the parent, so a search only visits the
+ * children in that range rather than the whole tree.
+ *
+ * Words are matched exactly as they were given, so callers wanting case-insensitive matching
+ * should give lower-case words and queries.
+ *
+ * The tree is guarded by a read-write lock, so many searches can run at once while words are
+ * being added from another thread.
+ */
+public class BkTree {
+    private static final Node[] NO_NODES = new Node[0];
+
+    private Node root = null;
+    private int size = 0;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static final class Node {
+        private final String word;
+        private int[] ids = new int[1];
+        private int id_count = 0;
+        // Indexed by the children's distance from this node's word (so children[0] is always null)
+        private Node[] children = NO_NODES;
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        void addId(int id) {
+            if (id_count == ids.length)
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[id_count++] = id;
+        }
+    }
+
+    /**
+     * Adds a word for the given id.  Adding the same word for the same id twice has no more effect
+     * than adding it once.
+     *
+     * @param word the word.
+     * @param id the id whose word it is.
+     * @throws NullPointerException if word is null.
+     */
+    public void add(String word, int id) {
+        if (word == null)
+            throw new NullPointerException("word is null");
+
+        lock.writeLock().lock();
+        try {
+            if (root == null) {
+                root = new Node(word);
+                root.addId(id);
+                size++;
+                return;
+            }
+
+            Node node = root;
+            while (true) {
+                int distance = editDistance(word, node.word);
+                if (distance == 0) {
+                    for (int i = 0; i < node.id_count; i++) {
+                        if (node.ids[i] == id)
+                            return;
+                    }
+                    node.addId(id);
+                    return;
+                }
+
+                if (distance >= node.children.length)
+                    node.children = Arrays.copyOf(node.children, distance + 1);
+
+                if (node.children[distance] == null) {
+                    Node child = new Node(word);
+                    child.addId(id);
+                    node.children[distance] = child;
+                    size++;
+                    return;
+                }
+                node = node.children[distance];
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of distinct words in the tree.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids with a word within the given distance of the query, each with the distance
+     * of its closest such word.
+     *
+     * @param query the word to look for.
+     * @param max_distance the greatest edit distance to match.
+     * @return the distances of matching ids, keyed by id (maybe empty).
+     * @throws NullPointerException if query is null.
+     * @throws IllegalArgumentException if max_distance is negative.
+     */
+    public Map<Integer, Integer> search(String query, int max_distance) {
+        if (query == null)
+            throw new NullPointerException("query is null");
+
+        if (max_distance < 0)
+            throw new IllegalArgumentException("max_distance " + max_distance + " is negative");
+
+        Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+
+        lock.readLock().lock();
+        try {
+            if (root == null)
+                return distances;
+
+            List<Node> to_visit = new ArrayList<Node>();
+            to_visit.add(root);
+            while (!to_visit.isEmpty()) {
+                Node node = to_visit.remove(to_visit.size() - 1);
+                int distance = editDistance(query, node.word);
+
+                if (distance <= max_distance) {
+                    for (int i = 0; i < node.id_count; i++) {
+                        Integer previous = distances.get(node.ids[i]);
+                        if (previous == null || distance < previous)
+                            distances.put(node.ids[i], distance);
+                    }
+                }
+
+                int last = Math.min(node.children.length - 1, distance + max_distance);
+                for (int child = Math.max(1, distance - max_distance); child <= last; child++) {
+                    if (node.children[child] != null)
+                        to_visit.add(node.children[child]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return distances;
+    }
+
+    /**
+     * Returns the edit (Levenshtein) distance between two strings: the fewest single-character
+     * insertions, deletions and substitutions that turn one into the other.
+     *
+     * @param a one string.
+     * @param b the other string.
+     * @return the distance between them.
+     * @throws NullPointerException if either is null.
+     */
+    public static int editDistance(CharSequence a, CharSequence b) {
+        // Keep the shorter string across the row, so the rows are as short as they can be
+        if (a.length() < b.length()) {
+            CharSequence swap = a;
+            a = b;
+            b = swap;
+        }
+
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char a_char = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a_char == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,136 @@
+package contactsmanager.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue for many producer threads and a single consumer thread.
+ *
+ * The queue is an array of slots, each with a sequence number saying whose turn it is to use
+ * it (after Dmitry Vyukov's bounded queue).  A producer claims the next slot with a single
+ * compare-and-set on the tail, writes its element, then bumps the slot's sequence to hand it to
+ * the consumer; the consumer takes the element and bumps the sequence again to hand the slot
+ * back to the producers, one lap later.  So producers only contend with each other on the tail,
+ * never with the consumer, and nothing is allocated per element.
+ *
+ * 'offer' may be called from any thread; 'poll' and 'drainTo' only from one thread at a time.
+ *
+ * @param <E> the type of the elements.
+ */
+public class BoundedMpscQueue<E> {
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+    /**
+     * @param capacity the most elements the queue can hold (rounded up to a power of two).
+     * @throws IllegalArgumentException if capacity isn't positive, or is too large.
+     */
+    public BoundedMpscQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Capacity " + capacity + " is out of range");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element to the tail of the queue, if there's room.
+     *
+     * @param element the element to add.
+     * @return false if the queue is full.
+     * @throws NullPointerException if element is null.
+     */
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException("element is null");
+
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                // The slot is free for this position; claim it
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // The slot still holds the element from a lap ago, so the queue is full
+                return false;
+            }
+            // Otherwise another producer claimed this position first; try the next one
+        }
+    }
+
+    /**
+     * Removes the element at the head of the queue.
+     *
+     * @return the element, or null if the queue is empty (or its head is still being written).
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1)
+            return null;
+
+        E element = (E) elements[index];
+        elements[index] = null;
+        sequences.set(index, position + elements.length);
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * Removes up to 'max_elements' elements from the head of the queue, adding them to the given collection.
+     *
+     * @param collection the collection to add the elements to.
+     * @param max_elements the most elements to remove.
+     * @return the number of elements removed.
+     */
+    public int drainTo(Collection<? super E> collection, int max_elements) {
+        int count = 0;
+        E element;
+        while (count < max_elements && (element = poll()) != null) {
+            collection.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of elements in the queue (which may be out of date as soon as it's returned).
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, elements.length));
+    }
+
+    /**
+     * @return true if the queue is empty.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the most elements the queue can hold.
+     */
+    public int capacity() {
+        return elements.length;
+    }
+}
@@ -7,6 +7,7 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * A class containing utility methods for dealing with Calendar objects.
@@ -15,6 +16,8 @@ import java.util.Date;
  * (ie. only looks at the year, month and date).
  */
 public class CalendarUtil {
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
     /**
      * Gets a SimpleDateFormat object for "dd/MM/yyyy 'at' HH:mm:ss.S z"
      *
@@ -66,6 +69,22 @@ public class CalendarUtil {
     }
 
 
+    /**
+     * Returns the number of days from 01/01/1970 to the given Calendar object's calendar date (in
+     * the default time zone, as with 'getCalendarDateString'), eg. 1 for "02/01/1970".  Dates
+     * before 1970 have negative numbers.
+     *
+     * @param date the Calendar object to extract the date from.
+     * @return the number of the date's day.
+     */
+    public static int getDayNumber(Calendar date) {
+        long millis = date.getTimeInMillis();
+        long local_millis = millis + TimeZone.getDefault().getOffset(millis);
+        long day = local_millis / MILLIS_PER_DAY;
+        if (local_millis % MILLIS_PER_DAY < 0)
+            day--;
+        return (int) day;
+    }
 
     /**
      * Gets the string representation of the given Calendar object's calendar date
@@ -0,0 +1,467 @@
+package contactsmanager.util;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative integers, in the style of a Roaring bitmap.
+ *
+ * Integers are grouped by their high 16 bits into containers, each of which holds the low
+ * 16 bits either as a sorted array (when sparse) or as a 65536-bit bitmap (when dense, ie.
+ * holding more than 4096 values).  Intersections and unions are done container by container,
+ * choosing the cheapest method for each pair of container types.
+ *
+ * This class is not thread-safe.
+ */
+public class CompressedBitmap {
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // Containers, sorted by their (high 16 bit) keys
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size = 0;
+
+    /**
+     * Adds the given value to the set.
+     *
+     * @param value the value to add.
+     * @throws IllegalArgumentException if value is negative.
+     */
+    public void add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Value " + value + " is negative");
+
+        char key = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, 0, size, key);
+
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+        }
+
+        containers[index] = containers[index].add((char) value);
+    }
+
+    /**
+     * Removes the given value from the set, if it's there.
+     *
+     * @param value the value to remove.
+     */
+    public void remove(int value) {
+        if (value < 0)
+            return;
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (index < 0)
+            return;
+
+        containers[index] = containers[index].remove((char) value);
+        if (containers[index].getCardinality() == 0)
+            removeContainer(index);
+    }
+
+    /**
+     * @param value the value to look for.
+     * @return true if the set contains the value.
+     */
+    public boolean contains(int value) {
+        if (value < 0)
+            return false;
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * @return the number of values in the set.
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].getCardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return true if the set contains no values.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the values in the set, in ascending order.
+     */
+    public int[] toArray() {
+        int[] values = new int[getCardinality()];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            position = containers[i].copyTo(values, position, keys[i] << 16);
+        }
+        return values;
+    }
+
+    /**
+     * Returns a new bitmap containing the values in both of the given bitmaps.
+     *
+     * @param first the first bitmap.
+     * @param second the second bitmap.
+     * @return the intersection of the bitmaps.
+     */
+    public static CompressedBitmap and(CompressedBitmap first, CompressedBitmap second) {
+        CompressedBitmap result = new CompressedBitmap();
+
+        int i = 0, j = 0;
+        while (i < first.size && j < second.size) {
+            if (first.keys[i] < second.keys[j]) {
+                i++;
+            } else if (first.keys[i] > second.keys[j]) {
+                j++;
+            } else {
+                Container container = first.containers[i].and(second.containers[j]);
+                if (container.getCardinality() > 0)
+                    result.insertContainer(result.size, first.keys[i], container);
+                i++;
+                j++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a new bitmap containing the values in either of the given bitmaps.
+     *
+     * @param first the first bitmap.
+     * @param second the second bitmap.
+     * @return the union of the bitmaps.
+     */
+    public static CompressedBitmap or(CompressedBitmap first, CompressedBitmap second) {
+        CompressedBitmap result = new CompressedBitmap();
+
+        int i = 0, j = 0;
+        while (i < first.size || j < second.size) {
+            if (j == second.size || (i < first.size && first.keys[i] < second.keys[j])) {
+                result.insertContainer(result.size, first.keys[i], first.containers[i].copy());
+                i++;
+            } else if (i == first.size || first.keys[i] > second.keys[j]) {
+                result.insertContainer(result.size, second.keys[j], second.containers[j].copy());
+                j++;
+            } else {
+                result.insertContainer(result.size, first.keys[i], first.containers[i].or(second.containers[j]));
+                i++;
+                j++;
+            }
+        }
+
+        return result;
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+        if (size == keys.length) {
+            int new_capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, new_capacity);
+            containers = Arrays.copyOf(containers, new_capacity);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /**
+     * Holds the low 16 bits of the values sharing one set of high 16 bits.
+     * Modifying methods return the container to use from then on (which may be a
+     * container of a different type).
+     */
+    private static abstract class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int getCardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        /**
+         * Copies the container's values (with the given high bits) into 'values' from 'position'.
+         *
+         * @return the position after the last value copied.
+         */
+        abstract int copyTo(int[] values, int position, int high_bits);
+    }
+
+    /**
+     * A container for sparse values: a sorted array.
+     */
+    private static class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0)
+                return this;
+
+            if (cardinality == MAX_ARRAY_SIZE)
+                return toBitmap().add(value);
+
+            index = -index - 1;
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, cardinality * 2));
+
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.getCardinality())];
+            int result_cardinality = 0;
+
+            if (other instanceof ArrayContainer) {
+                // Merge the two sorted arrays
+                ArrayContainer that = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < cardinality && j < that.cardinality) {
+                    if (values[i] < that.values[j]) {
+                        i++;
+                    } else if (values[i] > that.values[j]) {
+                        j++;
+                    } else {
+                        result[result_cardinality++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                // Look each of our values up in the bitmap
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i]))
+                        result[result_cardinality++] = values[i];
+                }
+            }
+
+            return new ArrayContainer(result, result_cardinality);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.or(this);
+
+            // Merge the two sorted arrays
+            ArrayContainer that = (ArrayContainer) other;
+            char[] result = new char[cardinality + that.cardinality];
+            int result_cardinality = 0;
+            int i = 0, j = 0;
+            while (i < cardinality || j < that.cardinality) {
+                if (j == that.cardinality || (i < cardinality && values[i] < that.values[j])) {
+                    result[result_cardinality++] = values[i++];
+                } else if (i == cardinality || values[i] > that.values[j]) {
+                    result[result_cardinality++] = that.values[j++];
+                } else {
+                    result[result_cardinality++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            ArrayContainer merged = new ArrayContainer(result, result_cardinality);
+            if (result_cardinality > MAX_ARRAY_SIZE)
+                return merged.toBitmap();
+            return merged;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        int copyTo(int[] destination, int position, int high_bits) {
+            for (int i = 0; i < cardinality; i++) {
+                destination[position++] = high_bits | values[i];
+            }
+            return position;
+        }
+    }
+
+    /**
+     * A container for dense values: a bitmap of all 65536 possible low 16 bits.
+     */
+    private static class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[BITMAP_WORDS], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long mask = 1L << value;
+            if ((words[value >>> 6] & mask) == 0) {
+                words[value >>> 6] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long mask = 1L << value;
+            if ((words[value >>> 6] & mask) != 0) {
+                words[value >>> 6] &= ~mask;
+                cardinality--;
+
+                if (cardinality <= MAX_ARRAY_SIZE)
+                    return toArrayContainer();
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int position = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[position++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer)
+                return other.and(this);
+
+            // AND the words together
+            BitmapContainer that = (BitmapContainer) other;
+            long[] result = new long[BITMAP_WORDS];
+            int result_cardinality = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & that.words[i];
+                result_cardinality += Long.bitCount(result[i]);
+            }
+
+            BitmapContainer intersection = new BitmapContainer(result, result_cardinality);
+            if (result_cardinality <= MAX_ARRAY_SIZE)
+                return intersection.toArrayContainer();
+            return intersection;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+
+            if (other instanceof ArrayContainer) {
+                ArrayContainer that = (ArrayContainer) other;
+                for (int i = 0; i < that.cardinality; i++) {
+                    result.add(that.values[i]);
+                }
+            } else {
+                // OR the words together
+                BitmapContainer that = (BitmapContainer) other;
+                result.cardinality = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result.words[i] |= that.words[i];
+                    result.cardinality += Long.bitCount(result.words[i]);
+                }
+            }
+
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int copyTo(int[] destination, int position, int high_bits) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    destination[position++] = high_bits | (i * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return position;
+        }
+    }
+}
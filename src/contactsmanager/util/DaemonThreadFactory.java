@@ -0,0 +1,27 @@
+package contactsmanager.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadFactory for daemon threads, so that pools made with it never keep the JVM running.
+ * Threads are named after the pool, followed by their number in it.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger thread_count = new AtomicInteger();
+
+    /**
+     * @param name the name of the pool, which its threads are named after.
+     */
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + thread_count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,70 @@
+package contactsmanager.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A class containing utility functions for replacing files safely.
+ */
+public class FileUtil {
+    /**
+     * Replaces a file with a new version of it, already written to a temporary file, by renaming
+     * the temporary file over it.  So the file is never seen part-written: it's either the old
+     * version or the new one.
+     *
+     * If 'sync' is true, the new version is also forced to disk before it's renamed, and the
+     * rename is forced to disk afterwards, so that once this returns the new version will still
+     * be there after a crash.
+     *
+     * @param temp_file the temporary file holding the new version.
+     * @param file the file to replace (which needn't exist yet).
+     * @param sync whether to force the new version to disk.
+     * @throws IOException if the new version couldn't be forced to disk or renamed.
+     */
+    public static void replace(File temp_file, File file, boolean sync) throws IOException {
+        if (sync) {
+            RandomAccessFile temp = new RandomAccessFile(temp_file, "rw");
+            try {
+                temp.getChannel().force(true);
+            } finally {
+                temp.close();
+            }
+        }
+
+        if (!temp_file.renameTo(file)) {
+            // Some platforms won't rename over an existing file
+            if (!file.delete() || !temp_file.renameTo(file))
+                throw new IOException("Couldn't rename " + temp_file + " to " + file);
+        }
+
+        if (sync)
+            forceDirectory(file);
+    }
+
+    /**
+     * Forces the directory containing the given file to disk, so that the file's creation,
+     * renaming or deletion will still have happened after a crash.  This does nothing on
+     * platforms that can't open a directory (eg. Windows).
+     *
+     * @param file the file whose directory to force.
+     * @throws IOException if the directory couldn't be forced.
+     */
+    public static void forceDirectory(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
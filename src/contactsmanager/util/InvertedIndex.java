@@ -0,0 +1,391 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A full-text inverted index, mapping words to the (integer) ids of the documents they appear in.
+ *
+ * Text is split into words on anything that isn't a letter or digit, and matched case-insensitively.
+ * Text can be added to a document at any time; it's indexed as if appended to the document.
+ *
+ * Each word's postings (document ids with the number of times the word appears in them) are stored
+ * as a byte array of variable-length-encoded id deltas, which documents added in ascending id order
+ * are appended to.  A search intersects the query words' sorted postings directly.
+ *
+ * The index is guarded by a read-write lock, so many searches can run at once (and
+ * remain consistent) while text is being added from another thread.
+ */
+public class InvertedIndex {
+    private final Map<String, PostingList> postings_by_word = new HashMap<String, PostingList>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Splits the given text into lower-case words.
+     *
+     * @param text the text to split.
+     * @return the words in the text, in order (including duplicates).
+     */
+    public static List<String> tokenise(String text) {
+        List<String> words = new ArrayList<String>();
+
+        int word_start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean in_word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+            if (in_word && word_start == -1) {
+                word_start = i;
+            } else if (!in_word && word_start != -1) {
+                words.add(text.substring(word_start, i).toLowerCase());
+                word_start = -1;
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Indexes the given text as (additional) text of the document with the given id.
+     *
+     * @param document_id the document's id (must not be negative).
+     * @param text the text to index.
+     * @throws IllegalArgumentException if document_id is negative.
+     * @throws NullPointerException if text is null.
+     */
+    public void add(int document_id, String text) {
+        if (document_id < 0)
+            throw new IllegalArgumentException("Document id " + document_id + " is negative");
+
+        // Count the words before taking the lock, so the lock is held for as little time as possible
+        Map<String, Integer> word_counts = new HashMap<String, Integer>();
+        for (String word : tokenise(text)) {
+            Integer count = word_counts.get(word);
+            word_counts.put(word, count == null ? 1 : count + 1);
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> word_count : word_counts.entrySet()) {
+                PostingList postings = postings_by_word.get(word_count.getKey());
+                if (postings == null) {
+                    postings = new PostingList();
+                    postings_by_word.put(word_count.getKey(), postings);
+                }
+                postings.add(document_id, word_count.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the documents that contain every word in the query, ranked by the total
+     * number of times the query's words appear in them (most first).  Ties are broken by id.
+     *
+     * @param query the words to search for.
+     * @return the ids of matching documents, best match first (empty if the query has no words).
+     * @throws NullPointerException if query is null.
+     */
+    public List<Integer> search(String query) {
+        return rank(getScores(query));
+    }
+
+    /**
+     * Returns the documents that contain every word in the query, each with the total number of
+     * times the query's words appear in it (its score in 'search').  This lets results from
+     * several indexes be combined, then ranked together with 'rank'.
+     *
+     * @param query the words to search for.
+     * @return the scores of matching documents, keyed by document id (empty if the query has no words).
+     * @throws NullPointerException if query is null.
+     */
+    public Map<Integer, Integer> getScores(String query) {
+        List<String> words = tokenise(query);
+        if (words.isEmpty())
+            return new HashMap<Integer, Integer>();
+
+        // A word repeated in the query counts once for each time it's repeated
+        Map<String, Integer> repeats = new HashMap<String, Integer>();
+        for (String word : words) {
+            Integer repeat = repeats.get(word);
+            repeats.put(word, repeat == null ? 1 : repeat + 1);
+        }
+
+        List<Postings> word_postings = new ArrayList<Postings>();
+        List<Integer> word_repeats = new ArrayList<Integer>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> repeat : repeats.entrySet()) {
+                PostingList postings = postings_by_word.get(repeat.getKey());
+                if (postings == null)
+                    return new HashMap<Integer, Integer>();
+
+                word_postings.add(postings.getPostings());
+                word_repeats.add(repeat.getValue());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Walk the shortest postings, finding each of its documents in the others' sorted postings
+        int shortest = 0;
+        for (int i = 1; i < word_postings.size(); i++) {
+            if (word_postings.get(i).size < word_postings.get(shortest).size)
+                shortest = i;
+        }
+
+        Postings candidates = word_postings.get(shortest);
+        int[] positions = new int[word_postings.size()];
+        Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+        for (int i = 0; i < candidates.size; i++) {
+            int document_id = candidates.document_ids[i];
+            int score = 0;
+            boolean in_all = true;
+            for (int j = 0; j < word_postings.size() && in_all; j++) {
+                Postings postings = word_postings.get(j);
+                int position = positions[j];
+                while (position < postings.size && postings.document_ids[position] < document_id) {
+                    position++;
+                }
+                positions[j] = position;
+
+                in_all = position < postings.size && postings.document_ids[position] == document_id;
+                if (in_all)
+                    score += postings.counts[position] * word_repeats.get(j);
+            }
+
+            if (in_all)
+                scores.put(document_id, score);
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the keys of the given scores map, sorted by score (highest first) then by key.
+     *
+     * @param scores scores keyed by document id, as returned by 'getScores'.
+     * @return the document ids, best first.
+     */
+    public static List<Integer> rank(final Map<Integer, Integer> scores) {
+        List<Integer> ranked = new ArrayList<Integer>(scores.keySet());
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int n = scores.get(o2).compareTo(scores.get(o1));
+                if (n == 0) {
+                    return o1.compareTo(o2);
+                } else {
+                    return n;
+                }
+            }
+        });
+        return new LinkedList<Integer>(ranked);
+    }
+
+    /**
+     * The documents that a single word appears in, with how many times it appears in each.
+     *
+     * Postings are stored sorted by document id in 'compressed', as pairs of variable-length
+     * integers: the gap from the previous document id, and the word's count in the document.
+     * Documents are mostly added in ascending id order, so a new posting is usually just appended
+     * to the end (the latest is held back until a later id comes along, so that its count can
+     * still grow as more of its text is added).  Postings that arrive out of order are kept in a
+     * separate sorted block, which is merged in (in one linear pass) once it has grown by a
+     * fraction of the list's size, so each posting costs amortised constant time.
+     */
+    static class PostingList {
+        private static final int MIN_OUT_OF_ORDER = 32;
+        // Each posting takes at most 10 bytes (two 5-byte varints)
+        private static final int MAX_POSTING_LENGTH = 10;
+
+        private byte[] compressed = new byte[MAX_POSTING_LENGTH];
+        private int compressed_length = 0;
+        private int compressed_size = 0;
+        private int compressed_last_id = 0;
+        // The latest in-order posting (last_id is -1 if there isn't one), which may not be compressed yet
+        private int last_id = -1;
+        private int last_count = 0;
+        private boolean last_compressed = false;
+        private final TreeMap<Integer, Integer> out_of_order = new TreeMap<Integer, Integer>();
+
+        void add(int document_id, int count) {
+            if (document_id == last_id && !last_compressed) {
+                last_count += count;
+            } else if (document_id > last_id) {
+                compressLast();
+                last_id = document_id;
+                last_count = count;
+                last_compressed = false;
+            } else {
+                Integer pending_count = out_of_order.get(document_id);
+                out_of_order.put(document_id, pending_count == null ? count : pending_count + count);
+
+                if (out_of_order.size() >= Math.max(MIN_OUT_OF_ORDER, compressed_size / 4))
+                    mergePending();
+            }
+        }
+
+        /**
+         * Appends the latest posting to the compressed ones.
+         */
+        private void compressLast() {
+            if (last_id == -1 || last_compressed)
+                return;
+
+            appendPosting(last_id, last_count);
+            last_compressed = true;
+        }
+
+        /**
+         * Appends a posting to the compressed ones, growing the buffer if need be.
+         */
+        private void appendPosting(int document_id, int count) {
+            if (compressed_length + MAX_POSTING_LENGTH > compressed.length)
+                compressed = Arrays.copyOf(compressed, Math.max(compressed.length * 2, compressed_length + MAX_POSTING_LENGTH));
+
+            compressed_length = writeVarInt(compressed, compressed_length, document_id - compressed_last_id);
+            compressed_length = writeVarInt(compressed, compressed_length, count);
+            compressed_size++;
+            compressed_last_id = document_id;
+        }
+
+        /**
+         * @return the number of documents the word appears in.
+         */
+        int size() {
+            return getPostings().size;
+        }
+
+        /**
+         * @return the postings, sorted by document id.
+         */
+        Postings getPostings() {
+            int capacity = compressed_size + 1 + out_of_order.size();
+            int[] document_ids = new int[capacity];
+            int[] counts = new int[capacity];
+            int size = 0;
+
+            // Merge the compressed postings (then the latest) with the out-of-order ones
+            Iterator<Map.Entry<Integer, Integer>> pending = out_of_order.entrySet().iterator();
+            Map.Entry<Integer, Integer> next_pending = pending.hasNext() ? pending.next() : null;
+
+            int position = 0;
+            int document_id = 0;
+            int[] value = new int[1];
+            for (int i = 0; i <= compressed_size; i++) {
+                int count;
+                if (i < compressed_size) {
+                    position = readVarInt(compressed, position, value);
+                    document_id += value[0];
+                    position = readVarInt(compressed, position, value);
+                    count = value[0];
+                } else if (last_id != -1 && !last_compressed) {
+                    document_id = last_id;
+                    count = last_count;
+                } else {
+                    break;
+                }
+
+                while (next_pending != null && next_pending.getKey() < document_id) {
+                    document_ids[size] = next_pending.getKey();
+                    counts[size++] = next_pending.getValue();
+                    next_pending = pending.hasNext() ? pending.next() : null;
+                }
+
+                if (next_pending != null && next_pending.getKey() == document_id) {
+                    count += next_pending.getValue();
+                    next_pending = pending.hasNext() ? pending.next() : null;
+                }
+
+                document_ids[size] = document_id;
+                counts[size++] = count;
+            }
+
+            while (next_pending != null) {
+                document_ids[size] = next_pending.getKey();
+                counts[size++] = next_pending.getValue();
+                next_pending = pending.hasNext() ? pending.next() : null;
+            }
+
+            return new Postings(document_ids, counts, size);
+        }
+
+        /**
+         * Compresses every posting, merging in the out-of-order ones.
+         */
+        void mergePending() {
+            if (out_of_order.isEmpty()) {
+                compressLast();
+                return;
+            }
+
+            Postings postings = getPostings();
+            compressed = new byte[Math.max(MAX_POSTING_LENGTH, postings.size * MAX_POSTING_LENGTH)];
+            compressed_length = 0;
+            compressed_size = 0;
+            compressed_last_id = 0;
+            last_compressed = true;
+            out_of_order.clear();
+
+            for (int i = 0; i < postings.size; i++) {
+                appendPosting(postings.document_ids[i], postings.counts[i]);
+            }
+            compressed = Arrays.copyOf(compressed, Math.max(MAX_POSTING_LENGTH, compressed_length));
+        }
+
+        /**
+         * @return the number of bytes used by the compressed postings.
+         */
+        int getCompressedLength() {
+            return compressed_length;
+        }
+
+        private static int writeVarInt(byte[] bytes, int position, int value) {
+            while ((value & ~0x7F) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+            return position;
+        }
+
+        private static int readVarInt(byte[] bytes, int position, int[] value) {
+            int result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            value[0] = result;
+            return position;
+        }
+    }
+
+    /**
+     * A word's postings, decoded: the first 'size' entries of each array, sorted by document id.
+     */
+    static class Postings {
+        final int[] document_ids;
+        final int[] counts;
+        final int size;
+
+        Postings(int[] document_ids, int[] counts, int size) {
+            this.document_ids = document_ids;
+            this.counts = counts;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package contactsmanager.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of (non-negative) latencies, in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: each power of two is split into
+ * 32 equally-sized sub-buckets, so any recorded value is reported to within ~3%.
+ *
+ * Recording is lock-free and doesn't allocate (it only increments atomic counters),
+ * so it's safe to call from many threads at once on a hot path.  Reading is done
+ * through snapshots, which are immutable copies of the histogram at a moment in time.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total_sum = new AtomicLong();
+    private final AtomicLong max_value = new AtomicLong();
+
+    /**
+     * Returns the index of the bucket that the given value falls in.
+     *
+     * @param value the (non-negative) value.
+     * @return the index of the value's bucket.
+     */
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Returns the highest value that would be counted in the bucket with the given index.
+     *
+     * @param index the index of the bucket.
+     * @return the highest value in that bucket.
+     */
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long sub_bucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((sub_bucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a single value.  Negative values (eg. from a clock going backwards) are counted as 0.
+     *
+     * @param value the value to record.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(getBucketIndex(value));
+        total_sum.addAndGet(value);
+
+        // Raise the maximum if necessary
+        long current_max = max_value.get();
+        while (value > current_max && !max_value.compareAndSet(current_max, value)) {
+            current_max = max_value.get();
+        }
+    }
+
+    /**
+     * Returns an immutable copy of the histogram's current contents.
+     *
+     * NB. as recording may carry on while the copy is taken, the snapshot is
+     * only guaranteed to be approximately consistent.
+     *
+     * @return a snapshot of the histogram.
+     */
+    public Snapshot getSnapshot() {
+        return takeSnapshot(false);
+    }
+
+    /**
+     * Returns an immutable copy of the histogram's current contents, and resets the
+     * histogram so that it's empty.  Values recorded concurrently end up in either the
+     * snapshot or the reset histogram, but are never lost.
+     *
+     * @return a snapshot of the histogram prior to being reset.
+     */
+    public Snapshot getSnapshotAndReset() {
+        return takeSnapshot(true);
+    }
+
+    /**
+     * Empties the histogram.
+     */
+    public void reset() {
+        takeSnapshot(true);
+    }
+
+    private Snapshot takeSnapshot(boolean reset) {
+        long[] snapshot_counts = new long[BUCKET_COUNT];
+        long count = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot_counts[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            count += snapshot_counts[i];
+        }
+
+        // The bucket counts are authoritative; the sum and max are only used for the mean and max.
+        long sum = reset ? total_sum.getAndSet(0) : total_sum.get();
+        long max = reset ? max_value.getAndSet(0) : max_value.get();
+
+        return new Snapshot(snapshot_counts, count, sum, max);
+    }
+
+    /**
+     * An immutable copy of a LatencyHistogram's contents.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of values recorded.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the largest value recorded, or 0 if nothing was recorded.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the mean of the values recorded, or 0 if nothing was recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value below which the given percentage of recorded values fall
+         * (to within the precision of the histogram's buckets).
+         *
+         * @param percentile the percentile, between 0 and 100 (eg. 99.9).
+         * @return the value at that percentile, or 0 if nothing was recorded.
+         * @throws IllegalArgumentException if percentile is not between 0 and 100.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Percentile " + percentile + " is not between 0 and 100");
+
+            if (count == 0)
+                return 0;
+
+            // The rank of the value we're after (1-based)
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // Don't report more than the true maximum (which may lag behind the
+                    // bucket counts if the snapshot was taken mid-recording)
+                    long upper_bound = getBucketUpperBound(i);
+                    return max == 0 ? upper_bound : Math.min(upper_bound, max);
+                }
+            }
+
+            return max;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package contactsmanager.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A Future that runs listeners once it completes, so that work can follow on from its result
+ * without a thread blocking in 'get' to wait for it.
+ *
+ * @param <T> the type of the result.
+ */
+public interface ListenableFuture<T> extends Future<T> {
+    /**
+     * Registers a listener to be run on the given executor once the future completes (or at
+     * once, if it already has).  The listener can then call 'get' without blocking.  Each
+     * listener is run once, and listeners may be run in any order.
+     *
+     * @param listener the listener to run.
+     * @param executor the executor to run it on.
+     * @throws NullPointerException if listener or executor is null.
+     */
+    void addListener(Runnable listener, Executor executor);
+}
@@ -0,0 +1,119 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An append-friendly store for notes, where each appended piece of text goes on a new line.
+ *
+ * Appending only adds a chunk to a list (rather than copying everything written so far into
+ * a new string), so building up notes from many appends takes linear time.  The full string
+ * is only built on 'toString', and is cached (and replaces the chunks) until the next append.
+ *
+ * All methods are synchronized, so a buffer can be shared between threads.
+ */
+public class NoteBuffer {
+    private static final char SEPARATOR = '\n';
+
+    private final List<String> chunks = new ArrayList<String>();
+    private int length = 0;
+    private String materialised = "";
+
+    /**
+     * Creates an empty buffer.
+     */
+    public NoteBuffer() {
+    }
+
+    /**
+     * Creates a buffer containing a copy of the given buffer's chunks.  This copies
+     * references to the chunks, not the text inside them.
+     *
+     * @param other the buffer to copy.
+     */
+    public NoteBuffer(NoteBuffer other) {
+        synchronized (other) {
+            chunks.addAll(other.chunks);
+            length = other.length;
+            materialised = other.materialised;
+        }
+    }
+
+    /**
+     * Appends the given text to the notes.  If there were already any chunks (even empty ones),
+     * the text is separated from them by a new line.
+     *
+     * @param text the text to append.
+     * @throws NullPointerException if text is null.
+     */
+    public synchronized void append(String text) {
+        if (text == null)
+            throw new NullPointerException("text is null");
+
+        if (!chunks.isEmpty())
+            length++;
+
+        chunks.add(text);
+        length += text.length();
+        materialised = null;
+    }
+
+    /**
+     * Removes all chunks from the buffer.
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        length = 0;
+        materialised = "";
+    }
+
+    /**
+     * @return the length of the notes (including new lines between chunks).
+     */
+    public synchronized int length() {
+        return length;
+    }
+
+    /**
+     * @return true if the notes contain no characters.
+     */
+    public synchronized boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the chunks that make up the notes, in order.  The full notes are
+     * the chunks joined by new lines.
+     *
+     * @return a read-only copy of the list of chunks.
+     */
+    public synchronized List<String> getChunks() {
+        return Collections.unmodifiableList(new ArrayList<String>(chunks));
+    }
+
+    /**
+     * Returns the notes as a single string, building (and caching) it if necessary.
+     *
+     * @return the full notes.
+     */
+    @Override
+    public synchronized String toString() {
+        if (materialised == null) {
+            StringBuilder builder = new StringBuilder(length);
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i > 0)
+                    builder.append(SEPARATOR);
+                builder.append(chunks.get(i));
+            }
+            materialised = builder.toString();
+
+            // The built string holds everything, so keep it as the only chunk
+            // (which lets the smaller chunks be garbage-collected).
+            chunks.clear();
+            chunks.add(materialised);
+        }
+
+        return materialised;
+    }
+}
@@ -0,0 +1,217 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Strings, each belonging to an (integer) id, packed end to end into one character buffer so
+ * they can be scanned for a substring quickly, without an index.
+ *
+ * The strings' start offsets into the buffer are kept in an array, so a scan reads memory in
+ * order rather than chasing a pointer per string.  For each string, the scan skips ahead to each
+ * place the pattern's first character appears, and only compares the rest of the pattern there.
+ * Large buffers are split into chunks of strings which are scanned in parallel on a ForkJoinPool.
+ *
+ * A string contains the pattern exactly when 'String.contains' says it does (so every string
+ * contains the empty pattern).
+ *
+ * The scanner is guarded by a read-write lock, so many scans can run at once while strings are
+ * being added from another thread.
+ */
+public class PackedStringScanner {
+    // Buffers shorter than this are scanned on the calling thread
+    private static final int MIN_PARALLEL_CHARS = 64 * 1024;
+    private static final int CHUNK_CHARS = 32 * 1024;
+    private static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool();
+
+    private final ForkJoinPool pool;
+    private char[] chars = new char[1024];
+    private int char_count = 0;
+    // Indexed by the strings' positions: each's id, and its start in 'chars' (with one more, the end)
+    private int[] ids = new int[64];
+    private int[] offsets = new int[65];
+    private int size = 0;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates an empty scanner, which scans large buffers on a pool shared by every scanner.
+     */
+    public PackedStringScanner() {
+        this(DEFAULT_POOL);
+    }
+
+    /**
+     * Creates an empty scanner, which scans large buffers on the given pool.
+     *
+     * @param pool the pool to scan on.
+     * @throws NullPointerException if pool is null.
+     */
+    public PackedStringScanner(ForkJoinPool pool) {
+        if (pool == null)
+            throw new NullPointerException("pool is null");
+
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a string.
+     *
+     * @param id the string's id.
+     * @param text the string.
+     * @throws NullPointerException if text is null.
+     */
+    public void add(int id, String text) {
+        if (text == null)
+            throw new NullPointerException("text is null");
+
+        lock.writeLock().lock();
+        try {
+            if (char_count + text.length() > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(char_count + text.length(), chars.length * 2));
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                offsets = Arrays.copyOf(offsets, ids.length + 1);
+            }
+
+            text.getChars(0, text.length(), chars, char_count);
+            char_count += text.length();
+            ids[size] = id;
+            offsets[++size] = char_count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of strings added.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the total length of the strings added, in characters.
+     */
+    public int getCharCount() {
+        lock.readLock().lock();
+        try {
+            return char_count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the strings which contain the pattern, in the order they were added.
+     *
+     * @param pattern the substring to look for.
+     * @return the ids of the matching strings (maybe empty).
+     * @throws NullPointerException if pattern is null.
+     */
+    public List<Integer> findContaining(String pattern) {
+        if (pattern == null)
+            throw new NullPointerException("pattern is null");
+
+        char[] pattern_chars = pattern.toCharArray();
+
+        lock.readLock().lock();
+        try {
+            if (char_count < MIN_PARALLEL_CHARS)
+                return scan(pattern_chars, 0, size);
+
+            return pool.invoke(new ScanTask(pattern_chars, 0, size));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scans the strings at positions 'from' (inclusive) to 'to' (exclusive).
+     */
+    private List<Integer> scan(char[] pattern, int from, int to) {
+        List<Integer> matches = new ArrayList<Integer>();
+        if (pattern.length == 0) {
+            for (int i = from; i < to; i++) {
+                matches.add(ids[i]);
+            }
+            return matches;
+        }
+
+        // Skip through the whole range for the first character, rather than string by string, as
+        // it's a tighter loop; the string at each candidate is found by moving 'i' along with it
+        char first = pattern[0];
+        char[] chars = this.chars;
+        int end = offsets[to];
+        int i = from;
+        int position = offsets[from];
+        while (true) {
+            while (position < end && chars[position] != first) {
+                position++;
+            }
+            if (position == end)
+                break;
+
+            while (offsets[i + 1] <= position) {
+                i++;
+            }
+
+            if (position + pattern.length <= offsets[i + 1] && matchesAt(pattern, position)) {
+                matches.add(ids[i]);
+                position = offsets[i + 1];
+            } else {
+                position++;
+            }
+        }
+        return matches;
+    }
+
+    private boolean matchesAt(char[] pattern, int start) {
+        for (int j = 1; j < pattern.length; j++) {
+            if (chars[start + j] != pattern[j])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scans a range of strings, splitting it in two until its strings are short enough in total
+     * to be a single chunk.  It runs with the scanner's read lock held by the caller.
+     */
+    private class ScanTask extends RecursiveTask<List<Integer>> {
+        private static final long serialVersionUID = 1L;
+
+        private final char[] pattern;
+        private final int from;
+        private final int to;
+
+        ScanTask(char[] pattern, int from, int to) {
+            this.pattern = pattern;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Integer> compute() {
+            if (to - from <= 1 || offsets[to] - offsets[from] <= CHUNK_CHARS)
+                return scan(pattern, from, to);
+
+            int middle = (from + to) >>> 1;
+            ScanTask second_half = new ScanTask(pattern, middle, to);
+            second_half.fork();
+            List<Integer> matches = new ScanTask(pattern, from, middle).compute();
+            matches.addAll(second_half.join());
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package contactsmanager.util;
+
+import java.util.*;
+
+/**
+ * Read-only SortedSet and SortedMap views of lists that are already in order.
+ *
+ * They exist to fill TreeSets and TreeMaps quickly: 'new TreeSet(sorted_set)' and
+ * 'tree_map.putAll(sorted_map)' (into an empty map with the same comparator) build the tree
+ * directly from the view's iterator, in linear time and without calling the comparator, rather
+ * than inserting each element in turn.  The views trust that the lists really are in order (with
+ * no duplicates), and only support what those constructors need: iteration, size and comparator.
+ */
+public final class PresortedCollections {
+    private PresortedCollections() {
+    }
+
+    /**
+     * Returns a SortedSet view of the given list, which must already be in the comparator's order.
+     *
+     * @param elements the elements, in order.
+     * @param comparator the order they're in.
+     * @param <E> the type of the elements.
+     * @return the view.
+     */
+    public static <E> SortedSet<E> sortedSet(final List<E> elements, final Comparator<? super E> comparator) {
+        return new SortedSetView<E>(elements, comparator);
+    }
+
+    /**
+     * Returns a SortedMap view of the given keys and values, whose keys must already be in the
+     * comparator's order.
+     *
+     * @param keys the keys, in order.
+     * @param values the value for each key.
+     * @param comparator the order the keys are in.
+     * @param <K> the type of the keys.
+     * @param <V> the type of the values.
+     * @return the view.
+     * @throws IllegalArgumentException if there aren't as many values as keys.
+     */
+    public static <K, V> SortedMap<K, V> sortedMap(List<K> keys, List<V> values, Comparator<? super K> comparator) {
+        if (keys.size() != values.size())
+            throw new IllegalArgumentException(keys.size() + " keys were given, but " + values.size() + " values");
+
+        return new SortedMapView<K, V>(keys, values, comparator);
+    }
+
+    private static class SortedSetView<E> extends AbstractSet<E> implements SortedSet<E> {
+        private final List<E> elements;
+        private final Comparator<? super E> comparator;
+
+        SortedSetView(List<E> elements, Comparator<? super E> comparator) {
+            this.elements = elements;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return Collections.unmodifiableList(elements).iterator();
+        }
+
+        @Override
+        public int size() {
+            return elements.size();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public E first() {
+            if (elements.isEmpty())
+                throw new NoSuchElementException();
+            return elements.get(0);
+        }
+
+        @Override
+        public E last() {
+            if (elements.isEmpty())
+                throw new NoSuchElementException();
+            return elements.get(elements.size() - 1);
+        }
+
+        @Override
+        public SortedSet<E> subSet(E from, E to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedSet<E> headSet(E to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E from) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class SortedMapView<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+        private final List<K> keys;
+        private final List<V> values;
+        private final Comparator<? super K> comparator;
+
+        SortedMapView(List<K> keys, List<V> values, Comparator<? super K> comparator) {
+            this.keys = keys;
+            this.values = values;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new Iterator<Entry<K, V>>() {
+                        private int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < keys.size();
+                        }
+
+                        @Override
+                        public Entry<K, V> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            Entry<K, V> entry = new SimpleImmutableEntry<K, V>(keys.get(index), values.get(index));
+                            index++;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.size();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return keys.size();
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public K firstKey() {
+            if (keys.isEmpty())
+                throw new NoSuchElementException();
+            return keys.get(0);
+        }
+
+        @Override
+        public K lastKey() {
+            if (keys.isEmpty())
+                throw new NoSuchElementException();
+            return keys.get(keys.size() - 1);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K from, K to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K from) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A radix trie of words, each belonging to one or more (integer) ids, which finds the best-scoring
+ * ids with a word starting with a given prefix.
+ *
+ * Each id has one or more words and a score, and ids are ranked by score (highest first) then by
+ * id.  Words are matched exactly as they were given, so callers wanting case-insensitive matching
+ * should give lower-case words and prefixes.
+ *
+ * Each node of the trie keeps the ranked ids of the best 'top_size' ids with a word below it, so
+ * a search for no more than that many ids only has to find the prefix's node.  Keeping these
+ * lists right relies on scores only ever rising: a raised score can only move its id up a list,
+ * or into one in place of the list's last id.  Longer searches walk the prefix's subtree.
+ *
+ * The trie is guarded by a read-write lock, so many searches can run at once while ids are being
+ * added or their scores raised from another thread.
+ */
+public class RankedRadixTrie {
+    private static final int DEFAULT_TOP_SIZE = 16;
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+    private static final int[] NO_IDS = new int[0];
+
+    private final int top_size;
+    private final Node root = new Node(null, NO_CHARS);
+    // Indexed by id: the id's score, and the nodes its words end at (null if the id isn't added)
+    private long[] scores = new long[0];
+    private Node[][] word_ends_by_id = new Node[0][];
+    private int size = 0;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * A node of the trie, reached from its parent by the characters in 'label'.
+     */
+    private static final class Node {
+        private Node parent;
+        private char[] label;
+        // The first characters of the children's labels, in order, and the children themselves
+        private char[] child_chars = NO_CHARS;
+        private Node[] children = NO_NODES;
+        // The best ids with a word at or below this node, best first
+        private int[] top = NO_IDS;
+        private int top_count = 0;
+        // The ids with a word ending at this node
+        private int[] ids = NO_IDS;
+        private int id_count = 0;
+
+        Node(Node parent, char[] label) {
+            this.parent = parent;
+            this.label = label;
+        }
+
+        int findChild(char c) {
+            return Arrays.binarySearch(child_chars, c);
+        }
+
+        void insertChild(int position, Node child) {
+            char[] new_child_chars = new char[child_chars.length + 1];
+            Node[] new_children = new Node[children.length + 1];
+            System.arraycopy(child_chars, 0, new_child_chars, 0, position);
+            System.arraycopy(children, 0, new_children, 0, position);
+            new_child_chars[position] = child.label[0];
+            new_children[position] = child;
+            System.arraycopy(child_chars, position, new_child_chars, position + 1, child_chars.length - position);
+            System.arraycopy(children, position, new_children, position + 1, children.length - position);
+            child_chars = new_child_chars;
+            children = new_children;
+        }
+
+        void addId(int id) {
+            if (id_count == ids.length)
+                ids = Arrays.copyOf(ids, Math.max(1, ids.length * 2));
+            ids[id_count++] = id;
+        }
+    }
+
+    /**
+     * Creates an empty trie, whose nodes each keep their best 16 ids.
+     */
+    public RankedRadixTrie() {
+        this(DEFAULT_TOP_SIZE);
+    }
+
+    /**
+     * Creates an empty trie, whose nodes each keep their best 'top_size' ids.
+     *
+     * @param top_size the number of ids each node keeps (and so the longest search that doesn't
+     *                 need to walk the prefix's subtree).
+     * @throws IllegalArgumentException if top_size isn't positive.
+     */
+    public RankedRadixTrie(int top_size) {
+        if (top_size <= 0)
+            throw new IllegalArgumentException("top_size " + top_size + " is not positive");
+
+        this.top_size = top_size;
+    }
+
+    /**
+     * Adds an id with the given words and score.  An id with no words is only found by searching
+     * for the empty prefix.
+     *
+     * @param id the id to add (must not be negative).
+     * @param words the id's words.
+     * @param score the id's score.
+     * @throws IllegalArgumentException if id is negative, or has already been added.
+     * @throws NullPointerException if words is null or contains null.
+     */
+    public void add(int id, Collection<String> words, long score) {
+        if (id < 0)
+            throw new IllegalArgumentException("Id " + id + " is negative");
+
+        Set<String> distinct_words = new LinkedHashSet<String>(words);
+        if (distinct_words.contains(null))
+            throw new NullPointerException("words contains null");
+
+        // An id without words still has to be somewhere in the trie, for walks of the whole trie
+        if (distinct_words.isEmpty())
+            distinct_words.add("");
+
+        lock.writeLock().lock();
+        try {
+            if (id < word_ends_by_id.length && word_ends_by_id[id] != null)
+                throw new IllegalArgumentException("Id " + id + " has already been added");
+
+            ensureCapacity(id);
+            scores[id] = score;
+
+            Node[] word_ends = new Node[distinct_words.size()];
+            int i = 0;
+            for (String word : distinct_words) {
+                word_ends[i++] = insert(word, id);
+            }
+            word_ends_by_id[id] = word_ends;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= scores.length) {
+            int capacity = Math.max(id + 1, scores.length * 2);
+            scores = Arrays.copyOf(scores, capacity);
+            word_ends_by_id = Arrays.copyOf(word_ends_by_id, capacity);
+        }
+    }
+
+    /**
+     * Adds a word for the given id, whose score has been set, and offers the id to the top lists
+     * of every node on the word's path.
+     *
+     * @return the node the word ends at.
+     */
+    private Node insert(String word, int id) {
+        Node node = root;
+        offer(node, id);
+
+        int i = 0;
+        while (i < word.length()) {
+            int position = node.findChild(word.charAt(i));
+            if (position < 0) {
+                Node leaf = new Node(node, word.substring(i).toCharArray());
+                node.insertChild(-position - 1, leaf);
+                offer(leaf, id);
+                node = leaf;
+                break;
+            }
+
+            Node child = node.children[position];
+            int common = commonPrefixLength(child.label, word, i);
+            if (common < child.label.length) {
+                // Split the edge, with the new node taking over the child's place (and its ids)
+                Node middle = new Node(node, Arrays.copyOf(child.label, common));
+                middle.child_chars = new char[] {child.label[common]};
+                middle.children = new Node[] {child};
+                middle.top = Arrays.copyOf(child.top, child.top.length);
+                middle.top_count = child.top_count;
+                child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+                child.parent = middle;
+                node.children[position] = middle;
+                child = middle;
+            }
+
+            offer(child, id);
+            node = child;
+            i += common;
+        }
+
+        node.addId(id);
+        return node;
+    }
+
+    private static int commonPrefixLength(char[] label, String word, int start) {
+        int length = 0;
+        while (length < label.length && start + length < word.length() && label[length] == word.charAt(start + length)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Puts the id in its place in the node's top list, if it belongs there.  The id must have
+     * been ranked no higher when the list was last changed, so it can only move up.
+     */
+    private void offer(Node node, int id) {
+        int position = -1;
+        for (int i = 0; i < node.top_count; i++) {
+            if (node.top[i] == id) {
+                position = i;
+                break;
+            }
+        }
+
+        if (position == -1) {
+            if (node.top_count == top_size) {
+                if (!ranksBefore(id, node.top[top_size - 1]))
+                    return;
+                position = top_size - 1;
+            } else {
+                if (node.top_count == node.top.length)
+                    node.top = Arrays.copyOf(node.top, Math.min(top_size, Math.max(1, node.top.length * 2)));
+                position = node.top_count++;
+            }
+        }
+
+        int[] top = node.top;
+        while (position > 0 && ranksBefore(id, top[position - 1])) {
+            top[position] = top[position - 1];
+            position--;
+        }
+        top[position] = id;
+    }
+
+    private boolean ranksBefore(int id, int other_id) {
+        return scores[id] > scores[other_id] || (scores[id] == scores[other_id] && id < other_id);
+    }
+
+    /**
+     * Raises the score of an id.
+     *
+     * @param id the id.
+     * @param score the id's new score.
+     * @throws IllegalArgumentException if the id hasn't been added, or the score is lower than its
+     *                                  current score.
+     */
+    public void raiseScore(int id, long score) {
+        lock.writeLock().lock();
+        try {
+            Node[] word_ends = getWordEnds(id);
+            if (score < scores[id])
+                throw new IllegalArgumentException("Score " + score + " of id " + id + " is lower than its current score " + scores[id]);
+
+            scores[id] = score;
+
+            // Nodes shared by several of the id's words are offered it more than once, which is harmless
+            for (Node node : word_ends) {
+                for (; node != null; node = node.parent) {
+                    offer(node, id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the score of an id.
+     *
+     * @param id the id.
+     * @return the id's score.
+     * @throws IllegalArgumentException if the id hasn't been added.
+     */
+    public long getScore(int id) {
+        lock.readLock().lock();
+        try {
+            getWordEnds(id);
+            return scores[id];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Node[] getWordEnds(int id) {
+        if (id < 0 || id >= word_ends_by_id.length || word_ends_by_id[id] == null)
+            throw new IllegalArgumentException("Id " + id + " has not been added");
+
+        return word_ends_by_id[id];
+    }
+
+    /**
+     * @return the number of ids in the trie.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the best-scoring ids with a word starting with the given prefix, highest score first
+     * then by id.
+     *
+     * @param prefix the start of the words to find (every id has a word starting with "").
+     * @param limit the greatest number of ids to return.
+     * @return up to 'limit' ids, best first.
+     * @throws NullPointerException if prefix is null.
+     * @throws IllegalArgumentException if limit is negative.
+     */
+    public List<Integer> search(String prefix, int limit) {
+        if (prefix == null)
+            throw new NullPointerException("prefix is null");
+
+        if (limit < 0)
+            throw new IllegalArgumentException("limit " + limit + " is negative");
+
+        lock.readLock().lock();
+        try {
+            Node node = findPrefix(prefix);
+            if (node == null || limit == 0)
+                return new ArrayList<Integer>();
+
+            // The node's list has every id below it if it isn't full
+            if (limit <= node.top_count || node.top_count < top_size) {
+                List<Integer> ids = new ArrayList<Integer>();
+                for (int i = 0; i < Math.min(limit, node.top_count); i++) {
+                    ids.add(node.top[i]);
+                }
+                return ids;
+            }
+
+            List<Integer> ids = new ArrayList<Integer>(collectIds(node));
+            Collections.sort(ids, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return ranksBefore(o1, o2) ? -1 : (o1.equals(o2) ? 0 : 1);
+                }
+            });
+            return new ArrayList<Integer>(ids.subList(0, Math.min(limit, ids.size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the node below which every word starts with the prefix, or null if no word does.
+     */
+    private Node findPrefix(String prefix) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            int position = node.findChild(prefix.charAt(i));
+            if (position < 0)
+                return null;
+
+            Node child = node.children[position];
+            int common = commonPrefixLength(child.label, prefix, i);
+            if (i + common < prefix.length() && common < child.label.length)
+                return null;
+
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    /**
+     * @return every id with a word at or below the given node.
+     */
+    private static Set<Integer> collectIds(Node start) {
+        Set<Integer> ids = new HashSet<Integer>();
+        List<Node> to_visit = new ArrayList<Node>();
+        to_visit.add(start);
+        while (!to_visit.isEmpty()) {
+            Node node = to_visit.remove(to_visit.size() - 1);
+            for (int i = 0; i < node.id_count; i++) {
+                ids.add(node.ids[i]);
+            }
+            to_visit.addAll(Arrays.asList(node.children));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,147 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Future whose result is set directly by whoever computes it, rather than by running a task.
+ * It can't be cancelled.
+ *
+ * Listeners added before it completes are run by the thread that completes it, once it has (each
+ * on its own executor).
+ *
+ * @param <T> the type of the result.
+ */
+public class SettableFuture<T> implements ListenableFuture<T> {
+    /**
+     * A listener, and the executor to run it on.
+     */
+    private static class Listener {
+        private final Runnable listener;
+        private final Executor executor;
+
+        Listener(Runnable listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void run() {
+            try {
+                executor.execute(listener);
+            } catch (RuntimeException err) {
+                // Eg. the executor has been shut down: the other listeners should still run
+                err.printStackTrace();
+            }
+        }
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean is_set = false;
+    private T result;
+    private Throwable failure;
+    // The listeners waiting for the future to complete
+    private final List<Listener> listeners = new ArrayList<Listener>();
+
+    /**
+     * Completes the future with the given result, unless it's already complete.
+     *
+     * @param result the result.
+     * @return true if this completed the future.
+     */
+    public boolean set(T result) {
+        return complete(result, null);
+    }
+
+    /**
+     * Completes the future with the given exception, unless it's already complete.
+     *
+     * @param failure the exception, which 'get' throws wrapped in an ExecutionException.
+     * @return true if this completed the future.
+     */
+    public boolean setException(Throwable failure) {
+        if (failure == null)
+            throw new NullPointerException("failure is null");
+
+        return complete(null, failure);
+    }
+
+    /**
+     * Completes the future, unless it's already complete, then runs the listeners waiting for it.
+     */
+    private boolean complete(T result, Throwable failure) {
+        List<Listener> to_run;
+        synchronized (this) {
+            if (is_set)
+                return false;
+
+            this.result = result;
+            this.failure = failure;
+            is_set = true;
+            to_run = new ArrayList<Listener>(listeners);
+            listeners.clear();
+        }
+        done.countDown();
+
+        // Outside the lock, as an executor may run a listener on this thread
+        for (Listener listener : to_run) {
+            listener.run();
+        }
+        return true;
+    }
+
+    @Override
+    public void addListener(Runnable listener, Executor executor) {
+        if (listener == null)
+            throw new NullPointerException("listener is null");
+
+        if (executor == null)
+            throw new NullPointerException("executor is null");
+
+        synchronized (this) {
+            if (!is_set) {
+                listeners.add(new Listener(listener, executor));
+                return;
+            }
+        }
+        new Listener(listener, executor).run();
+    }
+
+    @Override
+    public boolean cancel(boolean may_interrupt) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return is_set;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit))
+            throw new TimeoutException();
+        return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (failure != null)
+            throw new ExecutionException(failure);
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package contactsmanager.util;
+
+import java.util.Arrays;
+
+/**
+ * An array of ints indexed by any non-negative int, whose entries are allocated a page (1024
+ * entries) at a time as they're set.  So a few far-apart indexes cost a page each, rather than
+ * an entry for every index up to the highest, while close-together indexes (eg. ids allocated in
+ * sequence) cost little more than a plain array.  Entries that haven't been set hold the
+ * 'missing' value given to the constructor.
+ *
+ * This class is not thread-safe.
+ */
+public class SparseIntArray {
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final int missing;
+    // Indexed by (index >> PAGE_BITS); null where no entry of the page has been set
+    private int[][] pages = new int[0][];
+    private int page_count = 0;
+
+    /**
+     * Creates an array whose entries all hold the given value.
+     *
+     * @param missing the value of entries that haven't been set.
+     */
+    public SparseIntArray(int missing) {
+        this.missing = missing;
+    }
+
+    /**
+     * @param index the entry's index.
+     * @return the entry's value, or the missing value if it hasn't been set (or index is negative).
+     */
+    public int get(int index) {
+        if (index < 0)
+            return missing;
+
+        int page_index = index >> PAGE_BITS;
+        if (page_index >= pages.length || pages[page_index] == null)
+            return missing;
+
+        return pages[page_index][index & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * Sets the given entry, allocating its page if need be.
+     *
+     * @param index the entry's index.
+     * @param value the value to set it to.
+     * @throws IllegalArgumentException if index is negative.
+     */
+    public void set(int index, int value) {
+        if (index < 0)
+            throw new IllegalArgumentException("Index " + index + " is negative");
+
+        int page_index = index >> PAGE_BITS;
+        if (page_index >= pages.length)
+            pages = Arrays.copyOf(pages, Math.max(page_index + 1, pages.length * 2));
+
+        int[] page = pages[page_index];
+        if (page == null) {
+            page = new int[PAGE_SIZE];
+            Arrays.fill(page, missing);
+            pages[page_index] = page;
+            page_count++;
+        }
+        page[index & (PAGE_SIZE - 1)] = value;
+    }
+
+    /**
+     * @return the number of pages allocated.
+     */
+    public int getPageCount() {
+        return page_count;
+    }
+}
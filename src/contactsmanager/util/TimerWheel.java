@@ -0,0 +1,231 @@
+package contactsmanager.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hierarchical timer wheel: items, each with an (integer) id, that fall due at given times,
+ * and are taken from the wheel as time is advanced past them.
+ *
+ * Time is counted in ticks of a fixed length.  The wheel has several levels of 64 slots: a slot
+ * in the lowest level holds the items due in one tick, and a slot in each level above holds the
+ * items due in 64 times as many ticks as one in the level below.  An item goes into the lowest
+ * level whose slots, counted from the current tick, reach its due tick.  As time advances, each
+ * time a higher-level slot's span starts, its items are moved down into the levels below
+ * (cascaded), so every item reaches the lowest level by the tick it's due.  Items due further
+ * ahead than the top level reaches wait in its furthest slot, and are placed again when cascaded.
+ *
+ * Each slot is a doubly-linked list, and items are also kept by id, so scheduling and cancelling
+ * an item are O(1) however many items are waiting.  Advancing costs a constant per tick passed,
+ * plus each item's cascades (at most one per level); ticks before the next slot of the lowest
+ * non-empty level starts are skipped, as nothing can happen in them.
+ *
+ * The wheel is not thread-safe.
+ *
+ * @param <T> the type of the items.
+ */
+public class TimerWheel<T> {
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    // The most ticks ahead the top level reaches
+    private static final long MAX_TICKS = 1L << (LEVEL_BITS * LEVELS);
+
+    private static final class Node<T> {
+        private final int id;
+        private final long tick;
+        private final T item;
+        private int level;
+        private int slot;
+        private Node<T> previous;
+        private Node<T> next;
+
+        Node(int id, long tick, T item) {
+            this.id = id;
+            this.tick = tick;
+            this.item = item;
+        }
+    }
+
+    private final long tick_millis;
+    // The first node in each slot of each level
+    private final Node<T>[][] slots;
+    private final int[] level_sizes = new int[LEVELS];
+    private final Map<Integer, Node<T>> nodes_by_id = new HashMap<Integer, Node<T>>();
+    // The last tick advanced to: items due in it or before have been taken
+    private long current_tick;
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param tick_millis the length of a tick, in milliseconds.
+     * @param start_millis the time to start from, in milliseconds (eg. since the epoch).
+     * @throws IllegalArgumentException if tick_millis isn't positive.
+     */
+    public TimerWheel(long tick_millis, long start_millis) {
+        if (tick_millis < 1)
+            throw new IllegalArgumentException("Tick length " + tick_millis + " isn't positive");
+
+        this.tick_millis = tick_millis;
+        @SuppressWarnings("unchecked")
+        Node<T>[][] empty_slots = (Node<T>[][]) new Node<?>[LEVELS][SLOTS];
+        this.slots = empty_slots;
+        this.current_tick = start_millis / tick_millis;
+    }
+
+    /**
+     * @return the length of a tick, in milliseconds.
+     */
+    public long getTickMillis() {
+        return tick_millis;
+    }
+
+    /**
+     * @return the number of items waiting.
+     */
+    public int size() {
+        return nodes_by_id.size();
+    }
+
+    /**
+     * Schedules an item, replacing any item already waiting with the same id.  It's taken by the
+     * first 'advance' to the tick it's due in or later (so never before it's due, but up to a
+     * tick after).  An item due at or before the time already advanced to is taken by the next
+     * 'advance' past the current tick.
+     *
+     * @param id the item's id.
+     * @param due_millis the time the item is due, in milliseconds.
+     * @param item the item.
+     * @throws NullPointerException if item is null.
+     */
+    public void schedule(int id, long due_millis, T item) {
+        if (item == null)
+            throw new NullPointerException("item is null");
+
+        cancel(id);
+
+        // Round up, so an item is never taken before it's due
+        long tick = due_millis / tick_millis + (due_millis % tick_millis > 0 ? 1 : 0);
+        Node<T> node = new Node<T>(id, Math.max(tick, current_tick + 1), item);
+        nodes_by_id.put(id, node);
+        place(node);
+    }
+
+    /**
+     * Cancels the waiting item with the given id.
+     *
+     * @param id the item's id.
+     * @return the item, or null if there was no item waiting with that id.
+     */
+    public T cancel(int id) {
+        Node<T> node = nodes_by_id.remove(id);
+        if (node == null)
+            return null;
+
+        unlink(node);
+        return node.item;
+    }
+
+    /**
+     * Advances the wheel to the given time, taking every item due by then.  The wheel never
+     * goes back: advancing to an earlier time than before takes nothing.
+     *
+     * @param now_millis the time to advance to, in milliseconds.
+     * @return the items due, in the order of their due ticks (maybe empty).
+     */
+    public List<T> advance(long now_millis) {
+        long now_tick = now_millis / tick_millis;
+        List<T> due = new ArrayList<T>();
+
+        while (current_tick < now_tick) {
+            // Skip the ticks where nothing can happen: while the levels below the lowest
+            // non-empty one stay empty, nothing is taken until one of its slots is cascaded
+            int lowest = 0;
+            while (lowest < LEVELS && level_sizes[lowest] == 0) {
+                lowest++;
+            }
+            if (lowest == LEVELS) {
+                current_tick = now_tick;
+                break;
+            }
+            if (lowest > 0) {
+                long span = 1L << (LEVEL_BITS * lowest);
+                current_tick = Math.min(now_tick, (current_tick / span + 1) * span - 1);
+                if (current_tick == now_tick)
+                    break;
+            }
+
+            long tick = ++current_tick;
+
+            // Cascade each level whose slot's span starts at this tick, from the lowest up
+            for (int level = 1; level < LEVELS; level++) {
+                if ((tick & ((1L << (LEVEL_BITS * level)) - 1)) != 0)
+                    break;
+
+                int slot = (int) ((tick >>> (LEVEL_BITS * level)) & SLOT_MASK);
+                Node<T> node = slots[level][slot];
+                slots[level][slot] = null;
+                while (node != null) {
+                    Node<T> next = node.next;
+                    level_sizes[level]--;
+                    place(node);
+                    node = next;
+                }
+            }
+
+            int slot = (int) (tick & SLOT_MASK);
+            Node<T> node = slots[0][slot];
+            slots[0][slot] = null;
+            while (node != null) {
+                level_sizes[0]--;
+                nodes_by_id.remove(node.id);
+                due.add(node.item);
+                node = node.next;
+            }
+        }
+
+        return due;
+    }
+
+    /**
+     * Puts a node in the slot for its due tick, counted from the current tick.
+     */
+    private void place(Node<T> node) {
+        long delta = node.tick - current_tick;
+        long tick = node.tick;
+        if (delta >= MAX_TICKS) {
+            // Wait in the top level's furthest slot, to be placed again once it's cascaded
+            delta = MAX_TICKS - 1;
+            tick = current_tick + delta;
+        }
+
+        int level = 0;
+        while (delta >= 1L << (LEVEL_BITS * (level + 1))) {
+            level++;
+        }
+
+        level_sizes[level]++;
+        node.level = level;
+        node.slot = (int) ((tick >>> (LEVEL_BITS * level)) & SLOT_MASK);
+        node.previous = null;
+        node.next = slots[level][node.slot];
+        if (node.next != null)
+            node.next.previous = node;
+        slots[level][node.slot] = node;
+    }
+
+    private void unlink(Node<T> node) {
+        level_sizes[node.level]--;
+        if (node.previous == null) {
+            slots[node.level][node.slot] = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+
+        if (node.next != null)
+            node.next.previous = node.previous;
+    }
+}
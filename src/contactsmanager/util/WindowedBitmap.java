@@ -0,0 +1,124 @@
+package contactsmanager.util;
+
+import java.util.Collection;
+
+/**
+ * A set of integers (which may be negative), held as one bit each over the window of 64-bit
+ * words that covers them.  The window starts empty and grows at either end as values are added,
+ * so it costs a bit for every integer between the lowest and highest values, and suits values
+ * that are close together (eg. the days a contact has meetings on).
+ *
+ * Unions are found word by word, without building a new set: see 'nextClearBit'.
+ *
+ * This class is not thread-safe.
+ */
+public class WindowedBitmap {
+    private static final int WORD_BITS = 6;
+
+    private long[] words = new long[0];
+    // The index of the word at words[0]: word w holds the values from w * 64 to w * 64 + 63
+    private int first_word = 0;
+
+    /**
+     * Adds the given value to the set.
+     *
+     * @param value the value to add.
+     */
+    public void add(int value) {
+        int word = value >> WORD_BITS;
+        ensureCovers(word);
+        words[word - first_word] |= 1L << value;
+    }
+
+    /**
+     * @param value the value to check.
+     * @return true if the value is in the set.
+     */
+    public boolean contains(int value) {
+        return (getWord(value >> WORD_BITS) & (1L << value)) != 0;
+    }
+
+    /**
+     * @return true if the set has no values.
+     */
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the word with the given index: bit i holds whether value (index * 64 + i) is in the set.
+     *
+     * @param index the word's index.
+     * @return the word (0 outside the window).
+     */
+    public long getWord(int index) {
+        int offset = index - first_word;
+        return offset >= 0 && offset < words.length ? words[offset] : 0;
+    }
+
+    /**
+     * Grows the window (if need be) to cover the word with the given index, at least doubling it
+     * so that adding values one by one in either direction takes amortised constant time.
+     */
+    private void ensureCovers(int word) {
+        if (words.length == 0) {
+            words = new long[1];
+            first_word = word;
+            return;
+        }
+
+        int last_word = first_word + words.length - 1;
+        if (word >= first_word && word <= last_word)
+            return;
+
+        int length = Math.max(words.length * 2, Math.max(last_word, word) - Math.min(first_word, word) + 1);
+        long[] grown = new long[length];
+        if (word < first_word) {
+            // Grow at the front, keeping the end where it is
+            int new_first_word = last_word - length + 1;
+            System.arraycopy(words, 0, grown, first_word - new_first_word, words.length);
+            first_word = new_first_word;
+        } else {
+            System.arraycopy(words, 0, grown, 0, words.length);
+        }
+        words = grown;
+    }
+
+    /**
+     * Returns the lowest value from 'from' (inclusive) to 'to' (exclusive) that's in none of the
+     * given sets.  The sets are OR-ed together a word at a time, stopping at the first word with
+     * a value missing from all of them, so this looks at no more than one word of each set per
+     * 64 values passed over.
+     *
+     * @param bitmaps the sets.
+     * @param from the lowest value to return.
+     * @param to the value after the highest value to return.
+     * @return the value, or 'to' if every value in the range is in one of the sets.
+     */
+    public static int nextClearBit(Collection<WindowedBitmap> bitmaps, int from, int to) {
+        if (from >= to)
+            return to;
+
+        int last_word = (to - 1) >> WORD_BITS;
+        for (int word = from >> WORD_BITS; word <= last_word; word++) {
+            long union = 0;
+            for (WindowedBitmap bitmap : bitmaps) {
+                union |= bitmap.getWord(word);
+            }
+
+            // Ignore the values before 'from' in its word
+            if (word == from >> WORD_BITS)
+                union |= (1L << from) - 1;
+
+            if (union != -1L) {
+                long value = ((long) word << WORD_BITS) + Long.numberOfTrailingZeros(~union);
+                return value < to ? (int) value : to;
+            }
+        }
+        return to;
+    }
+}
@@ -0,0 +1,178 @@
+package contactsmanager;
+
+import contactsmanager.util.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for AsyncContactManager
+ */
+public class AsyncContactManagerTest {
+    private final String filename = "AsyncContactManagerTest_output.xml";
+    private AsyncContactManager manager;
+    private Calendar future_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new AsyncContactManager(new ContactManagerImpl(filename));
+
+        future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+    }
+
+    @After
+    public void cleanUp() {
+        if (manager != null)
+            manager.shutdown();
+
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testWritesAreOrdered() throws Exception {
+        List<Future<Void>> writes = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 100; i++) {
+            writes.add(manager.addNewContact("Contact " + i, ""));
+        }
+
+        // Waiting for the last write is enough, as the writes run in order
+        writes.get(99).get();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(writes.get(i).isDone());
+            assertEquals("Contact " + i, manager.getContacts(i).get().iterator().next().getName());
+        }
+    }
+
+    @Test
+    public void testMeetings() throws Exception {
+        manager.addNewContact("Alice", "").get();
+        Contact alice = manager.getContacts(0).get().iterator().next();
+
+        int id = manager.addFutureMeeting(setOf(alice), future_date).get();
+        assertEquals(setOf(alice), manager.getFutureMeeting(id).get().getContacts());
+        assertEquals(1, manager.getFutureMeetingList(alice).get().size());
+        assertEquals(1, manager.getMeetingsWithAnyOf(setOf(alice)).get().size());
+    }
+
+    @Test
+    public void testArgumentsAreCopied() throws Exception {
+        manager.addNewContact("Alice", "").get();
+        Contact alice = manager.getContacts(0).get().iterator().next();
+
+        Set<Contact> contacts = setOf(alice);
+        Calendar date = (Calendar) future_date.clone();
+        Future<Integer> id = manager.addFutureMeeting(contacts, date);
+        contacts.clear();
+        date.add(Calendar.YEAR, -10);
+
+        Meeting meeting = manager.getMeeting(id.get()).get();
+        assertEquals(setOf(alice), meeting.getContacts());
+        assertEquals(future_date.getTimeInMillis(), meeting.getDate().getTimeInMillis());
+    }
+
+    @Test
+    public void testExceptionsAreReportedThroughFuture() throws Exception {
+        Future<Set<Contact>> unknown = manager.getContacts(99);
+        try {
+            unknown.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException err) {
+            assertTrue(err.getCause() instanceof IllegalArgumentException);
+        }
+
+        Future<Void> nulls = manager.addNewContact(null, "");
+        try {
+            nulls.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException err) {
+            assertTrue(err.getCause() instanceof NullPointerException);
+        }
+
+        // A failed write doesn't stop later writes
+        manager.addNewContact("Alice", "").get();
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws Exception {
+        List<Future<Set<Contact>>> reads = new ArrayList<Future<Set<Contact>>>();
+        for (int i = 0; i < 200; i++) {
+            manager.addNewContact("Contact " + i, "");
+            reads.add(manager.getContacts("Contact"));
+        }
+
+        // Each read sees some prefix of the writes, and never a partly-added contact
+        for (Future<Set<Contact>> read : reads) {
+            for (Contact contact : read.get()) {
+                assertTrue(contact.getName().startsWith("Contact "));
+            }
+        }
+        manager.flush().get();
+        assertEquals(200, manager.getContacts("Contact").get().size());
+        assertEquals(200, new ContactManagerImpl(filename).getContacts("Contact").size());
+    }
+
+    @Test
+    public void testListenersChainCalls() throws Exception {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Add a contact, then (without blocking this thread) look it up, then report it
+            final ListenableFuture<Void> added = manager.addNewContact("Alice", "");
+            added.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    final ListenableFuture<Set<Contact>> found = manager.getContacts("Alice");
+                    found.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                results.add(found.get().iterator().next().getName());
+                            } catch (Exception err) {
+                                results.add(err);
+                            }
+                        }
+                    }, executor);
+                }
+            }, executor);
+
+            assertEquals("Alice", results.poll(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        ContactManager loaded = new ContactManagerImpl(filename);
+        loaded.addNewContact("Alice", "");
+        loaded.flush();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AsyncContactManager opened = AsyncContactManager.open(filename, executor).get();
+            assertTrue(opened.getManager() instanceof ContactManagerImpl);
+            assertEquals(1, opened.getContacts("Alice").get().size());
+            opened.shutdown();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package contactsmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Test class for AttendeeSet
+ */
+public class AttendeeSetTest {
+    private Contact alice, bob, charlie;
+    private AttendeeSet attendees;
+
+    @Before
+    public void setUp() throws Exception {
+        alice = DIFactory.getInstance().newContact(7, "Alice");
+        bob = DIFactory.getInstance().newContact(3, "Bob");
+        charlie = DIFactory.getInstance().newContact(5, "Charlie");
+        attendees = new AttendeeSet(setOf(alice, bob));
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        assertTrue(attendees.contains(alice));
+        assertTrue(attendees.contains(bob));
+        assertFalse(attendees.contains(charlie));
+        assertFalse(attendees.contains("Alice"));
+        assertTrue(attendees.containsId(3));
+        assertFalse(attendees.containsId(5));
+    }
+
+    @Test
+    public void testContainsChecksMoreThanId() throws Exception {
+        Contact other_alice = DIFactory.getInstance().newContact(7, "Not Alice");
+        assertFalse(attendees.contains(other_alice));
+    }
+
+    @Test
+    public void testIdsAreSorted() throws Exception {
+        assertArrayEquals(new int[]{3, 7}, attendees.getIds());
+    }
+
+    @Test
+    public void testEqualsOtherSets() throws Exception {
+        assertEquals(setOf(alice, bob), attendees);
+        assertEquals(attendees, setOf(alice, bob));
+        assertEquals(attendees, new AttendeeSet(setOf(bob, alice)));
+        assertFalse(attendees.equals(new AttendeeSet(setOf(alice, charlie))));
+        assertEquals(setOf(alice, bob).hashCode(), attendees.hashCode());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() throws Exception {
+        attendees.add(charlie);
+    }
+
+    @Test
+    public void testCopyOnWrite() throws Exception {
+        Set<Contact> copy = attendees.copyOnWrite();
+        assertEquals(attendees, copy);
+
+        copy.add(charlie);
+        assertEquals(setOf(alice, bob, charlie), copy);
+        assertEquals(setOf(alice, bob), attendees);
+
+        copy.remove(alice);
+        assertEquals(setOf(bob, charlie), copy);
+    }
+
+    @Test
+    public void testCopyOnWriteIteratorRemove() throws Exception {
+        Set<Contact> copy = attendees.copyOnWrite();
+        Iterator<Contact> iterator = copy.iterator();
+        iterator.next();
+        iterator.remove();
+
+        assertEquals(1, copy.size());
+        assertEquals(2, attendees.size());
+    }
+}
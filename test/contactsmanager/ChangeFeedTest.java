@@ -0,0 +1,220 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for ChangeFeed (and ContactManagerImpl's change events)
+ */
+public class ChangeFeedTest {
+    private final String filename = "ChangeFeedTest_output.xml";
+    private ChangeFeed feed;
+    private Contact alice;
+
+    /**
+     * A listener which keeps copies of the events and batch sizes it receives.
+     */
+    private static class RecordingListener implements ChangeListener {
+        final List<ChangeEvent> events = Collections.synchronizedList(new ArrayList<ChangeEvent>());
+        final List<Integer> batch_sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void onEvents(List<ChangeEvent> batch) {
+            batch_sizes.add(batch.size());
+            for (ChangeEvent event : batch) {
+                events.add(event.copy());
+            }
+        }
+    }
+
+    /**
+     * A listener which blocks in its first call until released.
+     */
+    private static class BlockingListener extends RecordingListener {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void onEvents(List<ChangeEvent> batch) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.onEvents(batch);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        feed = new ChangeFeed();
+        alice = new ContactImpl(0, "Alice");
+    }
+
+    @After
+    public void cleanUp() {
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testEventsAreDeliveredInOrder() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        ChangeFeed.Subscription subscription = feed.subscribe(listener, 8, ChangeFeed.OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 100; i++) {
+            feed.publish(ChangeEvent.Type.CONTACT_ADDED, new ContactImpl(i, "Contact " + i), null, null);
+        }
+        subscription.close();
+
+        assertEquals(100, listener.events.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, listener.events.get(i).getId());
+        }
+        assertEquals(100, subscription.getDeliveredCount());
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void testEventsAreBatched() throws Exception {
+        BlockingListener listener = new BlockingListener();
+        ChangeFeed.Subscription subscription = feed.subscribe(listener, 64, ChangeFeed.OverflowPolicy.DROP);
+
+        for (int i = 0; i < 50; i++) {
+            feed.publish(ChangeEvent.Type.CONTACT_ADDED, alice, null, null);
+        }
+        listener.release.countDown();
+        subscription.close();
+
+        // Whatever arrived while the listener was blocked is delivered together
+        assertEquals(50, listener.events.size());
+        assertTrue(listener.batch_sizes.size() <= 2);
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        BlockingListener listener = new BlockingListener();
+        ChangeFeed.Subscription subscription = feed.subscribe(listener, 4, ChangeFeed.OverflowPolicy.DROP);
+
+        for (int i = 0; i < 10; i++) {
+            feed.publish(ChangeEvent.Type.CONTACT_ADDED, new ContactImpl(i, "Contact " + i), null, null);
+        }
+        assertEquals(6, subscription.getDroppedCount());
+
+        listener.release.countDown();
+        subscription.close();
+        assertEquals(4, listener.events.size());
+        assertEquals(3, listener.events.get(3).getId());
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+        ChangeListener slow_listener = new RecordingListener() {
+            @Override
+            public void onEvents(List<ChangeEvent> batch) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onEvents(batch);
+            }
+        };
+        ChangeFeed.Subscription subscription = feed.subscribe(slow_listener, 2, ChangeFeed.OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 50; i++) {
+            feed.publish(ChangeEvent.Type.CONTACT_ADDED, alice, null, null);
+        }
+        subscription.close();
+
+        assertEquals(0, subscription.getDroppedCount());
+        assertEquals(50, ((RecordingListener) slow_listener).events.size());
+    }
+
+    @Test
+    public void testFailingListenerKeepsGettingEvents() throws Exception {
+        final RecordingListener recorder = new RecordingListener();
+        ChangeFeed.Subscription subscription = feed.subscribe(new ChangeListener() {
+            @Override
+            public void onEvents(List<ChangeEvent> events) {
+                recorder.onEvents(events);
+                throw new RuntimeException("Expected failure");
+            }
+        }, 1, ChangeFeed.OverflowPolicy.BLOCK);
+
+        feed.publish(ChangeEvent.Type.CONTACT_ADDED, alice, null, null);
+        feed.publish(ChangeEvent.Type.CONTACT_ADDED, alice, null, null);
+        subscription.close();
+
+        assertEquals(2, recorder.events.size());
+    }
+
+    @Test
+    public void testUnsubscribedFeedHasNoSubscribers() throws Exception {
+        ChangeFeed.Subscription subscription = feed.subscribe(new RecordingListener(), 1, ChangeFeed.OverflowPolicy.DROP);
+        assertTrue(feed.hasSubscribers());
+        subscription.close();
+        assertFalse(feed.hasSubscribers());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() throws Exception {
+        feed.subscribe(new RecordingListener(), 0, ChangeFeed.OverflowPolicy.DROP);
+    }
+
+    @Test
+    public void testManagerEvents() throws Exception {
+        ContactManagerImpl manager = new ContactManagerImpl(filename);
+        RecordingListener listener = new RecordingListener();
+        ChangeFeed.Subscription subscription = manager.subscribe(listener, 16, ChangeFeed.OverflowPolicy.BLOCK);
+
+        manager.addNewContact("Alice", "");
+        Contact alice = manager.getContacts(0).iterator().next();
+
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.MILLISECOND, 50);
+        int future_id = manager.addFutureMeeting(setOf(alice), date);
+        Thread.sleep(100);
+        manager.addMeetingNotes(future_id, "Now past");
+
+        Calendar past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        manager.addNewPastMeeting(setOf(alice), past_date, "Was past");
+        manager.addMeetingNotes(future_id + 1, "More");
+        subscription.close();
+
+        List<ChangeEvent> events = listener.events;
+        assertEquals(6, events.size());
+        assertEquals(ChangeEvent.Type.CONTACT_ADDED, events.get(0).getType());
+        assertEquals(alice, events.get(0).getContact());
+        assertEquals(ChangeEvent.Type.MEETING_ADDED, events.get(1).getType());
+        assertEquals(future_id, events.get(1).getId());
+        assertEquals(ChangeEvent.Type.MEETING_PROMOTED, events.get(2).getType());
+        assertTrue(events.get(2).getMeeting() instanceof PastMeeting);
+        assertEquals(ChangeEvent.Type.NOTES_APPENDED, events.get(3).getType());
+        assertEquals("Now past", events.get(3).getText());
+        assertEquals(ChangeEvent.Type.MEETING_ADDED, events.get(4).getType());
+        assertEquals(ChangeEvent.Type.NOTES_APPENDED, events.get(5).getType());
+        assertEquals(future_id + 1, events.get(5).getId());
+
+        // Reloading publishes nothing
+        manager.flush();
+        RecordingListener reload_listener = new RecordingListener();
+        ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+        reloaded.subscribe(reload_listener, 16, ChangeFeed.OverflowPolicy.BLOCK).close();
+        assertTrue(reload_listener.events.isEmpty());
+    }
+}
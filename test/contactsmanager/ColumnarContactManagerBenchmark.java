@@ -0,0 +1,105 @@
+package contactsmanager;
+
+import java.util.*;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+
+/**
+ * Compares the heap that ColumnarContactManager and ContactManagerImpl take up for millions of
+ * meetings.  It takes a minute or two and most of a default-sized heap, so it's run by hand
+ * rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.ColumnarContactManagerBenchmark
+ */
+public class ColumnarContactManagerBenchmark {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final String FILENAME = "ColumnarContactManagerBenchmark_output.xml";
+
+    /**
+     * Returns the heap in use, after collecting as much garbage as possible.
+     */
+    private static long getUsedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Adds the given number of meetings, of 2 of 1000 contacts each, to the given manager (in
+     * batches, so that the arguments don't all have to be held at once), half of them in the past
+     * few years and half in the next few.  Returns the heap the manager takes up.
+     */
+    private static long measureHeap(ContactManager manager, int meeting_count) throws InterruptedException {
+        List<String> names = new ArrayList<String>();
+        List<String> notes = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            names.add("Contact " + i);
+            notes.add("");
+        }
+        manager.addNewContacts(names, notes);
+        Contact[] contacts = new Contact[1000];
+        for (int i = 0; i < 1000; i++) {
+            contacts[i] = manager.getContacts(i).iterator().next();
+        }
+
+        long before = getUsedHeap();
+        Random random = new Random(37);
+        long now = System.currentTimeMillis();
+        int batch_size = 10000;
+        for (int added = 0; added < meeting_count; added += batch_size) {
+            List<Set<Contact>> past_contacts = new ArrayList<Set<Contact>>();
+            List<Calendar> past_dates = new ArrayList<Calendar>();
+            List<String> texts = new ArrayList<String>();
+            List<Set<Contact>> future_contacts = new ArrayList<Set<Contact>>();
+            List<Calendar> future_dates = new ArrayList<Calendar>();
+            for (int i = 0; i < batch_size / 2; i++) {
+                Calendar past_date = Calendar.getInstance();
+                past_date.setTimeInMillis(now - DAY - (long) (random.nextDouble() * 1500 * DAY));
+                past_contacts.add(setOf(contacts[random.nextInt(1000)], contacts[random.nextInt(1000)]));
+                past_dates.add(past_date);
+                texts.add("");
+
+                Calendar future_date = Calendar.getInstance();
+                future_date.setTimeInMillis(now + DAY + (long) (random.nextDouble() * 1500 * DAY));
+                future_contacts.add(setOf(contacts[random.nextInt(1000)], contacts[random.nextInt(1000)]));
+                future_dates.add(future_date);
+            }
+            manager.addNewPastMeetings(past_contacts, past_dates, texts);
+            manager.addFutureMeetings(future_contacts, future_dates);
+        }
+
+        long used = getUsedHeap() - before;
+        // Keep the manager reachable until it's been measured
+        if (manager.getMeeting(meeting_count - 1) == null)
+            throw new IllegalStateException("Meeting " + (meeting_count - 1) + " wasn't added");
+        return used;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long max_heap = Runtime.getRuntime().maxMemory();
+        String columnar_filename = FILENAME + ".columnar";
+        String impl_filename = FILENAME + ".impl";
+
+        long columnar_1m = measureHeap(new ColumnarContactManager(columnar_filename), 1000000);
+        long columnar_5m = measureHeap(new ColumnarContactManager(columnar_filename), 5000000);
+        long impl_1m = measureHeap(new ContactManagerImpl(impl_filename), 1000000);
+
+        System.out.format("Heap for 1M meetings: ColumnarContactManager %dMB (%d bytes per meeting), " +
+                "ContactManagerImpl %dMB (%d bytes per meeting)%n",
+                columnar_1m >> 20, columnar_1m / 1000000, impl_1m >> 20, impl_1m / 1000000);
+
+        // Measure ContactManagerImpl at 5M only if 5 times its 1M heap would fit, with room to spare
+        String impl_5m;
+        if (impl_1m * 5 < max_heap * 3 / 4) {
+            impl_5m = (measureHeap(new ContactManagerImpl(impl_filename), 5000000) >> 20) + "MB";
+        } else {
+            impl_5m = String.format("about %dMB (projected; more than this JVM's %dMB max heap)",
+                    (impl_1m * 5) >> 20, max_heap >> 20);
+        }
+        System.out.format("Heap for 5M meetings: ColumnarContactManager %dMB (%d bytes per meeting), " +
+                "ContactManagerImpl %s%n", columnar_5m >> 20, columnar_5m / 5000000, impl_5m);
+    }
+}
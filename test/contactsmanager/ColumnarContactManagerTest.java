@@ -0,0 +1,190 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for ColumnarContactManager.  The ContactManager contract as a whole is tested by
+ * ContactManagerTest, with "ContactManager=contactsmanager.ColumnarContactManager" in config.ini.
+ */
+public class ColumnarContactManagerTest {
+    private final String filename = "ColumnarContactManagerTest_output.xml";
+    private ColumnarContactManager manager;
+    private Contact alice, bob, charlie;
+    private Calendar past_date;
+    private Calendar future_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new ColumnarContactManager(filename);
+        manager.addNewContacts(Arrays.asList("Alice Smith", "Bob Jones", "Charlie Smith"),
+                Arrays.asList("likes tea", "likes coffee", "likes tea and coffee"));
+        alice = manager.getContacts(0).iterator().next();
+        bob = manager.getContacts(1).iterator().next();
+        charlie = manager.getContacts(2).iterator().next();
+
+        past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+    }
+
+    @After
+    public void cleanUp() {
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static Calendar plusDays(Calendar date, int days) {
+        Calendar new_date = (Calendar) date.clone();
+        new_date.add(Calendar.DAY_OF_YEAR, days);
+        return new_date;
+    }
+
+    @Test
+    public void testFutureAndPastMeetings() throws Exception {
+        int future_id = manager.addFutureMeeting(setOf(alice, bob), future_date);
+        manager.addNewPastMeeting(setOf(alice), past_date, "Planning");
+        int past_id = future_id + 1;
+
+        assertEquals(setOf(alice, bob), manager.getFutureMeeting(future_id).getContacts());
+        assertEquals("Planning", manager.getPastMeeting(past_id).getNotes());
+        assertNull(manager.getMeeting(past_id + 1));
+        assertEquals(1, manager.getFutureMeetingList(alice).size());
+        assertEquals(1, manager.getPastMeetingList(alice).size());
+        assertEquals(0, manager.getPastMeetingList(bob).size());
+        assertEquals(2, manager.getMeetingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPastMeetingOfFutureMeeting() {
+        manager.getPastMeeting(manager.addFutureMeeting(setOf(alice), future_date));
+    }
+
+    @Test
+    public void testListsAreSortedByDate() throws Exception {
+        List<Integer> ids = manager.addFutureMeetings(
+                Arrays.asList(setOf(alice), setOf(alice, bob), setOf(alice)),
+                Arrays.asList(plusDays(future_date, 2), future_date, plusDays(future_date, 1)));
+
+        List<Meeting> meetings = manager.getFutureMeetingList(alice);
+        assertEquals(Arrays.asList(ids.get(1), ids.get(2), ids.get(0)),
+                Arrays.asList(meetings.get(0).getId(), meetings.get(1).getId(), meetings.get(2).getId()));
+
+        assertEquals(1, manager.getFutureMeetingList(future_date).size());
+        assertEquals((int) ids.get(1), manager.getFutureMeetingList(future_date).get(0).getId());
+        assertEquals(0, manager.getFutureMeetingList(plusDays(future_date, 3)).size());
+    }
+
+    @Test
+    public void testAddMeetingNotesPromotesMeeting() throws Exception {
+        Calendar soon = Calendar.getInstance();
+        soon.add(Calendar.MILLISECOND, 50);
+        int id = manager.addFutureMeeting(setOf(alice, bob), soon);
+        Thread.sleep(100);
+
+        manager.addMeetingNotes(id, "  Went well  ");
+        manager.addMeetingNotes(id, "Follow up");
+
+        assertEquals("Went well\nFollow up", manager.getPastMeeting(id).getNotes());
+        assertEquals(0, manager.getFutureMeetingList(alice).size());
+        assertEquals(1, manager.getPastMeetingList(bob).size());
+        assertEquals(Arrays.asList(id), manager.searchMeetingNotes("follow"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddMeetingNotesToFutureMeeting() {
+        manager.addMeetingNotes(manager.addFutureMeeting(setOf(alice), future_date), "Too soon");
+    }
+
+    @Test
+    public void testRecurringMeeting() throws Exception {
+        int id = manager.addRecurringMeeting(setOf(alice, charlie), future_date, 7, 5);
+
+        List<Meeting> meetings = manager.getFutureMeetingList(charlie);
+        assertEquals(5, meetings.size());
+        assertEquals(id + 4, meetings.get(4).getId());
+        assertEquals(1, manager.getFutureMeetingList(plusDays(future_date, 14)).size());
+    }
+
+    @Test
+    public void testMeetingsWithAllOfAndAnyOf() throws Exception {
+        int both_id = manager.addFutureMeeting(setOf(alice, bob), future_date);
+        int alice_id = manager.addFutureMeeting(setOf(alice), plusDays(future_date, 1));
+        manager.addFutureMeeting(setOf(charlie), plusDays(future_date, 2));
+
+        List<Meeting> all_of = manager.getMeetingsWithAllOf(setOf(alice, bob));
+        assertEquals(1, all_of.size());
+        assertEquals(both_id, all_of.get(0).getId());
+
+        List<Meeting> any_of = manager.getMeetingsWithAnyOf(setOf(alice, bob));
+        assertEquals(2, any_of.size());
+        assertEquals(both_id, any_of.get(0).getId());
+        assertEquals(alice_id, any_of.get(1).getId());
+    }
+
+    @Test
+    public void testGetFirstFreeDay() throws Exception {
+        manager.addFutureMeeting(setOf(alice), future_date);
+        manager.addFutureMeeting(setOf(bob), plusDays(future_date, 1));
+
+        Calendar free_day = manager.getFirstFreeDay(setOf(alice, bob), future_date, 10);
+        assertEquals(plusDays(future_date, 2).get(Calendar.DAY_OF_YEAR), free_day.get(Calendar.DAY_OF_YEAR));
+        assertNull(manager.getFirstFreeDay(setOf(alice, bob), future_date, 2));
+    }
+
+    @Test
+    public void testSearches() throws Exception {
+        manager.addFutureMeeting(setOf(charlie), future_date);
+
+        assertEquals(setOf(alice, charlie), manager.getContacts("Smith"));
+        assertEquals(setOf(0, 2), new HashSet<Integer>(manager.searchContactNotes("tea")));
+        assertEquals(Arrays.asList(charlie, alice), manager.autocompleteContacts("smi", 5));
+        assertEquals(Arrays.asList(bob), manager.searchContactNames("jnes", 1));
+
+        // Scores are kept up to date once the trie has been built
+        manager.addFutureMeetings(Arrays.asList(setOf(alice), setOf(alice)), Arrays.asList(future_date, future_date));
+        assertEquals(Arrays.asList(alice, charlie), manager.autocompleteContacts("smi", 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownContact() {
+        manager.addFutureMeeting(setOf(DIFactory.getInstance().newContact(7, "Dave")), future_date);
+    }
+
+    @Test
+    public void testFlushAndReload() throws Exception {
+        int future_id = manager.addFutureMeeting(setOf(alice, bob), future_date);
+        manager.addNewPastMeeting(setOf(charlie), past_date, "Retrospective");
+        Meeting future_meeting = manager.getMeeting(future_id);
+        manager.flush();
+
+        manager = new ColumnarContactManager(filename);
+        assertEquals(3, manager.getContacts("").size());
+        assertEquals(future_meeting, manager.getFutureMeeting(future_id));
+        assertEquals("Retrospective", manager.getPastMeeting(future_id + 1).getNotes());
+        assertEquals(Arrays.asList(future_id + 1), manager.searchMeetingNotes("retrospective"));
+        assertEquals(future_id + 2, manager.addFutureMeeting(setOf(alice), future_date));
+    }
+
+    @Test
+    public void testLoadedByContactManagerImpl() throws Exception {
+        manager.addFutureMeeting(setOf(alice, bob), future_date);
+        manager.addNewPastMeeting(setOf(charlie), past_date, "Retrospective");
+        manager.flush();
+
+        ContactManagerImpl impl = new ContactManagerImpl(filename);
+        assertEquals(1, impl.getFutureMeetingList(bob).size());
+        assertEquals("Retrospective", impl.getPastMeetingList(charlie).get(0).getNotes());
+    }
+}
@@ -0,0 +1,182 @@
+package contactsmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test class for ColumnarMeetingStore
+ */
+public class ColumnarMeetingStoreTest {
+    private ColumnarMeetingStore store;
+    private Contact alice, bob, charlie;
+    private Calendar date;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Integer, Contact> contacts_by_id = new HashMap<Integer, Contact>();
+        alice = DIFactory.getInstance().newContact(0, "Alice");
+        bob = DIFactory.getInstance().newContact(1, "Bob");
+        charlie = DIFactory.getInstance().newContact(2, "Charlie");
+        for (Contact contact : setOf(alice, bob, charlie)) {
+            contacts_by_id.put(contact.getId(), contact);
+        }
+
+        store = new ColumnarMeetingStore(contacts_by_id);
+        date = Calendar.getInstance();
+        date.set(2012, Calendar.MARCH, 1, 12, 0, 0);
+    }
+
+    @Test
+    public void testAddAndGetFutureMeeting() throws Exception {
+        store.add(DIFactory.getInstance().newFutureMeeting(3, date, setOf(alice, bob)));
+
+        Meeting meeting = store.get(3);
+        assertTrue(meeting instanceof FutureMeeting);
+        assertEquals(3, meeting.getId());
+        assertEquals(date.getTimeInMillis(), meeting.getDate().getTimeInMillis());
+        assertEquals(setOf(alice, bob), meeting.getContacts());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testAddAndGetPastMeeting() throws Exception {
+        store.add(DIFactory.getInstance().newPastMeeting(0, date, setOf(charlie), "notes"));
+
+        PastMeeting meeting = (PastMeeting) store.get(0);
+        assertEquals("notes", meeting.getNotes());
+        assertEquals(setOf(charlie), meeting.getContacts());
+    }
+
+    @Test
+    public void testGetMissingMeeting() throws Exception {
+        assertNull(store.get(5));
+        assertNull(store.get(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDuplicateId() throws Exception {
+        store.add(DIFactory.getInstance().newFutureMeeting(3, date, setOf(alice)));
+        store.add(DIFactory.getInstance().newFutureMeeting(3, date, setOf(bob)));
+    }
+
+    @Test
+    public void testAddNotesPromotesToPast() throws Exception {
+        store.add(DIFactory.getInstance().newFutureMeeting(1, date, setOf(alice)));
+        store.addNotes(1, "first");
+        store.addNotes(1, "second");
+
+        assertEquals("first\nsecond", ((PastMeeting) store.get(1)).getNotes());
+    }
+
+    @Test
+    public void testHasAttendee() throws Exception {
+        store.add(DIFactory.getInstance().newFutureMeeting(1, date, setOf(charlie, alice)));
+
+        assertTrue(store.hasAttendee(1, alice.getId()));
+        assertTrue(store.hasAttendee(1, charlie.getId()));
+        assertFalse(store.hasAttendee(1, bob.getId()));
+        assertFalse(store.hasAttendee(2, alice.getId()));
+    }
+
+    @Test
+    public void testQueriesAreSortedByDate() throws Exception {
+        Calendar later = (Calendar) date.clone();
+        later.add(Calendar.HOUR_OF_DAY, 1);
+
+        store.add(DIFactory.getInstance().newFutureMeeting(0, later, setOf(alice)));
+        store.add(DIFactory.getInstance().newFutureMeeting(1, date, setOf(alice, bob)));
+        store.add(DIFactory.getInstance().newPastMeeting(2, date, setOf(bob), ""));
+
+        List<Meeting> alices = store.getMeetingsWithAttendee(alice.getId());
+        assertEquals(2, alices.size());
+        assertEquals(1, alices.get(0).getId());
+        assertEquals(0, alices.get(1).getId());
+
+        List<Meeting> at_date = store.getMeetingsBetween(date.getTimeInMillis(), later.getTimeInMillis());
+        assertEquals(2, at_date.size());
+        assertEquals(1, at_date.get(0).getId());
+        assertEquals(2, at_date.get(1).getId());
+    }
+
+    @Test
+    public void testSparseIds() throws Exception {
+        store.add(DIFactory.getInstance().newFutureMeeting(1000000000, date, setOf(alice)));
+        store.add(DIFactory.getInstance().newFutureMeeting(7, date, setOf(bob)));
+
+        assertEquals(1000000000, store.get(1000000000).getId());
+        assertEquals(7, store.get(7).getId());
+        assertNull(store.get(999999999));
+        assertTrue(store.hasAttendee(1000000000, alice.getId()));
+    }
+
+    @Test
+    public void testIndexedQueries() throws Exception {
+        Calendar next_day = (Calendar) date.clone();
+        next_day.add(Calendar.DAY_OF_YEAR, 1);
+
+        store.add(DIFactory.getInstance().newFutureMeeting(0, next_day, setOf(alice, bob)));
+        store.add(DIFactory.getInstance().newFutureMeeting(1, date, setOf(alice, bob, charlie)));
+        store.add(DIFactory.getInstance().newPastMeeting(2, date, setOf(alice), "notes"));
+        store.add(DIFactory.getInstance().newFutureMeeting(3, next_day, setOf(charlie)));
+
+        List<Meeting> on_day = store.getMeetingsOnDay(next_day);
+        assertEquals(2, on_day.size());
+        assertEquals(0, on_day.get(0).getId());
+        assertEquals(3, on_day.get(1).getId());
+
+        assertEquals(2, store.getFutureMeetingsWithAttendee(alice.getId()).size());
+        assertEquals(2, store.getPastMeetingsWithAttendee(alice.getId()).get(0).getId());
+        assertEquals(3, store.getMeetingCount(alice.getId()));
+        assertEquals(date.getTimeInMillis(), store.getLatestPastDate(alice.getId()));
+        assertEquals(Long.MIN_VALUE, store.getLatestPastDate(bob.getId()));
+
+        List<Meeting> all_of = store.getMeetingsWithAllOf(new int[]{alice.getId(), bob.getId()});
+        assertEquals(2, all_of.size());
+        assertEquals(1, all_of.get(0).getId());
+        assertEquals(0, all_of.get(1).getId());
+
+        List<Meeting> any_of = store.getMeetingsWithAnyOf(new int[]{bob.getId(), charlie.getId()});
+        assertEquals(3, any_of.size());
+        assertEquals(1, any_of.get(0).getId());
+        assertEquals(0, any_of.get(1).getId());
+        assertEquals(3, any_of.get(2).getId());
+
+        assertEquals(1, store.getPastMeetings().size());
+        assertEquals(3, store.getFutureMeetings().size());
+    }
+
+    @Test
+    public void testViewsEqualAcrossStores() throws Exception {
+        Map<Integer, Contact> contacts_by_id = new HashMap<Integer, Contact>();
+        contacts_by_id.put(alice.getId(), alice);
+        ColumnarMeetingStore other = new ColumnarMeetingStore(contacts_by_id);
+        store.add(DIFactory.getInstance().newFutureMeeting(4, date, setOf(alice)));
+        other.add(DIFactory.getInstance().newFutureMeeting(4, date, setOf(alice)));
+        other.add(DIFactory.getInstance().newFutureMeeting(5, date, setOf(alice)));
+
+        assertEquals(store.get(4), other.get(4));
+        assertFalse(store.get(4).equals(other.get(5)));
+    }
+
+    @Test
+    public void testManyMeetings() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            store.add(DIFactory.getInstance().newFutureMeeting(i, date, setOf(alice, bob)));
+        }
+
+        assertEquals(10000, store.size());
+        assertEquals(setOf(alice, bob), store.get(9999).getContacts());
+        assertEquals(10000, store.getMeetingsWithAttendee(bob.getId()).size());
+    }
+}
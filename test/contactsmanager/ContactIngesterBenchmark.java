@@ -0,0 +1,52 @@
+package contactsmanager;
+
+import java.util.concurrent.Future;
+
+/**
+ * Times adding 20,000 contacts from 1 to 64 producer threads, through a ContactIngester and
+ * through a lock around a ContactManagerImpl.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.ContactIngesterBenchmark
+ */
+public class ContactIngesterBenchmark {
+    private static final String FILENAME = "ContactIngesterBenchmark_output.xml";
+
+    public static void main(String[] args) throws Exception {
+        final int total = 20000;
+        for (int producers : new int[] {1, 4, 16, 64}) {
+            final int per_producer = total / producers;
+
+            final ContactManagerImpl locked = new ContactManagerImpl(FILENAME);
+            long locked_nanos = ContactIngesterTest.runProducers(producers, new ContactIngesterTest.Producer() {
+                @Override
+                public void produce(int producer) {
+                    for (int i = 0; i < per_producer; i++) {
+                        synchronized (locked) {
+                            locked.addNewContact("Contact " + producer + " " + i, "");
+                        }
+                    }
+                }
+            });
+
+            final ContactManagerImpl ingested = new ContactManagerImpl(FILENAME);
+            final ContactIngester producer_ingester = new ContactIngester(ingested);
+            long ingested_nanos = ContactIngesterTest.runProducers(producers, new ContactIngesterTest.Producer() {
+                @Override
+                public void produce(int producer) throws Exception {
+                    Future<Integer> last = null;
+                    for (int i = 0; i < per_producer; i++) {
+                        last = producer_ingester.addNewContact("Contact " + producer + " " + i, "");
+                    }
+                    last.get();
+                }
+            });
+            producer_ingester.close();
+
+            System.out.printf("%2d producers: locked %.0f adds/s, ingester %.0f adds/s (mean batch %.1f)%n",
+                    producers,
+                    per_producer * producers * 1e9 / locked_nanos,
+                    per_producer * producers * 1e9 / ingested_nanos,
+                    producer_ingester.getBatchSizes().getSnapshot().getMean());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package contactsmanager;
+
+import contactsmanager.util.LatencyHistogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for ContactIngester
+ */
+public class ContactIngesterTest {
+    private final String filename = "ContactIngesterTest_output.xml";
+    private ContactManagerImpl manager;
+    private ContactIngester ingester;
+    private Calendar future_date;
+    private Calendar past_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new ContactManagerImpl(filename);
+        ingester = new ContactIngester(manager);
+
+        future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+        past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+    }
+
+    @After
+    public void cleanUp() {
+        if (ingester != null)
+            ingester.close();
+
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testCommandsAreAppliedInOrder() throws Exception {
+        List<Future<Integer>> ids = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(ingester.addNewContact(String.format("Contact %02d", i), ""));
+        }
+        ingester.flush().get();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), ids.get(i).get());
+        }
+        assertEquals(100, new ContactManagerImpl(filename).getContacts("Contact").size());
+    }
+
+    @Test
+    public void testMeetingsAndNotes() throws Exception {
+        int alice_id = ingester.addNewContact("Alice", "").get();
+        ingester.close();
+        Contact alice = manager.getContacts(alice_id).iterator().next();
+
+        ingester = new ContactIngester(manager);
+        Future<Integer> future_id = ingester.addFutureMeeting(setOf(alice), future_date);
+        Future<Integer> past_id = ingester.addNewPastMeeting(setOf(alice), past_date, "Was past");
+        Future<Integer> notes = ingester.addMeetingNotes(past_id.get(), "More");
+        notes.get();
+        ingester.close();
+
+        assertNotNull(manager.getFutureMeeting(future_id.get()));
+        assertEquals("Was past\nMore", manager.getPastMeeting(past_id.get()).getNotes());
+    }
+
+    @Test
+    public void testFailuresOnlyFailTheirOwnCommand() throws Exception {
+        int alice_id = ingester.addNewContact("Alice", "").get();
+        ingester.close();
+        Contact alice = manager.getContacts(alice_id).iterator().next();
+        Contact stranger = new ContactImpl(99, "Stranger");
+
+        // Queue a run of meetings with a bad one in the middle, so they're applied as one group
+        ingester = new ContactIngester(manager);
+        List<Future<Integer>> ids = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            Set<Contact> contacts = i == 5 ? setOf(stranger) : setOf(alice);
+            ids.add(ingester.addFutureMeeting(contacts, future_date));
+        }
+        ingester.flush().get();
+
+        for (int i = 0; i < 10; i++) {
+            if (i == 5) {
+                try {
+                    ids.get(i).get();
+                    fail("Expected ExecutionException");
+                } catch (ExecutionException err) {
+                    assertTrue(err.getCause() instanceof IllegalArgumentException);
+                }
+            } else {
+                assertNotNull(manager.getFutureMeeting(ids.get(i).get()));
+            }
+        }
+        assertEquals(9, manager.getFutureMeetingList(alice).size());
+    }
+
+    @Test
+    public void testArgumentsAreCopied() throws Exception {
+        int alice_id = ingester.addNewContact("Alice", "").get();
+        Contact alice = manager.getContacts(alice_id).iterator().next();
+
+        Set<Contact> contacts = setOf(alice);
+        Calendar date = (Calendar) future_date.clone();
+        Future<Integer> id = ingester.addFutureMeeting(contacts, date);
+        contacts.clear();
+        date.add(Calendar.YEAR, -10);
+        ingester.close();
+
+        Meeting meeting = manager.getMeeting(id.get());
+        assertEquals(setOf(alice), meeting.getContacts());
+        assertEquals(future_date.getTimeInMillis(), meeting.getDate().getTimeInMillis());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            ingester.addNewContact("Contact " + i, "");
+        }
+        ingester.close();
+
+        assertEquals(0, ingester.getQueueDepth());
+        assertEquals(50, ingester.getAppliedCount());
+        LatencyHistogram.Snapshot batch_sizes = ingester.getBatchSizes().getSnapshot();
+        assertTrue(batch_sizes.getCount() >= 1);
+        assertEquals(50, Math.round(batch_sizes.getMean() * batch_sizes.getCount()));
+        assertEquals(batch_sizes.getCount(), ingester.getQueueDepths().getSnapshot().getCount());
+    }
+
+    @Test
+    public void testClosedIngesterRejectsCommands() throws Exception {
+        ingester.close();
+        try {
+            ingester.addNewContact("Alice", "").get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException err) {
+            assertTrue(err.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testCommandsQueuedDuringCloseAreAppliedOrFailed() throws Exception {
+        // Every command either succeeds and is applied, or fails and isn't
+        final List<Future<Integer>> ids = Collections.synchronizedList(new ArrayList<Future<Integer>>());
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            final int producer = i;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 5000; j++) {
+                        ids.add(ingester.addNewContact("Contact " + producer + " " + j, ""));
+                    }
+                }
+            };
+            producers.add(thread);
+            thread.start();
+        }
+        Thread.sleep(5);
+        ingester.close();
+        for (Thread thread : producers) {
+            thread.join();
+        }
+
+        int succeeded = 0;
+        for (Future<Integer> id : ids) {
+            try {
+                id.get();
+                succeeded++;
+            } catch (ExecutionException err) {
+                assertTrue(err.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(succeeded, manager.getContacts("Contact").size());
+    }
+
+    @Test
+    public void testErrorOnlyFailsItsOwnCommand() throws Exception {
+        ingester.close();
+        ingester = new ContactIngester(new ContactManagerImpl(filename) {
+            @Override
+            public void addMeetingNotes(int id, String text) {
+                throw new AssertionError("Failed applying notes");
+            }
+        });
+
+        Future<Integer> notes = ingester.addMeetingNotes(0, "Notes");
+        Future<Integer> contact_id = ingester.addNewContact("Alice", "");
+        try {
+            notes.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException err) {
+            assertTrue(err.getCause() instanceof AssertionError);
+        }
+        assertEquals(Integer.valueOf(0), contact_id.get());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullName() throws Exception {
+        ingester.addNewContact(null, "");
+    }
+
+    /**
+     * Compares adding contacts through an ingester with adding them directly under a lock, from
+     * 1 to 64 producer threads, and prints the throughput of each.
+     */
+    @Test
+    public void testManyProducers() throws Exception {
+        final int producers = 16;
+        final int per_producer = 200;
+        runProducers(producers, new Producer() {
+            @Override
+            public void produce(int producer) throws Exception {
+                Future<Integer> last = null;
+                for (int i = 0; i < per_producer; i++) {
+                    last = ingester.addNewContact("Contact " + producer + " " + i, "");
+                }
+                last.get();
+            }
+        });
+        assertEquals(producers * per_producer, manager.getContacts("Contact").size());
+    }
+
+    interface Producer {
+        void produce(int producer) throws Exception;
+    }
+
+    /**
+     * Runs the producer on the given number of threads at once, and returns how long they took.
+     */
+    static long runProducers(int threads, final Producer producer) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        producer.produce(index);
+                    } catch (Throwable err) {
+                        failures.add(err);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - started;
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        return elapsed;
+    }
+}
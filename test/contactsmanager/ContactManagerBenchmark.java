@@ -0,0 +1,83 @@
+package contactsmanager;
+
+import java.util.*;
+
+/**
+ * Times the batch methods ('addNewContacts', 'addFutureMeetings' and 'addNewPastMeetings')
+ * against adding the same contacts and meetings one call at a time, on the ContactManager
+ * configured in "config.ini".  It's run by hand, from a directory with a "config.ini", rather
+ * than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.ContactManagerBenchmark
+ */
+public class ContactManagerBenchmark {
+    private static final String FILENAME = "ContactManagerBenchmark_output.xml";
+
+    public static void main(String[] args) {
+        // 20,000 contacts, then 20,000 future and 20,000 past meetings of three of them each
+        int count = 20000;
+        List<String> names = new ArrayList<String>();
+        List<String> notes = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            names.add("Contact " + i);
+            notes.add("Notes on contact " + i);
+        }
+
+        // Warm both paths up first, so neither is timed while being compiled
+        for (int round = 0; round < 5; round++) {
+            ContactManager warm_up = DIFactory.getInstance().newContactManager(FILENAME);
+            warm_up.addNewContacts(names.subList(0, 2000), notes.subList(0, 2000));
+            for (int i = 0; i < 2000; i++) {
+                warm_up.addNewContact(names.get(i), notes.get(i));
+            }
+        }
+
+        ContactManager single = DIFactory.getInstance().newContactManager(FILENAME);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            single.addNewContact(names.get(i), notes.get(i));
+        }
+        long single_contacts_time = System.nanoTime() - start;
+
+        ContactManager batch = DIFactory.getInstance().newContactManager(FILENAME);
+        start = System.nanoTime();
+        batch.addNewContacts(names, notes);
+        long batch_contacts_time = System.nanoTime() - start;
+
+        Random random = new Random(37);
+        List<Set<Contact>> meeting_contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> future_dates = new ArrayList<Calendar>();
+        List<Calendar> past_dates = new ArrayList<Calendar>();
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            int[] ids = {random.nextInt(count), random.nextInt(count), random.nextInt(count)};
+            // Both managers gave their contacts the same ids
+            meeting_contacts.add(single.getContacts(ids));
+            Calendar future_date = Calendar.getInstance();
+            future_date.add(Calendar.DAY_OF_MONTH, 1 + random.nextInt(365));
+            future_dates.add(future_date);
+            Calendar past_date = Calendar.getInstance();
+            past_date.add(Calendar.DAY_OF_MONTH, -1 - random.nextInt(365));
+            past_dates.add(past_date);
+            texts.add("Meeting " + i);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            single.addFutureMeeting(meeting_contacts.get(i), future_dates.get(i));
+        }
+        for (int i = 0; i < count; i++) {
+            single.addNewPastMeeting(meeting_contacts.get(i), past_dates.get(i), texts.get(i));
+        }
+        long single_meetings_time = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        batch.addFutureMeetings(meeting_contacts, future_dates);
+        batch.addNewPastMeetings(meeting_contacts, past_dates, texts);
+        long batch_meetings_time = System.nanoTime() - start;
+
+        System.out.format("Adding 20K contacts: %dms one by one, %dms batched; 40K meetings: %dms one by one, %dms batched%n",
+                single_contacts_time / 1000000, batch_contacts_time / 1000000,
+                single_meetings_time / 1000000, batch_meetings_time / 1000000);
+    }
+}
@@ -1,6 +1,7 @@
 package contactsmanager;
 
 import contactsmanager.util.CalendarUtil;
+import contactsmanager.util.CollectionUtil;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,9 +11,14 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 
@@ -196,6 +202,13 @@ public class ContactManagerTest {
         manager.addFutureMeeting(contacts, date);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddFutureMeetingWithNullContact() throws Exception {
+        setDateInFuture();
+        contacts.add(null);
+        manager.addFutureMeeting(contacts, date);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testAddFutureMeetingInPast() throws Exception {
         setDateInPast();
@@ -480,6 +493,38 @@ public class ContactManagerTest {
         assertEquals("Note One.\nNote Two.", manager.getPastMeeting(meeting_id).getNotes());
     }
 
+    @Test
+    public void testAddMeetingNotesToPastMeetingInPlace() throws Exception {
+        meeting_id = addPastMeeting(contacts, "Note One.");
+        PastMeeting meeting = manager.getPastMeeting(meeting_id);
+
+        manager.addMeetingNotes(meeting_id, "Note Two.");
+
+        assertTrue(meeting == manager.getPastMeeting(meeting_id));
+        assertEquals("Note One.\nNote Two.", meeting.getNotes());
+        checkMeetingsList(setOf(meeting_id), manager.getPastMeetingList(alice));
+        assertEquals(1, manager.getFutureMeetingList(meeting.getDate()).size());
+    }
+
+    @Test
+    public void testManyMeetingNotesSurviveFlush() throws Exception {
+        meeting_id = addPastMeeting(contacts, "Note 0");
+        for (int i = 1; i < 100; i++) {
+            manager.addMeetingNotes(meeting_id, "Note " + i);
+        }
+        for (int i = 1; i < 100; i++) {
+            alice.addNotes("Alice note " + i);
+        }
+        String meeting_notes = manager.getPastMeeting(meeting_id).getNotes();
+        String alice_notes = alice.getNotes();
+
+        manager.flush();
+        manager = DIFactory.getInstance().newContactManager(filename);
+
+        assertEquals(meeting_notes, manager.getPastMeeting(meeting_id).getNotes());
+        assertEquals(alice_notes, manager.getContacts(ALICE_ID).iterator().next().getNotes());
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testAddMeetingNotesToMeetingNotHappenedYet() throws Exception {
         setDateInFuture();
@@ -497,6 +542,502 @@ public class ContactManagerTest {
         manager.addMeetingNotes(-99, note);
     }
 
+    @Test
+    public void testSearchContactNotes() throws Exception {
+        manager.addNewContact("Dave", "likes golf, and more golf");
+        manager.addNewContact("Eve", "plays golf");
+
+        List<Integer> results = manager.searchContactNotes("Golf");
+        assertEquals(2, results.size());
+        assertEquals(manager.getContacts("Dave").iterator().next().getId(), (int) results.get(0));
+
+        assertEquals(CollectionUtil.listOf(ALICE_ID), manager.searchContactNotes("note a"));
+        assertTrue(manager.searchContactNotes("tennis").isEmpty());
+    }
+
+    @Test
+    public void testSearchMeetingNotes() throws Exception {
+        setDateInPast();
+        manager.addNewPastMeeting(contacts, date, "Discussed budget");
+        meeting_id = addPastMeeting(contacts, "Agreed timeline");
+
+        assertTrue(manager.searchMeetingNotes("budget").size() == 1);
+        assertEquals(CollectionUtil.listOf(meeting_id), manager.searchMeetingNotes("timeline"));
+
+        // Notes added later are searchable too
+        manager.addMeetingNotes(meeting_id, "Revisited the budget, twice: budget");
+        assertEquals(meeting_id, (int) manager.searchMeetingNotes("budget").get(0));
+    }
+
+    @Test
+    public void testSearchNotesAfterReload() throws Exception {
+        meeting_id = addPastMeeting(contacts, "Agreed timeline");
+        manager.flush();
+        manager = DIFactory.getInstance().newContactManager(filename);
+
+        assertEquals(CollectionUtil.listOf(meeting_id), manager.searchMeetingNotes("timeline"));
+        assertEquals(CollectionUtil.listOf(BOB_ID), manager.searchContactNotes("b"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSearchNullQuery() throws Exception {
+        manager.searchMeetingNotes(null);
+    }
+
+    @Test
+    public void testGetMeetingsWithAllOfAndAnyOf() throws Exception {
+        dave = addThenReturnContact("Dave", note);
+
+        setDateInFuture();
+        Calendar later = (Calendar) date.clone();
+        later.add(Calendar.DAY_OF_MONTH, 1);
+        int id1 = manager.addFutureMeeting(setOf(alice, bob, charlie), later);
+        int id2 = manager.addFutureMeeting(setOf(alice, bob), date);
+        int id3 = manager.addFutureMeeting(setOf(charlie), date);
+        int id4 = addPastMeeting(setOf(alice, bob), note);
+
+        List<Meeting> meetings = manager.getMeetingsWithAllOf(setOf(alice, bob));
+        checkMeetingsList(setOf(id1, id2, id4), meetings);
+        assertEquals(id4, meetings.get(0).getId());
+        assertEquals(id1, meetings.get(2).getId());
+
+        checkMeetingsList(setOf(id1), manager.getMeetingsWithAllOf(contacts));
+        checkMeetingsList(setOf(id1, id2, id3, id4), manager.getMeetingsWithAnyOf(setOf(bob, charlie)));
+        checkMeetingsList(setOf(id1, id3), manager.getMeetingsWithAnyOf(setOf(charlie)));
+
+        assertTrue(manager.getMeetingsWithAllOf(setOf(alice, dave)).isEmpty());
+        assertTrue(manager.getMeetingsWithAnyOf(setOf(dave)).isEmpty());
+    }
+
+    @Test
+    public void testGetMeetingsWithAllOfAfterReload() throws Exception {
+        setDateInPast();
+        manager.addNewPastMeeting(setOf(alice, bob), date, note);
+        setDateInFuture();
+        manager.addFutureMeeting(setOf(bob, charlie), date);
+        manager.flush();
+        manager = DIFactory.getInstance().newContactManager(filename);
+
+        assertEquals(1, manager.getMeetingsWithAllOf(setOf(alice, bob)).size());
+        assertEquals(2, manager.getMeetingsWithAnyOf(setOf(alice, charlie)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetMeetingsWithAllOfStranger() throws Exception {
+        manager.getMeetingsWithAllOf(setOf(alice, dave));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetMeetingsWithAnyOfNobody() throws Exception {
+        manager.getMeetingsWithAnyOf(new HashSet<Contact>());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetMeetingsWithAllOfNull() throws Exception {
+        manager.getMeetingsWithAllOf(null);
+    }
+
+    /**
+     * Returns noon on the given number of days after 01/06/2150.
+     */
+    private static Calendar getDay(int days) throws Exception {
+        Calendar day = CalendarUtil.getCalendarDateFromString("01/06/2150");
+        day.add(Calendar.DAY_OF_YEAR, days);
+        day.set(Calendar.HOUR_OF_DAY, 12);
+        return day;
+    }
+
+    /**
+     * Checks that the given date is the start of the given day (as returned by 'getDay').
+     */
+    private static void checkFreeDay(int days, Calendar free_day) throws Exception {
+        assertTrue(CalendarUtil.areDatesEqual(getDay(days), free_day));
+        assertEquals(0, free_day.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, free_day.get(Calendar.MINUTE));
+    }
+
+    @Test
+    public void testGetFirstFreeDay() throws Exception {
+        manager.addFutureMeeting(setOf(alice), getDay(0));
+        manager.addFutureMeeting(setOf(alice), getDay(1));
+        manager.addFutureMeeting(setOf(bob), getDay(2));
+        manager.addFutureMeeting(setOf(charlie), getDay(4));
+
+        checkFreeDay(3, manager.getFirstFreeDay(setOf(alice, bob), getDay(0), 90));
+        checkFreeDay(3, manager.getFirstFreeDay(contacts, getDay(3), 90));
+        checkFreeDay(5, manager.getFirstFreeDay(contacts, getDay(4), 90));
+        checkFreeDay(0, manager.getFirstFreeDay(setOf(charlie), getDay(0), 1));
+        checkFreeDay(2, manager.getFirstFreeDay(setOf(alice), getDay(0), 90));
+
+        // No day in range is free
+        assertNull(manager.getFirstFreeDay(setOf(alice, bob), getDay(0), 3));
+        assertNull(manager.getFirstFreeDay(setOf(charlie), getDay(4), 1));
+    }
+
+    @Test
+    public void testGetFirstFreeDayCountsPastMeetings() throws Exception {
+        Calendar past = CalendarUtil.getCalendarDateFromString("02/01/1953");
+        manager.addNewPastMeeting(setOf(alice, bob), past, note);
+
+        Calendar day_before = CalendarUtil.getCalendarDateFromString("01/01/1953");
+        assertTrue(CalendarUtil.areDatesEqual(day_before, manager.getFirstFreeDay(setOf(bob), day_before, 5)));
+        assertTrue(CalendarUtil.areDatesEqual(CalendarUtil.getCalendarDateFromString("03/01/1953"),
+                manager.getFirstFreeDay(setOf(bob), past, 5)));
+
+        // A meeting promoted to the past still takes up its day
+        date = Calendar.getInstance();
+        date.add(Calendar.MILLISECOND, MILLISECONDS_FOR_FUTURE_TO_BECOME_PAST);
+        int id = manager.addFutureMeeting(setOf(charlie), date);
+        Thread.sleep(MILLISECONDS_FOR_FUTURE_TO_BECOME_PAST * 2);
+        manager.addMeetingNotes(id, note);
+
+        Calendar next_day = (Calendar) date.clone();
+        next_day.add(Calendar.DAY_OF_YEAR, 1);
+        assertTrue(CalendarUtil.areDatesEqual(next_day, manager.getFirstFreeDay(setOf(charlie), date, 5)));
+    }
+
+    @Test
+    public void testGetFirstFreeDayWithRecurringMeetings() throws Exception {
+        // Alice is busy every other day from day 0 to day 8, and Bob on day 1
+        manager.addRecurringMeeting(setOf(alice), getDay(0), 2, 5);
+        manager.addFutureMeeting(setOf(bob), getDay(1));
+
+        checkFreeDay(3, manager.getFirstFreeDay(setOf(alice, bob), getDay(0), 90));
+        checkFreeDay(9, manager.getFirstFreeDay(setOf(alice, bob), getDay(8), 90));
+        checkFreeDay(1, manager.getFirstFreeDay(setOf(alice), getDay(0), 90));
+    }
+
+    @Test
+    public void testGetFirstFreeDayAfterReload() throws Exception {
+        manager.addFutureMeeting(setOf(alice), getDay(0));
+        manager.addFutureMeeting(setOf(bob), getDay(1));
+        manager.addRecurringMeeting(setOf(charlie), getDay(2), 1, 3);
+        manager.flush();
+
+        manager = DIFactory.getInstance().newContactManager(filename);
+        checkFreeDay(5, manager.getFirstFreeDay(contacts, getDay(0), 90));
+
+        manager = new ContactManagerImpl(filename, true);
+        checkFreeDay(1, manager.getFirstFreeDay(setOf(alice, charlie), getDay(0), 90));
+        checkFreeDay(5, manager.getFirstFreeDay(contacts, getDay(0), 90));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetFirstFreeDayStranger() throws Exception {
+        manager.getFirstFreeDay(setOf(alice, dave), getDay(0), 90);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetFirstFreeDayOfNobody() throws Exception {
+        manager.getFirstFreeDay(new HashSet<Contact>(), getDay(0), 90);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetFirstFreeDayInNoDays() throws Exception {
+        manager.getFirstFreeDay(setOf(alice), getDay(0), 0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetFirstFreeDayNullContacts() throws Exception {
+        manager.getFirstFreeDay(null, getDay(0), 90);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetFirstFreeDayNullDate() throws Exception {
+        manager.getFirstFreeDay(setOf(alice), null, 90);
+    }
+
+    @Test
+    public void testAddNewContacts() throws Exception {
+        List<Integer> ids = manager.addNewContacts(CollectionUtil.listOf("Dave", "Eve"),
+                CollectionUtil.listOf(" Note D ", "Note E"));
+
+        assertEquals(CollectionUtil.listOf(CHARLIE_ID + 1, CHARLIE_ID + 2), ids);
+        Contact eve = manager.getContacts(ids.get(1)).iterator().next();
+        assertEquals("Eve", eve.getName());
+        assertEquals("Note D", manager.getContacts(ids.get(0)).iterator().next().getNotes());
+        assertEquals(CollectionUtil.listOf(ids.get(1)), manager.searchContactNotes("e"));
+    }
+
+    @Test
+    public void testAddNewContactsIsAllOrNothing() throws Exception {
+        try {
+            manager.addNewContacts(CollectionUtil.listOf("Dave", null), CollectionUtil.listOf(note, note));
+            fail("Expected NullPointerException");
+        } catch (NullPointerException err) {
+            assertTrue(manager.getContacts("Dave").isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNewContactsWithMismatchedLists() throws Exception {
+        manager.addNewContacts(CollectionUtil.listOf("Dave", "Eve"), CollectionUtil.listOf(note));
+    }
+
+    /**
+     * Returns a list of two sets of contacts, for the batch methods.  (Built without varargs, as
+     * 'listOf' would need a generic array.)
+     */
+    private static List<Set<Contact>> contactSets(Set<Contact> first, Set<Contact> second) {
+        List<Set<Contact>> contact_sets = new ArrayList<Set<Contact>>();
+        contact_sets.add(first);
+        contact_sets.add(second);
+        return contact_sets;
+    }
+
+    @Test
+    public void testAddFutureMeetings() throws Exception {
+        setDateInFuture();
+        Calendar later = (Calendar) date.clone();
+        later.add(Calendar.DAY_OF_MONTH, 1);
+
+        List<Set<Contact>> meeting_contacts = contactSets(setOf(alice, bob), setOf(bob));
+        meeting_contacts.add(contacts);
+        List<Integer> ids = manager.addFutureMeetings(meeting_contacts, CollectionUtil.listOf(later, date, date));
+        assertEquals(3, ids.size());
+        assertEquals(ids.get(0) + 2, (int) ids.get(2));
+
+        checkMeetingsList(setOf(ids.get(0), ids.get(1), ids.get(2)), manager.getFutureMeetingList(bob));
+        checkMeetingsList(setOf(ids.get(0), ids.get(2)), manager.getFutureMeetingList(alice));
+        checkMeetingsList(setOf(ids.get(1), ids.get(2)), manager.getFutureMeetingList(date));
+        assertEquals(later, manager.getFutureMeeting(ids.get(0)).getDate());
+
+        // Ids carry on after the batch
+        assertEquals(ids.get(2) + 1, manager.addFutureMeeting(contacts, date));
+    }
+
+    @Test
+    public void testAddFutureMeetingsIsAllOrNothing() throws Exception {
+        setDateInFuture();
+        Calendar past = Calendar.getInstance();
+        past.add(Calendar.YEAR, -1);
+
+        try {
+            manager.addFutureMeetings(contactSets(contacts, contacts), CollectionUtil.listOf(date, past));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException err) {
+            assertTrue(manager.getFutureMeetingList(alice).isEmpty());
+        }
+
+        try {
+            manager.addFutureMeetings(contactSets(contacts, setOf(dave)), CollectionUtil.listOf(date, date));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException err) {
+            assertTrue(manager.getFutureMeetingList(alice).isEmpty());
+        }
+    }
+
+    @Test
+    public void testAddNewPastMeetings() throws Exception {
+        setDateInPast();
+        List<Integer> ids = manager.addNewPastMeetings(contactSets(setOf(alice), contacts),
+                CollectionUtil.listOf(date, date), CollectionUtil.listOf("First", "Second"));
+
+        assertEquals("First", manager.getPastMeeting(ids.get(0)).getNotes());
+        checkMeetingsList(setOf(ids.get(0), ids.get(1)), manager.getPastMeetingList(alice));
+        checkMeetingsList(setOf(ids.get(1)), manager.getPastMeetingList(charlie));
+        assertEquals(CollectionUtil.listOf(ids.get(1)), manager.searchMeetingNotes("second"));
+    }
+
+    @Test
+    public void testAddNewPastMeetingsIsAllOrNothing() throws Exception {
+        setDateInPast();
+        try {
+            manager.addNewPastMeetings(contactSets(contacts, contacts),
+                    CollectionUtil.listOf(date, date), CollectionUtil.listOf(note, null));
+            fail("Expected NullPointerException");
+        } catch (NullPointerException err) {
+            assertTrue(manager.getPastMeetingList(alice).isEmpty());
+        }
+    }
+
+    @Test
+    public void testAddMeetingNotesBatch() throws Exception {
+        setDateToNow();
+        date.add(Calendar.MILLISECOND, MILLISECONDS_FOR_FUTURE_TO_BECOME_PAST);
+        int future_id = manager.addFutureMeeting(setOf(alice, bob), date);
+        setDateInPast();
+        manager.addNewPastMeeting(setOf(bob), date, "Old");
+        int past_id = manager.searchMeetingNotes("old").get(0);
+        Thread.sleep(MILLISECONDS_FOR_FUTURE_TO_BECOME_PAST * 2);
+
+        Map<Integer, String> notes = new HashMap<Integer, String>();
+        notes.put(future_id, " Happened ");
+        notes.put(past_id, "New");
+        manager.addMeetingNotes(notes);
+
+        assertEquals("Happened", manager.getPastMeeting(future_id).getNotes());
+        assertEquals("Old\nNew", manager.getPastMeeting(past_id).getNotes());
+        assertTrue(manager.getFutureMeetingList(alice).isEmpty());
+        checkMeetingsList(setOf(future_id, past_id), manager.getPastMeetingList(bob));
+        assertEquals(CollectionUtil.listOf(future_id), manager.searchMeetingNotes("happened"));
+    }
+
+    @Test
+    public void testAddMeetingNotesBatchIsAllOrNothing() throws Exception {
+        setDateInPast();
+        manager.addNewPastMeeting(contacts, date, "Old");
+        int past_id = manager.searchMeetingNotes("old").get(0);
+        setDateInFuture();
+        int future_id = manager.addFutureMeeting(contacts, date);
+
+        Map<Integer, String> notes = new LinkedHashMap<Integer, String>();
+        notes.put(past_id, "New");
+        notes.put(future_id, "Too soon");
+        try {
+            manager.addMeetingNotes(notes);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException err) {
+            assertEquals("Old", manager.getPastMeeting(past_id).getNotes());
+            assertNotNull(manager.getFutureMeeting(future_id));
+        }
+
+        notes.remove(future_id);
+        notes.put(-99, "Nobody");
+        try {
+            manager.addMeetingNotes(notes);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException err) {
+            assertEquals("Old", manager.getPastMeeting(past_id).getNotes());
+        }
+    }
+
+    @Test
+    public void testBatchesMatchSingleCalls() throws Exception {
+        // 200 contacts, then 200 future and 200 past meetings of three of them each
+        int count = 200;
+        List<String> names = new ArrayList<String>();
+        List<String> notes = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            names.add("Contact " + i);
+            notes.add("Notes on contact " + i);
+        }
+
+        ContactManager single = DIFactory.getInstance().newContactManager(filename);
+        for (int i = 0; i < count; i++) {
+            single.addNewContact(names.get(i), notes.get(i));
+        }
+        ContactManager batch = DIFactory.getInstance().newContactManager(filename);
+        batch.addNewContacts(names, notes);
+
+        Random random = new Random(37);
+        List<Set<Contact>> meeting_contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> future_dates = new ArrayList<Calendar>();
+        List<Calendar> past_dates = new ArrayList<Calendar>();
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            int[] ids = {random.nextInt(count), random.nextInt(count), random.nextInt(count)};
+            // Both managers gave their contacts the same ids
+            meeting_contacts.add(single.getContacts(ids));
+            Calendar future_date = Calendar.getInstance();
+            future_date.add(Calendar.DAY_OF_MONTH, 1 + random.nextInt(365));
+            future_dates.add(future_date);
+            Calendar past_date = Calendar.getInstance();
+            past_date.add(Calendar.DAY_OF_MONTH, -1 - random.nextInt(365));
+            past_dates.add(past_date);
+            texts.add("Meeting " + i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            single.addFutureMeeting(meeting_contacts.get(i), future_dates.get(i));
+        }
+        for (int i = 0; i < count; i++) {
+            single.addNewPastMeeting(meeting_contacts.get(i), past_dates.get(i), texts.get(i));
+        }
+        batch.addFutureMeetings(meeting_contacts, future_dates);
+        batch.addNewPastMeetings(meeting_contacts, past_dates, texts);
+
+        for (int i = 0; i < count; i++) {
+            Contact contact = batch.getContacts(i).iterator().next();
+            assertEquals(getIds(single.getFutureMeetingList(contact)), getIds(batch.getFutureMeetingList(contact)));
+            assertEquals(getIds(single.getPastMeetingList(contact)), getIds(batch.getPastMeetingList(contact)));
+        }
+    }
+
+    private static List<Integer> getIds(List<? extends Meeting> meetings) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Meeting meeting : meetings) {
+            ids.add(meeting.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Adds a past meeting with alice and bob, and future meetings with bob and with charlie,
+     * flushes them, then reloads the manager in lazy-load mode.
+     *
+     * @return the ids of the past meeting and the two future meetings.
+     */
+    private List<Integer> flushThenReloadLazily() throws Exception {
+        setDateInPast();
+        manager.addNewPastMeeting(setOf(alice, bob), date, "Discussed budget");
+        int past_id = manager.searchMeetingNotes("budget").get(0);
+        setDateInFuture();
+        int bob_id = manager.addFutureMeeting(setOf(bob), date);
+        int charlie_id = manager.addFutureMeeting(setOf(charlie), date);
+        manager.flush();
+
+        manager = new ContactManagerImpl(filename, true);
+        return CollectionUtil.listOf(past_id, bob_id, charlie_id);
+    }
+
+    @Test
+    public void testLazyLoadMeetingsPerContact() throws Exception {
+        List<Integer> ids = flushThenReloadLazily();
+
+        // Contacts are loaded straight away
+        assertEquals(1, manager.getContacts("Alice").size());
+        alice = manager.getContacts(ALICE_ID).iterator().next();
+        bob = manager.getContacts(BOB_ID).iterator().next();
+
+        checkMeetingsList(setOf(ids.get(0)), manager.getPastMeetingList(alice));
+        checkMeetingsList(setOf(ids.get(1)), manager.getFutureMeetingList(bob));
+        checkMeetingsList(setOf(ids.get(0)), manager.getPastMeetingList(bob));
+        assertEquals("Discussed budget", manager.getPastMeeting(ids.get(0)).getNotes());
+    }
+
+    @Test
+    public void testLazyLoadMeetingsById() throws Exception {
+        List<Integer> ids = flushThenReloadLazily();
+
+        assertNotNull(manager.getFutureMeeting(ids.get(2)));
+        assertNull(manager.getMeeting(-99));
+
+        // New meetings don't reuse the ids of meetings that haven't been loaded yet
+        setDateInFuture();
+        int id = manager.addFutureMeeting(manager.getContacts(ALICE_ID), date);
+        assertEquals(ids.get(2) + 1, id);
+
+        charlie = manager.getContacts(CHARLIE_ID).iterator().next();
+        checkMeetingsList(setOf(ids.get(2)), manager.getFutureMeetingList(charlie));
+    }
+
+    @Test
+    public void testLazyLoadMeetingsThenFlush() throws Exception {
+        List<Integer> ids = flushThenReloadLazily();
+
+        manager.addMeetingNotes(ids.get(0), "Again");
+        manager.flush();
+        manager = DIFactory.getInstance().newContactManager(filename);
+
+        assertEquals("Discussed budget\nAgain", manager.getPastMeeting(ids.get(0)).getNotes());
+        assertNotNull(manager.getFutureMeeting(ids.get(1)));
+        assertNotNull(manager.getFutureMeeting(ids.get(2)));
+    }
+
+    @Test
+    public void testLazyLoadMeetingsForWholeFileQueries() throws Exception {
+        List<Integer> ids = flushThenReloadLazily();
+
+        assertEquals(CollectionUtil.listOf(ids.get(0)), manager.searchMeetingNotes("budget"));
+
+        Set<Integer> ids_on_date = new HashSet<Integer>();
+        for (Meeting meeting : manager.getFutureMeetingList(date)) {
+            ids_on_date.add(meeting.getId());
+        }
+        assertTrue(ids_on_date.containsAll(setOf(ids.get(1), ids.get(2))));
+    }
+
     @Test
     public void testAddNewContact() throws Exception {
         manager = DIFactory.getInstance().newContactManager(filename);
@@ -529,6 +1070,68 @@ public class ContactManagerTest {
         manager.getContacts(null_name);
     }
 
+    @Test
+    public void testAutocompleteContacts() throws Exception {
+        Contact bobby = addThenReturnContact("Bobby Charles", note);
+
+        // With no meetings, ties are broken by id; any word of the name matches, in any case
+        assertEquals(CollectionUtil.listOf(bob, bobby), manager.autocompleteContacts("bo", 10));
+        assertEquals(CollectionUtil.listOf(charlie, bobby), manager.autocompleteContacts("CHAR", 10));
+        assertEquals(CollectionUtil.listOf(alice, bob), manager.autocompleteContacts("", 2));
+        assertTrue(manager.autocompleteContacts("bobo", 10).isEmpty());
+        assertTrue(manager.autocompleteContacts("bo", 0).isEmpty());
+
+        // Meetings raise a contact's rank, and a more recent past meeting breaks ties
+        setDateInFuture();
+        manager.addFutureMeeting(setOf(bobby), date);
+        assertEquals(CollectionUtil.listOf(bobby, bob), manager.autocompleteContacts("bo", 10));
+        setDateInPast();
+        manager.addNewPastMeeting(setOf(bob), date, note);
+        assertEquals(CollectionUtil.listOf(bob, bobby), manager.autocompleteContacts("bo", 10));
+
+        // New contacts are found too, and the ranking survives a reload
+        Contact boris = addThenReturnContact("Boris", note);
+        assertEquals(CollectionUtil.listOf(bob, bobby, boris), manager.autocompleteContacts("bo", 10));
+        manager.flush();
+        manager = DIFactory.getInstance().newContactManager(filename);
+        assertEquals(CollectionUtil.listOf(bob, bobby, boris), manager.autocompleteContacts("bo", 10));
+    }
+
+    @Test
+    public void testSearchContactNames() throws Exception {
+        Contact alicia = addThenReturnContact("Alicia Smyth", note);
+        Contact john = addThenReturnContact("John Smith", note);
+
+        // Closest first, then by id
+        assertEquals(CollectionUtil.listOf(alice, alicia), manager.searchContactNames("Alica", 1));
+        assertEquals(CollectionUtil.listOf(john, alicia), manager.searchContactNames("smitth", 2));
+        assertEquals(CollectionUtil.listOf(john), manager.searchContactNames("SMITH", 0));
+
+        // Every word of the query must match
+        assertEquals(CollectionUtil.listOf(john), manager.searchContactNames("jon smith", 1));
+        assertTrue(manager.searchContactNames("jon smith", 0).isEmpty());
+        assertTrue(manager.searchContactNames("", 1).isEmpty());
+
+        // New contacts are found too
+        Contact jon = addThenReturnContact("Jon", note);
+        assertEquals(CollectionUtil.listOf(jon, john), manager.searchContactNames("jon", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchContactNamesWithNegativeDistance() throws Exception {
+        manager.searchContactNames("Alice", -1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testAutocompleteContactsWithNullPrefix() throws Exception {
+        manager.autocompleteContacts(null, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAutocompleteContactsWithNegativeLimit() throws Exception {
+        manager.autocompleteContacts("a", -1);
+    }
+
     @Test
     public void testGetContactsBySingleId() throws Exception {
         // Check manager gives the correct Contact object for the given id
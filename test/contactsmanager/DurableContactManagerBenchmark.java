@@ -0,0 +1,39 @@
+package contactsmanager;
+
+import java.io.File;
+
+/**
+ * Times 32 writers adding contacts to a DurableContactManager, with one fsync per call and with
+ * group commit.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.DurableContactManagerBenchmark
+ */
+public class DurableContactManagerBenchmark {
+    private static final String FILENAME = "DurableContactManagerBenchmark_output.xml";
+
+    private static void deleteFiles() {
+        for (String name : new String[] {FILENAME, FILENAME + ".log", RecurringMeeting.getFilename(FILENAME)}) {
+            new File(name).delete();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writers = 32;
+        int per_writer = 20;
+
+        double[] rates = new double[2];
+        for (int run = 0; run < 2; run++) {
+            deleteFiles();
+            DurableContactManager manager = run == 0
+                    ? new DurableContactManager(FILENAME, 0, 1)
+                    : new DurableContactManager(FILENAME);
+            long nanos = DurableContactManagerTest.runWriters(manager, writers, per_writer);
+            rates[run] = writers * per_writer * 1e9 / nanos;
+            manager.close();
+        }
+        deleteFiles();
+
+        System.out.printf("%d writers: one fsync per call %.0f adds/s, group commit %.0f adds/s%n",
+                writers, rates[0], rates[1]);
+    }
+}
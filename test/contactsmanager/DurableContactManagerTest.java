@@ -0,0 +1,346 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for DurableContactManager
+ */
+public class DurableContactManagerTest {
+    private final String filename = "DurableContactManagerTest_output.xml";
+    private final String log_filename = filename + ".log";
+    private DurableContactManager manager;
+    private Calendar future_date;
+    private Calendar past_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new DurableContactManager(filename);
+
+        future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+        past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+    }
+
+    @After
+    public void cleanUp() {
+        if (manager != null)
+            manager.close();
+
+        for (String name : new String[] {filename, log_filename, RecurringMeeting.getFilename(filename)}) {
+            File file = new File(name);
+            if (file.exists()) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    private DurableContactManager reopen() {
+        manager.close();
+        manager = new DurableContactManager(filename);
+        return manager;
+    }
+
+    private void addAliceAndMeetings() {
+        manager.addNewContact("Alice", "Likes tea");
+        Contact alice = manager.getContacts(0).iterator().next();
+        manager.addFutureMeeting(setOf(alice), future_date);
+        manager.addNewPastMeeting(setOf(alice), past_date, "First");
+        manager.addMeetingNotes(1, "Second");
+    }
+
+    private void checkAliceAndMeetings() {
+        Contact alice = manager.getContacts(0).iterator().next();
+        assertEquals("Alice", alice.getName());
+        assertEquals("Likes tea", alice.getNotes());
+        assertEquals(future_date.getTimeInMillis(), manager.getFutureMeeting(0).getDate().getTimeInMillis());
+        assertEquals("First\nSecond", manager.getPastMeeting(1).getNotes());
+        assertEquals(2, manager.getMeetingsWithAnyOf(setOf(alice)).size());
+    }
+
+    @Test
+    public void testChangesSurviveWithoutFlush() throws Exception {
+        addAliceAndMeetings();
+        assertFalse(new File(filename).exists());
+
+        reopen();
+        checkAliceAndMeetings();
+    }
+
+    @Test
+    public void testFlushEmptiesLog() throws Exception {
+        addAliceAndMeetings();
+        assertTrue(new File(log_filename).length() > 0);
+
+        manager.flush();
+        assertEquals(0, new File(log_filename).length());
+
+        reopen();
+        checkAliceAndMeetings();
+
+        // New changes go in the log again, on top of the file
+        manager.addNewContact("Bob", "");
+        reopen();
+        assertEquals(2, manager.getContacts(0, 1).size());
+    }
+
+    @Test
+    public void testReplayingChangesAlreadyInFileChangesNothing() throws Exception {
+        addAliceAndMeetings();
+        byte[] log = readFile(log_filename);
+
+        // As if the manager stopped after writing the file but before emptying the log
+        manager.flush();
+        manager.close();
+        writeFile(log_filename, log, false);
+
+        manager = new DurableContactManager(filename);
+        checkAliceAndMeetings();
+        assertEquals(1, manager.getContacts("Alice").size());
+    }
+
+    @Test
+    public void testNotesAddedAfterFlushAreReplayed() throws Exception {
+        addAliceAndMeetings();
+        manager.flush();
+        manager.addMeetingNotes(1, "Third");
+
+        reopen();
+        assertEquals("First\nSecond\nThird", manager.getPastMeeting(1).getNotes());
+    }
+
+    @Test
+    public void testRecurringMeetingIsReplayed() throws Exception {
+        manager.addNewContact("Alice", "");
+        Contact alice = manager.getContacts(0).iterator().next();
+        int id = manager.addRecurringMeeting(setOf(alice), future_date, 7, 10);
+        byte[] log = readFile(log_filename);
+
+        reopen();
+        assertEquals(10, manager.getFutureMeetingList(alice).size());
+        assertEquals(id + 10, manager.addFutureMeeting(setOf(alice), future_date));
+
+        // And replaying it on top of the flushed file changes nothing
+        manager.flush();
+        manager.close();
+        writeFile(log_filename, log, false);
+        manager = new DurableContactManager(filename);
+        assertEquals(11, manager.getFutureMeetingList(alice).size());
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        addAliceAndMeetings();
+        manager.close();
+        writeFile(log_filename, new byte[] {0, 0, 0, 100, 1, 2, 3}, true);
+
+        manager = new DurableContactManager(filename);
+        checkAliceAndMeetings();
+
+        // Later records follow the last good one
+        manager.addNewContact("Bob", "");
+        reopen();
+        assertEquals(1, manager.getContacts("Bob").size());
+    }
+
+    @Test
+    public void testLogNotMatchingFileIsRejected() throws Exception {
+        manager.addNewContact("Alice", "");
+        manager.flush();
+        Contact alice = manager.getContacts(0).iterator().next();
+        manager.addFutureMeeting(setOf(alice), future_date);
+        manager.close();
+
+        // The log's meeting refers to a contact that only the (now lost) file had
+        assertTrue(new File(filename).delete());
+        long log_length = new File(log_filename).length();
+        try {
+            new DurableContactManager(filename);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException err) {
+            assertTrue(err.getCause() instanceof IOException);
+        }
+        assertEquals(log_length, new File(log_filename).length());
+    }
+
+    @Test
+    public void testFlushReplacesFileWhole() throws Exception {
+        addAliceAndMeetings();
+        manager.flush();
+        assertTrue(new File(filename).isFile());
+        assertFalse(new File(filename + ".tmp").exists());
+
+        manager.addNewContact("Bob", "");
+        manager.flush();
+        assertEquals(0, new File(log_filename).length());
+        reopen();
+        checkAliceAndMeetings();
+        assertEquals(1, manager.getContacts("Bob").size());
+    }
+
+    @Test
+    public void testFutureMeetingNowPastIsReplayed() throws Exception {
+        manager.addNewContact("Alice", "");
+        Contact alice = manager.getContacts(0).iterator().next();
+        Calendar soon = Calendar.getInstance();
+        soon.add(Calendar.MILLISECOND, 50);
+        int id = manager.addFutureMeeting(setOf(alice), soon);
+        Thread.sleep(100);
+
+        reopen();
+        assertEquals(soon.getTimeInMillis(), manager.getMeeting(id).getDate().getTimeInMillis());
+        manager.addMeetingNotes(id, "Done");
+        reopen();
+        assertEquals("Done", manager.getPastMeeting(id).getNotes());
+    }
+
+    @Test
+    public void testFailedChangesAreNotLogged() throws Exception {
+        manager.addNewContact("Alice", "");
+        try {
+            manager.addFutureMeeting(setOf((Contact) new ContactImpl(5, "Stranger")), future_date);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException err) {
+            // Expected
+        }
+
+        reopen();
+        assertEquals(1, manager.getContacts("").size());
+        assertNull(manager.getMeeting(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedManagerRejectsChanges() throws Exception {
+        manager.close();
+        manager.addNewContact("Alice", "");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBatchSize() throws Exception {
+        new DurableContactManager(filename, 1000, 0);
+    }
+
+    /**
+     * Adds contacts from 8 threads at once, committing one record per fsync and then with group
+     * commit, and checks that every one is durable.
+     */
+    @Test
+    public void testConcurrentWritersAreAllDurable() throws Exception {
+        manager.close();
+        int writers = 8;
+        int per_writer = 10;
+
+        // With one commit per call, then grouped commits
+        for (int run = 0; run < 2; run++) {
+            cleanUp();
+            manager = run == 0 ? new DurableContactManager(filename, 0, 1) : new DurableContactManager(filename);
+            runWriters(manager, writers, per_writer);
+            assertEquals(writers * per_writer, reopen().getContacts("Contact").size());
+        }
+    }
+
+    @Test
+    public void testQueriesRunAlongsideWriters() throws Exception {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Contacts are only ever added, so no query sees fewer than the last
+                        int last_count = 0;
+                        while (writing.get()) {
+                            int count = manager.getContacts("Contact").size();
+                            assertTrue(count >= last_count);
+                            assertTrue(manager.searchContactNames("contact", 0).size() >= count);
+                            last_count = count;
+                        }
+                    } catch (Throwable err) {
+                        failures.add(err);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        runWriters(manager, 4, 50);
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(200, reopen().getContacts("Contact").size());
+    }
+
+    /**
+     * Adds contacts from the given number of threads at once, and returns how long it took.
+     */
+    static long runWriters(final ContactManager manager, int writers, final int per_writer) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < per_writer; i++) {
+                            manager.addNewContact("Contact " + writer + " " + i, "");
+                        }
+                    } catch (Throwable err) {
+                        failures.add(err);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - started;
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        return elapsed;
+    }
+
+    private static byte[] readFile(String name) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(name));
+        try {
+            byte[] bytes = new byte[(int) new File(name).length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(String name, byte[] bytes, boolean append) throws IOException {
+        OutputStream out = new FileOutputStream(name, append);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
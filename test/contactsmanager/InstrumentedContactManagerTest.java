@@ -0,0 +1,98 @@
+package contactsmanager;
+
+import contactsmanager.util.LatencyHistogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.HashSet;
+
+/**
+ * Test class for InstrumentedContactManager
+ */
+public class InstrumentedContactManagerTest {
+    private final String filename = "InstrumentedContactManagerTest_output.xml";
+    private InstrumentedContactManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new InstrumentedContactManager(new ContactManagerImpl(filename));
+    }
+
+    @Test
+    public void testCallsAreCounted() throws Exception {
+        manager.addNewContact("Alice", "note");
+        manager.addNewContact("Bob", "note");
+        manager.getContacts("Alice");
+
+        assertEquals(2, manager.getLatencySnapshot(InstrumentedContactManager.Operation.ADD_NEW_CONTACT).getCount());
+        assertEquals(1, manager.getLatencySnapshot(InstrumentedContactManager.Operation.GET_CONTACTS_BY_NAME).getCount());
+        assertEquals(0, manager.getLatencySnapshot(InstrumentedContactManager.Operation.FLUSH).getCount());
+    }
+
+    @Test
+    public void testErrorsAreCounted() throws Exception {
+        try {
+            manager.addFutureMeeting(new HashSet<Contact>(), Calendar.getInstance());
+        } catch (IllegalArgumentException err) {
+            // Expected
+        }
+
+        assertEquals(1, manager.getErrorCount(InstrumentedContactManager.Operation.ADD_FUTURE_MEETING));
+        assertEquals(1, manager.getLatencySnapshot(InstrumentedContactManager.Operation.ADD_FUTURE_MEETING).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testErrorsArePassedOn() throws Exception {
+        manager.getContacts(99);
+    }
+
+    @Test
+    public void testStageTimingsAreDumped() throws Exception {
+        manager.addNewContact("Alice", "note");
+        manager.flush();
+
+        LatencyHistogram.Snapshot write_timings = ((ContactManagerImpl) manager.getDelegate())
+                .getStageTiming(ContactManagerImpl.Stage.FLUSH_WRITE).getSnapshot();
+        assertEquals(1, write_timings.getCount());
+
+        String dump = manager.getStatsDump();
+        assertTrue(dump.contains("addNewContact"));
+        assertTrue(dump.contains("FLUSH_WRITE"));
+        assertFalse(dump.contains("getMeeting"));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        manager.addNewContact("Alice", "note");
+        manager.flush();
+        manager.reset();
+
+        assertEquals(0, manager.getLatencySnapshot(InstrumentedContactManager.Operation.ADD_NEW_CONTACT).getCount());
+        assertEquals(0, ((ContactManagerImpl) manager.getDelegate())
+                .getStageTiming(ContactManagerImpl.Stage.FLUSH_WRITE).getSnapshot().getCount());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullDelegate() throws Exception {
+        new InstrumentedContactManager(null);
+    }
+
+    @After
+    public void cleanUp() {
+        if (manager != null)
+            manager.stopPeriodicDump();
+
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package contactsmanager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+
+/**
+ * Loads a file of 20000 contacts and 20000 meetings with XmlDataStore and MappedXmlDataStore,
+ * and prints how long each took.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.MappedXmlDataStoreBenchmark
+ */
+public class MappedXmlDataStoreBenchmark {
+    private static final String FILENAME = "MappedXmlDataStoreBenchmark_output.xml";
+
+    public static void main(String[] args) throws Exception {
+        List<Contact> contacts = new ArrayList<Contact>();
+        List<PastMeeting> meetings = new ArrayList<PastMeeting>();
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.YEAR, -1);
+        for (int i = 0; i < 20000; i++) {
+            Contact contact = new ContactImpl(i, "Contact " + i);
+            contact.addNotes("Notes for contact " + i + (i % 10 == 0 ? " & friends" : ""));
+            contacts.add(contact);
+            meetings.add(new PastMeetingImpl(i, date, setOf(contact), "Meeting " + i));
+        }
+        XmlDataStore written = new XmlDataStore();
+        written.setContacts(contacts);
+        written.setPastMeetings(meetings);
+        written.writeToFilename(FILENAME);
+
+        XmlDataStore dom = new XmlDataStore();
+        MappedXmlDataStore mapped = new MappedXmlDataStore();
+        long dom_nanos = Long.MAX_VALUE, mapped_nanos = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            dom.loadFromFilename(FILENAME);
+            dom_nanos = Math.min(dom_nanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            mapped.loadFromFilename(FILENAME);
+            mapped_nanos = Math.min(mapped_nanos, System.nanoTime() - start);
+        }
+        new File(FILENAME).delete();
+
+        System.out.printf("Loading 20000 contacts and meetings: XmlDataStore %.1f ms, MappedXmlDataStore %.1f ms%n",
+                dom_nanos / 1e6, mapped_nanos / 1e6);
+    }
+}
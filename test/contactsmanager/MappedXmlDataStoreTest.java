@@ -0,0 +1,203 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for MappedXmlDataStore
+ */
+public class MappedXmlDataStoreTest {
+    private MappedXmlDataStore doc;
+    private final String filename = "MappedXmlDataStoreTest_output.xml";
+    private final String xml_file_dir = "test" + File.separator +
+            "contactsmanager" + File.separator +
+            "xml_test_files" + File.separator;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        doc = new MappedXmlDataStore();
+    }
+
+    @After
+    public void cleanUp() {
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    private void writeXml(String xml) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(filename), "UTF-8");
+        try {
+            out.write(xml);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks the two stores hold equal contacts and meetings (with dates equal to the millisecond).
+     */
+    private static void assertSameData(DataStore expected, DataStore actual) {
+        assertEquals(expected.getContacts(), actual.getContacts());
+        Map<Integer, String> expected_contacts = new HashMap<Integer, String>();
+        for (Contact contact : expected.getContacts()) {
+            expected_contacts.put(contact.getId(), contact.getName() + "|" + contact.getNotes());
+        }
+        for (Contact contact : actual.getContacts()) {
+            assertEquals(expected_contacts.get(contact.getId()), contact.getName() + "|" + contact.getNotes());
+        }
+
+        assertEquals(describe(expected.getFutureMeetings()), describe(actual.getFutureMeetings()));
+        assertEquals(describe(expected.getPastMeetings()), describe(actual.getPastMeetings()));
+    }
+
+    private static Map<Integer, String> describe(Set<? extends Meeting> meetings) {
+        Map<Integer, String> descriptions = new HashMap<Integer, String>();
+        for (Meeting meeting : meetings) {
+            Set<Integer> contact_ids = new TreeSet<Integer>();
+            for (Contact contact : meeting.getContacts()) {
+                contact_ids.add(contact.getId());
+            }
+            String notes = meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null;
+            descriptions.put(meeting.getId(), meeting.getDate().getTimeInMillis() + " " + contact_ids + " " + notes);
+        }
+        return descriptions;
+    }
+
+    @Test
+    public void testLoadsWhatXmlDataStoreWrites() throws Exception {
+        Contact alice = new ContactImpl(1, "Alice <&> \"Smith\"");
+        Contact bob = new ContactImpl(2, "B\u00f3b \u2603");
+        alice.addNotes("Line one\nLine two & more");
+        Calendar future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+        Calendar past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        past_date.set(Calendar.MILLISECOND, 7);
+
+        XmlDataStore written = new XmlDataStore();
+        written.setContacts(Arrays.asList(alice, bob));
+        written.setFutureMeetings(Arrays.<FutureMeeting>asList(new FutureMeetingImpl(1, future_date, setOf(alice, bob))));
+        written.setPastMeetings(Arrays.<PastMeeting>asList(
+                new PastMeetingImpl(2, past_date, setOf(alice), "Notes with <tags> & 'quotes'"),
+                new PastMeetingImpl(3, past_date, setOf(bob), "")));
+        written.writeToFilename(filename);
+
+        XmlDataStore expected = new XmlDataStore();
+        expected.loadFromFilename(filename);
+        doc.loadFromFilename(filename);
+        assertSameData(expected, doc);
+        assertEquals(2, doc.getContacts().size());
+        assertEquals(2, doc.getPastMeetings().size());
+    }
+
+    @Test
+    public void testDatesMatchCalendarUtil() throws Exception {
+        String[] dates = {
+                "15/01/2013 at 12:30:45.7 GMT",
+                "29/02/2012 at 23:59:59.999 UTC",
+                "15/06/2013 at 00:00:00.0 BST",
+                "01/03/1900 at 06:07:08.12 PST",
+                "31/12/2099 at 10:00:00.100 GMT+05:30",
+                "32/01/2013 at 12:00:00.0 GMT",
+                " 01/01/2013 at 12:00:00.0 GMT"
+        };
+        StringBuilder xml = new StringBuilder("<ContactManagerData><Contacts><contact id=\"1\"><name>A</name><notes/></contact></Contacts><FutureMeetings>");
+        for (int i = 0; i < dates.length; i++) {
+            xml.append("<meeting id=\"").append(i).append("\"><date>").append(dates[i])
+                    .append("</date><contacts><contact id=\"1\"/></contacts></meeting>");
+        }
+        xml.append("</FutureMeetings><PastMeetings/></ContactManagerData>");
+        writeXml(xml.toString());
+
+        XmlDataStore expected = new XmlDataStore();
+        expected.loadFromFilename(filename);
+        doc.loadFromFilename(filename);
+        assertSameData(expected, doc);
+    }
+
+    @Test
+    public void testEntitiesAndCommentsAndWhitespace() throws Exception {
+        writeXml("\ufeff<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- saved -->\n<ContactManagerData>\r\n" +
+                "  <PastMeetings/>\n" +
+                "  <Contacts>\n    <!-- one contact -->\n" +
+                "    <contact id='7' other=\"x\">\n      <notes>a &#65;&#x42; &apos;c&apos;\r\nd</notes>\n      <name>N &lt;1&gt;</name>\n    </contact >\n" +
+                "  </Contacts>\n  <FutureMeetings></FutureMeetings>\n</ContactManagerData>\n");
+
+        doc.loadFromFilename(filename);
+        Contact contact = doc.getContacts().iterator().next();
+        assertEquals(7, contact.getId());
+        assertEquals("N <1>", contact.getName());
+        assertEquals("a AB 'c'\nd", contact.getNotes());
+    }
+
+    @Test
+    public void testUnknownAttendeesGetPlaceholders() throws Exception {
+        writeXml("<ContactManagerData><FutureMeetings><meeting id=\"1\"><date>15/01/2013 at 12:30:45.7 GMT</date>" +
+                "<contacts><contact id=\"1\"/><contact id=\"9\"></contact></contacts></meeting></FutureMeetings>" +
+                "<Contacts><contact id=\"1\"><name>A</name><notes/></contact></Contacts></ContactManagerData>");
+
+        doc.loadFromFilename(filename);
+        Set<Contact> attendees = doc.getFutureMeetings().iterator().next().getContacts();
+        assertEquals(2, attendees.size());
+        for (Contact attendee : attendees) {
+            assertEquals(attendee.getId() == 1 ? "A" : "", attendee.getName());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadMalformedDate() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "malformed_date.xml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadMalformedId() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "malformed_id.xml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadMalformedString() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "malformed_string.xml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadContactWithTooManyNames() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "too_many_names.xml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadMalformedTag() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "malformed_tag.xml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadWrongTag() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "wrong_tag.xml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadTruncatedFile() throws Exception {
+        writeXml("<ContactManagerData><Contacts><contact id=\"1\"><name>A</na");
+        doc.loadFromFilename(filename);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadUnknownEntity() throws Exception {
+        writeXml("<ContactManagerData><Contacts><contact id=\"1\"><name>&foo;</name><notes/></contact></Contacts></ContactManagerData>");
+        doc.loadFromFilename(filename);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadFromBadFile() throws Exception {
+        doc.loadFromFilename(xml_file_dir + "this_file_doesnt_exist.xml");
+    }
+}
@@ -0,0 +1,67 @@
+package contactsmanager;
+
+import java.io.File;
+import java.util.*;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+
+/**
+ * Times loading and flushing a ContactManagerImpl with 12 years of past meetings, with all of
+ * them in its file and with the past years archived.  It's run by hand rather than with the
+ * tests:
+ *
+ *     java -cp <classes> contactsmanager.MeetingArchiveBenchmark
+ */
+public class MeetingArchiveBenchmark {
+    private static final String FILENAME = "MeetingArchiveBenchmark_output.xml";
+
+    private static void deleteFiles() {
+        for (File file : new File(".").listFiles()) {
+            if (file.getName().startsWith(FILENAME))
+                file.delete();
+        }
+    }
+
+    public static void main(String[] args) {
+        deleteFiles();
+        ContactManagerImpl manager = new ContactManagerImpl(FILENAME);
+        manager.addNewContact("Alice", "");
+        manager.addNewContact("Bob", "");
+        Contact alice = manager.getContacts(0).iterator().next();
+        Contact bob = manager.getContacts(1).iterator().next();
+
+        // 12 years of meetings, 2000 a year
+        int current_year = Calendar.getInstance().get(Calendar.YEAR);
+        for (int year = current_year - 12; year < current_year; year++) {
+            List<Set<Contact>> contacts = new ArrayList<Set<Contact>>();
+            List<Calendar> dates = new ArrayList<Calendar>();
+            List<String> texts = new ArrayList<String>();
+            for (int i = 0; i < 2000; i++) {
+                contacts.add(setOf(i % 2 == 0 ? alice : bob));
+                Calendar date = Calendar.getInstance();
+                date.clear();
+                date.set(year, Calendar.JUNE, 15, 10, 30);
+                date.add(Calendar.MINUTE, i);
+                dates.add(date);
+                texts.add("Notes for meeting " + i + " of " + year);
+            }
+            manager.addNewPastMeetings(contacts, dates, texts);
+        }
+        manager.flush();
+
+        long start = System.nanoTime();
+        new ContactManagerImpl(FILENAME).flush();
+        long without_archive = System.nanoTime() - start;
+
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+        start = System.nanoTime();
+        ContactManagerImpl reloaded = new ContactManagerImpl(FILENAME);
+        reloaded.flush();
+        long with_archive = System.nanoTime() - start;
+        deleteFiles();
+
+        System.out.println("Load and flush of 12 years of meetings: everything in the file "
+                + without_archive / 1000000 + "ms, past years archived " + with_archive / 1000000 + "ms");
+    }
+}
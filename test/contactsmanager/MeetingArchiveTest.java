@@ -0,0 +1,317 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for MeetingArchive, and ContactManagerImpl's use of it
+ */
+public class MeetingArchiveTest {
+    private final String filename = "MeetingArchiveTest_output.xml";
+    private final int current_year = Calendar.getInstance().get(Calendar.YEAR);
+    private ContactManagerImpl manager;
+    private Contact alice;
+    private Contact bob;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new ContactManagerImpl(filename);
+        manager.addNewContact("Alice", "");
+        manager.addNewContact("Bob", "");
+        alice = manager.getContacts(0).iterator().next();
+        bob = manager.getContacts(1).iterator().next();
+    }
+
+    @After
+    public void cleanUp() {
+        File[] files = new File(".").listFiles();
+        for (File file : files) {
+            if (file.getName().startsWith(filename)) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    private static Calendar midYear(int year) {
+        Calendar date = Calendar.getInstance();
+        date.clear();
+        date.set(year, Calendar.JUNE, 15, 10, 30);
+        return date;
+    }
+
+    private static Set<Contact> setOf(Contact... contacts) {
+        return new HashSet<Contact>(Arrays.asList(contacts));
+    }
+
+    /**
+     * Adds past meetings 0-5: two in each of the last three years (the first with Alice, the
+     * second with Bob), then a past meeting this year (6) and a future one (7).
+     */
+    private void addMeetings() {
+        for (int year = current_year - 3; year < current_year; year++) {
+            manager.addNewPastMeeting(setOf(alice), midYear(year), "Alice in " + year);
+            manager.addNewPastMeeting(setOf(bob), midYear(year), "Bob in " + year);
+        }
+        Calendar recent = Calendar.getInstance();
+        recent.add(Calendar.MINUTE, -1);
+        manager.addNewPastMeeting(setOf(alice, bob), recent, "Recent");
+        Calendar future = Calendar.getInstance();
+        future.add(Calendar.YEAR, 1);
+        manager.addFutureMeeting(setOf(alice), future);
+    }
+
+    private static int pastMeetingsInFile(String filename) throws Exception {
+        DataStore data = new XmlDataStore();
+        data.loadFromFilename(filename);
+        return data.getPastMeetings().size();
+    }
+
+    private File segmentFile(int year) {
+        return new File(MeetingArchive.getSegmentFilename(filename, year));
+    }
+
+    @Test
+    public void testFlushSealsPastYears() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+
+        for (int year = current_year - 3; year < current_year; year++) {
+            assertTrue(segmentFile(year).isFile());
+        }
+        assertFalse(segmentFile(current_year).exists());
+        assertEquals(1, pastMeetingsInFile(filename));
+
+        // The meetings are all still there
+        assertEquals(4, manager.getPastMeetingList(alice).size());
+        assertEquals("Alice in " + (current_year - 3), manager.getPastMeeting(0).getNotes());
+    }
+
+    @Test
+    public void testWithoutArchivingNothingIsSealed() throws Exception {
+        addMeetings();
+        manager.flush();
+
+        assertFalse(segmentFile(current_year - 1).exists());
+        assertEquals(7, pastMeetingsInFile(filename));
+    }
+
+    @Test
+    public void testSegmentsAreReadOnlyWhenNeeded() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+
+        MeetingArchive archive = MeetingArchive.open(filename, new HashMap<Integer, Contact>());
+        assertEquals(new TreeSet<Integer>(Arrays.asList(current_year - 3, current_year - 2, current_year - 1)),
+                archive.getYears());
+        assertEquals(0, archive.getTakenSegmentCount());
+        assertTrue(archive.hasUntakenSegments());
+        assertEquals(5, archive.getLastMeetingId());
+
+        // Meeting 3 is Bob's, in the middle year, so that year is read
+        assertEquals(Arrays.asList(2, 3), ids(archive.takeMeetingsWithId(3)));
+        assertEquals(1, archive.getTakenSegmentCount());
+
+        // Alice's meetings are in all three, one of which is already taken
+        assertEquals(Arrays.asList(0, 1, 4, 5), ids(archive.takeMeetingsWithContact(0)));
+        assertEquals(3, archive.getTakenSegmentCount());
+        assertFalse(archive.hasUntakenSegments());
+        assertTrue(archive.takeAll().isEmpty());
+    }
+
+    private static List<Integer> ids(List<? extends Meeting> meetings) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Meeting meeting : meetings) {
+            ids.add(meeting.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testReloadedManagerReadsArchive() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+
+        ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+        assertEquals("Bob in " + (current_year - 2), reloaded.getPastMeeting(3).getNotes());
+        assertEquals(Arrays.asList(0, 2, 4, 6), ids(reloaded.getPastMeetingList(alice)));
+        assertEquals(Arrays.asList(2, 3), ids(reloaded.getFutureMeetingList(midYear(current_year - 2))));
+        assertEquals(Arrays.asList(0), reloaded.searchMeetingNotes("Alice " + (current_year - 3)));
+
+        // New meetings don't reuse archived ids
+        reloaded.addNewPastMeeting(setOf(bob), midYear(current_year - 1), "Late");
+        assertEquals(8, reloaded.getPastMeetingList(bob).get(3).getId());
+    }
+
+    @Test
+    public void testConcurrentReadsOfArchive() throws Exception {
+        // 10 years of meetings, 200 a year, alternately Alice's and Bob's
+        for (int year = current_year - 10; year < current_year; year++) {
+            for (int i = 0; i < 200; i++) {
+                Calendar date = midYear(year);
+                date.add(Calendar.MINUTE, i);
+                manager.addNewPastMeeting(setOf(i % 2 == 0 ? alice : bob), date, "Meeting " + i + " of " + year);
+            }
+        }
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+
+        // Each read may have to load a segment, while the others run alongside it
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AsyncContactManager async = new AsyncContactManager(new ContactManagerImpl(filename), executor);
+        try {
+            List<Future<PastMeeting>> meetings = new ArrayList<Future<PastMeeting>>();
+            List<Future<List<Meeting>>> date_meetings = new ArrayList<Future<List<Meeting>>>();
+            List<Future<List<PastMeeting>>> contact_meetings = new ArrayList<Future<List<PastMeeting>>>();
+            List<Future<List<Integer>>> searches = new ArrayList<Future<List<Integer>>>();
+            Future<Void> flushed = null;
+            for (int year = current_year - 10; year < current_year; year++) {
+                meetings.add(async.getPastMeeting((year - current_year + 10) * 200 + 7));
+                date_meetings.add(async.getFutureMeetingList(midYear(year)));
+                contact_meetings.add(async.getPastMeetingList(year % 2 == 0 ? alice : bob));
+                searches.add(async.searchMeetingNotes("Meeting 3 of " + year));
+                flushed = async.flush();
+            }
+
+            for (int year = current_year - 10; year < current_year; year++) {
+                int index = year - current_year + 10;
+                assertEquals("Meeting 7 of " + year, meetings.get(index).get().getNotes());
+                assertEquals(200, date_meetings.get(index).get().size());
+                assertEquals(1000, contact_meetings.get(index).get().size());
+                assertEquals(Arrays.asList(index * 200 + 3), searches.get(index).get());
+            }
+            flushed.get();
+        } finally {
+            async.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFlushLeavesUnreadSegmentsAlone() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+        long modified = segmentFile(current_year - 3).lastModified();
+
+        // Reload without reading the archive, and flush, with and without archiving set
+        ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+        reloaded.addNewContact("Carol", "");
+        reloaded.flush();
+        reloaded.setArchivePastMeetings(true);
+        reloaded.flush();
+
+        assertEquals(1, pastMeetingsInFile(filename));
+        assertEquals(modified, segmentFile(current_year - 3).lastModified());
+        assertEquals(7, new ContactManagerImpl(filename).searchMeetingNotes("in").size()
+                + new ContactManagerImpl(filename).searchMeetingNotes("Recent").size());
+    }
+
+    @Test
+    public void testChangedArchivedMeetingIsSavedInFile() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+        long length = segmentFile(current_year - 2).length();
+
+        ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+        reloaded.addMeetingNotes(2, "Follow-up");
+        reloaded.flush();
+        assertEquals(2, pastMeetingsInFile(filename));
+        assertEquals(length, segmentFile(current_year - 2).length());
+
+        // The file's version wins over the segment's, however the meeting is first reached
+        assertEquals("Alice in " + (current_year - 2) + "\nFollow-up",
+                new ContactManagerImpl(filename).getPastMeeting(2).getNotes());
+        assertEquals(Arrays.asList(0, 2, 4, 6), ids(new ContactManagerImpl(filename).getPastMeetingList(alice)));
+        ContactManagerImpl lazy = new ContactManagerImpl(filename, true);
+        assertEquals(4, lazy.getPastMeetingList(alice).size());
+        assertEquals("Alice in " + (current_year - 2) + "\nFollow-up", lazy.getPastMeeting(2).getNotes());
+
+        // And it stays in the file on later flushes
+        reloaded = new ContactManagerImpl(filename);
+        reloaded.getPastMeetingList(alice);
+        reloaded.flush();
+        assertEquals(2, pastMeetingsInFile(filename));
+    }
+
+    @Test
+    public void testNewMeetingInSealedYearIsSavedInFile() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+
+        manager.addNewPastMeeting(setOf(bob), midYear(current_year - 3), "Added later");
+        manager.flush();
+        assertEquals(2, pastMeetingsInFile(filename));
+        assertEquals(Arrays.asList(0, 1, 8), ids(new ContactManagerImpl(filename).getFutureMeetingList(midYear(current_year - 3))));
+    }
+
+    private void corruptSegment(int year, long offset_from_end) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(year), "rw");
+        try {
+            file.seek(file.length() - offset_from_end);
+            file.write(0xFF);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testCorruptSegmentFailsQueriesThatNeedIt() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+        corruptSegment(current_year - 1, 10);
+
+        ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+        try {
+            reloaded.getPastMeetingList(alice);
+            fail("The corrupt segment was skipped");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(segmentFile(current_year - 1).getName()));
+        }
+        // Meetings outside the segment can still be had
+        assertEquals("Alice in " + (current_year - 3), reloaded.getPastMeeting(0).getNotes());
+
+        // Nothing is taken, not even the readable segments that were needed along with it
+        MeetingArchive archive = MeetingArchive.open(filename, new HashMap<Integer, Contact>());
+        try {
+            archive.takeMeetingsWithContact(0);
+            fail("The corrupt segment was skipped");
+        } catch (IllegalStateException e) {
+            assertEquals(0, archive.getTakenSegmentCount());
+            assertTrue(archive.hasUntakenSegments());
+        }
+        assertEquals(Arrays.asList(0, 1), ids(archive.takeMeetingsWithId(0)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnreadableSegmentHeaderFailsLoad() throws Exception {
+        addMeetings();
+        manager.setArchivePastMeetings(true);
+        manager.flush();
+
+        RandomAccessFile file = new RandomAccessFile(segmentFile(current_year - 1), "rw");
+        try {
+            file.setLength(6);
+        } finally {
+            file.close();
+        }
+
+        new ContactManagerImpl(filename);
+    }
+}
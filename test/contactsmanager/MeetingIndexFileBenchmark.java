@@ -0,0 +1,90 @@
+package contactsmanager;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Times building a ContactManagerImpl's meeting indexes on load, from its index file and by
+ * rebuilding them, for 2000 contacts and 40000 meetings.  It's run by hand rather than with the
+ * tests:
+ *
+ *     java -cp <classes> contactsmanager.MeetingIndexFileBenchmark
+ */
+public class MeetingIndexFileBenchmark {
+    private static final String FILENAME = "MeetingIndexFileBenchmark_output.xml";
+
+    /**
+     * Writes a file of the given numbers of contacts and meetings (of three contacts each, half
+     * past and half future), with its index file.
+     */
+    private static void createFile(int contact_count, int meeting_count) {
+        Random random = new Random(42);
+        ContactManagerImpl manager = new ContactManagerImpl(FILENAME);
+        manager.setPersistIndexes(true);
+
+        List<String> names = new ArrayList<String>();
+        List<String> notes = new ArrayList<String>();
+        for (int i = 0; i < contact_count; i++) {
+            names.add("Contact " + i);
+            notes.add("Notes " + i);
+        }
+        manager.addNewContacts(names, notes);
+        List<Contact> contacts = new ArrayList<Contact>(manager.getContacts(""));
+
+        List<Set<Contact>> past_contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> past_dates = new ArrayList<Calendar>();
+        List<String> texts = new ArrayList<String>();
+        List<Set<Contact>> future_contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> future_dates = new ArrayList<Calendar>();
+        for (int i = 0; i < meeting_count; i++) {
+            Set<Contact> attendees = new HashSet<Contact>();
+            for (int j = 0; j < 3; j++) {
+                attendees.add(contacts.get(random.nextInt(contacts.size())));
+            }
+
+            Calendar date = Calendar.getInstance();
+            date.add(Calendar.DAY_OF_YEAR, random.nextInt(100) + 1);
+            if (i % 2 == 0) {
+                date.add(Calendar.YEAR, -1);
+                past_contacts.add(attendees);
+                past_dates.add(date);
+                texts.add("Meeting " + i);
+            } else {
+                future_contacts.add(attendees);
+                future_dates.add(date);
+            }
+        }
+        manager.addNewPastMeetings(past_contacts, past_dates, texts);
+        manager.addFutureMeetings(future_contacts, future_dates);
+        manager.flush();
+    }
+
+    public static void main(String[] args) {
+        createFile(2000, 40000);
+        String index_filename = MeetingIndexFile.getFilename(FILENAME);
+
+        // Warm up both paths, then time each
+        long with_index = Long.MAX_VALUE;
+        long without_index = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            ContactManagerImpl manager = new ContactManagerImpl(FILENAME);
+            with_index = Math.min(with_index,
+                    manager.getStageTiming(ContactManagerImpl.Stage.LOAD_INDEX).getSnapshot().getMax());
+
+            File index = new File(index_filename);
+            File moved = new File(index_filename + ".moved");
+            if (!index.renameTo(moved))
+                throw new IllegalStateException("Couldn't move " + index);
+            manager = new ContactManagerImpl(FILENAME);
+            without_index = Math.min(without_index,
+                    manager.getStageTiming(ContactManagerImpl.Stage.LOAD_INDEX).getSnapshot().getMax());
+            if (!moved.renameTo(index))
+                throw new IllegalStateException("Couldn't move " + moved);
+        }
+        new File(FILENAME).delete();
+        new File(index_filename).delete();
+
+        System.out.println("Index build on load (2000 contacts, 40000 meetings): rebuilt "
+                + without_index / 1000000 + "ms, from index file " + with_index / 1000000 + "ms");
+    }
+}
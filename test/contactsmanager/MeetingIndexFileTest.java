@@ -0,0 +1,290 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for MeetingIndexFile, and ContactManagerImpl's use of it
+ */
+public class MeetingIndexFileTest {
+    private final String filename = "MeetingIndexFileTest_output.xml";
+    private final String index_filename = MeetingIndexFile.getFilename(filename);
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        random = new Random(42);
+    }
+
+    @After
+    public void cleanUp() {
+        for (String name : new String[] {filename, index_filename}) {
+            File file = new File(name);
+            if (file.exists()) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    /**
+     * Fills a manager with contacts, and past and future meetings (several to a day), then
+     * flushes it.
+     */
+    private ContactManagerImpl createManager(int contact_count, int meeting_count, boolean persist_indexes) {
+        ContactManagerImpl manager = new ContactManagerImpl(filename);
+        manager.setPersistIndexes(persist_indexes);
+
+        List<String> names = new ArrayList<String>();
+        List<String> notes = new ArrayList<String>();
+        for (int i = 0; i < contact_count; i++) {
+            names.add("Contact " + i);
+            notes.add("Notes " + i);
+        }
+        manager.addNewContacts(names, notes);
+        List<Contact> contacts = new ArrayList<Contact>(manager.getContacts(""));
+
+        List<Set<Contact>> past_contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> past_dates = new ArrayList<Calendar>();
+        List<String> texts = new ArrayList<String>();
+        List<Set<Contact>> future_contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> future_dates = new ArrayList<Calendar>();
+        for (int i = 0; i < meeting_count; i++) {
+            Set<Contact> attendees = new HashSet<Contact>();
+            for (int j = 0; j < 3; j++) {
+                attendees.add(contacts.get(random.nextInt(contacts.size())));
+            }
+
+            Calendar date = Calendar.getInstance();
+            date.add(Calendar.DAY_OF_YEAR, random.nextInt(100) + 1);
+            date.set(Calendar.HOUR_OF_DAY, random.nextInt(24));
+            date.set(Calendar.MINUTE, random.nextInt(60));
+            if (i % 2 == 0) {
+                date.add(Calendar.YEAR, -1);
+                past_contacts.add(attendees);
+                past_dates.add(date);
+                texts.add("Meeting " + i);
+            } else {
+                future_contacts.add(attendees);
+                future_dates.add(date);
+            }
+        }
+        manager.addNewPastMeetings(past_contacts, past_dates, texts);
+        manager.addFutureMeetings(future_contacts, future_dates);
+
+        manager.flush();
+        return manager;
+    }
+
+    /**
+     * Describes everything the indexes are used for, so two managers can be compared.
+     */
+    private static List<String> describe(ContactManager manager) {
+        List<String> description = new ArrayList<String>();
+        Map<Integer, Contact> contacts_by_id = new TreeMap<Integer, Contact>();
+        for (Contact contact : manager.getContacts("")) {
+            contacts_by_id.put(contact.getId(), contact);
+        }
+        for (Contact contact : contacts_by_id.values()) {
+            description.add(contact.getId() + " past " + ids(manager.getPastMeetingList(contact)));
+            description.add(contact.getId() + " future " + ids(manager.getFutureMeetingList(contact)));
+            description.add(contact.getId() + " all " + ids(manager.getMeetingsWithAnyOf(Collections.singleton(contact))));
+        }
+
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.YEAR, -1);
+        for (int i = 0; i < 500; i++) {
+            description.add(i + " days " + ids(manager.getFutureMeetingList(date)));
+            date.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return description;
+    }
+
+    private static List<Integer> ids(List<? extends Meeting> meetings) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Meeting meeting : meetings) {
+            ids.add(meeting.getId());
+        }
+        return ids;
+    }
+
+    private void flipByte(String name, long position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(name, "rw");
+        try {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0x01);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testFlushWritesIndexFileOnlyWhenSet() {
+        ContactManagerImpl manager = createManager(10, 20, false);
+        assertFalse(new File(index_filename).exists());
+
+        manager.setPersistIndexes(true);
+        manager.flush();
+        assertTrue(new File(index_filename).exists());
+        assertNotNull(MeetingIndexFile.read(filename));
+
+        // Once unset, a flush deletes it, as it would be out of date
+        manager.setPersistIndexes(false);
+        manager.flush();
+        assertFalse(new File(index_filename).exists());
+    }
+
+    @Test
+    public void testIndexFileHoldsManagersIndexes() {
+        ContactManagerImpl manager = createManager(20, 100, true);
+        MeetingIndexFile index = MeetingIndexFile.read(filename);
+        assertNotNull(index);
+
+        int[] contact_ids = index.getContactIds();
+        assertEquals(20, contact_ids.length);
+        for (int i = 0; i < contact_ids.length; i++) {
+            Contact contact = manager.getContacts(contact_ids[i]).iterator().next();
+            assertEquals(ids(manager.getPastMeetingList(contact)), toList(index.getPastMeetingIds(i)));
+            assertEquals(ids(manager.getFutureMeetingList(contact)), toList(index.getFutureMeetingIds(i)));
+        }
+
+        int day_meeting_count = 0;
+        for (int[] ids : index.getDayMeetingIds()) {
+            day_meeting_count += ids.length;
+        }
+        assertEquals(100, day_meeting_count);
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Test
+    public void testLoadingWithIndexFileMatchesRebuilding() {
+        List<String> expected = describe(createManager(30, 300, true));
+        assertNotNull(MeetingIndexFile.read(filename));
+
+        ContactManagerImpl with_index = new ContactManagerImpl(filename);
+        assertEquals(expected, describe(with_index));
+
+        assertTrue(new File(index_filename).delete());
+        assertEquals(expected, describe(new ContactManagerImpl(filename)));
+    }
+
+    @Test
+    public void testManagerLoadedWithIndexFileKeepsWorking() {
+        createManager(5, 20, true);
+        ContactManagerImpl manager = new ContactManagerImpl(filename);
+        Contact contact = manager.getContacts(0).iterator().next();
+
+        // New meetings must sort into the sets built from the index
+        int past_count = manager.getPastMeetingList(contact).size();
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.YEAR, -2);
+        manager.addNewPastMeeting(Collections.singleton(contact), date, "Earliest");
+        List<PastMeeting> past = manager.getPastMeetingList(contact);
+        assertEquals(past_count + 1, past.size());
+        assertEquals("Earliest", past.get(0).getNotes());
+
+        date = Calendar.getInstance();
+        date.add(Calendar.YEAR, 2);
+        int id = manager.addFutureMeeting(Collections.singleton(contact), date);
+        List<Meeting> future = manager.getFutureMeetingList(contact);
+        assertEquals(id, future.get(future.size() - 1).getId());
+        assertTrue(id > 20);
+    }
+
+    @Test
+    public void testFirstFreeDayAfterLoadingWithIndexFile() {
+        ContactManagerImpl manager = new ContactManagerImpl(filename);
+        manager.setPersistIndexes(true);
+        manager.addNewContact("Busy", "");
+        Set<Contact> contacts = manager.getContacts(0);
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.DAY_OF_YEAR, 3);
+        manager.addFutureMeeting(contacts, date);
+        assertNull(manager.getFirstFreeDay(contacts, date, 1));
+        manager.flush();
+        assertNotNull(MeetingIndexFile.read(filename));
+
+        manager = new ContactManagerImpl(filename);
+        assertNull(manager.getFirstFreeDay(manager.getContacts(0), date, 1));
+    }
+
+    @Test
+    public void testStaleIndexFileIsIgnored() throws Exception {
+        List<String> expected = describe(createManager(10, 50, true));
+
+        // Change the data file by a byte, without changing its length
+        long position = new File(filename).length() / 2;
+        flipByte(filename, position);
+        assertNull(MeetingIndexFile.read(filename));
+        flipByte(filename, position);
+        assertNotNull(MeetingIndexFile.read(filename));
+
+        // A data file written without the index leaves none behind
+        ContactManagerImpl manager = new ContactManagerImpl(filename);
+        manager.addNewContact("Someone new", "");
+        manager.flush();
+        assertNull(MeetingIndexFile.read(filename));
+        assertEquals(expected.size() + 3, describe(new ContactManagerImpl(filename)).size());
+    }
+
+    @Test
+    public void testCorruptIndexFileIsIgnored() throws Exception {
+        List<String> expected = describe(createManager(10, 50, true));
+
+        flipByte(index_filename, new File(index_filename).length() / 2);
+        assertNull(MeetingIndexFile.read(filename));
+        assertEquals(expected, describe(new ContactManagerImpl(filename)));
+
+        // Torn: cut short
+        createManager(10, 50, true);
+        RandomAccessFile file = new RandomAccessFile(index_filename, "rw");
+        try {
+            file.setLength(file.length() - 10);
+        } finally {
+            file.close();
+        }
+        assertNull(MeetingIndexFile.read(filename));
+
+        // Empty
+        new FileOutputStream(index_filename).close();
+        assertNull(MeetingIndexFile.read(filename));
+    }
+
+    @Test
+    public void testIndexFileFromAnotherTimeZoneIsIgnored() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Auckland"));
+            createManager(5, 20, true);
+            assertNotNull(MeetingIndexFile.read(filename));
+
+            // Days would be bucketed differently
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+            assertNull(MeetingIndexFile.read(filename));
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    @Test
+    public void testMissingIndexFileIsIgnored() {
+        assertNull(MeetingIndexFile.read(filename));
+        createManager(5, 20, false);
+        assertNull(MeetingIndexFile.read(filename));
+    }
+}
@@ -0,0 +1,296 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for NoteSegmentStore, and ContactManagerImpl's use of it
+ */
+public class NoteSegmentStoreTest {
+    private final String filename = "NoteSegmentStoreTest_output.xml";
+    private final String segment_filename = "NoteSegmentStoreTest_output.xml.notes";
+    private NoteSegmentStore store;
+    private Set<Contact> contacts;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        contacts = Collections.<Contact>singleton(new ContactImpl(0, "Alice"));
+    }
+
+    @After
+    public void cleanUp() {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+
+        for (String name : new String[] {filename, segment_filename}) {
+            File file = new File(name);
+            if (file.exists()) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    /**
+     * Creates meetings 0..count-1, a day apart (meeting 0 the oldest), with 100 characters of notes each.
+     */
+    private List<PastMeetingImpl> createMeetings(int count) {
+        List<PastMeetingImpl> meetings = new ArrayList<PastMeetingImpl>();
+        for (int i = 0; i < count; i++) {
+            Calendar date = Calendar.getInstance();
+            date.add(Calendar.DAY_OF_YEAR, i - count);
+            meetings.add(new PastMeetingImpl(i, date, contacts, notesFor(i)));
+        }
+        return meetings;
+    }
+
+    private static String notesFor(int id) {
+        StringBuilder notes = new StringBuilder();
+        while (notes.length() < 100) {
+            notes.append("Meeting ").append(id).append(" \u00e9t\u00e9. ");
+        }
+        notes.setLength(100);
+        return notes.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBudget() throws Exception {
+        store = new NoteSegmentStore(segment_filename, -1);
+    }
+
+    @Test
+    public void testOldestAreSpilledFirst() throws Exception {
+        // Room for 4 meetings' notes (200 bytes each)
+        store = new NoteSegmentStore(segment_filename, 800);
+        List<PastMeetingImpl> meetings = createMeetings(10);
+        List<PastMeetingImpl> shuffled = new ArrayList<PastMeetingImpl>(meetings);
+        Collections.shuffle(shuffled, new Random(1));
+        store.addAll(shuffled);
+
+        assertEquals(4, store.getResidentCount());
+        assertEquals(6, store.getSpilledCount());
+        assertEquals(800, store.getBytesResident());
+        assertEquals(6 * notesFor(0).getBytes("UTF-8").length, store.getBytesSpilled());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i < 6, meetings.get(i).getResidentNotes() == null);
+        }
+
+        // Reading them back (newest first, so no read spills a meeting yet to be read) gets the same notes
+        for (int i = 9; i >= 0; i--) {
+            assertEquals(notesFor(i), meetings.get(i).getNotes());
+        }
+        assertEquals(6, store.getMissCount());
+        assertEquals(4, store.getHitCount());
+        assertEquals(800, store.getBytesResident());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsSpilled() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 400);
+        List<PastMeetingImpl> meetings = createMeetings(3);
+        store.addAll(meetings);
+        assertNull(meetings.get(0).getResidentNotes());
+
+        // Using 1 makes 2 the least recently used, so loading 0 spills it
+        meetings.get(1).getNotes();
+        meetings.get(0).getNotes();
+        assertNotNull(meetings.get(0).getResidentNotes());
+        assertNotNull(meetings.get(1).getResidentNotes());
+        assertNull(meetings.get(2).getResidentNotes());
+
+        assertEquals(0.5, store.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testRespillingUnchangedNotesReusesRecord() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 200);
+        List<PastMeetingImpl> meetings = createMeetings(2);
+        store.addAll(meetings);
+        long length = store.getSegmentLength();
+
+        for (int round = 0; round < 10; round++) {
+            assertEquals(notesFor(0), meetings.get(0).getNotes());
+            assertEquals(notesFor(1), meetings.get(1).getNotes());
+        }
+
+        // Both have been written once, and not since
+        assertEquals(2 * (4 + notesFor(0).getBytes("UTF-8").length), store.getSegmentLength());
+        assertTrue(store.getSegmentLength() >= length);
+        assertEquals(21, store.getEvictionCount());
+    }
+
+    @Test
+    public void testAppendingToSpilledNotes() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 200);
+        List<PastMeetingImpl> meetings = createMeetings(2);
+        store.addAll(meetings);
+        assertNull(meetings.get(0).getResidentNotes());
+
+        meetings.get(0).appendNotes("More");
+        assertEquals(notesFor(0) + "\nMore", meetings.get(0).getNotes());
+        assertEquals(2 * (notesFor(0).length() + 5), store.getBytesResident());
+
+        // Spilled and read back again, with the new notes
+        meetings.get(1).getNotes();
+        assertNull(meetings.get(0).getResidentNotes());
+        assertEquals(notesFor(0) + "\nMore", meetings.get(0).getNotes());
+    }
+
+    @Test
+    public void testNoteBufferOfSpilledMeetingLeavesItSpilled() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 0);
+        List<PastMeetingImpl> meetings = createMeetings(2);
+        store.addAll(meetings);
+
+        assertEquals(notesFor(1), meetings.get(1).getNoteBuffer().toString());
+        assertNull(meetings.get(1).getResidentNotes());
+        assertEquals(0, store.getMissCount());
+    }
+
+    @Test
+    public void testCompactionKeepsLiveRecords() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 0);
+        List<PastMeetingImpl> meetings = createMeetings(50);
+        store.addAll(meetings);
+
+        // Each append leaves the old record behind, so the file would grow without compaction
+        for (int round = 0; round < 500; round++) {
+            for (PastMeetingImpl meeting : meetings) {
+                meeting.appendNotes("x");
+            }
+        }
+
+        long live_bytes = 0;
+        for (PastMeetingImpl meeting : meetings) {
+            String expected = notesFor(meeting.getId());
+            for (int round = 0; round < 500; round++) {
+                expected += "\nx";
+            }
+            assertEquals(expected, meeting.getNoteBuffer().toString());
+            live_bytes += 4 + expected.getBytes("UTF-8").length;
+        }
+        assertTrue(store.getSegmentLength() <= 2 * live_bytes + 1024 * 1024);
+        assertEquals(store.getSegmentLength(), new File(segment_filename).length());
+    }
+
+    @Test
+    public void testRaisingBudgetKeepsNotesOnceRead() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 0);
+        List<PastMeetingImpl> meetings = createMeetings(5);
+        store.addAll(meetings);
+        assertEquals(5, store.getSpilledCount());
+
+        store.setMemoryBudget(Long.MAX_VALUE);
+        for (PastMeetingImpl meeting : meetings) {
+            meeting.getNotes();
+        }
+        assertEquals(0, store.getSpilledCount());
+
+        store.setMemoryBudget(400);
+        assertEquals(3, store.getSpilledCount());
+    }
+
+    @Test
+    public void testCloseReadsEverythingBack() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 0);
+        List<PastMeetingImpl> meetings = createMeetings(5);
+        store.addAll(meetings);
+        assertTrue(new File(segment_filename).exists());
+
+        store.close();
+        assertFalse(new File(segment_filename).exists());
+        for (PastMeetingImpl meeting : meetings) {
+            assertNotNull(meeting.getResidentNotes());
+            assertEquals(notesFor(meeting.getId()), meeting.getNotes());
+        }
+
+        // No longer spilled, whatever happens
+        meetings.get(0).appendNotes("More");
+        assertNotNull(meetings.get(0).getResidentNotes());
+    }
+
+    @Test
+    public void testConcurrentReadersAndWriters() throws Exception {
+        store = new NoteSegmentStore(segment_filename, 2000);
+        final List<PastMeetingImpl> meetings = createMeetings(100);
+        store.addAll(meetings);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 5000; i++) {
+                            PastMeetingImpl meeting = meetings.get(random.nextInt(meetings.size()));
+                            if (seed == 0 && meeting.getId() % 10 == 0) {
+                                meeting.appendNotes("w");
+                            } else {
+                                assertTrue(meeting.getNotes().startsWith(notesFor(meeting.getId())));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(store.getBytesResident() <= 2000 + 2 * 2000);
+    }
+
+    @Test
+    public void testManagerSpillsPastMeetingNotes() throws Exception {
+        ContactManagerImpl manager = new ContactManagerImpl(filename);
+        manager.addNewContact("Alice", "");
+        Set<Contact> alice = manager.getContacts(0);
+        for (int i = 0; i < 20; i++) {
+            Calendar date = Calendar.getInstance();
+            date.add(Calendar.DAY_OF_YEAR, i - 30);
+            manager.addNewPastMeeting(alice, date, notesFor(i));
+        }
+
+        manager.setNotesMemoryBudget(1000);
+        store = manager.getNoteStore();
+        assertEquals(5, store.getResidentCount());
+        assertEquals(15, store.getSpilledCount());
+
+        // Meetings added later are managed too
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.MINUTE, -1);
+        manager.addNewPastMeeting(alice, date, notesFor(20));
+        assertEquals(21, store.getResidentCount() + store.getSpilledCount());
+
+        // Everything still reads, searches and saves the same
+        for (int i = 0; i <= 20; i++) {
+            assertEquals(notesFor(i), manager.getPastMeeting(i).getNotes());
+        }
+        manager.addMeetingNotes(0, "Follow-up");
+        assertEquals(Arrays.asList(0), manager.searchMeetingNotes("Follow-up"));
+        manager.flush();
+
+        ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+        assertEquals(notesFor(0) + "\nFollow-up", reloaded.getPastMeeting(0).getNotes());
+        assertEquals(notesFor(7), reloaded.getPastMeeting(7).getNotes());
+        assertTrue(store.getBytesResident() <= 1000);
+    }
+}
@@ -63,4 +63,11 @@ public class PastMeetingTest extends MeetingTest {
 
         assertTrue(m.hashCode() != m_copy.hashCode());
     }
+
+    @Test
+    public void testNullNotesAreEmpty() throws Exception {
+        PastMeeting m_copy = DIFactory.getInstance().newPastMeeting(1, date, new HashSet<Contact>(), null);
+
+        assertEquals("", m_copy.getNotes());
+    }
 }
@@ -0,0 +1,322 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for RecurringMeeting, and ContactManagerImpl's recurring meetings
+ */
+public class RecurringMeetingTest {
+    private final String filename = "RecurringMeetingTest_output.xml";
+    private ContactManagerImpl manager;
+    private Contact alice, bob, charlie;
+    private Calendar first_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new ContactManagerImpl(filename);
+        manager.addNewContact("Alice", "");
+        manager.addNewContact("Bob", "");
+        manager.addNewContact("Charlie", "");
+        alice = manager.getContacts(0).iterator().next();
+        bob = manager.getContacts(1).iterator().next();
+        charlie = manager.getContacts(2).iterator().next();
+
+        first_date = Calendar.getInstance();
+        first_date.add(Calendar.YEAR, 1);
+    }
+
+    @After
+    public void cleanUp() {
+        File[] files = new File(".").listFiles();
+        for (File file : files) {
+            if (file.getName().startsWith(filename)) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    private static Calendar dateOf(int year, int month, int day) {
+        Calendar date = Calendar.getInstance();
+        date.clear();
+        date.set(year, month, day, 10, 30);
+        return date;
+    }
+
+    @Test
+    public void testDatesAndIds() {
+        RecurringMeeting meeting = new RecurringMeeting(10, dateOf(2030, Calendar.JANUARY, 7), 7, 52, setOf(alice));
+
+        assertEquals(10, meeting.getFirstId());
+        assertEquals(61, meeting.getLastId());
+        assertTrue(meeting.hasId(10) && meeting.hasId(61));
+        assertFalse(meeting.hasId(9) || meeting.hasId(62));
+        assertTrue(meeting.hasAttendee(alice.getId()));
+        assertFalse(meeting.hasAttendee(bob.getId()));
+
+        // Across the clocks changing, the time of day stays the same
+        assertTrue(CalendarUtil.areDatesEqual(dateOf(2030, Calendar.DECEMBER, 30), meeting.getDate(51)));
+        assertEquals(10, meeting.getDate(51).get(Calendar.HOUR_OF_DAY));
+
+        assertEquals(0, meeting.getIndexOn(dateOf(2030, Calendar.JANUARY, 7)));
+        assertEquals(12, meeting.getIndexOn(dateOf(2030, Calendar.APRIL, 1)));
+        assertEquals(51, meeting.getIndexOn(dateOf(2030, Calendar.DECEMBER, 30)));
+        assertEquals(-1, meeting.getIndexOn(dateOf(2030, Calendar.APRIL, 2)));
+        assertEquals(-1, meeting.getIndexOn(dateOf(2029, Calendar.DECEMBER, 31)));
+        assertEquals(-1, meeting.getIndexOn(dateOf(2031, Calendar.JANUARY, 6)));
+    }
+
+    @Test
+    public void testCountUntil() {
+        Calendar first = dateOf(2030, Calendar.JANUARY, 1);
+        assertEquals(5, RecurringMeeting.countUntil(first, 7, dateOf(2030, Calendar.JANUARY, 29)));
+        assertEquals(4, RecurringMeeting.countUntil(first, 7, dateOf(2030, Calendar.JANUARY, 28)));
+        assertEquals(1, RecurringMeeting.countUntil(first, 7, first));
+        assertEquals(365, RecurringMeeting.countUntil(first, 1, dateOf(2030, Calendar.DECEMBER, 31)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountUntilEarlierDate() {
+        RecurringMeeting.countUntil(dateOf(2030, Calendar.JANUARY, 2), 7, dateOf(2030, Calendar.JANUARY, 1));
+    }
+
+    @Test
+    public void testOccurrencesAreCreatedWhenQueriesCoverThem() {
+        int id = manager.addRecurringMeeting(setOf(alice, bob), first_date, 7, 52);
+        RecurringMeeting meeting = manager.getRecurringMeeting(id);
+        assertEquals(0, meeting.getExpandedCount());
+
+        // By date
+        Calendar third_date = (Calendar) first_date.clone();
+        third_date.add(Calendar.DAY_OF_YEAR, 14);
+        List<Meeting> on_date = manager.getFutureMeetingList(third_date);
+        assertEquals(1, on_date.size());
+        assertEquals(id + 2, on_date.get(0).getId());
+        assertEquals(setOf(alice, bob), on_date.get(0).getContacts());
+        assertEquals(1, meeting.getExpandedCount());
+
+        Calendar day_after = (Calendar) third_date.clone();
+        day_after.add(Calendar.DAY_OF_YEAR, 1);
+        assertTrue(manager.getFutureMeetingList(day_after).isEmpty());
+        assertEquals(1, meeting.getExpandedCount());
+
+        // By id
+        FutureMeeting last = manager.getFutureMeeting(id + 51);
+        Calendar last_date = (Calendar) first_date.clone();
+        last_date.add(Calendar.DAY_OF_YEAR, 51 * 7);
+        assertEquals(last_date.getTimeInMillis(), last.getDate().getTimeInMillis());
+        assertNull(manager.getMeeting(id + 52));
+        assertEquals(2, meeting.getExpandedCount());
+
+        // Another contact's meetings don't need any
+        assertTrue(manager.getFutureMeetingList(charlie).isEmpty());
+        assertEquals(2, meeting.getExpandedCount());
+
+        // An attendee's meetings need all of them, each created once
+        List<Meeting> alices = manager.getFutureMeetingList(alice);
+        assertEquals(52, alices.size());
+        assertEquals(id, alices.get(0).getId());
+        assertEquals(id + 51, alices.get(51).getId());
+        assertEquals(52, manager.getFutureMeetingList(bob).size());
+        assertEquals(52, manager.getMeetingsWithAllOf(setOf(alice, bob)).size());
+        assertTrue(meeting.isFullyExpanded());
+    }
+
+    @Test
+    public void testConcurrentReadsCreateOccurrencesOnce() throws Exception {
+        // 20 recurring meetings of 100 days each, alternately Alice's and Bob's
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(manager.addRecurringMeeting(setOf(i % 2 == 0 ? alice : bob), first_date, 1, 100));
+        }
+
+        // Each read may create occurrences, while the others run alongside it
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AsyncContactManager async = new AsyncContactManager(manager, executor);
+        try {
+            List<Future<Meeting>> meetings = new ArrayList<Future<Meeting>>();
+            List<Future<List<Meeting>>> date_meetings = new ArrayList<Future<List<Meeting>>>();
+            List<Future<List<Meeting>>> contact_meetings = new ArrayList<Future<List<Meeting>>>();
+            for (int i = 0; i < 20; i++) {
+                meetings.add(async.getMeeting(ids.get(i) + 50));
+                Calendar date = (Calendar) first_date.clone();
+                date.add(Calendar.DAY_OF_YEAR, i);
+                date_meetings.add(async.getFutureMeetingList(date));
+                contact_meetings.add(async.getFutureMeetingList(i % 2 == 0 ? alice : bob));
+            }
+
+            for (int i = 0; i < 20; i++) {
+                assertEquals(ids.get(i) + 50, meetings.get(i).get().getId());
+                assertEquals(20, date_meetings.get(i).get().size());
+                assertEquals(1000, contact_meetings.get(i).get().size());
+            }
+        } finally {
+            async.shutdown();
+            executor.shutdown();
+        }
+
+        for (int id : ids) {
+            assertTrue(manager.getRecurringMeeting(id).isFullyExpanded());
+        }
+    }
+
+    @Test
+    public void testIdsFollowRecurringMeeting() {
+        int first_id = manager.addFutureMeeting(setOf(alice), first_date);
+        int id = manager.addRecurringMeeting(setOf(alice), first_date, 1, 10);
+        assertEquals(first_id + 1, id);
+        assertEquals(id + 10, manager.addFutureMeeting(setOf(bob), first_date));
+    }
+
+    @Test
+    public void testAddUntilLastDate() {
+        Calendar last_date = (Calendar) first_date.clone();
+        last_date.add(Calendar.DAY_OF_YEAR, 30);
+        int id = manager.addRecurringMeeting(setOf(alice), first_date, 7, last_date);
+
+        assertEquals(5, manager.getRecurringMeeting(id).getCount());
+        assertEquals(5, manager.getFutureMeetingList(alice).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPastFirstDate() {
+        Calendar past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        manager.addRecurringMeeting(setOf(alice), past_date, 7, 52);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroInterval() {
+        manager.addRecurringMeeting(setOf(alice), first_date, 0, 52);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCount() {
+        manager.addRecurringMeeting(setOf(alice), first_date, 7, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownContact() {
+        manager.addRecurringMeeting(setOf(alice, new ContactImpl(99, "Stranger")), first_date, 7, 52);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullContacts() {
+        manager.addRecurringMeeting(null, first_date, 7, 52);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullLastDate() {
+        manager.addRecurringMeeting(setOf(alice), first_date, 7, (Calendar) null);
+    }
+
+    /**
+     * Adds a daily meeting with Alice and Bob whose first occurrence is about to be in the past,
+     * and waits until it is.
+     */
+    private int addDailyMeetingStartingNow() throws InterruptedException {
+        Calendar soon = Calendar.getInstance();
+        soon.add(Calendar.MILLISECOND, 50);
+        int id = manager.addRecurringMeeting(setOf(alice, bob), soon, 1, 30);
+        Thread.sleep(100);
+        return id;
+    }
+
+    @Test
+    public void testOccurrenceIsPromotedWhenNotesAreAdded() throws Exception {
+        int id = addDailyMeetingStartingNow();
+
+        manager.addMeetingNotes(id, "Standup");
+        assertEquals("Standup", manager.getPastMeeting(id).getNotes());
+        assertEquals(Arrays.asList(id), manager.searchMeetingNotes("standup"));
+        assertEquals(1, manager.getPastMeetingList(alice).size());
+        assertEquals(29, manager.getFutureMeetingList(alice).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotesForFutureOccurrence() throws Exception {
+        int id = manager.addRecurringMeeting(setOf(alice), first_date, 7, 52);
+        manager.addMeetingNotes(id + 1, "Too soon");
+    }
+
+    @Test
+    public void testRulesAndPromotedOccurrencesSurviveReloading() throws Exception {
+        int id = addDailyMeetingStartingNow();
+        manager.addMeetingNotes(id, "Standup");
+        manager.getFutureMeetingList(alice);
+        manager.flush();
+        assertTrue(new File(RecurringMeeting.getFilename(filename)).isFile());
+
+        // Only the promoted occurrence is in the file, so nothing else is created on loading
+        for (Boolean lazy : Arrays.asList(false, true)) {
+            manager = new ContactManagerImpl(filename, lazy);
+            assertEquals(0, manager.getRecurringMeeting(id + 1).getExpandedCount());
+            assertEquals("Standup", manager.getPastMeeting(id).getNotes());
+            assertEquals(29, manager.getFutureMeetingList(bob).size());
+            assertEquals(1, manager.getPastMeetingList(bob).size());
+            assertEquals(id + 30, manager.addFutureMeeting(setOf(alice), first_date));
+        }
+    }
+
+    @Test
+    public void testRulesFileIsRemovedWithLastRule() throws Exception {
+        manager.addRecurringMeeting(setOf(alice), first_date, 7, 52);
+        manager.flush();
+        assertTrue(new File(RecurringMeeting.getFilename(filename)).isFile());
+
+        RecurringMeeting.write(filename, Collections.<RecurringMeeting>emptyList(), false);
+        assertFalse(new File(RecurringMeeting.getFilename(filename)).exists());
+        assertTrue(RecurringMeeting.read(filename, new HashMap<Integer, Contact>()).isEmpty());
+    }
+
+    @Test
+    public void testRulesWithUnknownContactsAreSkipped() throws Exception {
+        manager.addRecurringMeeting(setOf(alice), first_date, 7, 52);
+        manager.addRecurringMeeting(setOf(bob), first_date, 7, 52);
+        manager.flush();
+
+        Map<Integer, Contact> contacts_by_id = new HashMap<Integer, Contact>();
+        contacts_by_id.put(alice.getId(), alice);
+        List<RecurringMeeting> meetings = RecurringMeeting.read(filename, contacts_by_id);
+        assertEquals(1, meetings.size());
+        assertEquals(setOf(alice), meetings.get(0).getContacts());
+    }
+
+    @Test
+    public void testRecurringMeetingsMatchSeparateMeetings() {
+        // 10 teams with a weekly meeting for a year
+        ContactManagerImpl separate = new ContactManagerImpl(filename + ".separate");
+        for (int i = 0; i < 10; i++) {
+            separate.addNewContact("Member " + i, "");
+            manager.addNewContact("Member " + i, "");
+        }
+        for (int i = 0; i < 10; i++) {
+            Calendar date = (Calendar) first_date.clone();
+            for (int week = 0; week < 52; week++) {
+                separate.addFutureMeeting(separate.getContacts(i), date);
+                date.add(Calendar.DAY_OF_YEAR, 7);
+            }
+            manager.addRecurringMeeting(manager.getContacts(i + 3), first_date, 7, 52);
+        }
+
+        // A week's query only creates that week's occurrences
+        Calendar week = (Calendar) first_date.clone();
+        week.add(Calendar.DAY_OF_YEAR, 70);
+        assertEquals(10, separate.getFutureMeetingList(week).size());
+        assertEquals(separate.getFutureMeetingList(week).size(), manager.getFutureMeetingList(week).size());
+        assertEquals(52, separate.getFutureMeetingList(separate.getContacts(0).iterator().next()).size());
+        assertEquals(52, manager.getFutureMeetingList(manager.getContacts(3).iterator().next()).size());
+    }
+}
@@ -0,0 +1,68 @@
+package contactsmanager;
+
+import java.io.File;
+import java.util.*;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+
+/**
+ * Times loading 100,000 future meetings from file, then scheduling reminders for them all.  It's
+ * run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.ReminderSchedulerBenchmark
+ */
+public class ReminderSchedulerBenchmark {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final String FILENAME = "ReminderSchedulerBenchmark_output.xml";
+
+    private static void deleteFiles() {
+        for (File file : new File(".").listFiles()) {
+            if (file.getName().startsWith(FILENAME))
+                file.delete();
+        }
+    }
+
+    public static void main(String[] args) {
+        deleteFiles();
+        ContactManagerImpl manager = new ContactManagerImpl(FILENAME);
+        manager.addNewContact("Alice", "");
+        manager.addNewContact("Bob", "");
+        Contact alice = manager.getContacts(0).iterator().next();
+        Contact bob = manager.getContacts(1).iterator().next();
+
+        // 100,000 future meetings over a year, loaded from file then all scheduled
+        Random random = new Random(23);
+        List<Set<Contact>> contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> dates = new ArrayList<Calendar>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100000; i++) {
+            contacts.add(setOf(random.nextBoolean() ? alice : bob));
+            Calendar date = Calendar.getInstance();
+            date.setTimeInMillis(now + DAY / 24 + (long) (random.nextDouble() * 365 * DAY));
+            dates.add(date);
+        }
+        manager.addFutureMeetings(contacts, dates);
+        manager.flush();
+
+        long start = System.nanoTime();
+        manager = new ContactManagerImpl(FILENAME);
+        long load_time = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        ReminderScheduler scheduler = manager.startReminders(new ReminderListener() {
+            @Override
+            public void onReminder(FutureMeeting meeting) {
+            }
+        }, 15 * 60 * 1000, 4);
+        long schedule_time = System.nanoTime() - start;
+
+        int waiting = scheduler.getWaitingCount();
+        scheduler.close();
+        deleteFiles();
+        if (waiting != 100000)
+            throw new IllegalStateException(waiting + " reminders are waiting, not 100000");
+
+        System.out.format("Reminders for 100K meetings: loading the file %dms, then scheduling them all %dms%n",
+                load_time / 1000000, schedule_time / 1000000);
+    }
+}
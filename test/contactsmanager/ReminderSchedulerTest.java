@@ -0,0 +1,248 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for ReminderScheduler, and ContactManagerImpl's reminders
+ */
+public class ReminderSchedulerTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    private final String filename = "ReminderSchedulerTest_output.xml";
+    private ContactManagerImpl manager;
+    private Contact alice, bob;
+    private ReminderScheduler scheduler;
+    private final BlockingQueue<FutureMeeting> reminders = new LinkedBlockingQueue<FutureMeeting>();
+    private final ReminderListener listener = new ReminderListener() {
+        @Override
+        public void onReminder(FutureMeeting meeting) {
+            reminders.add(meeting);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new ContactManagerImpl(filename);
+        manager.addNewContact("Alice", "");
+        manager.addNewContact("Bob", "");
+        alice = manager.getContacts(0).iterator().next();
+        bob = manager.getContacts(1).iterator().next();
+    }
+
+    @After
+    public void cleanUp() {
+        if (scheduler != null)
+            scheduler.close();
+
+        File[] files = new File(".").listFiles();
+        for (File file : files) {
+            if (file.getName().startsWith(filename)) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    private static Calendar inMillis(long millis) {
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(System.currentTimeMillis() + millis);
+        return date;
+    }
+
+    /**
+     * Waits for the given number of reminders, and returns their meetings' ids in the order delivered.
+     */
+    private List<Integer> takeReminders(int count) throws InterruptedException {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            FutureMeeting meeting = reminders.poll(5, TimeUnit.SECONDS);
+            assertTrue("Reminder " + i + " wasn't delivered", meeting != null);
+            ids.add(meeting.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testReminderIsDeliveredBeforeMeeting() throws Exception {
+        int id = manager.addFutureMeeting(setOf(alice, bob), inMillis(HOUR + 300));
+        manager.addFutureMeeting(setOf(alice), inMillis(2 * HOUR));
+        scheduler = manager.startReminders(listener, HOUR, 2, 10);
+        assertEquals(2, scheduler.getWaitingCount());
+
+        FutureMeeting meeting = reminders.poll(5, TimeUnit.SECONDS);
+        assertEquals(id, meeting.getId());
+        assertEquals(setOf(alice, bob), meeting.getContacts());
+        assertTrue(meeting.getDate().getTimeInMillis() - System.currentTimeMillis() <= HOUR);
+        assertEquals(1, scheduler.getWaitingCount());
+        assertNull(reminders.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMeetingsAddedLaterAreScheduled() throws Exception {
+        scheduler = manager.startReminders(listener, HOUR, 1, 10);
+        int id = manager.addFutureMeeting(setOf(alice), inMillis(HOUR + 100));
+        List<Integer> ids = manager.addFutureMeetings(Arrays.asList(setOf(bob), setOf(bob)),
+                Arrays.asList(inMillis(HOUR + 200), inMillis(3 * HOUR)));
+
+        assertEquals(Arrays.asList(id, ids.get(0)), takeReminders(2));
+        assertEquals(1, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void testPromotedMeetingIsCancelled() throws Exception {
+        // With a long tick, only the manual delivery below takes anything
+        int id = manager.addFutureMeeting(setOf(alice), inMillis(50));
+        int other_id = manager.addFutureMeeting(setOf(bob), inMillis(50));
+        scheduler = manager.startReminders(listener, 0, 1, HOUR);
+        assertEquals(2, scheduler.getWaitingCount());
+        Thread.sleep(100);
+
+        manager.addMeetingNotes(id, "Done");
+        assertEquals(1, scheduler.getWaitingCount());
+
+        scheduler.deliverDueReminders(System.currentTimeMillis() + HOUR);
+        assertEquals(Arrays.asList(other_id), takeReminders(1));
+        assertEquals(0, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void testPastMeetingsGetNoReminder() throws Exception {
+        Calendar past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        manager.addNewPastMeeting(setOf(alice), past_date, "Over");
+        manager.addFutureMeeting(setOf(alice), inMillis(50));
+        Thread.sleep(100);
+
+        scheduler = manager.startReminders(listener, HOUR, 1, 10);
+        assertEquals(0, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void testRecurringMeetingHasOneReminderWaiting() throws Exception {
+        int id = manager.addRecurringMeeting(setOf(alice, bob), inMillis(HOUR), 1, 30);
+        scheduler = manager.startReminders(listener, 0, 1, HOUR);
+        assertEquals(1, scheduler.getWaitingCount());
+        assertEquals(0, manager.getRecurringMeeting(id).getExpandedCount());
+
+        long now = System.currentTimeMillis();
+        scheduler.deliverDueReminders(now + 2 * HOUR);
+        scheduler.deliverDueReminders(now + DAY + 2 * HOUR);
+        assertEquals(Arrays.asList(id, id + 1), takeReminders(2));
+        assertEquals(1, scheduler.getWaitingCount());
+
+        // Creating the occurrences doesn't schedule them again
+        assertEquals(30, manager.getFutureMeetingList(alice).size());
+        assertEquals(1, scheduler.getWaitingCount());
+
+        scheduler.deliverDueReminders(now + 40 * DAY);
+        assertEquals(28, takeReminders(28).size());
+        assertEquals(0, scheduler.getWaitingCount());
+        assertNull(reminders.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPromotedOccurrenceMovesToNextOccurrence() throws Exception {
+        int id = manager.addRecurringMeeting(setOf(alice), inMillis(50), 1, 3);
+        scheduler = manager.startReminders(listener, 0, 1, HOUR);
+        Thread.sleep(100);
+
+        manager.addMeetingNotes(id, "Done");
+        assertEquals(1, scheduler.getWaitingCount());
+        scheduler.deliverDueReminders(System.currentTimeMillis() + 3 * DAY);
+        assertEquals(Arrays.asList(id + 1, id + 2), takeReminders(2));
+    }
+
+    @Test
+    public void testClosedSchedulerIsNoLongerUpdated() throws Exception {
+        scheduler = manager.startReminders(listener, 0, 1, HOUR);
+        scheduler.close();
+        manager.addFutureMeeting(setOf(alice), inMillis(HOUR));
+        assertEquals(0, scheduler.getWaitingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLeadTime() {
+        scheduler = manager.startReminders(listener, -1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads() {
+        scheduler = manager.startReminders(listener, HOUR, 0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullListener() {
+        scheduler = manager.startReminders(null, HOUR, 1);
+    }
+
+    @Test
+    public void testStartingWhileQueriesLoadMeetings() throws Exception {
+        List<Set<Contact>> contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> dates = new ArrayList<Calendar>();
+        for (int i = 0; i < 500; i++) {
+            contacts.add(setOf(i % 2 == 0 ? alice : bob));
+            dates.add(inMillis(HOUR + i * 1000L));
+        }
+        manager.addFutureMeetings(contacts, dates);
+        manager.flush();
+
+        // Each query loads its meeting from the file, while the scheduler is being started
+        manager = new ContactManagerImpl(filename, true);
+        final ContactManagerImpl lazy_manager = manager;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int first = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int id = first; id < 500; id += 4) {
+                            assertEquals(id, lazy_manager.getFutureMeeting(id).getId());
+                        }
+                    } catch (Throwable err) {
+                        failures.add(err);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        scheduler = manager.startReminders(listener, 0, 1, HOUR);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(500, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void testSchedulingFromLoadedFile() throws Exception {
+        // 1,000 future meetings over a year, loaded from file then all scheduled
+        Random random = new Random(23);
+        List<Set<Contact>> contacts = new ArrayList<Set<Contact>>();
+        List<Calendar> dates = new ArrayList<Calendar>();
+        for (int i = 0; i < 1000; i++) {
+            contacts.add(setOf(random.nextBoolean() ? alice : bob));
+            dates.add(inMillis(HOUR + (long) (random.nextDouble() * 365 * DAY)));
+        }
+        manager.addFutureMeetings(contacts, dates);
+        manager.flush();
+
+        manager = new ContactManagerImpl(filename);
+        scheduler = manager.startReminders(listener, 15 * 60 * 1000, 4);
+        assertEquals(1000, scheduler.getWaitingCount());
+    }
+}
@@ -0,0 +1,389 @@
+package contactsmanager;
+
+import contactsmanager.util.CalendarUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for ShardedContactManager
+ */
+public class ShardedContactManagerTest {
+    private static final int SHARD_COUNT = 3;
+    private final String filename = "ShardedContactManagerTest_output.xml";
+    private ShardedContactManager manager;
+    private Calendar past_date;
+    private Calendar future_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        manager = new ShardedContactManager(filename, SHARD_COUNT);
+
+        for (int i = 0; i < 12; i++) {
+            manager.addNewContact(String.format("Contact %02d", i), "notes for contact " + i);
+        }
+
+        past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+    }
+
+    @After
+    public void cleanUp() {
+        if (manager != null)
+            manager.close();
+
+        for (int i = 0; i < 8; i++) {
+            File file = new File(ShardedContactManager.getShardFilename(filename, i));
+            if (file.exists()) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    /**
+     * @return a pair of contact ids whose home shards are different.
+     */
+    private int[] getIdsInDifferentShards() {
+        for (int i = 1; i < 12; i++) {
+            if (manager.getShardIndex(i) != manager.getShardIndex(0))
+                return new int[]{0, i};
+        }
+        throw new AssertionError("All contacts are in one shard");
+    }
+
+    @Test
+    public void testContactsAreSpreadAcrossShards() throws Exception {
+        Set<Integer> shards = new HashSet<Integer>();
+        for (int i = 0; i < 12; i++) {
+            shards.add(manager.getShardIndex(i));
+        }
+        assertEquals(SHARD_COUNT, shards.size());
+
+        assertEquals(12, manager.getContacts("Contact").size());
+        assertEquals("Contact 07", manager.getContacts(7).iterator().next().getName());
+    }
+
+    @Test
+    public void testMeetingAcrossShards() throws Exception {
+        int[] ids = getIdsInDifferentShards();
+        Set<Contact> contacts = manager.getContacts(ids);
+        Contact first = manager.getContacts(ids[0]).iterator().next();
+        Contact second = manager.getContacts(ids[1]).iterator().next();
+
+        int id = manager.addFutureMeeting(contacts, future_date);
+        manager.addNewPastMeeting(setOf(second), past_date, "Second only");
+
+        assertEquals(contacts, manager.getFutureMeeting(id).getContacts());
+        assertEquals(1, manager.getFutureMeetingList(first).size());
+        assertEquals(1, manager.getFutureMeetingList(second).size());
+        assertEquals(1, manager.getPastMeetingList(second).size());
+        assertTrue(manager.getPastMeetingList(first).isEmpty());
+
+        // The guest contact doesn't make the contact appear twice
+        assertEquals(setOf(second), manager.getContacts(second.getName()));
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossShards() throws Exception {
+        Set<Integer> meeting_ids = new HashSet<Integer>();
+        for (int i = 0; i < 12; i++) {
+            meeting_ids.add(manager.addFutureMeeting(manager.getContacts(i), future_date));
+        }
+        assertEquals(12, meeting_ids.size());
+
+        manager.addNewContact("Contact 12", "");
+        assertEquals(1, manager.getContacts(12).size());
+    }
+
+    @Test
+    public void testGetFutureMeetingListByDate() throws Exception {
+        Calendar date = (Calendar) future_date.clone();
+        for (int i = 0; i < 12; i++) {
+            date.add(Calendar.HOUR_OF_DAY, -1);
+            manager.addFutureMeeting(manager.getContacts(i), (Calendar) date.clone());
+        }
+
+        List<Meeting> meetings = manager.getFutureMeetingList(future_date);
+        assertEquals(12, meetings.size());
+        for (int i = 1; i < meetings.size(); i++) {
+            assertFalse(meetings.get(i).getDate().before(meetings.get(i - 1).getDate()));
+        }
+    }
+
+    @Test
+    public void testFlushAndReload() throws Exception {
+        int[] ids = getIdsInDifferentShards();
+        int future_id = manager.addFutureMeeting(manager.getContacts(ids), future_date);
+        manager.addNewPastMeeting(manager.getContacts(ids), past_date, "Across shards");
+        manager.flush();
+        manager.close();
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            assertTrue(new File(ShardedContactManager.getShardFilename(filename, i)).isFile());
+        }
+
+        manager = new ShardedContactManager(filename, SHARD_COUNT);
+        assertEquals(12, manager.getContacts("Contact").size());
+        assertEquals(manager.getContacts(ids), manager.getFutureMeeting(future_id).getContacts());
+        assertEquals(1, manager.getPastMeetingList(manager.getContacts(ids[1]).iterator().next()).size());
+
+        // New ids carry on from the loaded ones
+        assertEquals(future_id + 2, manager.addFutureMeeting(manager.getContacts(ids), future_date));
+    }
+
+    @Test
+    public void testReloadWithDifferentShardCount() throws Exception {
+        for (int i = 0; i < 11; i++) {
+            manager.addFutureMeeting(manager.getContacts(i, i + 1), future_date);
+        }
+        manager.flush();
+
+        ShardedContactManager resharded = new ShardedContactManager(filename, 5);
+        assertEquals(12, resharded.getContacts("Contact").size());
+        for (int i = 0; i < 12; i++) {
+            Contact contact = resharded.getContacts(i).iterator().next();
+            assertEquals(i == 0 || i == 11 ? 1 : 2, resharded.getFutureMeetingList(contact).size());
+        }
+        resharded.close();
+    }
+
+    @Test
+    public void testReloadWithFewerShards() throws Exception {
+        for (int i = 0; i < 11; i++) {
+            manager.addFutureMeeting(manager.getContacts(i, i + 1), future_date);
+        }
+        manager.flush();
+        manager.close();
+
+        // Shards 1 and 2's files are beyond the new shard count, but must still be loaded
+        manager = new ShardedContactManager(filename, 1);
+        assertEquals(12, manager.getContacts("Contact").size());
+        assertEquals(11, manager.getFutureMeetingList(future_date).size());
+
+        // Until a flush has re-homed their data, they're kept
+        assertTrue(new File(ShardedContactManager.getShardFilename(filename, 2)).exists());
+        manager.flush();
+        assertFalse(new File(ShardedContactManager.getShardFilename(filename, 1)).exists());
+        assertFalse(new File(ShardedContactManager.getShardFilename(filename, 2)).exists());
+        manager.close();
+
+        manager = new ShardedContactManager(filename, 1);
+        assertEquals(12, manager.getContacts("Contact").size());
+        for (int i = 0; i < 12; i++) {
+            Contact contact = manager.getContacts(i).iterator().next();
+            assertEquals(i == 0 || i == 11 ? 1 : 2, manager.getFutureMeetingList(contact).size());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFlushAfterClose() throws Exception {
+        manager.close();
+        manager.flush();
+    }
+
+    @Test
+    public void testScatteredQueriesAfterClose() throws Exception {
+        Contact contact = manager.getContacts(0).iterator().next();
+        manager.close();
+
+        try {
+            manager.getContacts("Contact");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        try {
+            manager.getFutureMeetingList(contact);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        try {
+            manager.searchContactNotes("notes");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // Lookups by id don't need the shards' threads
+        assertEquals(contact, manager.getContacts(0).iterator().next());
+    }
+
+    @Test
+    public void testSearchAcrossShards() throws Exception {
+        manager.addNewContact("Someone", "a searchable searchable note");
+        manager.addNewContact("Someone else", "a searchable note");
+        manager.addNewPastMeeting(manager.getContacts(1), past_date, "keyword");
+        manager.addNewPastMeeting(manager.getContacts(2, 5), past_date, "keyword keyword");
+
+        assertEquals(Arrays.asList(12, 13), manager.searchContactNotes("searchable"));
+        assertEquals(Arrays.asList(1, 0), manager.searchMeetingNotes("keyword"));
+    }
+
+    @Test
+    public void testAutocompleteAcrossShards() throws Exception {
+        // Contacts 12-14, with meetings making 14 the most active and 12 the least
+        manager.addNewContacts(Arrays.asList("Zoe", "Zara", "Zed"), Arrays.asList("", "", ""));
+        manager.addNewPastMeeting(manager.getContacts(13, 14), past_date, "");
+        manager.addFutureMeeting(manager.getContacts(14), future_date);
+        manager.addFutureMeeting(manager.getContacts(14), future_date);
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Contact contact : manager.autocompleteContacts("z", 10)) {
+            ids.add(contact.getId());
+        }
+        assertEquals(Arrays.asList(14, 13, 12), ids);
+        assertEquals(2, manager.autocompleteContacts("z", 2).size());
+
+        // Guests don't crowd out a shard's own contacts, nor appear twice
+        assertEquals(12, manager.autocompleteContacts("contact", 12).size());
+        assertEquals(15, new HashSet<Contact>(manager.autocompleteContacts("", 100)).size());
+    }
+
+    @Test
+    public void testSearchContactNamesAcrossShards() throws Exception {
+        int[] ids = getIdsInDifferentShards();
+        manager.addFutureMeeting(manager.getContacts(ids), future_date);
+
+        // Each contact is found once, even those that are guests in another shard
+        List<Contact> contacts = manager.searchContactNames("contakt", 1);
+        assertEquals(12, contacts.size());
+        assertEquals(12, new HashSet<Contact>(contacts).size());
+        assertEquals(0, contacts.get(0).getId());
+
+        contacts = manager.searchContactNames("contact 7", 1);
+        assertEquals(7, contacts.get(0).getId());
+    }
+
+    @Test
+    public void testMeetingsWithAllOfAndAnyOf() throws Exception {
+        int[] ids = getIdsInDifferentShards();
+        int both = manager.addFutureMeeting(manager.getContacts(ids), future_date);
+        int first = manager.addFutureMeeting(manager.getContacts(ids[0]), future_date);
+        int second = manager.addFutureMeeting(manager.getContacts(ids[1]), future_date);
+
+        List<Meeting> all_of = manager.getMeetingsWithAllOf(manager.getContacts(ids));
+        assertEquals(1, all_of.size());
+        assertEquals(both, all_of.get(0).getId());
+
+        Set<Integer> any_of = new HashSet<Integer>();
+        for (Meeting meeting : manager.getMeetingsWithAnyOf(manager.getContacts(ids))) {
+            any_of.add(meeting.getId());
+        }
+        assertEquals(setOf(both, first, second), any_of);
+    }
+
+    @Test
+    public void testGetFirstFreeDayAcrossShards() throws Exception {
+        // The shards take turns at pushing the free day later: each contact is busy on alternate
+        // days in their own shard, then both are busy on day 4 in the first's shard
+        int[] ids = getIdsInDifferentShards();
+        Set<Contact> contacts = manager.getContacts(ids);
+        for (int day = 0; day < 4; day++) {
+            Calendar date = (Calendar) future_date.clone();
+            date.add(Calendar.DAY_OF_YEAR, day);
+            manager.addFutureMeeting(manager.getContacts(ids[day % 2]), date);
+        }
+        Calendar day_4 = (Calendar) future_date.clone();
+        day_4.add(Calendar.DAY_OF_YEAR, 4);
+        manager.addFutureMeeting(contacts, day_4);
+
+        Calendar day_5 = (Calendar) future_date.clone();
+        day_5.add(Calendar.DAY_OF_YEAR, 5);
+        assertTrue(CalendarUtil.areDatesEqual(day_5, manager.getFirstFreeDay(contacts, future_date, 6)));
+        assertNull(manager.getFirstFreeDay(contacts, future_date, 5));
+        assertTrue(CalendarUtil.areDatesEqual(future_date,
+                manager.getFirstFreeDay(manager.getContacts(ids[1]), future_date, 6)));
+    }
+
+    @Test
+    public void testAddMeetingNotes() throws Exception {
+        int[] ids = getIdsInDifferentShards();
+        manager.addNewPastMeeting(manager.getContacts(ids[0]), past_date, "First");
+        manager.addNewPastMeeting(manager.getContacts(ids[1]), past_date, "Second");
+        manager.addMeetingNotes(0, "More");
+
+        Map<Integer, String> notes = new HashMap<Integer, String>();
+        notes.put(0, "Again");
+        notes.put(1, "Again");
+        manager.addMeetingNotes(notes);
+
+        assertEquals("First\nMore\nAgain", manager.getPastMeeting(0).getNotes());
+        assertEquals("Second\nAgain", manager.getPastMeeting(1).getNotes());
+    }
+
+    @Test
+    public void testAddMeetingNotesBatchIsAllOrNothing() throws Exception {
+        manager.addNewPastMeeting(manager.getContacts(0), past_date, "First");
+        Map<Integer, String> notes = new LinkedHashMap<Integer, String>();
+        notes.put(0, "More");
+        notes.put(99, "More");
+
+        try {
+            manager.addMeetingNotes(notes);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException err) {
+            // Expected
+        }
+        assertEquals("First", manager.getPastMeeting(0).getNotes());
+    }
+
+    @Test
+    public void testAddFutureMeetingsIsAllOrNothing() throws Exception {
+        List<Set<Contact>> contacts = new ArrayList<Set<Contact>>();
+        contacts.add(manager.getContacts(0, 1));
+        contacts.add(setOf((Contact) new ContactImpl(99, "Stranger")));
+
+        try {
+            manager.addFutureMeetings(contacts, Arrays.asList(future_date, future_date));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException err) {
+            // Expected
+        }
+        assertNull(manager.getMeeting(0));
+
+        contacts.remove(1);
+        contacts.add(manager.getContacts(2, 3));
+        assertEquals(Arrays.asList(0, 1), manager.addFutureMeetings(contacts, Arrays.asList(future_date, future_date)));
+    }
+
+    @Test
+    public void testRecurringMeetingIsStoredWithItsFirstContact() throws Exception {
+        int[] ids = getIdsInDifferentShards();
+        Set<Contact> contacts = manager.getContacts(ids[0], ids[1]);
+        int id = manager.addRecurringMeeting(contacts, future_date, 7, 5);
+
+        assertEquals(5, manager.getFutureMeetingList(manager.getContacts(ids[1]).iterator().next()).size());
+        Calendar last_date = (Calendar) future_date.clone();
+        last_date.add(Calendar.DAY_OF_YEAR, 28);
+        assertEquals(last_date.getTimeInMillis(), manager.getFutureMeeting(id + 4).getDate().getTimeInMillis());
+        assertEquals(id + 5, manager.addFutureMeeting(contacts, future_date));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownContact() throws Exception {
+        manager.getFutureMeetingList(new ContactImpl(99, "Stranger"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddMeetingNotesToFutureMeeting() throws Exception {
+        int id = manager.addFutureMeeting(manager.getContacts(0), future_date);
+        manager.addMeetingNotes(id, "Too soon");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoShards() throws Exception {
+        new ShardedContactManager(filename, 0);
+    }
+}
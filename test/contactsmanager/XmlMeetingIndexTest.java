@@ -0,0 +1,149 @@
+package contactsmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for XmlMeetingIndex (and XmlDataStore's lazy loading)
+ */
+public class XmlMeetingIndexTest {
+    private final String filename = "XmlMeetingIndexTest_output.xml";
+    private XmlDataStore data_store;
+
+    @Before
+    public void setUp() throws Exception {
+        data_store = new XmlDataStore();
+    }
+
+    @After
+    public void cleanUp() {
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    private void writeFile(String xml) throws Exception {
+        FileWriter writer = new FileWriter(filename);
+        writer.write(xml);
+        writer.close();
+    }
+
+    private Set<Integer> getIds(List<Meeting> meetings) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Meeting meeting : meetings) {
+            ids.add(meeting.getId());
+        }
+        return ids;
+    }
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+            "<ContactManagerData>\n" +
+            "  <Contacts>\n" +
+            "    <contact id=\"0\"><name>Alice</name><notes>a &lt;b&gt; note</notes></contact>\n" +
+            "    <contact id=\"1\"><name>Bob</name><notes/></contact>\n" +
+            "  </Contacts>\n" +
+            "  <!-- a comment with <meeting id=\"99\"> in it -->\n" +
+            "  <FutureMeetings>\n" +
+            "    <meeting id=\"3\"><date>01/01/2053 at 12:00:00.0 UTC</date>" +
+            "<contacts><contact id=\"1\"/></contacts></meeting>\n" +
+            "  </FutureMeetings>\n" +
+            "  <PastMeetings>\n" +
+            "    <meeting id=\"1\"><date>01/01/2001 at 12:00:00.0 UTC</date>" +
+            "<contacts><contact id=\"0\"/><contact id=\"1\"/></contacts><notes>One</notes></meeting>\n" +
+            "    <meeting id=\"2\"><date>Not a date</date>" +
+            "<contacts><contact id=\"0\"/></contacts><notes>Two</notes></meeting>\n" +
+            "  </PastMeetings>\n" +
+            "</ContactManagerData>\n";
+
+    @Test
+    public void testLoadsOnlyContacts() throws Exception {
+        writeFile(XML);
+        data_store.loadContactsAndIndexMeetings(filename);
+
+        assertEquals(2, data_store.getContacts().size());
+        assertTrue(data_store.getPastMeetings().isEmpty());
+        assertTrue(data_store.getFutureMeetings().isEmpty());
+    }
+
+    @Test
+    public void testTakeMeetings() throws Exception {
+        writeFile(XML);
+        XmlMeetingIndex index = data_store.loadContactsAndIndexMeetings(filename);
+
+        assertEquals(3, index.getLastMeetingId());
+
+        // Meeting 2's date is malformed, so it is skipped
+        List<Meeting> meetings = index.takeMeetingsWithContact(0);
+        assertEquals(1, meetings.size());
+        assertTrue(meetings.get(0) instanceof PastMeeting);
+        assertEquals("One", ((PastMeeting) meetings.get(0)).getNotes());
+
+        // Meeting 1 has already been taken, so only meeting 3 is left for Bob
+        meetings = index.takeMeetingsWithContact(1);
+        assertEquals(1, meetings.size());
+        assertTrue(meetings.get(0) instanceof FutureMeeting);
+        assertEquals(1, meetings.get(0).getContacts().iterator().next().getId());
+
+        assertTrue(index.takeMeetingsWithId(3).isEmpty());
+        assertTrue(index.takeAll().isEmpty());
+    }
+
+    @Test
+    public void testTakeAll() throws Exception {
+        writeFile(XML);
+        XmlMeetingIndex index = data_store.loadContactsAndIndexMeetings(filename);
+
+        assertEquals(1, index.takeMeetingsWithId(3).size());
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), getIds(index.takeAll()));
+        assertEquals(3, index.getLastMeetingId());
+    }
+
+    @Test
+    public void testFileWrittenByDataStore() throws Exception {
+        ContactManager manager = new ContactManagerImpl(filename);
+        for (int i = 0; i < 10; i++) {
+            manager.addNewContact("Contact " + i, "");
+        }
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.HOUR_OF_DAY, -1);
+        for (int i = 0; i < 10; i++) {
+            manager.addNewPastMeeting(manager.getContacts(i, (i + 1) % 10), date, "Notes " + i);
+        }
+        manager.flush();
+
+        XmlMeetingIndex index = data_store.loadContactsAndIndexMeetings(filename);
+        assertEquals(10, data_store.getContacts().size());
+        assertEquals(9, index.getLastMeetingId());
+        assertEquals(2, index.takeMeetingsWithContact(5).size());
+        assertEquals(8, index.takeAll().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMeetingsBeforeContacts() throws Exception {
+        writeFile("<ContactManagerData><PastMeetings/><Contacts/></ContactManagerData>");
+        data_store.loadContactsAndIndexMeetings(filename);
+    }
+
+    @Test
+    public void testNoMeetings() throws Exception {
+        writeFile("<ContactManagerData><Contacts/></ContactManagerData>");
+        XmlMeetingIndex index = data_store.loadContactsAndIndexMeetings(filename);
+
+        assertTrue(data_store.getContacts().isEmpty());
+        assertEquals(-1, index.getLastMeetingId());
+        assertTrue(index.takeAll().isEmpty());
+    }
+}
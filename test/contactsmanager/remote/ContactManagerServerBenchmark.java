@@ -0,0 +1,49 @@
+package contactsmanager.remote;
+
+import contactsmanager.ContactManagerImpl;
+import contactsmanager.util.LatencyHistogram;
+
+import java.io.File;
+
+/**
+ * A loopback load test of ContactManagerServer: 1000 connections, used from 8 threads, making
+ * 20 calls each.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.remote.ContactManagerServerBenchmark
+ */
+public class ContactManagerServerBenchmark {
+    private static final int CONNECTIONS = 1000;
+    private static final int THREADS = 8;
+    private static final int CALLS_PER_CONNECTION = 20;
+    private static final String FILENAME = "ContactManagerServerBenchmark_output.xml";
+
+    public static void main(String[] args) throws Exception {
+        ContactManagerServer server = new ContactManagerServer(new ContactManagerImpl(FILENAME), 0);
+        server.start();
+        try {
+            RemoteContactManager[] clients = new RemoteContactManager[CONNECTIONS];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new RemoteContactManager("localhost", server.getPort());
+            }
+
+            LatencyHistogram latencies = new LatencyHistogram();
+            long start = System.nanoTime();
+            int errors = ContactManagerServerTest.makeCalls(clients, THREADS, CALLS_PER_CONNECTION, latencies);
+            long elapsed = System.nanoTime() - start;
+
+            LatencyHistogram.Snapshot snapshot = latencies.getSnapshot();
+            System.out.format("Load test: %d connections, %d calls in %.1f ms (%.0f calls/s); " +
+                            "latency p50 %d us, p99 %d us, max %d us; %d threads failed%n",
+                    CONNECTIONS, snapshot.getCount(), elapsed / 1e6, snapshot.getCount() / (elapsed / 1e9),
+                    snapshot.getValueAtPercentile(50) / 1000, snapshot.getValueAtPercentile(99) / 1000,
+                    snapshot.getMax() / 1000, errors);
+
+            for (RemoteContactManager client : clients) {
+                client.close();
+            }
+        } finally {
+            server.close();
+            new File(FILENAME).delete();
+        }
+    }
+}
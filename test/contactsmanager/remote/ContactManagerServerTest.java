@@ -0,0 +1,223 @@
+package contactsmanager.remote;
+
+import contactsmanager.Contact;
+import contactsmanager.ContactManagerImpl;
+import contactsmanager.util.LatencyHistogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for ContactManagerServer.  ContactManagerServerBenchmark runs a bigger loopback
+ * load test by hand.
+ */
+public class ContactManagerServerTest {
+    private static final int MANY_CONNECTIONS = 100;
+    private static final int MANY_CONNECTIONS_THREADS = 4;
+    private static final int MANY_CONNECTIONS_CALLS = 5;
+
+    private final String filename = "ContactManagerServerTest_output.xml";
+    private ContactManagerServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        server = new ContactManagerServer(new ContactManagerImpl(filename), 0);
+        server.start();
+    }
+
+    @After
+    public void cleanUp() {
+        if (server != null)
+            server.close();
+
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    /**
+     * Writes a raw GET_CONTACTS_BY_NAME request for "" to the given stream.
+     */
+    private void writeGetAllContacts(DataOutputStream out, int request_id) throws Exception {
+        out.writeInt(Protocol.HEADER_LENGTH + 4);
+        out.writeInt(request_id);
+        out.writeByte(Protocol.Request.GET_CONTACTS_BY_NAME.ordinal());
+        out.writeInt(0);
+    }
+
+    @Test
+    public void testPipelinedRequestsAreAnsweredInOrder() throws Exception {
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // Send every request before reading any response
+            for (int i = 0; i < 100; i++) {
+                writeGetAllContacts(out, i);
+            }
+            out.flush();
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals(Protocol.HEADER_LENGTH + 4, in.readInt());
+                assertEquals(i, in.readInt());
+                assertEquals(Protocol.STATUS_OK, in.readByte());
+                assertEquals(0, in.readInt());
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnknownRequest() throws Exception {
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeInt(Protocol.HEADER_LENGTH);
+            out.writeInt(7);
+            out.writeByte(99);
+            out.flush();
+
+            in.readInt();
+            assertEquals(7, in.readInt());
+            assertEquals(Protocol.STATUS_ILLEGAL_ARGUMENT, in.readByte());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testErrorInManagerIsSentBack() throws Exception {
+        server.close();
+        server = new ContactManagerServer(new ContactManagerImpl(filename) {
+            @Override
+            public Set<Contact> getContacts(String name) {
+                if (name.equals("Overflow"))
+                    throw new StackOverflowError("Too deep");
+                return super.getContacts(name);
+            }
+        }, 0);
+        server.start();
+
+        RemoteContactManager client = new RemoteContactManager("localhost", server.getPort());
+        try {
+            client.addNewContact("Alice", "");
+            try {
+                client.getContacts("Overflow");
+                fail("The error wasn't sent back");
+            } catch (IllegalStateException e) {
+                assertEquals("Server error: Too deep", e.getMessage());
+            }
+
+            // The same connection, and the server, carry on
+            assertEquals(1, client.getContacts("Alice").size());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMalformedFrameClosesOnlyThatConnection() throws Exception {
+        RemoteContactManager client = new RemoteContactManager("localhost", server.getPort());
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(-1);
+            out.flush();
+
+            try {
+                new DataInputStream(socket.getInputStream()).readInt();
+                fail("Expected the connection to be closed");
+            } catch (EOFException e) {
+                // Expected
+            }
+
+            client.addNewContact("Alice", "");
+            assertEquals(1, client.getContacts("Alice").size());
+        } finally {
+            socket.close();
+            client.close();
+        }
+    }
+
+    /**
+     * Makes calls over each of the given connections from several threads, each thread taking
+     * every 'thread_count'th connection and cycling through them.  Each connection's first call
+     * adds a contact ("Client <n>"), and the rest search contacts' notes.
+     *
+     * @param clients the connections.
+     * @param thread_count the number of threads.
+     * @param calls_per_connection the number of calls over each connection.
+     * @param latencies where to record each call's latency.
+     * @return the number of threads which failed.
+     */
+    static int makeCalls(final RemoteContactManager[] clients, final int thread_count,
+                         final int calls_per_connection, final LatencyHistogram latencies) throws InterruptedException {
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < thread_count; i++) {
+            final int thread_index = i;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int call = 0; call < calls_per_connection; call++) {
+                            for (int j = thread_index; j < clients.length; j += thread_count) {
+                                long call_start = System.nanoTime();
+                                if (call == 0) {
+                                    clients[j].addNewContact("Client " + j, "");
+                                } else {
+                                    clients[j].searchContactNotes("anything");
+                                }
+                                latencies.record(System.nanoTime() - call_start);
+                            }
+                        }
+                    } catch (RuntimeException err) {
+                        err.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return errors.get();
+    }
+
+    @Test
+    public void testCallsOverManyConnections() throws Exception {
+        RemoteContactManager[] clients = new RemoteContactManager[MANY_CONNECTIONS];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new RemoteContactManager("localhost", server.getPort());
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        assertEquals(0, makeCalls(clients, MANY_CONNECTIONS_THREADS, MANY_CONNECTIONS_CALLS, latencies));
+        assertEquals((long) MANY_CONNECTIONS * MANY_CONNECTIONS_CALLS, latencies.getSnapshot().getCount());
+        assertEquals(MANY_CONNECTIONS, clients[0].getContacts("Client").size());
+
+        for (RemoteContactManager client : clients) {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package contactsmanager.remote;
+
+import contactsmanager.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static contactsmanager.util.CollectionUtil.setOf;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for RemoteContactManager (and the ContactManagerServer it talks to)
+ */
+public class RemoteContactManagerTest {
+    private final String filename = "RemoteContactManagerTest_output.xml";
+    private ContactManagerServer server;
+    private RemoteContactManager manager;
+    private Contact alice, bob;
+    private Calendar past_date;
+    private Calendar future_date;
+
+    @Before
+    public void setUp() throws Exception {
+        cleanUp();
+        server = new ContactManagerServer(new ContactManagerImpl(filename), 0);
+        server.start();
+        manager = new RemoteContactManager("localhost", server.getPort());
+
+        manager.addNewContact("Alice", "Note A");
+        manager.addNewContact("Bob", "Note B");
+        alice = manager.getContacts("Alice").iterator().next();
+        bob = manager.getContacts("Bob").iterator().next();
+
+        past_date = Calendar.getInstance();
+        past_date.add(Calendar.YEAR, -1);
+        future_date = Calendar.getInstance();
+        future_date.add(Calendar.YEAR, 1);
+    }
+
+    @After
+    public void cleanUp() {
+        if (manager != null)
+            manager.close();
+        if (server != null)
+            server.close();
+
+        File file = new File(filename);
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testContacts() throws Exception {
+        assertEquals(0, alice.getId());
+        assertEquals("Note A", alice.getNotes());
+        assertEquals(setOf(alice, bob), manager.getContacts(0, 1));
+        assertEquals(Arrays.asList(2, 3), manager.addNewContacts(Arrays.asList("Carol", "Dan"), Arrays.asList("", "x")));
+        assertEquals(Arrays.asList(1), manager.searchContactNotes("B"));
+        assertEquals(Arrays.asList(bob), manager.autocompleteContacts("b", 5));
+        assertEquals(Arrays.asList(alice), manager.searchContactNames("alise", 1));
+    }
+
+    @Test
+    public void testMeetings() throws Exception {
+        int future_id = manager.addFutureMeeting(setOf(alice, bob), future_date);
+        manager.addNewPastMeeting(setOf(alice), past_date, "Past notes");
+
+        FutureMeeting future_meeting = manager.getFutureMeeting(future_id);
+        assertEquals(setOf(alice, bob), future_meeting.getContacts());
+        assertEquals(future_date.getTimeInMillis(), future_meeting.getDate().getTimeInMillis());
+
+        PastMeeting past_meeting = manager.getPastMeeting(future_id + 1);
+        assertEquals("Past notes", past_meeting.getNotes());
+        assertNull(manager.getMeeting(99));
+
+        assertEquals(1, manager.getFutureMeetingList(bob).size());
+        assertEquals(1, manager.getFutureMeetingList(future_date).size());
+        assertEquals(1, manager.getPastMeetingList(alice).size());
+        assertEquals(2, manager.getMeetingsWithAnyOf(setOf(alice)).size());
+        assertEquals(1, manager.getMeetingsWithAllOf(setOf(alice, bob)).size());
+
+        manager.addMeetingNotes(future_id + 1, "More");
+        Map<Integer, String> notes = new HashMap<Integer, String>();
+        notes.put(future_id + 1, "Again");
+        manager.addMeetingNotes(notes);
+        assertEquals("Past notes\nMore\nAgain", manager.getPastMeeting(future_id + 1).getNotes());
+        assertEquals(Arrays.asList(future_id + 1), manager.searchMeetingNotes("again"));
+    }
+
+    @Test
+    public void testBatchMeetings() throws Exception {
+        List<Set<Contact>> contacts = new ArrayList<Set<Contact>>();
+        contacts.add(setOf(alice));
+        contacts.add(setOf(bob));
+
+        assertEquals(Arrays.asList(0, 1), manager.addFutureMeetings(contacts, Arrays.asList(future_date, future_date)));
+        assertEquals(Arrays.asList(2, 3), manager.addNewPastMeetings(contacts,
+                Arrays.asList(past_date, past_date), Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testMeetingListAttendeesAreResolved() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            manager.addFutureMeeting(i % 2 == 0 ? setOf(alice, bob) : setOf(alice), future_date);
+        }
+
+        List<Meeting> meetings = manager.getFutureMeetingList(alice);
+        assertEquals(20, meetings.size());
+        Contact first_alice = null;
+        for (Meeting meeting : meetings) {
+            assertEquals(meeting.getId() % 2 == 0 ? setOf(alice, bob) : setOf(alice), meeting.getContacts());
+            for (Contact contact : meeting.getContacts()) {
+                if (contact.getId() == alice.getId()) {
+                    // Each attendee is read once per response, and shared by its meetings
+                    if (first_alice == null)
+                        first_alice = contact;
+                    assertSame(first_alice, contact);
+                }
+            }
+        }
+
+        // The resolved contacts are known to the server
+        assertEquals(20, manager.getFutureMeetingList(first_alice).size());
+    }
+
+    @Test
+    public void testAttendeeNotesAreWrittenOncePerList() throws Exception {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            notes.append('n');
+        }
+        ContactManagerImpl local = new ContactManagerImpl(filename);
+        local.addNewContact("Carol", notes.toString());
+        Contact carol = local.getContacts(0).iterator().next();
+        for (int i = 0; i < 100; i++) {
+            local.addFutureMeeting(setOf(carol), future_date);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Protocol.writeMeetings(new DataOutputStream(bytes), local.getFutureMeetingList(carol));
+        assertTrue(bytes.size() < 2 * notes.length());
+
+        List<Meeting> meetings = Protocol.readMeetings(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(100, meetings.size());
+        assertEquals(setOf(carol), meetings.get(99).getContacts());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalArgumentIsPassedOn() throws Exception {
+        manager.getContacts(99);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownContact() throws Exception {
+        manager.addFutureMeeting(setOf((Contact) new ContactImpl(99, "Stranger")), future_date);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalStateIsPassedOn() throws Exception {
+        int id = manager.addFutureMeeting(setOf(alice), future_date);
+        manager.addMeetingNotes(id, "Too soon");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullArgument() throws Exception {
+        manager.getContacts((String) null);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        manager.flush();
+        assertTrue(new File(filename).isFile());
+        assertEquals(2, new ContactManagerImpl(filename).getContacts("").size());
+    }
+
+    @Test
+    public void testPipelinedCallsFromManyThreads() throws Exception {
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final int thread_index = i;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            manager.addNewContact("Thread " + thread_index, "Contact " + j);
+                            if (manager.getContacts("Thread " + thread_index).size() != j + 1)
+                                errors.incrementAndGet();
+                        }
+                    } catch (RuntimeException err) {
+                        err.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(802, manager.getContacts("").size());
+    }
+
+    @Test
+    public void testRecurringMeetings() throws Exception {
+        int id = manager.addRecurringMeeting(setOf(alice, bob), future_date, 7, 4);
+        Calendar last_date = (Calendar) future_date.clone();
+        last_date.add(Calendar.DAY_OF_YEAR, 14);
+        assertEquals(id + 4, manager.addRecurringMeeting(setOf(alice), future_date, 7, last_date));
+
+        assertEquals(7, manager.getFutureMeetingList(alice).size());
+        assertEquals(4, manager.getFutureMeetingList(bob).size());
+    }
+
+    @Test
+    public void testGetFirstFreeDay() throws Exception {
+        manager.addFutureMeeting(setOf(alice), future_date);
+        Calendar next_day = (Calendar) future_date.clone();
+        next_day.add(Calendar.DAY_OF_YEAR, 1);
+
+        Calendar free_day = manager.getFirstFreeDay(setOf(alice, bob), future_date, 90);
+        assertEquals(next_day.get(Calendar.DAY_OF_YEAR), free_day.get(Calendar.DAY_OF_YEAR));
+        assertEquals(0, free_day.get(Calendar.HOUR_OF_DAY));
+        assertNull(manager.getFirstFreeDay(setOf(alice), future_date, 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCallAfterClose() throws Exception {
+        manager.close();
+        manager.getContacts(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCallAfterServerStops() throws Exception {
+        server.close();
+        manager.getContacts(0);
+    }
+}
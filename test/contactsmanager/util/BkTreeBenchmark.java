@@ -0,0 +1,54 @@
+package contactsmanager.util;
+
+import java.util.*;
+
+/**
+ * Times fuzzy searches of a BkTree of 1 million names, within 1 edit, against a brute force
+ * search of the names.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.util.BkTreeBenchmark
+ */
+public class BkTreeBenchmark {
+    public static void main(String[] args) {
+        // 1 million ids, with surnames from a list of 50,000
+        BkTree tree = new BkTree();
+        Random random = new Random(9);
+        String[] surnames = new String[50000];
+        for (int i = 0; i < surnames.length; i++) {
+            surnames[i] = BkTreeTest.randomWord(random, 26) + BkTreeTest.randomWord(random, 26).substring(0, 2);
+        }
+        List<String> words = new ArrayList<String>();
+        for (int id = 0; id < 1000000; id++) {
+            String word = surnames[random.nextInt(surnames.length)];
+            tree.add(word, id);
+            words.add(word);
+        }
+
+        // Queries are surnames with a typo in them
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            char[] query = surnames[random.nextInt(surnames.length)].toCharArray();
+            query[random.nextInt(query.length)] = (char) ('a' + random.nextInt(26));
+            queries.add(new String(query));
+        }
+
+        long start = System.nanoTime();
+        for (String query : queries) {
+            tree.search(query, 1);
+        }
+        long tree_time = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (String query : queries) {
+            BkTreeTest.bruteForceSearch(words, query, 1);
+        }
+        long brute_force_time = System.nanoTime() - start;
+
+        for (String query : queries.subList(0, 3)) {
+            if (!BkTreeTest.bruteForceSearch(words, query, 1).equals(tree.search(query, 1)))
+                throw new IllegalStateException("The BK-tree and brute force found different names for '" + query + "'");
+        }
+        System.out.format("Fuzzy search of 1M names (%d distinct), within 1 edit: BK-tree %dus per query, brute force %dus%n",
+                tree.size(), tree_time / queries.size() / 1000, brute_force_time / queries.size() / 1000);
+    }
+}
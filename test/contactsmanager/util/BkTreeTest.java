@@ -0,0 +1,124 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for BkTree
+ */
+public class BkTreeTest {
+    private BkTree tree;
+
+    @Before
+    public void setUp() {
+        tree = new BkTree();
+    }
+
+    @Test
+    public void testEditDistance() {
+        assertEquals(0, BkTree.editDistance("smith", "smith"));
+        assertEquals(1, BkTree.editDistance("smith", "smyth"));
+        assertEquals(2, BkTree.editDistance("smith", "smtih"));
+        assertEquals(1, BkTree.editDistance("smith", "smit"));
+        assertEquals(1, BkTree.editDistance("smith", "smiths"));
+        assertEquals(3, BkTree.editDistance("kitten", "sitting"));
+        assertEquals(3, BkTree.editDistance("sitting", "kitten"));
+        assertEquals(5, BkTree.editDistance("", "smith"));
+        assertEquals(0, BkTree.editDistance("", ""));
+    }
+
+    @Test
+    public void testSearch() {
+        tree.add("smith", 0);
+        tree.add("smyth", 1);
+        tree.add("jones", 2);
+        tree.add("smith", 3);
+        tree.add("smithson", 4);
+        tree.add("jones", 4);
+
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        expected.put(0, 0);
+        expected.put(3, 0);
+        assertEquals(expected, tree.search("smith", 0));
+
+        expected.put(1, 1);
+        assertEquals(expected, tree.search("smith", 1));
+
+        // 4 is nearer by its other word
+        expected.put(4, 1);
+        tree.add("smiths", 4);
+        assertEquals(expected, tree.search("smith", 1));
+
+        assertTrue(tree.search("brown", 2).isEmpty());
+        assertEquals(5, tree.size());
+    }
+
+    @Test
+    public void testAddingTwiceHasNoEffect() {
+        tree.add("smith", 0);
+        tree.add("smith", 0);
+        tree.add("smith", 1);
+
+        assertEquals(1, tree.size());
+        assertEquals(2, tree.search("smith", 0).size());
+    }
+
+    @Test
+    public void testEmptyTree() {
+        assertTrue(tree.search("smith", 3).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDistance() {
+        tree.search("smith", -1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullQuery() {
+        tree.search(null, 1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullWord() {
+        tree.add(null, 1);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(5);
+        List<String> words = new ArrayList<String>();
+        for (int id = 0; id < 3000; id++) {
+            String word = randomWord(random, 3);
+            tree.add(word, id);
+            words.add(word);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            String query = randomWord(random, 3);
+            int max_distance = random.nextInt(4);
+            assertEquals(bruteForceSearch(words, query, max_distance), tree.search(query, max_distance));
+        }
+    }
+
+    static Map<Integer, Integer> bruteForceSearch(List<String> words, String query, int max_distance) {
+        Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+        for (int id = 0; id < words.size(); id++) {
+            int distance = BkTree.editDistance(query, words.get(id));
+            if (distance <= max_distance)
+                distances.put(id, distance);
+        }
+        return distances;
+    }
+
+    static String randomWord(Random random, int letters) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 3 + random.nextInt(5); i++) {
+            word.append((char) ('a' + random.nextInt(letters)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package contactsmanager.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for BoundedMpscQueue
+ */
+public class BoundedMpscQueueTest {
+    @Test
+    public void testFifoOrder() throws Exception {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(8);
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(5, queue.size());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testFullQueueRejects() throws Exception {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(3);
+        assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+
+        // Taking one makes room for one more, in the next lap of the ring
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(16);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(4, queue.drainTo(drained, 4));
+        assertEquals(6, queue.drainTo(drained, 100));
+        assertEquals(0, queue.drainTo(drained, 100));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), drained.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<Integer>(64);
+        final int producers = 8;
+        final int per_producer = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * per_producer;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < per_producer; i++) {
+                        while (!queue.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        // Each producer's elements arrive in the order it added them, and none are lost
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * per_producer) {
+            Integer element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = element / per_producer;
+            assertEquals(next[producer], element % per_producer);
+            next[producer]++;
+            received++;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOfferNull() throws Exception {
+        new BoundedMpscQueue<Integer>(4).offer(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() throws Exception {
+        new BoundedMpscQueue<Integer>(0);
+    }
+}
@@ -122,4 +122,23 @@ public class CalendarUtilTest {
 
         assertFalse(t3.equals(t4));
     }
+
+    @Test
+    public void testDayNumber() throws Exception {
+        assertEquals(0, getDayNumber(getCalendarDateFromString("01/01/1970")));
+        assertEquals(1, getDayNumber(getCalendarDateFromString("02/01/1970")));
+        assertEquals(-1, getDayNumber(getCalendarDateFromString("31/12/1969")));
+        assertEquals(15340, getDayNumber(getCalendarDateFromString("01/01/2012")));
+
+        // Any time on the same date has the same number
+        Calendar morning = getCalendarDateFromString("21/01/2012");
+        Calendar night = (Calendar) morning.clone();
+        night.add(Calendar.HOUR_OF_DAY, 23);
+        night.add(Calendar.MINUTE, 59);
+        assertEquals(getDayNumber(morning), getDayNumber(night));
+
+        Calendar next_day = (Calendar) morning.clone();
+        next_day.add(Calendar.DAY_OF_YEAR, 1);
+        assertEquals(getDayNumber(morning) + 1, getDayNumber(next_day));
+    }
 }
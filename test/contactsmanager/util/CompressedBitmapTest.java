@@ -0,0 +1,134 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for CompressedBitmap
+ */
+public class CompressedBitmapTest {
+    private CompressedBitmap bitmap;
+
+    @Before
+    public void setUp() throws Exception {
+        bitmap = new CompressedBitmap();
+    }
+
+    /**
+     * Returns the contents of the given set as an int[].
+     */
+    private int[] toArray(TreeSet<Integer> set) {
+        int[] values = new int[set.size()];
+        int i = 0;
+        for (int value : set) {
+            values[i++] = value;
+        }
+        return values;
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.getCardinality());
+        assertFalse(bitmap.contains(0));
+        assertEquals(0, bitmap.toArray().length);
+    }
+
+    @Test
+    public void testAddContainsRemove() throws Exception {
+        bitmap.add(3);
+        bitmap.add(70000);
+        bitmap.add(3);
+
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(-3));
+        assertEquals(2, bitmap.getCardinality());
+        assertArrayEquals(new int[]{3, 70000}, bitmap.toArray());
+
+        bitmap.remove(70000);
+        bitmap.remove(12);
+        assertArrayEquals(new int[]{3}, bitmap.toArray());
+
+        bitmap.remove(3);
+        assertTrue(bitmap.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNegative() throws Exception {
+        bitmap.add(-1);
+    }
+
+    @Test
+    public void testDenseContainer() throws Exception {
+        // Enough values in one container to switch it to a bitmap, and back again
+        for (int i = 0; i < 10000; i++) {
+            bitmap.add(i * 2);
+        }
+        assertEquals(10000, bitmap.getCardinality());
+        assertTrue(bitmap.contains(19998));
+        assertFalse(bitmap.contains(19999));
+
+        for (int i = 0; i < 8000; i++) {
+            bitmap.remove(i * 2);
+        }
+        assertEquals(2000, bitmap.getCardinality());
+        assertEquals(16000, bitmap.toArray()[0]);
+    }
+
+    @Test
+    public void testAndOrAgainstTreeSet() throws Exception {
+        Random random = new Random(42);
+
+        // Mixes sparse and dense containers, with some keys in only one of the bitmaps
+        for (int round = 0; round < 20; round++) {
+            CompressedBitmap first = new CompressedBitmap(), second = new CompressedBitmap();
+            TreeSet<Integer> first_set = new TreeSet<Integer>(), second_set = new TreeSet<Integer>();
+
+            int first_count = random.nextInt(20000), second_count = random.nextInt(20000);
+            for (int i = 0; i < first_count; i++) {
+                int value = random.nextInt(3 << 16);
+                first.add(value);
+                first_set.add(value);
+            }
+            for (int i = 0; i < second_count; i++) {
+                int value = (1 << 16) + random.nextInt(3 << 16);
+                second.add(value);
+                second_set.add(value);
+            }
+
+            TreeSet<Integer> intersection = new TreeSet<Integer>(first_set);
+            intersection.retainAll(second_set);
+            TreeSet<Integer> union = new TreeSet<Integer>(first_set);
+            union.addAll(second_set);
+
+            assertArrayEquals(toArray(intersection), CompressedBitmap.and(first, second).toArray());
+            assertArrayEquals(toArray(union), CompressedBitmap.or(first, second).toArray());
+            assertEquals(union.size(), CompressedBitmap.or(second, first).getCardinality());
+        }
+    }
+
+    @Test
+    public void testResultsAreIndependent() throws Exception {
+        CompressedBitmap other = new CompressedBitmap();
+        bitmap.add(1);
+        other.add(2);
+
+        CompressedBitmap union = CompressedBitmap.or(bitmap, other);
+        union.add(3);
+        bitmap.add(4);
+
+        assertArrayEquals(new int[]{1, 2, 3}, union.toArray());
+        assertTrue(Arrays.equals(new int[]{1, 4}, bitmap.toArray()));
+    }
+}
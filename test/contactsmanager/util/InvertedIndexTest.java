@@ -0,0 +1,170 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static contactsmanager.util.CollectionUtil.listOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test class for InvertedIndex
+ */
+public class InvertedIndexTest {
+    private InvertedIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new InvertedIndex();
+    }
+
+    @Test
+    public void testTokenise() throws Exception {
+        assertEquals(listOf("hello", "world", "42"), InvertedIndex.tokenise("  Hello, WORLD!\n42"));
+        assertTrue(InvertedIndex.tokenise(" ,.; ").isEmpty());
+    }
+
+    @Test
+    public void testSearchSingleWord() throws Exception {
+        index.add(1, "apples and pears");
+        index.add(2, "apples apples apples");
+        index.add(3, "pears");
+
+        assertEquals(listOf(2, 1), index.search("APPLES"));
+        assertEquals(listOf(1, 3), index.search("pears"));
+        assertTrue(index.search("bananas").isEmpty());
+        assertTrue(index.search("").isEmpty());
+    }
+
+    @Test
+    public void testSearchNeedsEveryWord() throws Exception {
+        index.add(1, "apples and pears");
+        index.add(2, "apples");
+
+        assertEquals(listOf(1), index.search("pears apples"));
+    }
+
+    @Test
+    public void testAppendedText() throws Exception {
+        index.add(1, "apples");
+        index.add(2, "apples apples");
+        index.add(1, "more apples, and yet more apples");
+
+        assertEquals(listOf(1, 2), index.search("apples"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeId() throws Exception {
+        index.add(-1, "text");
+    }
+
+    @Test
+    public void testPostingsAreCompressed() throws Exception {
+        InvertedIndex.PostingList postings = new InvertedIndex.PostingList();
+        for (int i = 0; i < 1000; i++) {
+            postings.add(i, 1);
+        }
+        postings.mergePending();
+
+        // Consecutive ids with small counts take 2 bytes each
+        assertEquals(2000, postings.getCompressedLength());
+        assertEquals(1000, postings.size());
+    }
+
+    @Test
+    public void testPostingsAddedOutOfOrder() throws Exception {
+        InvertedIndex.PostingList postings = new InvertedIndex.PostingList();
+        for (int i = 999; i >= 0; i--) {
+            postings.add(i, 1);
+            postings.add(i % 10, 1);
+        }
+
+        InvertedIndex.Postings decoded = postings.getPostings();
+        assertEquals(1000, decoded.size);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, decoded.document_ids[i]);
+            assertEquals(i < 10 ? 101 : 1, decoded.counts[i]);
+        }
+    }
+
+    @Test
+    public void testMatchesBruteForceScan() throws Exception {
+        String[] vocabulary = {"alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta"};
+        Random random = new Random(42);
+        Map<Integer, StringBuilder> documents = new HashMap<Integer, StringBuilder>();
+
+        for (int i = 0; i < 5000; i++) {
+            int document_id = random.nextInt(500);
+            String text = vocabulary[random.nextInt(vocabulary.length)] + " "
+                    + vocabulary[random.nextInt(vocabulary.length)];
+
+            index.add(document_id, text);
+            if (!documents.containsKey(document_id))
+                documents.put(document_id, new StringBuilder());
+            documents.get(document_id).append('\n').append(text);
+        }
+
+        for (String query : new String[]{"alpha", "beta gamma", "theta eta zeta"}) {
+            assertEquals(bruteForceSearch(documents, query), index.search(query));
+        }
+    }
+
+    @Test
+    public void testSearchAfterAddingInIdOrder() throws Exception {
+        // Documents all containing a common word, added in id order as the managers do
+        String[] vocabulary = new String[100];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "word" + i;
+        }
+        Random random = new Random(43);
+        Map<Integer, StringBuilder> documents = new HashMap<Integer, StringBuilder>();
+        for (int i = 0; i < 5000; i++) {
+            String text = "common " + vocabulary[random.nextInt(vocabulary.length)] + " "
+                    + vocabulary[random.nextInt(vocabulary.length)];
+            index.add(i, text);
+            documents.put(i, new StringBuilder(text));
+        }
+
+        for (String query : new String[]{"word1", "common word2", "word3 word4", "common"}) {
+            assertEquals(bruteForceSearch(documents, query), index.search(query));
+        }
+    }
+
+    /**
+     * Searches the given documents by scanning all of them, as a reference for the index.
+     */
+    static List<Integer> bruteForceSearch(Map<Integer, StringBuilder> documents, String query) {
+        final Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+
+        for (Map.Entry<Integer, StringBuilder> document : documents.entrySet()) {
+            List<String> words = InvertedIndex.tokenise(document.getValue().toString());
+            int score = 0;
+            boolean matches = true;
+            for (String query_word : InvertedIndex.tokenise(query)) {
+                int count = Collections.frequency(words, query_word);
+                matches &= count > 0;
+                score += count;
+            }
+            if (matches)
+                scores.put(document.getKey(), score);
+        }
+
+        List<Integer> ranked = new ArrayList<Integer>(scores.keySet());
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int n = scores.get(o2).compareTo(scores.get(o1));
+                return n != 0 ? n : o1.compareTo(o2);
+            }
+        });
+        return ranked;
+    }
+}
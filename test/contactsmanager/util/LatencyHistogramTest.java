@@ -0,0 +1,114 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for LatencyHistogram
+ */
+public class LatencyHistogramTest {
+    private LatencyHistogram histogram;
+
+    @Before
+    public void setUp() throws Exception {
+        histogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmptySnapshot() throws Exception {
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(10, snapshot.getCount());
+        assertEquals(5, snapshot.getValueAtPercentile(50));
+        assertEquals(10, snapshot.getValueAtPercentile(100));
+        assertEquals(5.5, snapshot.getMean(), 0.0001);
+    }
+
+    @Test
+    public void testPercentilesArePrecise() throws Exception {
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        checkWithinPrecision(50000000L, snapshot.getValueAtPercentile(50));
+        checkWithinPrecision(99000000L, snapshot.getValueAtPercentile(99));
+        checkWithinPrecision(99900000L, snapshot.getValueAtPercentile(99.9));
+        assertEquals(100000000L, snapshot.getMax());
+    }
+
+    private void checkWithinPrecision(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but got " + actual,
+                Math.abs(expected - actual) <= expected / 32);
+    }
+
+    @Test
+    public void testBucketBoundsAreConsistent() throws Exception {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE};
+
+        for (long value : values) {
+            int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(LatencyHistogram.getBucketUpperBound(index) >= value);
+            if (index > 0)
+                assertTrue(LatencyHistogram.getBucketUpperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void testNegativeValuesCountAsZero() throws Exception {
+        histogram.record(-5);
+        assertEquals(1, histogram.getSnapshot().getCount());
+        assertEquals(0, histogram.getSnapshot().getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSnapshotAndReset() throws Exception {
+        histogram.record(10);
+        histogram.record(20);
+
+        assertEquals(2, histogram.getSnapshotAndReset().getCount());
+        assertEquals(0, histogram.getSnapshot().getCount());
+        assertEquals(0, histogram.getSnapshot().getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPercentile() throws Exception {
+        histogram.getSnapshot().getValueAtPercentile(101);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getSnapshot().getCount());
+        assertEquals(9999, histogram.getSnapshot().getMax());
+    }
+}
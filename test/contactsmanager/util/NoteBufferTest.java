@@ -0,0 +1,105 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test class for NoteBuffer
+ */
+public class NoteBufferTest {
+    private NoteBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception {
+        buffer = new NoteBuffer();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals("", buffer.toString());
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.length());
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        buffer.append("one");
+        buffer.append("two");
+        buffer.append("three");
+
+        assertEquals("one\ntwo\nthree", buffer.toString());
+        assertEquals("one\ntwo\nthree".length(), buffer.length());
+    }
+
+    @Test
+    public void testEmptyChunksStillSeparated() throws Exception {
+        buffer.append("");
+        assertTrue(buffer.isEmpty());
+
+        buffer.append("text");
+        buffer.append("");
+        assertEquals("\ntext\n", buffer.toString());
+    }
+
+    @Test
+    public void testAppendAfterMaterialising() throws Exception {
+        buffer.append("one");
+        buffer.append("two");
+        assertEquals("one\ntwo", buffer.toString());
+
+        buffer.append("three");
+        assertEquals("one\ntwo\nthree", buffer.toString());
+        assertEquals(1, buffer.getChunks().size());
+    }
+
+    @Test
+    public void testChunksJoinToString() throws Exception {
+        buffer.append("a");
+        buffer.append("b");
+
+        assertEquals(CollectionUtil.listOf("a", "b"), buffer.getChunks());
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        buffer.append("a");
+        NoteBuffer copy = new NoteBuffer(buffer);
+        copy.append("b");
+
+        assertEquals("a", buffer.toString());
+        assertEquals("a\nb", copy.toString());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        buffer.append("a");
+        buffer.clear();
+
+        assertFalse(buffer.length() > 0);
+        assertEquals("", buffer.toString());
+        buffer.append("b");
+        assertEquals("b", buffer.toString());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testAppendNull() throws Exception {
+        buffer.append(null);
+    }
+
+    @Test
+    public void testManyAppends() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            if (i > 0)
+                expected.append('\n');
+            expected.append(i);
+            buffer.append(String.valueOf(i));
+        }
+
+        assertEquals(expected.toString(), buffer.toString());
+    }
+}
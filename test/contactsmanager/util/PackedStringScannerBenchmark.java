@@ -0,0 +1,68 @@
+package contactsmanager.util;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times a substring scan of 2 million names with PackedStringScanner, on one thread and on
+ * every processor, against walking a HashMap of the names.  It's run by hand rather than with
+ * the tests:
+ *
+ *     java -cp <classes> contactsmanager.util.PackedStringScannerBenchmark
+ */
+public class PackedStringScannerBenchmark {
+    public static void main(String[] args) {
+        // 2 million names, of 10-20 characters
+        Random random = new Random(13);
+        Map<Integer, String> names_by_id = new HashMap<Integer, String>();
+        PackedStringScanner scanner = new PackedStringScanner();
+        PackedStringScanner single_threaded = new PackedStringScanner(new ForkJoinPool(1));
+        for (int id = 0; id < 2000000; id++) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 10 + random.nextInt(11); i++) {
+                name.append((char) ('a' + random.nextInt(26)));
+            }
+            scanner.add(id, name.toString());
+            single_threaded.add(id, name.toString());
+            names_by_id.put(id, name.toString());
+        }
+        double gigabytes = scanner.getCharCount() * 2 / 1e9;
+
+        // Warm up, then time each way
+        for (int i = 0; i < 3; i++) {
+            scanner.findContaining("xyz");
+            single_threaded.findContaining("xyz");
+        }
+
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < 10; i++) {
+            found = 0;
+            for (String name : names_by_id.values()) {
+                if (name.contains("xyz"))
+                    found++;
+            }
+        }
+        long map_time = (System.nanoTime() - start) / 10;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            single_threaded.findContaining("xyz");
+        }
+        long single_time = (System.nanoTime() - start) / 10;
+
+        start = System.nanoTime();
+        List<Integer> ids = null;
+        for (int i = 0; i < 10; i++) {
+            ids = scanner.findContaining("xyz");
+        }
+        long parallel_time = (System.nanoTime() - start) / 10;
+
+        if (found != ids.size())
+            throw new IllegalStateException("The scanner found " + ids.size() + " names, not " + found);
+
+        System.out.format("Name scan of 2M names (%.0fMB): HashMap walk %.2fGB/s, packed %.2fGB/s, "
+                        + "packed on %d threads %.2fGB/s%n", gigabytes * 1000, gigabytes / (map_time / 1e9),
+                gigabytes / (single_time / 1e9), Runtime.getRuntime().availableProcessors(), gigabytes / (parallel_time / 1e9));
+    }
+}
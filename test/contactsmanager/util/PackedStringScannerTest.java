@@ -0,0 +1,100 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for PackedStringScanner
+ */
+public class PackedStringScannerTest {
+    private PackedStringScanner scanner;
+
+    @Before
+    public void setUp() {
+        scanner = new PackedStringScanner();
+    }
+
+    @Test
+    public void testFindContaining() {
+        scanner.add(5, "Alice");
+        scanner.add(3, "Bob");
+        scanner.add(8, "Charlie");
+        scanner.add(1, "");
+
+        assertEquals(Arrays.asList(5, 8), scanner.findContaining("li"));
+        assertEquals(Arrays.asList(8), scanner.findContaining("Charlie"));
+        assertEquals(Arrays.asList(3), scanner.findContaining("b"));
+        assertTrue(scanner.findContaining("alice").isEmpty());
+        assertTrue(scanner.findContaining("Charlies").isEmpty());
+        assertEquals(Arrays.asList(5, 3, 8, 1), scanner.findContaining(""));
+        assertEquals(4, scanner.size());
+        assertEquals(15, scanner.getCharCount());
+    }
+
+    @Test
+    public void testPatternDoesNotMatchAcrossStrings() {
+        scanner.add(0, "ab");
+        scanner.add(1, "cd");
+
+        assertTrue(scanner.findContaining("bc").isEmpty());
+        assertEquals(Arrays.asList(1), scanner.findContaining("d"));
+    }
+
+    @Test
+    public void testRepeatedFirstCharacter() {
+        scanner.add(0, "aaab");
+        scanner.add(1, "aaa");
+
+        assertEquals(Arrays.asList(0), scanner.findContaining("aab"));
+        assertEquals(Arrays.asList(0, 1), scanner.findContaining("aaa"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullPattern() {
+        scanner.findContaining(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullText() {
+        scanner.add(0, null);
+    }
+
+    @Test
+    public void testMatchesStringContainsWhenScannedInParallel() {
+        Random random = new Random(11);
+        List<String> texts = new ArrayList<String>();
+        for (int id = 0; id < 50000; id++) {
+            String text = randomText(random, 12);
+            scanner.add(id, text);
+            texts.add(text);
+        }
+        assertTrue(scanner.getCharCount() > 256 * 1024);
+
+        for (int i = 0; i < 50; i++) {
+            String pattern = randomText(random, 3);
+            assertEquals(bruteForceFind(texts, pattern), scanner.findContaining(pattern));
+        }
+    }
+
+    private static List<Integer> bruteForceFind(List<String> texts, String pattern) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = 0; id < texts.size(); id++) {
+            if (texts.get(id).contains(pattern))
+                ids.add(id);
+        }
+        return ids;
+    }
+
+    private static String randomText(Random random, int max_length) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(max_length + 1);
+        for (int i = 0; i < length; i++) {
+            text.append("abcde \u00e9".charAt(random.nextInt(7)));
+        }
+        return text.toString();
+    }
+}
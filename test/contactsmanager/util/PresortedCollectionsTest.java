@@ -0,0 +1,138 @@
+package contactsmanager.util;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for PresortedCollections
+ */
+public class PresortedCollectionsTest {
+    /**
+     * Orders integers naturally, counting how often it's called.
+     */
+    private static class CountingComparator implements Comparator<Integer> {
+        private int calls = 0;
+
+        @Override
+        public int compare(Integer a, Integer b) {
+            calls++;
+            return a.compareTo(b);
+        }
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            values.add(i * 2);
+        }
+        return values;
+    }
+
+    @Test
+    public void testSortedSetView() {
+        CountingComparator comparator = new CountingComparator();
+        SortedSet<Integer> set = PresortedCollections.sortedSet(range(5), comparator);
+
+        assertEquals(5, set.size());
+        assertEquals(Integer.valueOf(0), set.first());
+        assertEquals(Integer.valueOf(8), set.last());
+        assertSame(comparator, set.comparator());
+        assertEquals(range(5), new ArrayList<Integer>(set));
+    }
+
+    @Test
+    public void testTreeSetIsBuiltWithoutComparing() {
+        CountingComparator comparator = new CountingComparator();
+        TreeSet<Integer> tree = new TreeSet<Integer>(PresortedCollections.sortedSet(range(1000), comparator));
+        assertEquals(0, comparator.calls);
+
+        assertEquals(1000, tree.size());
+        assertSame(comparator, tree.comparator());
+        assertTrue(tree.contains(1998));
+        assertFalse(tree.contains(1999));
+
+        // The tree is an ordinary one afterwards
+        tree.add(1999);
+        tree.add(-1);
+        assertEquals(Integer.valueOf(-1), tree.first());
+        assertEquals(Integer.valueOf(1998), tree.lower(1999));
+    }
+
+    @Test
+    public void testTreeMapIsFilledWithoutComparing() {
+        CountingComparator comparator = new CountingComparator();
+        List<String> values = new ArrayList<String>();
+        for (int key : range(1000)) {
+            values.add("value " + key);
+        }
+
+        TreeMap<Integer, String> tree = new TreeMap<Integer, String>(comparator);
+        tree.putAll(PresortedCollections.sortedMap(range(1000), values, comparator));
+        assertEquals(0, comparator.calls);
+
+        assertEquals(1000, tree.size());
+        assertEquals("value 500", tree.get(500));
+        assertNull(tree.get(501));
+        assertEquals(Integer.valueOf(1998), tree.lastKey());
+    }
+
+    @Test
+    public void testSortedMapView() {
+        SortedMap<Integer, String> map = PresortedCollections.sortedMap(
+                Arrays.asList(1, 2, 3), Arrays.asList("a", "b", "c"), new CountingComparator());
+
+        assertEquals(3, map.size());
+        assertEquals(Integer.valueOf(1), map.firstKey());
+        assertEquals(Integer.valueOf(3), map.lastKey());
+        assertEquals("b", map.get(2));
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<String>(map.values()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortedMapNeedsAValuePerKey() {
+        PresortedCollections.sortedMap(Arrays.asList(1, 2), Arrays.asList("a"), new CountingComparator());
+    }
+
+    @Test
+    public void testEmptyViews() {
+        SortedSet<Integer> set = PresortedCollections.sortedSet(new ArrayList<Integer>(), new CountingComparator());
+        assertTrue(set.isEmpty());
+        assertTrue(new TreeSet<Integer>(set).isEmpty());
+
+        try {
+            set.first();
+            fail("first() of an empty set should throw");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testViewsAreReadOnly() {
+        SortedSet<Integer> set = PresortedCollections.sortedSet(range(3), new CountingComparator());
+        try {
+            set.add(1);
+            fail("Sets should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        try {
+            set.headSet(2);
+            fail("Sub-sets aren't supported");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        SortedMap<Integer, String> map = PresortedCollections.sortedMap(range(1), Arrays.asList("a"), new CountingComparator());
+        try {
+            map.put(5, "b");
+            fail("Maps should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package contactsmanager.util;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times building a RankedRadixTrie of 2 million ids, and searching it for the top 10 ids by
+ * prefix.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.util.RankedRadixTrieBenchmark
+ */
+public class RankedRadixTrieBenchmark {
+    public static void main(String[] args) {
+        // 2 million ids, each with a first and last name from a few thousand of each
+        RankedRadixTrie trie = new RankedRadixTrie();
+        Random random = new Random(7);
+        String[] first_names = new String[5000];
+        String[] last_names = new String[20000];
+        for (int i = 0; i < first_names.length; i++) {
+            first_names[i] = RankedRadixTrieTest.randomName(random);
+        }
+        for (int i = 0; i < last_names.length; i++) {
+            last_names[i] = RankedRadixTrieTest.randomName(random);
+        }
+
+        long start = System.nanoTime();
+        for (int id = 0; id < 2000000; id++) {
+            trie.add(id, RankedRadixTrieTest.words(first_names[random.nextInt(first_names.length)],
+                    last_names[random.nextInt(last_names.length)]), random.nextInt(1000));
+        }
+        long build_time = System.nanoTime() - start;
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (int i = 0; i < 100000; i++) {
+            String name = last_names[random.nextInt(last_names.length)];
+            String prefix = name.substring(0, 1 + random.nextInt(Math.min(4, name.length())));
+            start = System.nanoTime();
+            List<Integer> ids = trie.search(prefix, 10);
+            latencies.record(System.nanoTime() - start);
+            if (ids.size() != 10)
+                throw new IllegalStateException("Found " + ids.size() + " ids for '" + prefix + "', not 10");
+        }
+
+        LatencyHistogram.Snapshot snapshot = latencies.getSnapshot();
+        System.out.format("Autocomplete over 2M ids: built in %dms, top 10 by prefix p50 %dus, p99 %dus%n",
+                build_time / 1000000, snapshot.getValueAtPercentile(50) / 1000,
+                snapshot.getValueAtPercentile(99) / 1000);
+    }
+}
@@ -0,0 +1,200 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for RankedRadixTrie
+ */
+public class RankedRadixTrieTest {
+    private RankedRadixTrie trie;
+
+    @Before
+    public void setUp() {
+        trie = new RankedRadixTrie(2);
+    }
+
+    static List<String> words(String... words) {
+        return Arrays.asList(words);
+    }
+
+    @Test
+    public void testSearchByPrefix() {
+        trie.add(0, words("anna", "smith"), 5);
+        trie.add(1, words("annabel", "lee"), 7);
+        trie.add(2, words("ann"), 1);
+        trie.add(3, words("bob", "smithers"), 3);
+
+        assertEquals(Arrays.asList(1, 0), trie.search("ann", 2));
+        assertEquals(Arrays.asList(1, 0, 2), trie.search("ann", 10));
+        assertEquals(Arrays.asList(1, 0), trie.search("anna", 10));
+        assertEquals(Arrays.asList(1), trie.search("annab", 10));
+        assertEquals(Arrays.asList(0, 3), trie.search("smith", 10));
+        assertEquals(Arrays.asList(3), trie.search("smithe", 10));
+        assertTrue(trie.search("smithz", 10).isEmpty());
+        assertTrue(trie.search("annabella", 10).isEmpty());
+        assertTrue(trie.search("c", 10).isEmpty());
+        assertEquals(Arrays.asList(1, 0, 3, 2), trie.search("", 10));
+        assertTrue(trie.search("ann", 0).isEmpty());
+        assertEquals(4, trie.size());
+    }
+
+    @Test
+    public void testIdWithSeveralMatchingWordsIsFoundOnce() {
+        trie.add(0, words("jo", "joanne", "jo"), 1);
+        trie.add(1, words("john"), 2);
+        trie.add(2, words("joe"), 0);
+
+        assertEquals(Arrays.asList(1, 0), trie.search("jo", 2));
+        assertEquals(Arrays.asList(1, 0, 2), trie.search("jo", 3));
+    }
+
+    @Test
+    public void testTiesAreBrokenById() {
+        trie.add(3, words("x"), 1);
+        trie.add(1, words("x"), 1);
+        trie.add(2, words("xy"), 1);
+
+        assertEquals(Arrays.asList(1, 2), trie.search("x", 2));
+        assertEquals(Arrays.asList(1, 2, 3), trie.search("x", 3));
+    }
+
+    @Test
+    public void testRaisedScoreMovesIdUp() {
+        trie.add(0, words("alpha"), 10);
+        trie.add(1, words("alps"), 9);
+        trie.add(2, words("alto", "beta"), 1);
+        assertEquals(Arrays.asList(0, 1), trie.search("al", 2));
+
+        // 2 takes 1's place in every list on its words' paths
+        trie.raiseScore(2, 20);
+        assertEquals(20, trie.getScore(2));
+        assertEquals(Arrays.asList(2, 0), trie.search("al", 2));
+        assertEquals(Arrays.asList(2, 0), trie.search("", 2));
+        assertEquals(Arrays.asList(2), trie.search("b", 2));
+
+        trie.raiseScore(1, 30);
+        assertEquals(Arrays.asList(1, 0), trie.search("alp", 2));
+        assertEquals(Arrays.asList(1, 2), trie.search("al", 2));
+        assertEquals(Arrays.asList(1, 2, 0), trie.search("al", 3));
+    }
+
+    @Test
+    public void testAddingToASplitEdgeKeepsTheRanking() {
+        trie.add(0, words("romane"), 5);
+        trie.add(1, words("romanus"), 4);
+        trie.add(2, words("romulus"), 3);
+        trie.add(3, words("rubens"), 6);
+        trie.add(4, words("rom"), 0);
+
+        assertEquals(Arrays.asList(0, 1), trie.search("rom", 2));
+        assertEquals(Arrays.asList(0, 1, 2, 4), trie.search("rom", 10));
+        assertEquals(Arrays.asList(3, 0), trie.search("r", 2));
+        assertEquals(Arrays.asList(3), trie.search("ru", 2));
+    }
+
+    @Test
+    public void testIdWithoutWords() {
+        trie.add(0, words(), 1);
+        trie.add(1, words("a"), 0);
+
+        assertEquals(Arrays.asList(0, 1), trie.search("", 10));
+        assertEquals(Arrays.asList(1), trie.search("a", 10));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        trie = new RankedRadixTrie();
+        Random random = new Random(3);
+        final Map<Integer, Long> scores = new HashMap<Integer, Long>();
+        Map<Integer, List<String>> words_by_id = new HashMap<Integer, List<String>>();
+        for (int id = 0; id < 2000; id++) {
+            List<String> words = new ArrayList<String>();
+            for (int i = 0; i < 1 + random.nextInt(3); i++) {
+                words.add(randomWord(random));
+            }
+            long score = random.nextInt(50);
+            trie.add(id, words, score);
+            scores.put(id, score);
+            words_by_id.put(id, words);
+        }
+        for (int i = 0; i < 3000; i++) {
+            int id = random.nextInt(2000);
+            long score = scores.get(id) + random.nextInt(5);
+            trie.raiseScore(id, score);
+            scores.put(id, score);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            String prefix = randomWord(random).substring(0, 1 + random.nextInt(2));
+            int limit = 1 + random.nextInt(30);
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (Map.Entry<Integer, List<String>> entry : words_by_id.entrySet()) {
+                for (String word : entry.getValue()) {
+                    if (word.startsWith(prefix)) {
+                        expected.add(entry.getKey());
+                        break;
+                    }
+                }
+            }
+            Collections.sort(expected, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    int n = scores.get(o2).compareTo(scores.get(o1));
+                    return n != 0 ? n : o1.compareTo(o2);
+                }
+            });
+
+            assertEquals(expected.subList(0, Math.min(limit, expected.size())), trie.search(prefix, limit));
+        }
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 3 + random.nextInt(5); i++) {
+            word.append((char) ('a' + random.nextInt(4)));
+        }
+        return word.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoweringScore() {
+        trie.add(0, words("a"), 5);
+        trie.raiseScore(0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddingIdTwice() {
+        trie.add(0, words("a"), 5);
+        trie.add(0, words("b"), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownId() {
+        trie.add(0, words("a"), 5);
+        trie.getScore(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit() {
+        trie.search("a", -1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullPrefix() {
+        trie.search(null, 1);
+    }
+
+    static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 4 + random.nextInt(6); i++) {
+            name.append((char) ('a' + random.nextInt(26)));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package contactsmanager.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for SettableFuture
+ */
+public class SettableFutureTest {
+    @Test
+    public void testSet() throws Exception {
+        final SettableFuture<String> future = new SettableFuture<String>();
+        assertFalse(future.isDone());
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.set("Done");
+            }
+        }).start();
+        assertEquals("Done", future.get());
+        assertTrue(future.isDone());
+
+        // Only the first result counts
+        assertFalse(future.set("Again"));
+        assertFalse(future.setException(new RuntimeException()));
+        assertEquals("Done", future.get());
+    }
+
+    @Test
+    public void testSetException() throws Exception {
+        SettableFuture<String> future = new SettableFuture<String>();
+        assertTrue(future.setException(new IllegalStateException("Failed")));
+        try {
+            future.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException err) {
+            assertTrue(err.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testTimeout() throws Exception {
+        new SettableFuture<String>().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testCannotCancel() throws Exception {
+        SettableFuture<String> future = new SettableFuture<String>();
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+    }
+
+    /**
+     * An executor that runs tasks on the thread that gives them to it.
+     */
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    @Test
+    public void testListenersRunOnceComplete() throws Exception {
+        final SettableFuture<String> future = new SettableFuture<String>();
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.add(future.get());
+                } catch (Exception err) {
+                    throw new AssertionError(err);
+                }
+            }
+        };
+        future.addListener(listener, SAME_THREAD);
+        future.addListener(listener, SAME_THREAD);
+        assertTrue(results.isEmpty());
+
+        future.set("Done");
+        assertEquals(2, results.size());
+
+        // Once complete, a listener runs at once
+        future.addListener(listener, SAME_THREAD);
+        assertEquals(3, results.size());
+
+        // Listeners run once each
+        future.set("Again");
+        assertEquals(3, results.size());
+    }
+
+    @Test
+    public void testListenerOfFailedFuture() throws Exception {
+        final SettableFuture<String> future = new SettableFuture<String>();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.get();
+                } catch (Exception err) {
+                    failures.add(err.getCause());
+                }
+            }
+        }, SAME_THREAD);
+
+        IllegalStateException failure = new IllegalStateException("Failed");
+        future.setException(failure);
+        assertEquals(1, failures.size());
+        assertSame(failure, failures.get(0));
+    }
+
+    @Test
+    public void testRejectedListenerDoesntStopOthers() throws Exception {
+        SettableFuture<String> future = new SettableFuture<String>();
+        final List<String> ran = new ArrayList<String>();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("Rejected");
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                throw new RejectedExecutionException();
+            }
+        });
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("Run");
+            }
+        }, SAME_THREAD);
+
+        assertTrue(future.set("Done"));
+        assertEquals(1, ran.size());
+        assertEquals("Run", ran.get(0));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullListener() {
+        new SettableFuture<String>().addListener(null, SAME_THREAD);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullExecutor() {
+        new SettableFuture<String>().addListener(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,69 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for SparseIntArray
+ */
+public class SparseIntArrayTest {
+    private SparseIntArray array;
+
+    @Before
+    public void setUp() throws Exception {
+        array = new SparseIntArray(-1);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(-1, array.get(0));
+        assertEquals(-1, array.get(Integer.MAX_VALUE));
+        assertEquals(-1, array.get(-5));
+        assertEquals(0, array.getPageCount());
+    }
+
+    @Test
+    public void testSetAndGet() throws Exception {
+        int[] indexes = {0, 1, 1023, 1024, 5000, 1000000000, Integer.MAX_VALUE};
+        for (int i = 0; i < indexes.length; i++) {
+            array.set(indexes[i], i * 10);
+        }
+
+        for (int i = 0; i < indexes.length; i++) {
+            assertEquals(i * 10, array.get(indexes[i]));
+        }
+        assertEquals(-1, array.get(2));
+        assertEquals(-1, array.get(1025));
+        assertEquals(-1, array.get(999999999));
+
+        array.set(5000, 7);
+        assertEquals(7, array.get(5000));
+    }
+
+    @Test
+    public void testFarApartIndexesCostAPageEach() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            array.set(i * 10000000, i);
+        }
+        assertEquals(100, array.getPageCount());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, array.get(i * 10000000));
+        }
+    }
+
+    @Test
+    public void testCloseIndexesSharePages() throws Exception {
+        for (int i = 0; i < 10240; i++) {
+            array.set(i, i);
+        }
+        assertEquals(10, array.getPageCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeIndex() {
+        array.set(-1, 0);
+    }
+}
@@ -0,0 +1,44 @@
+package contactsmanager.util;
+
+import java.util.Random;
+
+/**
+ * Times scheduling a million items over a year in a TimerWheel, cancelling half of them, and
+ * advancing through the year.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.util.TimerWheelBenchmark
+ */
+public class TimerWheelBenchmark {
+    public static void main(String[] args) {
+        // A million reminders over a year, in one-second ticks
+        Random random = new Random(19);
+        TimerWheel<Integer> wheel = new TimerWheel<Integer>(1000, 0);
+        long year = 365L * 24 * 60 * 60 * 1000;
+        long[] due = new long[1000000];
+        for (int id = 0; id < due.length; id++) {
+            due[id] = (long) (random.nextDouble() * year);
+        }
+
+        long start = System.nanoTime();
+        for (int id = 0; id < due.length; id++) {
+            wheel.schedule(id, due[id], id);
+        }
+        long schedule_time = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int id = 0; id < due.length; id += 2) {
+            wheel.cancel(id);
+        }
+        long cancel_time = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int taken = wheel.advance(year).size();
+        long advance_time = System.nanoTime() - start;
+
+        if (taken != due.length / 2)
+            throw new IllegalStateException("Took " + taken + " items, not " + due.length / 2);
+
+        System.out.format("Timer wheel with 1M items: schedule %dns, cancel %dns each; advancing a year of ticks %dms%n",
+                schedule_time / due.length, cancel_time / (due.length / 2), advance_time / 1000000);
+    }
+}
@@ -0,0 +1,131 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TimerWheel
+ */
+public class TimerWheelTest {
+    private static final long START = 1000000;
+    private TimerWheel<String> wheel;
+
+    @Before
+    public void setUp() {
+        wheel = new TimerWheel<String>(10, START);
+    }
+
+    @Test
+    public void testItemsAreTakenWhenDue() {
+        wheel.schedule(1, START + 25, "a");
+        wheel.schedule(2, START + 5, "b");
+        wheel.schedule(3, START + 30, "c");
+        assertEquals(3, wheel.size());
+
+        // Never before they're due, rounding up to the next tick
+        assertTrue(wheel.advance(START + 9).isEmpty());
+        assertEquals(Arrays.asList("b"), wheel.advance(START + 10));
+        assertTrue(wheel.advance(START + 29).isEmpty());
+        List<String> due = wheel.advance(START + 30);
+        Collections.sort(due);
+        assertEquals(Arrays.asList("a", "c"), due);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancel() {
+        wheel.schedule(1, START + 20, "a");
+        wheel.schedule(2, START + 20, "b");
+        wheel.schedule(3, START + 20, "c");
+
+        assertEquals("b", wheel.cancel(2));
+        assertNull(wheel.cancel(2));
+        assertNull(wheel.cancel(4));
+        assertEquals(2, wheel.size());
+
+        List<String> due = wheel.advance(START + 20);
+        Collections.sort(due);
+        assertEquals(Arrays.asList("a", "c"), due);
+    }
+
+    @Test
+    public void testSchedulingAgainReplaces() {
+        wheel.schedule(1, START + 20, "a");
+        wheel.schedule(1, START + 500000, "b");
+
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.advance(START + 100).isEmpty());
+        assertEquals(Arrays.asList("b"), wheel.advance(START + 500000));
+    }
+
+    @Test
+    public void testOverdueItemsAreTakenNextTick() {
+        wheel.advance(START + 100);
+        wheel.schedule(1, START, "a");
+        wheel.schedule(2, START + 100, "b");
+
+        assertTrue(wheel.advance(START + 100).isEmpty());
+        assertEquals(2, wheel.advance(START + 110).size());
+    }
+
+    @Test
+    public void testAdvancingBackTakesNothing() {
+        wheel.schedule(1, START + 20, "a");
+        assertTrue(wheel.advance(START - 1000).isEmpty());
+        assertEquals(Arrays.asList("a"), wheel.advance(START + 20));
+    }
+
+    @Test
+    public void testItemsBeyondTheTopLevel() {
+        // 2^36 ticks is the top level's reach
+        long far = START + (1L << 37) * 10;
+        wheel.schedule(1, far, "far");
+        wheel.schedule(2, far + 10, "further");
+
+        assertTrue(wheel.advance(far - 10).isEmpty());
+        assertEquals(Arrays.asList("far"), wheel.advance(far));
+        assertEquals(Arrays.asList("further"), wheel.advance(far + 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroTick() {
+        new TimerWheel<String>(0, START);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullItem() {
+        wheel.schedule(1, START, null);
+    }
+
+    @Test
+    public void testMatchesSortedOrderAcrossLevels() {
+        // Due times spread across the lowest four levels, taken in irregular steps
+        Random random = new Random(17);
+        TimerWheel<Integer> wheel = new TimerWheel<Integer>(1, 0);
+        Map<Integer, Long> due_by_id = new HashMap<Integer, Long>();
+        for (int id = 0; id < 20000; id++) {
+            long due = random.nextInt(1 << 24);
+            wheel.schedule(id, due, id);
+            due_by_id.put(id, due);
+        }
+        for (int id = 0; id < 20000; id += 3) {
+            assertEquals(Integer.valueOf(id), wheel.cancel(id));
+            due_by_id.remove(id);
+        }
+
+        long now = 0;
+        while (!due_by_id.isEmpty()) {
+            now += random.nextInt(20000);
+            for (int id : wheel.advance(now)) {
+                long due = due_by_id.remove(id);
+                assertTrue(due <= now);
+                assertTrue(due > now - 20000);
+            }
+        }
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,40 @@
+package contactsmanager.util;
+
+import java.util.*;
+
+/**
+ * Times finding the first day within 90 on which 30 contacts are all free, as
+ * 'getFirstFreeDay' does.  It's run by hand rather than with the tests:
+ *
+ *     java -cp <classes> contactsmanager.util.WindowedBitmapBenchmark
+ */
+public class WindowedBitmapBenchmark {
+    public static void main(String[] args) {
+        // 30 contacts, each busy on one day in ten over ten years, so the days they're all free are rare
+        Random random = new Random(31);
+        List<WindowedBitmap> bitmaps = new ArrayList<WindowedBitmap>();
+        for (int i = 0; i < 30; i++) {
+            WindowedBitmap contact_days = new WindowedBitmap();
+            for (int day = 15000; day < 18650; day++) {
+                if (random.nextInt(10) < 1)
+                    contact_days.add(day);
+            }
+            bitmaps.add(contact_days);
+        }
+
+        int queries = 100000;
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            int from = 15000 + random.nextInt(3560);
+            if (WindowedBitmap.nextClearBit(bitmaps, from, from + 90) < from + 90)
+                found++;
+        }
+        long time = System.nanoTime() - start;
+
+        if (found == 0)
+            throw new IllegalStateException("No query found a free day");
+
+        System.out.format("First free day of 30 contacts within 90 days: %dns per query%n", time / queries);
+    }
+}
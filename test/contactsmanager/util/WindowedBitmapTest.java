@@ -0,0 +1,106 @@
+package contactsmanager.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for WindowedBitmap
+ */
+public class WindowedBitmapTest {
+    private WindowedBitmap bitmap;
+
+    @Before
+    public void setUp() throws Exception {
+        bitmap = new WindowedBitmap();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(bitmap.isEmpty());
+        assertFalse(bitmap.contains(0));
+        assertEquals(0, bitmap.getWord(0));
+        assertEquals(5, WindowedBitmap.nextClearBit(Arrays.asList(bitmap), 5, 10));
+    }
+
+    @Test
+    public void testGrowsInBothDirections() throws Exception {
+        int[] values = {1000, 1001, 5000, -3, 64, -640, 0, 1063};
+        for (int value : values) {
+            bitmap.add(value);
+        }
+
+        assertFalse(bitmap.isEmpty());
+        for (int value : values) {
+            assertTrue(bitmap.contains(value));
+        }
+        assertFalse(bitmap.contains(999));
+        assertFalse(bitmap.contains(-2));
+        assertFalse(bitmap.contains(-4));
+        assertFalse(bitmap.contains(63));
+        assertFalse(bitmap.contains(100000));
+        assertFalse(bitmap.contains(-100000));
+
+        assertEquals(1L << 61, bitmap.getWord(-1));
+        assertEquals(1L, bitmap.getWord(1));
+    }
+
+    @Test
+    public void testNextClearBit() throws Exception {
+        WindowedBitmap other = new WindowedBitmap();
+        for (int value = 10; value < 200; value += 2) {
+            bitmap.add(value);
+            other.add(value + 1);
+        }
+        List<WindowedBitmap> bitmaps = Arrays.asList(bitmap, other);
+
+        assertEquals(0, WindowedBitmap.nextClearBit(bitmaps, 0, 300));
+        assertEquals(200, WindowedBitmap.nextClearBit(bitmaps, 10, 300));
+        assertEquals(200, WindowedBitmap.nextClearBit(bitmaps, 150, 300));
+        assertEquals(150, WindowedBitmap.nextClearBit(bitmaps, 150, 150));
+        // Every value in the range is set
+        assertEquals(120, WindowedBitmap.nextClearBit(bitmaps, 10, 120));
+        assertEquals(10, WindowedBitmap.nextClearBit(Arrays.asList(other), 10, 120));
+        assertEquals(12, WindowedBitmap.nextClearBit(Arrays.asList(other), 11, 120));
+    }
+
+    @Test
+    public void testNextClearBitOfNegativeValues() throws Exception {
+        for (int value = -100; value < -3; value++) {
+            bitmap.add(value);
+        }
+
+        assertEquals(-200, WindowedBitmap.nextClearBit(Arrays.asList(bitmap), -200, 0));
+        assertEquals(-3, WindowedBitmap.nextClearBit(Arrays.asList(bitmap), -100, 0));
+        assertEquals(-50, WindowedBitmap.nextClearBit(Arrays.asList(bitmap), -100, -50));
+    }
+
+    @Test
+    public void testNextClearBitMatchesUnion() throws Exception {
+        Random random = new Random(29);
+        List<WindowedBitmap> bitmaps = new ArrayList<WindowedBitmap>();
+        Set<Integer> union = new HashSet<Integer>();
+        for (int i = 0; i < 30; i++) {
+            WindowedBitmap contact_days = new WindowedBitmap();
+            for (int j = 0; j < 60; j++) {
+                int value = 15000 + random.nextInt(400);
+                contact_days.add(value);
+                union.add(value);
+            }
+            bitmaps.add(contact_days);
+        }
+
+        for (int from = 14900; from < 15500; from += 7) {
+            int expected = from;
+            while (expected < from + 90 && union.contains(expected)) {
+                expected++;
+            }
+            assertEquals(expected, WindowedBitmap.nextClearBit(bitmaps, from, from + 90));
+        }
+    }
+}